@@ -0,0 +1,278 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
+import org.eclipse.dawnsci.hdf5.IHierarchicalDataFile;
+
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+import uk.ac.diamond.scisoft.analysis.io.DiffractionMetadata;
+import uk.ac.diamond.scisoft.analysis.io.HDF5HandlePool;
+import uk.ac.diamond.scisoft.analysis.io.NumPyFileSaver;
+import uk.ac.diamond.scisoft.analysis.io.TIFFImageSaver;
+
+/**
+ * Synthetic data for benchmarks. All generators are seeded so each run sees the same data.
+ */
+public class BenchmarkData {
+
+	static final double PIXEL_SIZE = 0.172; // in mm
+	static final double DISTANCE = 200;     // in mm
+	static final double WAVELENGTH = 1.0;   // in Angstrom
+
+	/**
+	 * @param size number of pixels along each side of the square detector
+	 * @return metadata for detector normal to beam with beam centre in the middle of the detector
+	 */
+	public static IDiffractionMetadata createDiffractionMetadata(int size) {
+		DetectorProperties dp = new DetectorProperties(DISTANCE, size / 2., size / 2., size, size, PIXEL_SIZE, PIXEL_SIZE);
+		return new DiffractionMetadata("synthetic", dp, new DiffractionCrystalEnvironment(WAVELENGTH));
+	}
+
+	/**
+	 * @param size number of pixels along each side
+	 * @return powder diffraction image of Gaussian rings on a sloping background with Poisson-like noise
+	 */
+	public static Dataset createRingImage(int size) {
+		Random random = new Random(size);
+		double[] radii = new double[] {0.1, 0.22, 0.3, 0.41, 0.55, 0.68};
+		double[] data = new double[size * size];
+		double c = (size - 1) / 2.;
+		int i = 0;
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				double r = Math.hypot(x - c, y - c) / size;
+				double v = 50 * (1 - r);
+				for (int j = 0; j < radii.length; j++) {
+					double d = (r - radii[j]) / 0.004;
+					v += (1000 >> j) * Math.exp(-0.5 * d * d);
+				}
+				data[i++] = Math.max(0, v + Math.sqrt(v) * random.nextGaussian());
+			}
+		}
+		return new DoubleDataset(data, size, size);
+	}
+
+	/**
+	 * @param size
+	 * @return ring image rounded to integer counts
+	 */
+	public static Dataset createCountImage(int size) {
+		Dataset image = createRingImage(size);
+		int[] data = new int[image.getSize()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (int) Math.round(image.getElementDoubleAbs(i));
+		}
+		return new IntegerDataset(data, size, size);
+	}
+
+	/**
+	 * @param points
+	 * @return x axis for peaks
+	 */
+	public static Dataset createPeakAxis(int points) {
+		return DatasetFactory.createRange(points, Dataset.FLOAT64);
+	}
+
+	/**
+	 * @param points
+	 * @param peaks number of Gaussian peaks, evenly spaced with decreasing heights
+	 * @return noisy peaks on a flat background
+	 */
+	public static Dataset createPeaks(int points, int peaks) {
+		Random random = new Random(points + peaks);
+		double[] data = new double[points];
+		double spacing = points / (peaks + 1.);
+		double sigma = spacing / 20;
+		for (int i = 0; i < points; i++) {
+			double v = 10;
+			for (int j = 0; j < peaks; j++) {
+				double d = (i - (j + 1) * spacing) / sigma;
+				v += (100. * (peaks - j) / peaks) * Math.exp(-0.5 * d * d);
+			}
+			data[i] = v + random.nextGaussian();
+		}
+		return new DoubleDataset(data, points);
+	}
+
+	/**
+	 * @param frames
+	 * @param size number of pixels along each side of a frame
+	 * @return stack of frames of uniformly distributed values between 0 and 1000
+	 */
+	public static Dataset createStack(int frames, int size) {
+		Random random = new Random(frames + size);
+		double[] data = new double[frames * size * size];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = 1000 * random.nextDouble();
+		}
+		return new DoubleDataset(data, frames, size, size);
+	}
+
+	static File createTempFile(String extension) throws IOException {
+		File f = File.createTempFile("benchmark", "." + extension);
+		f.deleteOnExit();
+		return f;
+	}
+
+	/**
+	 * Write image to temporary file
+	 * @param image integer image
+	 * @param format one of npy, tif, cbf or h5
+	 * @return file path
+	 * @throws Exception
+	 */
+	public static String writeImage(Dataset image, String format) throws Exception {
+		File f = createTempFile(format);
+		String path = f.getAbsolutePath();
+		if ("npy".equals(format)) {
+			DataHolder dh = new DataHolder();
+			dh.addDataset("image", image);
+			new NumPyFileSaver(path).saveFile(dh);
+		} else if ("tif".equals(format)) {
+			DataHolder dh = new DataHolder();
+			dh.addDataset("image", image);
+			new TIFFImageSaver(path, 32).saveFile(dh);
+		} else if ("cbf".equals(format)) {
+			writeMiniCBF(f, image);
+		} else if ("h5".equals(format)) {
+			writeNeXus(path, image);
+		} else {
+			throw new IllegalArgumentException("Unknown format " + format);
+		}
+		return path;
+	}
+
+	private static final String EOL = "\r\n";
+
+	/**
+	 * Write Pilatus-style miniCBF file with byte offset compression
+	 * @param f
+	 * @param image 2D integer dataset
+	 * @throws IOException
+	 */
+	public static void writeMiniCBF(File f, Dataset image) throws IOException {
+		int[] shape = image.getShape();
+		byte[] data = compressByteOffset(image);
+
+		StringBuilder header = new StringBuilder();
+		header.append("###CBF: VERSION 1.5").append(EOL);
+		header.append("data_synthetic").append(EOL).append(EOL);
+		header.append("_array_data.header_convention \"PILATUS_1.2\"").append(EOL);
+		header.append("_array_data.header_contents").append(EOL);
+		header.append(";").append(EOL);
+		header.append("# Pixel_size 172e-6 m x 172e-6 m").append(EOL);
+		header.append("# Exposure_time 0.1 s").append(EOL);
+		header.append("# Count_cutoff 1048500 counts").append(EOL);
+		header.append("# Wavelength ").append(WAVELENGTH).append(" A").append(EOL);
+		header.append("# Detector_distance ").append(DISTANCE / 1000).append(" m").append(EOL);
+		header.append("# Beam_xy (").append(shape[1] / 2.).append(", ").append(shape[0] / 2.).append(") pixels").append(EOL);
+		header.append("# Start_angle 0.0 deg.").append(EOL);
+		header.append("# Angle_increment 0.1 deg.").append(EOL);
+		header.append(";").append(EOL).append(EOL);
+		header.append("_array_data.data").append(EOL);
+		header.append(";").append(EOL);
+		header.append("--CIF-BINARY-FORMAT-SECTION--").append(EOL);
+		header.append("Content-Type: application/octet-stream;").append(EOL);
+		header.append("     conversions=\"x-CBF_BYTE_OFFSET\"").append(EOL);
+		header.append("Content-Transfer-Encoding: BINARY").append(EOL);
+		header.append("X-Binary-Size: ").append(data.length).append(EOL);
+		header.append("X-Binary-ID: 1").append(EOL);
+		header.append("X-Binary-Element-Type: \"signed 32-bit integer\"").append(EOL);
+		header.append("X-Binary-Element-Byte-Order: LITTLE_ENDIAN").append(EOL);
+		header.append("X-Binary-Number-of-Elements: ").append(image.getSize()).append(EOL);
+		header.append("X-Binary-Size-Fastest-Dimension: ").append(shape[1]).append(EOL);
+		header.append("X-Binary-Size-Second-Dimension: ").append(shape[0]).append(EOL);
+		header.append("X-Binary-Size-Padding: 0").append(EOL);
+		header.append(EOL);
+
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(header.toString().getBytes(StandardCharsets.US_ASCII));
+			out.write(new byte[] {0x0c, 0x1a, 0x04, (byte) 0xd5});
+			out.write(data);
+			out.write((EOL + "--CIF-BINARY-FORMAT-SECTION----" + EOL + ";" + EOL + EOL).getBytes(StandardCharsets.US_ASCII));
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param image
+	 * @return image values encoded as byte offset differences
+	 */
+	public static byte[] compressByteOffset(Dataset image) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(image.getSize() + 1024);
+		int last = 0;
+		for (int i = 0, imax = image.getSize(); i < imax; i++) {
+			int v = (int) image.getElementLongAbs(i);
+			int d = v - last;
+			if (d >= -127 && d <= 127) {
+				out.write(d);
+			} else {
+				out.write(0x80);
+				if (d >= -32767 && d <= 32767) {
+					out.write(d);
+					out.write(d >> 8);
+				} else {
+					out.write(0x00);
+					out.write(0x80);
+					out.write(d);
+					out.write(d >> 8);
+					out.write(d >> 16);
+					out.write(d >> 24);
+				}
+			}
+			last = v;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * NeXus path of data written by {@link #writeNeXus(String, Dataset)}
+	 */
+	public static final String NEXUS_DATA = "/entry1/data/data";
+
+	/**
+	 * Write data to NeXus file
+	 * @param path
+	 * @param data
+	 * @throws Exception
+	 */
+	public static void writeNeXus(String path, Dataset data) throws Exception {
+		HDF5HandlePool.closeForWriting(path);
+		IHierarchicalDataFile file = HierarchicalDataFactory.getWriter(path);
+		try {
+			String entry1 = file.group("entry1");
+			file.setNexusAttribute(entry1, "NXentry");
+			String nxdata = file.group("data", entry1);
+			file.setNexusAttribute(nxdata, "NXdata");
+			String ds = file.createDataset("data", data, nxdata, true);
+			file.setIntAttribute(ds, "signal", 1);
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.analysis.fitting.Generic1DFitter;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Gaussian;
+import uk.ac.diamond.scisoft.analysis.optimize.GeneticAlg;
+
+/**
+ * Finding and fitting Gaussian peaks in a noisy profile
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FittingBenchmark {
+
+	@Param({"1000", "10000"})
+	public int points;
+
+	@Param({"3", "10"})
+	public int peaks;
+
+	private static final double ACCURACY = 0.0001;
+
+	private Dataset x;
+	private Dataset y;
+	private int smoothing;
+
+	@Setup
+	public void setup() {
+		x = BenchmarkData.createPeakAxis(points);
+		y = BenchmarkData.createPeaks(points, peaks);
+		smoothing = Math.max(3, (int) (points * 0.01)); // as chosen by the simplest fitPeakFunctions
+	}
+
+	@Benchmark
+	public List<CompositeFunction> fitPeakFunctions() {
+		return fit(false);
+	}
+
+	@Benchmark
+	public List<CompositeFunction> fitPeakFunctionsParallel() {
+		return fit(true);
+	}
+
+	/**
+	 * Both benchmarks use the same smoothing and a new optimiser in the same state so only
+	 * the parallelism differs
+	 */
+	private List<CompositeFunction> fit(boolean parallel) {
+		return Generic1DFitter.fitPeakFunctions(null, x, y, Gaussian.class, new GeneticAlg(ACCURACY), smoothing, peaks,
+				0, false, false, null, parallel);
+	}
+}
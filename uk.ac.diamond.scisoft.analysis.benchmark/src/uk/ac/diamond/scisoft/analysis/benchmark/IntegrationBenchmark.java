@@ -0,0 +1,82 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.AbstractPixelIntegration;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.NonPixelSplittingIntegration2D;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelSplittingIntegration;
+
+/**
+ * Integration of a powder ring image. The integrators are kept between invocations, as when
+ * processing a series of frames, so the cost of their radial and azimuthal arrays (and look-up
+ * tables) is only paid in warm up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IntegrationBenchmark {
+
+	@Param({"1024", "2048"})
+	public int size;
+
+	/**
+	 * One of serial, parallel or lut
+	 */
+	@Param({"serial", "parallel", "lut"})
+	public String mode;
+
+	private Dataset image;
+	private AbstractPixelIntegration splitting;
+	private AbstractPixelIntegration nonSplitting2D;
+
+	@Setup
+	public void setup() {
+		image = BenchmarkData.createRingImage(size);
+		IDiffractionMetadata md = BenchmarkData.createDiffractionMetadata(size);
+		splitting = configure(new PixelSplittingIntegration(md, size));
+		nonSplitting2D = configure(new NonPixelSplittingIntegration2D(md, size, 360));
+	}
+
+	private AbstractPixelIntegration configure(AbstractPixelIntegration integration) {
+		integration.setParallel("parallel".equals(mode));
+		integration.setUseLookupTable("lut".equals(mode));
+		return integration;
+	}
+
+	@Benchmark
+	public List<Dataset> pixelSplitting() {
+		return splitting.integrate(image);
+	}
+
+	@Benchmark
+	public List<Dataset> nonPixelSplitting2D() {
+		return nonSplitting2D.integrate(image);
+	}
+}
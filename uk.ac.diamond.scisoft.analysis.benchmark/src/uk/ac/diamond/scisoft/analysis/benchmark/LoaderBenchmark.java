@@ -0,0 +1,78 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+
+/**
+ * Time to load an image through {@link LoaderFactory} with its data cache disabled
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LoaderBenchmark {
+
+	@Param({"npy", "tif", "cbf", "h5"})
+	public String format;
+
+	@Param({"1024", "2048"})
+	public int size;
+
+	private String path;
+	private long budget;
+
+	@Setup
+	public void setup() throws Exception {
+		path = BenchmarkData.writeImage(BenchmarkData.createCountImage(size), format);
+		budget = LoaderFactory.getCache().getBudget();
+		LoaderFactory.setCacheBudget(0);
+	}
+
+	@TearDown
+	public void tearDown() {
+		LoaderFactory.setCacheBudget(budget);
+	}
+
+	@Benchmark
+	public IDataset getData() throws Exception {
+		IDataHolder holder = LoaderFactory.getData(path, false, new IMonitor.Stub());
+		ILazyDataset lazy = holder.getLazyDataset(0);
+		return lazy instanceof IDataset ? (IDataset) lazy : lazy.getSlice();
+	}
+
+	@Benchmark
+	public IDataset getDataWithMetadata() throws Exception {
+		IDataHolder holder = LoaderFactory.getData(path, true, new IMonitor.Stub());
+		ILazyDataset lazy = holder.getLazyDataset(0);
+		return lazy instanceof IDataset ? (IDataset) lazy : lazy.getSlice();
+	}
+}
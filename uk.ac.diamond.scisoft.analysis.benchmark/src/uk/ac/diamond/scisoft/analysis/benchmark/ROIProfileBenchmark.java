@@ -0,0 +1,74 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.SectorROI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
+
+/**
+ * Box and sector profiles of an image, as when dragging a region of interest
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ROIProfileBenchmark {
+
+	@Param({"1024", "2048"})
+	public int size;
+
+	private Dataset image;
+	private RectangularROI box;
+	private RectangularROI rotatedBox;
+	private SectorROI sector;
+
+	@Setup
+	public void setup() {
+		image = BenchmarkData.createRingImage(size);
+		double q = size / 4.;
+		box = new RectangularROI(q, q, 2 * q, q, 0);
+		rotatedBox = new RectangularROI(q, q, 2 * q, q, Math.toRadians(30));
+		double c = size / 2.;
+		sector = new SectorROI(c, c, 0.05 * size, 0.45 * size, Math.toRadians(0), Math.toRadians(90));
+	}
+
+	@Benchmark
+	public Dataset[] box() {
+		return ROIProfile.box(image, box);
+	}
+
+	@Benchmark
+	public Dataset[] rotatedBox() {
+		return ROIProfile.box(image, rotatedBox);
+	}
+
+	@Benchmark
+	public Dataset[] sector() {
+		return ROIProfile.sector(image, null, sector);
+	}
+}
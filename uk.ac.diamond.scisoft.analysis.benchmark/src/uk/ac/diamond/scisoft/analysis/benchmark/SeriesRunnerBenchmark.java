@@ -0,0 +1,111 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
+import org.eclipse.dawnsci.analysis.api.processing.IExecutionVisitor;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+import uk.ac.diamond.scisoft.analysis.io.NumPyFileLoader;
+import uk.ac.diamond.scisoft.analysis.io.NumPyFileSaver;
+import uk.ac.diamond.scisoft.analysis.processing.OperationServiceImpl;
+import uk.ac.diamond.scisoft.analysis.processing.operations.EmptyModel;
+import uk.ac.diamond.scisoft.analysis.processing.operations.SummingOperation;
+import uk.ac.diamond.scisoft.analysis.processing.runner.OperationRunnerImpl;
+import uk.ac.diamond.scisoft.analysis.processing.runner.SeriesRunner;
+
+/**
+ * Processing every frame of a lazy dataset held in a NumPy file, so time includes reading slices
+ * as well as the operation and the runner's own overheads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeriesRunnerBenchmark {
+
+	@Param({"100"})
+	public int frames;
+
+	@Param({"512"})
+	public int size;
+
+	@Param({"SERIES", "PARALLEL"})
+	public ExecutionType type;
+
+	@Param({"4"})
+	public int poolSize;
+
+	private OperationServiceImpl service;
+	private ILazyDataset data;
+
+	@Setup
+	public void setup() throws Exception {
+		File f = BenchmarkData.createTempFile("npy");
+		Dataset stack = BenchmarkData.createStack(frames, size);
+		DataHolder dh = new DataHolder();
+		dh.addDataset("stack", stack);
+		new NumPyFileSaver(f.getAbsolutePath()).saveFile(dh);
+
+		NumPyFileLoader loader = new NumPyFileLoader(f.getAbsolutePath());
+		loader.setLoadAllLazily(true);
+		data = loader.loadFile().getLazyDataset(0);
+
+		OperationRunnerImpl.setRunner(ExecutionType.SERIES,   new SeriesRunner());
+		OperationRunnerImpl.setRunner(ExecutionType.PARALLEL, new SeriesRunner());
+		OperationServiceImpl.setOperationRunner(new OperationRunnerImpl());
+		service = new OperationServiceImpl();
+	}
+
+	@Benchmark
+	public IDataset sum() throws Exception {
+		SummingOperation sum = new SummingOperation();
+		sum.setModel(new EmptyModel());
+
+		final IDataset[] result = new IDataset[1];
+		IOperationContext context = service.createContext();
+		context.setData(data);
+		context.setSlicing("all");
+		context.setExecutionType(type);
+		context.setPoolSize(poolSize);
+		context.setParallelTimeout(Long.MAX_VALUE);
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData res, IMonitor monitor) throws Exception {
+				result[0] = res.getData();
+			}
+		});
+		context.setSeries(sum);
+		service.execute(context);
+		return result[0];
+	}
+}
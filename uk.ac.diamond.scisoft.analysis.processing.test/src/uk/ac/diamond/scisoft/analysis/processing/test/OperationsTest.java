@@ -18,6 +18,8 @@ import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
 import org.eclipse.dawnsci.analysis.api.processing.IOperationService;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.Random;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -238,6 +240,39 @@ public class OperationsTest {
 	}
 
 
+	@Test
+	public void testParallelPoolInOrder() throws Exception {
+						
+		final IOperation add      = service.findFirst("add");
+		final IOperation subtract = service.findFirst("subtractOperation");
+		
+		final IOperationContext context = service.createContext();
+		context.setData(DatasetFactory.createRange(24*64*64, Dataset.FLOAT64).reshape(24, 64, 64));
+		context.setSlicing("all"); // 
+		
+		subtract.setModel(new ValueModel(100));
+		add.setModel(new ValueModel(101));
+		
+		counter = 0;
+		context.setParallelTimeout(Long.MAX_VALUE);
+		context.setExecutionType(ExecutionType.PARALLEL);
+		context.setPoolSize(4);
+
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData result, IMonitor monitor) throws Exception {
+				// Results must arrive in slice order
+				final double expected = counter*64*64 + 1;
+				if ( result.getData().getDouble(0,0)!=expected ) throw new Exception("Slice "+counter+" out of order!");
+				++counter;
+			}			
+		});
+		context.setSeries(subtract, add);
+		service.execute(context);
+
+		if ( counter != 24 ) throw new Exception("The counter is "+counter);
+	}
+
 	@Test
 	public void testParallelLongerThanDefault() throws Exception {
 						
@@ -0,0 +1,133 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.analysis.processing.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
+import org.eclipse.dawnsci.analysis.api.processing.IExecutionVisitor;
+import org.eclipse.dawnsci.analysis.api.processing.IOperation;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationService;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.processing.Activator;
+import uk.ac.diamond.scisoft.analysis.processing.actor.actors.OperationTransformer;
+import uk.ac.diamond.scisoft.analysis.processing.actor.runner.GraphRunner;
+import uk.ac.diamond.scisoft.analysis.processing.operations.EmptyModel;
+import uk.ac.diamond.scisoft.analysis.processing.operations.ReductionAccumulator;
+import uk.ac.diamond.scisoft.analysis.processing.runner.OperationRunnerImpl;
+import uk.ac.diamond.scisoft.analysis.processing.runner.SeriesRunner;
+
+public class ReductionOperationTest {
+
+	private static IOperationService service;
+
+	@BeforeClass
+	public static void before() throws Exception {
+		service = (IOperationService)Activator.getService(IOperationService.class);
+
+		// Just read all these operations.
+		service.createOperations(service.getClass().getClassLoader(), "uk.ac.diamond.scisoft.analysis.processing.operations");
+
+		OperationRunnerImpl.setRunner(ExecutionType.SERIES,   new SeriesRunner());
+		OperationRunnerImpl.setRunner(ExecutionType.PARALLEL, new SeriesRunner());
+		OperationRunnerImpl.setRunner(ExecutionType.GRAPH,    new GraphRunner());
+		OperationTransformer.setOperationService(service);
+	}
+
+	private volatile int count;
+	private volatile IDataset result;
+
+	@Test
+	public void testMerge() {
+		final Dataset data = Random.rand(0.0, 10.0, 20, 8, 8);
+		final int[] shape = new int[] {8, 8};
+
+		ReductionAccumulator all = new ReductionAccumulator(shape);
+		ReductionAccumulator a = new ReductionAccumulator(shape);
+		ReductionAccumulator b = new ReductionAccumulator(shape);
+		for (int i = 0; i < 20; i++) {
+			IDataset slice = data.getSlice(new int[] {i, 0, 0}, new int[] {i + 1, 8, 8}, null).squeeze();
+			all.add(slice);
+			(i % 3 == 0 ? a : b).add(slice);
+		}
+		a.merge(b);
+
+		assertEquals(all.getCount(), a.getCount());
+		checkSame(all.getSum(), a.getSum());
+		checkSame(all.getVariance(1), a.getVariance(1));
+		checkSame(all.getMin(), a.getMin());
+		checkSame(all.getMax(), a.getMax());
+
+		checkSame(data.mean(0), all.getMean());
+		checkSame(data.max(0), all.getMax());
+	}
+
+	@Test
+	public void testAverageParallel() throws Exception {
+		final Dataset data = Random.rand(0.0, 10.0, 24, 64, 64);
+
+		final IDataset serial   = runReduction("uk.ac.diamond.scisoft.analysis.processing.operations.AveragingOperation", data, ExecutionType.SERIES);
+		final IDataset parallel = runReduction("uk.ac.diamond.scisoft.analysis.processing.operations.AveragingOperation", data, ExecutionType.PARALLEL);
+
+		checkSame(data.mean(0), serial);
+		checkSame(serial, parallel);
+	}
+
+	@Test
+	public void testSumParallel() throws Exception {
+		final Dataset data = Random.rand(0.0, 10.0, 24, 64, 64);
+
+		final IDataset parallel = runReduction("uk.ac.diamond.scisoft.analysis.processing.operations.SummingOperation", data, ExecutionType.PARALLEL);
+		checkSame(data.sum(0), parallel);
+	}
+
+	private IDataset runReduction(String id, Dataset data, ExecutionType type) throws Exception {
+		final IOperation reduction = service.create(id);
+		reduction.setModel(new EmptyModel());
+
+		final IOperationContext context = service.createContext();
+		context.setData(data);
+		context.setSlicing("all");
+		context.setParallelTimeout(Long.MAX_VALUE);
+		context.setExecutionType(type);
+
+		count  = 0;
+		result = null;
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData res, IMonitor monitor) throws Exception {
+				count++;
+				result = res.getData();
+			}
+		});
+		context.setSeries(reduction);
+		service.execute(context);
+
+		assertEquals("Only one result expected", 1, count);
+		return result;
+	}
+
+	private static void checkSame(IDataset expected, IDataset actual) {
+		final Dataset e = DatasetUtils.convertToDataset(expected).flatten();
+		final Dataset a = DatasetUtils.convertToDataset(actual).flatten();
+		assertEquals(e.getSize(), a.getSize());
+		for (int i = 0; i < e.getSize(); i++) {
+			assertEquals(e.getDouble(i), a.getDouble(i), 1e-9 * Math.max(1, Math.abs(e.getDouble(i))));
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.analysis.processing.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.processing.operations.oned.RollingBallBaselineOperation;
+
+public class RollingBallBaselineOperationTest {
+
+	/**
+	 * Baseline from slices over windows of [i - width, i + width)
+	 */
+	private static Dataset sliceBaseline(Dataset y, int width) {
+		final int n = y.getSize();
+		Dataset t1 = DatasetFactory.zeros(y);
+		Dataset t2 = DatasetFactory.zeros(y);
+		for (int pass = 0; pass < 3; pass++) {
+			for (int i = 0; i < n; i++) {
+				int[] start = new int[] {Math.max(i - width, 0)};
+				int[] stop = new int[] {Math.min(i + width, n)};
+				switch (pass) {
+				case 0:
+					t1.set(y.getSlice(start, stop, null).min(), i);
+					break;
+				case 1:
+					t2.set(t1.getSlice(start, stop, null).max(), i);
+					break;
+				default:
+					t1.set(t2.getSlice(start, stop, null).mean(), i);
+					break;
+				}
+			}
+		}
+		return t1;
+	}
+
+	@Test
+	public void testAgainstSlices() {
+		Random.seed(123);
+		for (int width : new int[] {1, 2, 5, 17, 300}) {
+			Dataset y = Random.rand(0.0, 10.0, 200);
+			Dataset expected = Maths.subtract(y, sliceBaseline(y, width));
+			Dataset corrected = RollingBallBaselineOperation.rollingBallBaselineCorrection(y, width);
+			for (int i = 0; i < 200; i++) {
+				assertEquals("Width " + width + " at " + i, expected.getDouble(i), corrected.getDouble(i), 1e-10);
+			}
+		}
+	}
+
+	@Test
+	public void testLastPoint() {
+		Dataset y = DatasetFactory.createRange(0, 10, 1, Dataset.FLOAT64);
+		Dataset corrected = RollingBallBaselineOperation.rollingBallBaselineCorrection(y, 2);
+		// minima are 0, 0, 0, 1, ..., 7 and their maxima are 0, 0, 1, ..., 7, 7 so
+		// baseline at end is mean over [7, 10) of 6, 7, 7
+		assertEquals(9 - 20 / 3., corrected.getDouble(9), 1e-12);
+	}
+
+	@Test
+	public void testBatch() {
+		Random.seed(321);
+		Dataset spectra = Random.rand(0.0, 10.0, 40, 1000);
+		Dataset corrected = RollingBallBaselineOperation.rollingBallBaselineCorrection(spectra, 25);
+		assertArrayEquals(spectra.getShape(), corrected.getShape());
+		for (int r = 0; r < 40; r++) {
+			Dataset row = spectra.getSlice(new int[] {r, 0}, new int[] {r + 1, 1000}, null).squeeze();
+			Dataset expected = RollingBallBaselineOperation.rollingBallBaselineCorrection(row, 25);
+			for (int i = 0; i < 1000; i++) {
+				assertEquals(expected.getDouble(i), corrected.getDouble(r, i), 1e-12);
+			}
+		}
+	}
+}
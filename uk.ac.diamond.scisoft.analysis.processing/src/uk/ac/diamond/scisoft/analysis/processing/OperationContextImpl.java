@@ -49,7 +49,8 @@ public class OperationContextImpl implements IOperationContext {
 	
 	/**
 	 * The size of the thread pool used in GRAPH mode. By default the value is 1 meaning that 1 slice is ]
-	 * in the pipeline at a time.
+	 * in the pipeline at a time. In PARALLEL mode, a value greater than 1 sets the number of threads
+	 * processing slices which are read ahead and passed to the visitor in order.
 	 */
 	private int                  poolSize=1;
 	
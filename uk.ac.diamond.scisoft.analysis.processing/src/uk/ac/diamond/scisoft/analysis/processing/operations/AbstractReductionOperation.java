@@ -0,0 +1,120 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.IExportOperation;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.api.processing.OperationException;
+import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
+import org.eclipse.dawnsci.analysis.api.processing.model.IOperationModel;
+import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
+
+/**
+ * Base class of operations which reduce all the slices of a data series to a single dataset.
+ * <p>
+ * Slices may be passed in concurrently and in any order. Each thread adds its slices to its own
+ * {@link ReductionAccumulator} and the thread which processes the last slice of the series merges
+ * them and returns the result. Nothing is returned for the other slices.
+ */
+public abstract class AbstractReductionOperation<T extends IOperationModel> extends AbstractOperation<T, OperationData> implements IExportOperation {
+
+	private Reduction reduction;
+
+	/**
+	 * @param accumulator merged over all slices of the series
+	 * @return reduced dataset
+	 */
+	protected abstract IDataset reduce(ReductionAccumulator accumulator);
+
+	@Override
+	protected OperationData process(IDataset input, IMonitor monitor) throws OperationException {
+
+		SliceFromSeriesMetadata ssm = getSliceSeriesMetadata(input);
+
+		if (ssm == null) throw new OperationException(this, "Pipeline metadata not present!");
+
+		Reduction r = getReduction(ssm.getSourceInfo().getParent());
+
+		ReductionAccumulator acc = r.accumulators.get(Thread.currentThread());
+		if (acc == null) {
+			acc = new ReductionAccumulator(input.getShape());
+			r.accumulators.put(Thread.currentThread(), acc);
+		}
+		try {
+			acc.add(input);
+		} catch (IllegalArgumentException e) {
+			throw new OperationException(this, e.getMessage());
+		}
+
+		// the increment publishes this thread's additions to whoever sees the final count
+		if (r.processed.incrementAndGet() != ssm.getTotalSlices()) return null;
+
+		finished(r);
+		ReductionAccumulator total = new ReductionAccumulator(input.getShape());
+		for (ReductionAccumulator a : r.accumulators.values()) {
+			total.merge(a);
+		}
+
+		IDataset out = reduce(total);
+		copyMetadata(input, out);
+		out.clearMetadata(SliceFromSeriesMetadata.class);
+		SliceFromSeriesMetadata outsmm = ssm.clone();
+		for (int i = 0; i < ssm.getParent().getRank(); i++) {
+
+			if (!outsmm.isDataDimension(i)) outsmm.reducedDimensionToSingular(i);
+
+		}
+		out.setMetadata(outsmm);
+
+		return new OperationData(out);
+	}
+
+	private synchronized Reduction getReduction(ILazyDataset parent) {
+		if (reduction == null || reduction.parent != parent) {
+			reduction = new Reduction(parent);
+		}
+		return reduction;
+	}
+
+	private synchronized void finished(Reduction r) {
+		if (reduction == r) reduction = null;
+	}
+
+	@Override
+	public OperationRank getInputRank() {
+		return OperationRank.ANY;
+	}
+
+	@Override
+	public OperationRank getOutputRank() {
+		return OperationRank.SAME;
+	}
+
+	/**
+	 * Partial state of the reduction of one data series
+	 */
+	private static class Reduction {
+		private final ILazyDataset parent;
+		private final ConcurrentMap<Thread, ReductionAccumulator> accumulators = new ConcurrentHashMap<Thread, ReductionAccumulator>();
+		private final AtomicInteger processed = new AtomicInteger();
+
+		Reduction(ILazyDataset parent) {
+			this.parent = parent;
+		}
+	}
+}
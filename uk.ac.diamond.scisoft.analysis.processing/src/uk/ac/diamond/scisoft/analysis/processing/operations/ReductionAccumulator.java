@@ -0,0 +1,170 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations;
+
+import java.util.Arrays;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+
+/**
+ * Element-wise partial state of a reduction over a series of datasets of the same shape:
+ * the count, sum, sum of squared deviations from the mean, minimum and maximum.
+ * <p>
+ * An accumulator is not thread safe; each thread should add to its own and the accumulators
+ * then merged. Merging is associative so the result does not depend on how the series was
+ * split between threads (up to floating point rounding).
+ */
+public class ReductionAccumulator {
+
+	private final int[] shape;
+	private final double[] sum;
+	private final double[] m2;
+	private final double[] min;
+	private final double[] max;
+	private long count;
+
+	/**
+	 * @param shape of datasets to accumulate
+	 */
+	public ReductionAccumulator(int[] shape) {
+		this.shape = shape.clone();
+		int size = 1;
+		for (int s : shape) {
+			size *= s;
+		}
+		sum = new double[size];
+		m2  = new double[size];
+		min = new double[size];
+		max = new double[size];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Add dataset to accumulation
+	 * @param data
+	 */
+	public void add(IDataset data) {
+		if (!Arrays.equals(shape, data.getShape())) {
+			throw new IllegalArgumentException("Dataset shape " + Arrays.toString(data.getShape()) + " does not match " + Arrays.toString(shape));
+		}
+
+		Dataset d = DatasetUtils.convertToDataset(data);
+		IndexIterator it = d.getIterator();
+		long n = count + 1;
+		int i = 0;
+		while (it.hasNext()) {
+			final double v = d.getElementDoubleAbs(it.index);
+			// Welford's update of the squared deviations
+			final double delta = v - (count == 0 ? 0 : sum[i] / count);
+			sum[i] += v;
+			m2[i] += delta * (v - sum[i] / n);
+			if (v < min[i]) min[i] = v;
+			if (v > max[i]) max[i] = v;
+			i++;
+		}
+		count = n;
+	}
+
+	/**
+	 * Merge other accumulator into this one
+	 * @param other
+	 */
+	public void merge(ReductionAccumulator other) {
+		if (!Arrays.equals(shape, other.shape)) {
+			throw new IllegalArgumentException("Accumulator shapes do not match");
+		}
+		if (other.count == 0) return;
+		if (count == 0) {
+			System.arraycopy(other.sum, 0, sum, 0, sum.length);
+			System.arraycopy(other.m2,  0, m2,  0, m2.length);
+			System.arraycopy(other.min, 0, min, 0, min.length);
+			System.arraycopy(other.max, 0, max, 0, max.length);
+			count = other.count;
+			return;
+		}
+
+		final double na = count;
+		final double nb = other.count;
+		final double f = na * nb / (na + nb);
+		for (int i = 0; i < sum.length; i++) {
+			// Chan et al's pairwise combination of the squared deviations
+			final double delta = other.sum[i] / nb - sum[i] / na;
+			m2[i] += other.m2[i] + delta * delta * f;
+			sum[i] += other.sum[i];
+			if (other.min[i] < min[i]) min[i] = other.min[i];
+			if (other.max[i] > max[i]) max[i] = other.max[i];
+		}
+		count += other.count;
+	}
+
+	/**
+	 * @return number of datasets accumulated
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return shape of accumulated datasets
+	 */
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	/**
+	 * @return element-wise sum
+	 */
+	public Dataset getSum() {
+		return new DoubleDataset(sum.clone(), shape);
+	}
+
+	/**
+	 * @return element-wise mean
+	 */
+	public Dataset getMean() {
+		double[] out = new double[sum.length];
+		for (int i = 0; i < out.length; i++) {
+			out[i] = sum[i] / count;
+		}
+		return new DoubleDataset(out, shape);
+	}
+
+	/**
+	 * @param ddof delta degrees of freedom, 0 for population variance and 1 for sample variance
+	 * @return element-wise variance
+	 */
+	public Dataset getVariance(int ddof) {
+		double[] out = new double[m2.length];
+		final double n = count - ddof;
+		for (int i = 0; i < out.length; i++) {
+			out[i] = n > 0 ? m2[i] / n : Double.NaN;
+		}
+		return new DoubleDataset(out, shape);
+	}
+
+	/**
+	 * @return element-wise minimum
+	 */
+	public Dataset getMin() {
+		return new DoubleDataset(min.clone(), shape);
+	}
+
+	/**
+	 * @return element-wise maximum
+	 */
+	public Dataset getMax() {
+		return new DoubleDataset(max.clone(), shape);
+	}
+}
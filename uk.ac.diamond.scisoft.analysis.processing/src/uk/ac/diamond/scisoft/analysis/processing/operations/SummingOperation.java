@@ -0,0 +1,29 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+
+/**
+ * Element-wise sum of all the slices of a data series
+ */
+public class SummingOperation extends AbstractReductionOperation<EmptyModel> {
+
+	@Override
+	public String getId() {
+		return "uk.ac.diamond.scisoft.analysis.processing.operations.SummingOperation";
+	}
+
+	@Override
+	protected IDataset reduce(ReductionAccumulator accumulator) {
+		return accumulator.getSum();
+	}
+
+}
@@ -8,19 +8,32 @@
  */
 package uk.ac.diamond.scisoft.analysis.processing.operations.oned;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 
+/**
+ * Subtract a baseline found by eroding, dilating and then smoothing a spectrum over a window
+ * of twice the ball radius.
+ * <p>
+ * Each pass slides the window along the spectrum so the cost is linear in its length whatever
+ * the radius. Many spectra can be corrected in parallel with {@link #rollingBallBaselineCorrection(Dataset, int)}.
+ */
 public class RollingBallBaselineOperation extends AbstractOperation<RollingBallBaselineModel, OperationData> {
 
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+	private static final int MINIMUM_POINTS = 1 << 15; // smallest number of points worth splitting across threads
+
 	@Override
 	public String getId() {
 
@@ -45,34 +58,142 @@ public class RollingBallBaselineOperation extends AbstractOperation<RollingBallB
 	public OperationRank getOutputRank() {
 		return OperationRank.ONE;
 	}
-	
-	private  Dataset rollingBallBaselineCorrection(Dataset y, int width) {
 
-		Dataset t1 = DatasetFactory.zeros(y);
-		Dataset t2 = DatasetFactory.zeros(y);
+	/**
+	 * Subtract rolling ball baseline along the last axis of given dataset. When there is more
+	 * than one spectrum, the spectra are corrected in parallel
+	 * @param y spectrum or spectra
+	 * @param width ball radius in points
+	 * @return corrected dataset of the same shape and type
+	 */
+	public static Dataset rollingBallBaselineCorrection(Dataset y, int width) {
+		final int[] shape = y.getShape();
+		final int size = y.getSize();
+		if (shape.length == 0 || size == 0) {
+			return y.clone();
+		}
 
-		for (int i = 0 ; i < y.getSize()-1; i++) {
-			int start = (i-width) < 0 ? 0 : (i - width);
-			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
-			double val = y.getSlice(new int[]{start}, new int[]{end}, null).min().doubleValue();
-			t1.set(val, i);
+		final int n = shape[shape.length - 1];
+		final int m = size / n;
+		final double[] values = ((DoubleDataset) DatasetUtils.cast(y.getSlice(), Dataset.FLOAT64)).getData();
+		final double[] baseline = new double[size];
+		final int w = Math.max(width, 1);
+		if (m == 1) {
+			new SpectrumTask(values, baseline, n, w, 0, 1).compute();
+		} else {
+			POOL.invoke(new SpectrumTask(values, baseline, n, w, 0, m));
 		}
 
-		for (int i = 0 ; i < y.getSize()-1; i++) {
-			int start = (i-width) < 0 ? 0 : (i - width);
-			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
-			double val = t1.getSlice(new int[]{start}, new int[]{end}, null).max().doubleValue();
-			t2.set(val, i);
+		Dataset b = new DoubleDataset(baseline, shape);
+		if (y.getDtype() != Dataset.FLOAT64) {
+			b = DatasetUtils.cast(b, y.getDtype());
 		}
+		return Maths.subtract(y, b);
+	}
 
-		for (int i = 0 ; i < y.getSize()-1; i++) {
-			int start = (i-width) < 0 ? 0 : (i - width);
-			int end = (i+width) > (y.getSize()-1) ? (y.getSize()-1) : (i+width);
-			double val = (Double)t2.getSlice(new int[]{start}, new int[]{end}, null).mean();
-			t1.set(val, i);
+	/**
+	 * Find baseline of a spectrum in three passes over windows of [i - width, i + width)
+	 * truncated at the ends: the minimum, the maximum of those minima and then the mean of
+	 * those maxima
+	 * @param y values
+	 * @param offset of spectrum
+	 * @param n length of spectrum
+	 * @param width
+	 * @param t workspace of at least n values
+	 * @param deque workspace of at least n indexes
+	 * @param out array for baseline at same positions as values
+	 */
+	static void baseline(final double[] y, final int offset, final int n, final int width, final double[] t, final int[] deque, final double[] out) {
+		extremum(y, offset, n, width, deque, false, out, offset);
+		extremum(out, offset, n, width, deque, true, t, 0);
+
+		double sum = 0;
+		int lo = 0; // window is [lo, hi)
+		int hi = 0;
+		for (int i = 0; i < n; i++) {
+			final int end = Math.min(i + width, n);
+			while (hi < end) {
+				sum += t[hi++];
+			}
+			final int start = Math.max(i - width, 0);
+			while (lo < start) {
+				sum -= t[lo++];
+			}
+			out[offset + i] = sum / (hi - lo);
 		}
+	}
 
-		return Maths.subtract(y, t1);
+	/**
+	 * Sliding window minimum or maximum using a deque of indexes whose values are monotonic
+	 */
+	private static void extremum(final double[] in, final int inOffset, final int n, final int width, final int[] deque,
+			final boolean max, final double[] out, final int outOffset) {
+		int head = 0; // deque is [head, tail)
+		int tail = 0;
+		int hi = 0;
+		for (int i = 0; i < n; i++) {
+			final int end = Math.min(i + width, n);
+			for (; hi < end; hi++) {
+				final double v = in[inOffset + hi];
+				if (max) {
+					while (tail > head && in[inOffset + deque[tail - 1]] <= v) {
+						tail--;
+					}
+				} else {
+					while (tail > head && in[inOffset + deque[tail - 1]] >= v) {
+						tail--;
+					}
+				}
+				deque[tail++] = hi;
+			}
+			final int start = i - width;
+			while (deque[head] < start) {
+				head++;
+			}
+			out[outOffset + i] = in[inOffset + deque[head]];
+		}
 	}
 
+	private static class SpectrumTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final double[] values;
+		private final double[] baseline;
+		private final int n;
+		private final int width;
+		private final int lo;
+		private final int hi;
+
+		/**
+		 * @param values
+		 * @param baseline
+		 * @param n length of each spectrum
+		 * @param width
+		 * @param lo first spectrum
+		 * @param hi last spectrum (exclusive)
+		 */
+		SpectrumTask(double[] values, double[] baseline, int n, int width, int lo, int hi) {
+			this.values = values;
+			this.baseline = baseline;
+			this.n = n;
+			this.width = width;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > 1 && (long) (hi - lo) * n > MINIMUM_POINTS) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new SpectrumTask(values, baseline, n, width, lo, mid),
+						new SpectrumTask(values, baseline, n, width, mid, hi));
+				return;
+			}
+
+			final double[] t = new double[n];
+			final int[] deque = new int[n];
+			for (int i = lo; i < hi; i++) {
+				baseline(values, i * n, n, width, t, deque, baseline);
+			}
+		}
+	}
 }
@@ -29,6 +29,8 @@ public abstract class AbstractPixelIntegrationOperation<T extends PixelIntegrati
 	private AbstractPixelIntegration integrator;
 	private IDiffractionMetadata metadata;
 	private PropertyChangeListener listener;
+	private ILazyDataset currentLazyMask;
+	private IDataset currentMask;
 	
 	@Override
 	public String getId() {
@@ -47,12 +49,23 @@ public abstract class AbstractPixelIntegrationOperation<T extends PixelIntegrati
 			integrator = null;
 		}
 
-		if (integrator == null) integrator = createIntegrator((PixelIntegrationModel)model, metadata);
+		if (integrator == null) {
+			integrator = createIntegrator((PixelIntegrationModel)model, metadata);
+			integrator.setUseLookupTable(((PixelIntegrationModel)model).isUseLookupTable());
+			currentLazyMask = null;
+			currentMask = null;
+		}
 
 		ILazyDataset mask = getFirstMask(input);
-		if (mask != null) {
+		// only reset mask when it changes so integrator can reuse its look-up table across slices.
+		// The same mask is usually attached to every slice so check that before comparing values
+		if (mask != null && mask != currentLazyMask) {
+			currentLazyMask = mask;
 			IDataset m = mask.getSlice().squeeze();
-			integrator.setMask((Dataset)m);
+			if (!m.equals(currentMask)) {
+				currentMask = m;
+				integrator.setMask((Dataset)m);
+			}
 		}
 
 		final List<Dataset> out = integrator.integrate(input);
@@ -24,6 +24,9 @@ public abstract class PixelIntegrationModel extends AbstractOperationModel {
 	
 	@OperationModelField(label = "Set azimuthal range",min=-180, max=180, unit="°")
 	double[] azimuthalRange = null;
+	
+	@OperationModelField(label = "Use look-up table", hint="Precompute which pixels contribute to each bin and reuse for every frame.\nFaster for many frames but uses more memory")
+	private boolean useLookupTable = false;
 
 	public PixelIntegrationModel() {
 		super();
@@ -45,6 +48,10 @@ public abstract class PixelIntegrationModel extends AbstractOperationModel {
 		return azimuthalRange;
 	}
 
+	public boolean isUseLookupTable() {
+		return useLookupTable;
+	}
+
 	public void setPixelSplitting(boolean pixelSplitting) {
 		firePropertyChange("pixelSplitting", this.pixelSplitting, this.pixelSplitting = pixelSplitting);
 	}
@@ -62,4 +69,8 @@ public abstract class PixelIntegrationModel extends AbstractOperationModel {
 		firePropertyChange("azimuthalRange", this.azimuthalRange, this.azimuthalRange = azimuthalRange);
 	}
 
+	public void setUseLookupTable(boolean useLookupTable) {
+		firePropertyChange("useLookupTable", this.useLookupTable, this.useLookupTable = useLookupTable);
+	}
+
 }
\ No newline at end of file
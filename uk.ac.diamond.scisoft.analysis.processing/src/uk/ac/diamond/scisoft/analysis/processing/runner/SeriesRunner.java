@@ -1,9 +1,21 @@
 package uk.ac.diamond.scisoft.analysis.processing.runner;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.metadata.OriginMetadata;
 import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
@@ -28,11 +40,19 @@ import org.eclipse.dawnsci.analysis.dataset.slicer.SourceInformation;
  * If you have averaging or branching, you will need to consider using a 
  * graph to execute your operations.
  * 
+ * In parallel mode with a pool size greater than one, slices are read ahead
+ * on reader threads, processed on a pool of that size and the results passed
+ * to the visitor in slice order.
+ * 
  * @author fcp94556
  *
  */
 public class SeriesRunner implements IOperationRunner {
 
+	/**
+	 * Maximum number of threads reading slices ahead of processing
+	 */
+	private static final int READER_THREADS = 2;
 
 	private IOperationContext context;
 
@@ -61,58 +81,7 @@ public class SeriesRunner implements IOperationRunner {
 			@Override
 			public void visit(IDataset slice, Slice[] slices, int[] shape) throws Exception {
 
-				List<SliceFromSeriesMetadata> meta = slice.getMetadata(SliceFromSeriesMetadata.class);
-				SliceFromSeriesMetadata ssm = meta!=null && meta.size()>0 ? meta.get(0) : null;
-				SliceFromSeriesMetadata fullssm = null;
-				if (ssm!=null) {
-					fullssm = new SliceFromSeriesMetadata(finalSource, ssm.getSliceInfo());
-					slice.setMetadata(fullssm);
-				}
-
-				if (context.getMonitor() != null && context.getMonitor().isCancelled()) return;
-
-				SourceInformation si = fullssm!=null ? fullssm.getSourceInfo() : null;
-				String path = si == null ? "" : si.getFilePath();
-				if (path == null) path = "";
-				
-				String current = "";
-				if (fullssm != null) {
-					try {
-						current = Slice.createString(ssm.getSliceFromInput());
-					} catch (Exception e) {
-						//ignore
-					}
-				}
-
-				OperationData  data = new OperationData(slice, (Serializable[])null);
-				long start = System.currentTimeMillis();
-				for (IOperation<?,?> i : context.getSeries()) {
-
-					if (context.getMonitor()!=null) {
-						context.getMonitor().subTask(path +" : " + i.getName());
-					}
-
-					OperationData tmp = i.execute(data.getData(), context.getMonitor());
-					//TODO only set metadata if doesnt already contain it!
-					//TODO continue if null;
-					
-					if (tmp == null) {
-						data = null;
-						break;
-					}
-					
-					List<SliceFromSeriesMetadata> md = tmp.getData().getMetadata(SliceFromSeriesMetadata.class);
-					
-					if (md == null || md.isEmpty())  {
-						tmp.getData().setMetadata(fullssm);
-					} else {
-						fullssm = md.get(0);
-					}
-					
-					visitor.notify(i, tmp); // Optionally send intermediate result
-					data = i.isPassUnmodifiedData() ? data : tmp;
-				}
-				logger.debug("Slice " + current + " ran in: " +(System.currentTimeMillis()-start)/1000. + " s : Thread" +Thread.currentThread().toString());
+				OperationData data = process(slice, finalSource, visitor);
 				if (data == null) return;
 				visitor.executed(data, context.getMonitor()); // Send result.
 				if (context.getMonitor() != null) context.getMonitor().worked(1);
@@ -120,7 +89,7 @@ public class SeriesRunner implements IOperationRunner {
 
 			@Override
 			public boolean isCancelled() {
-				return context.getMonitor()!=null ? context.getMonitor().isCancelled() : false;
+				return isMonitorCancelled();
 			}
 		};
 
@@ -131,7 +100,11 @@ public class SeriesRunner implements IOperationRunner {
 			Slicer.visitAll(context.getData(), context.getSlicing(), "Slice", sv);
 
 		} else if (context.getExecutionType()==ExecutionType.PARALLEL) {
-			Slicer.visitAllParallel(context.getData(), context.getSlicing(), "Slice", sv, context.getParallelTimeout());
+			if (context.getPoolSize() > 1) {
+				executePipelined(finalSource, visitor);
+			} else {
+				Slicer.visitAllParallel(context.getData(), context.getSlicing(), "Slice", sv, context.getParallelTimeout());
+			}
 
 		} else {
 			throw new OperationException(context.getSeries()[0], "The edges are needed to execute a graph using ptolemy!");
@@ -140,6 +113,214 @@ public class SeriesRunner implements IOperationRunner {
 		
 	}
 
+	private boolean isMonitorCancelled() {
+		return context.getMonitor()!=null ? context.getMonitor().isCancelled() : false;
+	}
+
+	/**
+	 * Runs the series of operations on a slice
+	 * @param slice
+	 * @param source
+	 * @param visitor
+	 * @return result or null if cancelled or an operation returned nothing
+	 * @throws Exception
+	 */
+	private OperationData process(IDataset slice, SourceInformation source, IExecutionVisitor visitor) throws Exception {
+
+		List<SliceFromSeriesMetadata> meta = slice.getMetadata(SliceFromSeriesMetadata.class);
+		SliceFromSeriesMetadata ssm = meta!=null && meta.size()>0 ? meta.get(0) : null;
+		SliceFromSeriesMetadata fullssm = null;
+		if (ssm!=null) {
+			fullssm = new SliceFromSeriesMetadata(source, ssm.getSliceInfo());
+			slice.setMetadata(fullssm);
+		}
+
+		if (isMonitorCancelled()) return null;
+
+		SourceInformation si = fullssm!=null ? fullssm.getSourceInfo() : null;
+		String path = si == null ? "" : si.getFilePath();
+		if (path == null) path = "";
+		
+		String current = "";
+		if (fullssm != null) {
+			try {
+				current = Slice.createString(ssm.getSliceFromInput());
+			} catch (Exception e) {
+				//ignore
+			}
+		}
+
+		OperationData  data = new OperationData(slice, (Serializable[])null);
+		long start = System.currentTimeMillis();
+		for (IOperation<?,?> i : context.getSeries()) {
+
+			if (context.getMonitor()!=null) {
+				context.getMonitor().subTask(path +" : " + i.getName());
+			}
+
+			OperationData tmp = i.execute(data.getData(), context.getMonitor());
+			//TODO only set metadata if doesnt already contain it!
+			//TODO continue if null;
+			
+			if (tmp == null) {
+				data = null;
+				break;
+			}
+			
+			List<SliceFromSeriesMetadata> md = tmp.getData().getMetadata(SliceFromSeriesMetadata.class);
+			
+			if (md == null || md.isEmpty())  {
+				tmp.getData().setMetadata(fullssm);
+			} else {
+				fullssm = md.get(0);
+			}
+			
+			visitor.notify(i, tmp); // Optionally send intermediate result
+			data = i.isPassUnmodifiedData() ? data : tmp;
+		}
+		logger.debug("Slice " + current + " ran in: " +(System.currentTimeMillis()-start)/1000. + " s : Thread" +Thread.currentThread().toString());
+		return data;
+	}
+
+	/**
+	 * Runs slices through a pipeline where slices are read ahead from the lazy dataset by
+	 * a small pool of reader threads, processed on a work-stealing pool of the context's pool
+	 * size and then passed to the visitor, on the calling thread, in their original order.
+	 * <p>
+	 * At most twice the pool size of slices are read but not yet passed to the visitor
+	 * so memory use is bounded for large scans.
+	 * 
+	 * @param source
+	 * @param visitor
+	 * @throws Exception
+	 */
+	private void executePipelined(final SourceInformation source, final IExecutionVisitor visitor) throws Exception {
+
+		final int nThreads = context.getPoolSize();
+		final List<ILazyDataset> slices = getSlices();
+		final int window = 2 * nThreads;
+
+		final ExecutorService readers = Executors.newFixedThreadPool(Math.min(READER_THREADS, nThreads), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "Slice reader");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final ForkJoinPool workers = new ForkJoinPool(nThreads);
+
+		final List<PipelinedSlice> tasks = new ArrayList<PipelinedSlice>(slices.size());
+		for (ILazyDataset lz : slices) {
+			tasks.add(new PipelinedSlice(lz, source, visitor, workers));
+		}
+
+		final long timeout = context.getParallelTimeout();
+		final long start   = System.currentTimeMillis();
+		try {
+			int submitted = 0;
+			for (; submitted < Math.min(window, tasks.size()); submitted++) {
+				readers.execute(tasks.get(submitted));
+			}
+
+			for (int i = 0; i < tasks.size(); i++) {
+				if (isMonitorCancelled()) return;
+
+				final PipelinedSlice task = tasks.get(i);
+				final long remaining = timeout - (System.currentTimeMillis() - start);
+				OperationData data;
+				try {
+					data = task.get(Math.max(remaining, 0), TimeUnit.MILLISECONDS);
+				} catch (TimeoutException ne) {
+					throw new OperationException(context.getSeries()[0], "The parallel timeout of "+timeout+" ms was exceeded!");
+				} catch (ExecutionException ne) {
+					Throwable cause = ne.getCause();
+					if (cause instanceof Exception) throw (Exception)cause;
+					throw ne;
+				}
+				tasks.set(i, null); // Release slice
+				if (submitted < tasks.size()) {
+					readers.execute(tasks.get(submitted++));
+				}
+
+				if (data == null) continue;
+				visitor.executed(data, context.getMonitor()); // Send result.
+				if (context.getMonitor() != null) context.getMonitor().worked(1);
+			}
+		} finally {
+			readers.shutdownNow();
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return lazy slices of the context's data
+	 */
+	private List<ILazyDataset> getSlices() {
+		// Slice metadata is set on each slice by the slicer and the source is added back
+		// when the slice is processed, so remove the data's own whilst slicing.
+		final ILazyDataset lz = context.getData();
+		List<SliceFromSeriesMetadata> original = null;
+		try {
+			original = lz.getMetadata(SliceFromSeriesMetadata.class);
+		} catch (Exception e) {
+			logger.warn("Pipeline metadata not readable!");
+		}
+		lz.clearMetadata(SliceFromSeriesMetadata.class);
+		try {
+			return new ArrayList<ILazyDataset>(Slicer.getSlices(lz, context.getSlicing()));
+		} finally {
+			if (original != null && !original.isEmpty()) lz.setMetadata(original.get(0));
+		}
+	}
+
+	/**
+	 * A slice which is read on a reader thread then handed to the worker pool to be processed
+	 */
+	private class PipelinedSlice implements Runnable {
+
+		private final ILazyDataset              lazy;
+		private final ForkJoinPool              workers;
+		private final FutureTask<OperationData> result;
+		private IDataset                        slice;
+		private Exception                       error;
+
+		PipelinedSlice(ILazyDataset lazy, final SourceInformation source, final IExecutionVisitor visitor, ForkJoinPool workers) {
+			this.lazy    = lazy;
+			this.workers = workers;
+			this.result  = new FutureTask<OperationData>(new Callable<OperationData>() {
+				@Override
+				public OperationData call() throws Exception {
+					if (error != null) throw error;
+					return process(slice, source, visitor);
+				}
+			});
+		}
+
+		/**
+		 * Reads the slice then passes it on to be processed
+		 */
+		@Override
+		public void run() {
+			try {
+				List<SliceFromSeriesMetadata> meta = lazy.getMetadata(SliceFromSeriesMetadata.class);
+				slice = lazy.getSlice();
+				if (meta != null && !meta.isEmpty()) slice.setMetadata(meta.get(0));
+			} catch (Exception ne) {
+				error = ne;
+			}
+			try {
+				workers.execute(result);
+			} catch (RejectedExecutionException ne) {
+				// Run has finished or been cancelled
+			}
+		}
+
+		OperationData get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return result.get(timeout, unit);
+		}
+	}
+
 	@Override
 	public ExecutionType[] getExecutionTypes() {
 		return new ExecutionType[]{ExecutionType.SERIES, ExecutionType.PARALLEL};
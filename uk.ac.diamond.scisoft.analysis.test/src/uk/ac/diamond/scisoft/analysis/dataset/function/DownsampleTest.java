@@ -16,7 +16,9 @@ import junit.framework.TestCase;
 
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
 import org.junit.Test;
 
 /**
@@ -100,4 +102,81 @@ public class DownsampleTest extends TestCase {
 			assertEquals(answers[i], a.getElementDoubleAbs(it.index), 1e-6);
 		}
 	}
+
+	@Test
+	public void testInvalidValues() {
+		Dataset f = DatasetUtils.cast(d, Dataset.FLOAT64);
+		f.set(Double.NaN, 0, 0);
+		f.set(Double.POSITIVE_INFINITY, 1, 2);
+		f.set(Double.NEGATIVE_INFINITY, 2, 3);
+		for (int i = 3; i < 6; i++) {
+			f.set(Double.NaN, 3, i);
+			f.set(Double.NaN, 2, i);
+		}
+
+		Dataset a = new Downsample(DownsampleMode.MEAN, 2, 3).value(f).get(0);
+		assertEquals(Dataset.FLOAT64, a.getDtype());
+		assertEquals((1 + 2 + 6 + 7) / 4., a.getDouble(0, 0), 1e-12);
+		assertEquals(16, a.getDouble(1, 0), 1e-12);
+		assertEquals(0, a.getDouble(1, 1), 1e-12);
+
+		a = new Downsample(DownsampleMode.MAXIMUM, 2, 3).value(f).get(0);
+		assertEquals(7, a.getDouble(0, 0), 1e-12);
+		assertEquals(Double.NEGATIVE_INFINITY, a.getDouble(1, 1));
+
+		a = new Downsample(DownsampleMode.MINIMUM, 2, 3).value(f).get(0);
+		assertEquals(1, a.getDouble(0, 0), 1e-12);
+		assertEquals(Double.POSITIVE_INFINITY, a.getDouble(1, 1));
+	}
+
+	@Test
+	public void testLarge() {
+		Random.seed(1234);
+		final int rows = 517, cols = 611, br = 4, bc = 5;
+		for (int dtype : new int[] {Dataset.INT16, Dataset.INT32, Dataset.FLOAT32, Dataset.FLOAT64}) {
+			Dataset data = DatasetUtils.cast(Random.randint(-1000, 1000, new int[] {rows, cols}), dtype);
+			for (DownsampleMode mode : new DownsampleMode[] {DownsampleMode.MEAN, DownsampleMode.MAXIMUM, DownsampleMode.MINIMUM}) {
+				Dataset a = new Downsample(mode, br, bc).value(data).get(0);
+				assertEquals(dtype, a.getDtype());
+				assertEquals((rows + br - 1) / br, a.getShape()[0]);
+				assertEquals((cols + bc - 1) / bc, a.getShape()[1]);
+				for (int i = 0; i < a.getShape()[0]; i++) {
+					for (int j = 0; j < a.getShape()[1]; j++) {
+						Dataset bin = data.getSlice(new int[] {i * br, j * bc},
+								new int[] {Math.min(i * br + br, rows), Math.min(j * bc + bc, cols)}, null);
+						double expected;
+						switch (mode) {
+						case MEAN:
+							expected = ((Number) bin.mean()).doubleValue();
+							break;
+						case MAXIMUM:
+							expected = bin.max().doubleValue();
+							break;
+						default:
+							expected = bin.min().doubleValue();
+							break;
+						}
+						if (a.hasFloatingPointElements()) {
+							assertEquals(expected, a.getDouble(i, j), 1e-4);
+						} else if (mode == DownsampleMode.MEAN) { // truncated running mean
+							assertEquals(expected, a.getDouble(i, j), 1);
+						} else {
+							assertEquals((long) expected, a.getLong(i, j));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testShortBin() {
+		Dataset e = DatasetFactory.createRange(24, Dataset.FLOAT64);
+		e.setShape(2, 3, 4);
+		Dataset a = new Downsample(DownsampleMode.MEAN, 2).value(e).get(0);
+		assertEquals(1, a.getShape()[0]);
+		assertEquals(3, a.getShape()[1]);
+		assertEquals(4, a.getShape()[2]);
+		assertEquals(6, a.getDouble(0, 0, 0), 1e-12);
+	}
 }
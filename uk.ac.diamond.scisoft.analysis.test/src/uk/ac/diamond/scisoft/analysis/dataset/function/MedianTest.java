@@ -11,8 +11,12 @@ package uk.ac.diamond.scisoft.analysis.dataset.function;
 
 import junit.framework.TestCase;
 
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.eclipse.dawnsci.analysis.dataset.impl.Stats;
 import org.junit.Test;
 
 public class MedianTest extends TestCase {
@@ -31,5 +35,70 @@ public class MedianTest extends TestCase {
 		assertEquals(filterResults.getDouble(5),6, 1e-8);
 	}
 
-	
+	@Test
+	public void testAgainstSlices() {
+		Random.seed(1234);
+		Dataset d = Random.randint(0, 20, new int[] {200});
+		d = DatasetUtils.cast(d, Dataset.FLOAT64);
+		d.set(Double.NaN, 17);
+		d.set(Double.NaN, 150);
+
+		for (int w : new int[] {1, 2, 4, 7, 30, 401}) {
+			Dataset f = new Median(w).value(d).get(0);
+			int h = w / 2;
+			for (int i = 0; i < d.getSize(); i++) {
+				Dataset s = d.getSlice(new Slice(Math.max(i - h, 0), Math.min(i + h + 1, d.getSize())));
+				assertEquals("Window " + w + " at " + i, ((Number) Stats.median(s)).doubleValue(), f.getDouble(i), 1e-12);
+			}
+		}
+
+		Dataset i = Random.randint(-50, 50, new int[] {100});
+		Dataset f = new Median(6).value(i).get(0);
+		assertEquals(i.getDtype(), f.getDtype());
+		for (int j = 0; j < i.getSize(); j++) {
+			Dataset s = i.getSlice(new Slice(Math.max(j - 3, 0), Math.min(j + 4, i.getSize())));
+			assertEquals((int) ((Number) Stats.median(s)).doubleValue(), f.getInt(j));
+		}
+	}
+
+	@Test
+	public void test2D() {
+		Random.seed(4321);
+		Dataset d = Random.rand(new int[] {23, 31});
+		final int w = 5, h = w / 2;
+
+		Dataset f = new Median(w).value(d).get(0);
+		for (int r = 0; r < 23; r++) {
+			for (int c = 0; c < 31; c++) {
+				Dataset s = d.getSlice(new Slice(Math.max(r - h, 0), Math.min(r + h + 1, 23)),
+						new Slice(Math.max(c - h, 0), Math.min(c + h + 1, 31)));
+				assertEquals(((Number) Stats.median(s)).doubleValue(), f.getDouble(r, c), 1e-12);
+			}
+		}
+
+		// separable is the same as filtering rows then columns
+		Median m = new Median(w);
+		double[][] rows = new double[23][31];
+		for (int r = 0; r < 23; r++) {
+			double[] row = new double[31];
+			for (int c = 0; c < 31; c++) {
+				row[c] = d.getDouble(r, c);
+			}
+			Dataset filtered = m.value(new DoubleDataset(row)).get(0);
+			for (int c = 0; c < 31; c++) {
+				rows[r][c] = filtered.getDouble(c);
+			}
+		}
+		f = new Median(w, true).value(d).get(0);
+		for (int c = 0; c < 31; c++) {
+			double[] column = new double[23];
+			for (int r = 0; r < 23; r++) {
+				column[r] = rows[r][c];
+			}
+			Dataset expected = m.value(new DoubleDataset(column)).get(0);
+			for (int r = 0; r < 23; r++) {
+				assertEquals(expected.getDouble(r), f.getDouble(r, c), 1e-12);
+			}
+		}
+	}
 }
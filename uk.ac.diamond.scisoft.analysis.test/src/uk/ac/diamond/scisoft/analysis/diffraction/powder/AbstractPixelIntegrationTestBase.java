@@ -9,6 +9,8 @@
 
 package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
+import java.util.List;
+
 import javax.vecmath.Matrix3d;
 import javax.vecmath.Vector3d;
 
@@ -19,6 +21,7 @@ import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.junit.Assert;
 
 import uk.ac.diamond.scisoft.analysis.io.DiffractionMetadata;
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
@@ -82,4 +85,43 @@ public class AbstractPixelIntegrationTestBase {
 		return mask;
 	}
 
+	protected void checkParallel(IDataset data, AbstractPixelIntegration serial, AbstractPixelIntegration parallel) {
+		serial.setParallel(false);
+		parallel.setParallel(true);
+		// same chunks and merge order in both modes so results are identical
+		List<Dataset> actual = checkSame(serial.integrate(data), parallel.integrate(data), 0);
+
+		// result must not depend on scheduling
+		List<Dataset> again = parallel.integrate(data);
+		for (int i = 0; i < actual.size(); i++) {
+			Assert.assertEquals(actual.get(i), again.get(i));
+		}
+	}
+
+	protected void checkLookupTable(IDataset data, AbstractPixelIntegration direct, AbstractPixelIntegration table, double tolerance) {
+		direct.setUseLookupTable(false);
+		table.setUseLookupTable(true);
+		List<Dataset> expected = direct.integrate(data);
+		checkSame(expected, table.integrate(data), tolerance);
+		IntegrationLookupTable lut = table.getLookupTable();
+		Assert.assertNotNull(lut);
+
+		// second frame reuses table
+		checkSame(expected, table.integrate(data), tolerance);
+		Assert.assertSame(lut, table.getLookupTable());
+	}
+
+	private List<Dataset> checkSame(List<Dataset> expected, List<Dataset> actual, double tolerance) {
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Dataset e = expected.get(i);
+			Dataset a = actual.get(i);
+			Assert.assertArrayEquals(e.getShape(), a.getShape());
+			for (int j = 0; j < e.getSize(); j++) {
+				double v = e.getElementDoubleAbs(j);
+				Assert.assertEquals(v, a.getElementDoubleAbs(j), tolerance * Math.max(1, Math.abs(v)));
+			}
+		}
+		return actual;
+	}
 }
@@ -22,6 +22,27 @@ import uk.ac.diamond.scisoft.analysis.roi.ROIProfile.XAxis;
 
 public class NonPixelSplittingIntegration2DTest extends AbstractPixelIntegrationTestBase {
 
+	@Test
+	public void testNonPixelSplitting2DLookupTable() {
+		
+		IDataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+		
+		IDiffractionMetadata meta = getDiffractionMetadata();
+		NonPixelSplittingIntegration2D direct = new NonPixelSplittingIntegration2D(meta, 1592, 360);
+		NonPixelSplittingIntegration2D table = new NonPixelSplittingIntegration2D(meta, 1592, 360);
+		// compare with double precision accumulation
+		direct.setParallel(true);
+		checkLookupTable(data, direct, table, 1e-4);
+		
+		direct.setRadialRange(new double[]{1,5});
+		table.setRadialRange(new double[]{1,5});
+		checkLookupTable(data, direct, table, 1e-4);
+	}
+	
 	@Test
 	public void testNonPixelSplitting2DAzimuthal() {
 		
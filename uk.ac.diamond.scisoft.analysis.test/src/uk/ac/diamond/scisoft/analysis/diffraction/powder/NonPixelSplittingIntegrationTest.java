@@ -22,6 +22,53 @@ import uk.ac.diamond.scisoft.analysis.roi.ROIProfile.XAxis;
 
 public class NonPixelSplittingIntegrationTest extends AbstractPixelIntegrationTestBase {
 	
+	@Test
+	public void testNonPixelSplittingLookupTable() {
+		
+		IDataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+		
+		IDiffractionMetadata meta = getDiffractionMetadata();
+		NonPixelSplittingIntegration direct = new NonPixelSplittingIntegration(meta, 1592);
+		NonPixelSplittingIntegration table = new NonPixelSplittingIntegration(meta, 1592);
+		checkLookupTable(data, direct, table, 1e-6);
+		
+		direct.setAzimuthalRange(new double[]{-180,-170});
+		table.setAzimuthalRange(new double[]{-180,-170});
+		checkLookupTable(data, direct, table, 1e-6);
+		
+		Dataset mask = getMask(data.getShape());
+		direct.setMask(mask);
+		table.setMask(mask);
+		checkLookupTable(data, direct, table, 1e-6);
+	}
+	
+	@Test
+	public void testNonPixelSplittingParallel() {
+		
+		IDataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+		
+		IDiffractionMetadata meta = getDiffractionMetadata();
+		NonPixelSplittingIntegration serial = new NonPixelSplittingIntegration(meta, 1592);
+		NonPixelSplittingIntegration parallel = new NonPixelSplittingIntegration(meta, 1592);
+		checkParallel(data, serial, parallel);
+		
+		serial.setAzimuthalRange(new double[]{-180,-170});
+		parallel.setAzimuthalRange(new double[]{-180,-170});
+		checkParallel(data, serial, parallel);
+		
+		serial.setAzimuthalIntegration(false);
+		parallel.setAzimuthalIntegration(false);
+		checkParallel(data, serial, parallel);
+	}
+	
 	@Test
 	public void testNonPixelSplittingAzimuthal() {
 		
@@ -22,6 +22,53 @@ import uk.ac.diamond.scisoft.analysis.roi.ROIProfile.XAxis;
 
 public class PixelSplittingIntegrationTest extends AbstractPixelIntegrationTestBase {
 
+	@Test
+	public void testPixelSplittingLookupTable() {
+		
+		IDataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+		
+		IDiffractionMetadata meta = getDiffractionMetadata();
+		PixelSplittingIntegration direct = new PixelSplittingIntegration(meta, 1592);
+		PixelSplittingIntegration table = new PixelSplittingIntegration(meta, 1592);
+		checkLookupTable(data, direct, table, 1e-6);
+		
+		direct.setAzimuthalRange(new double[]{-180,-170});
+		table.setAzimuthalRange(new double[]{-180,-170});
+		checkLookupTable(data, direct, table, 1e-6);
+		
+		Dataset mask = getMask(data.getShape());
+		direct.setMask(mask);
+		table.setMask(mask);
+		checkLookupTable(data, direct, table, 1e-6);
+	}
+	
+	@Test
+	public void testPixelSplittingParallel() {
+		
+		IDataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+		
+		IDiffractionMetadata meta = getDiffractionMetadata();
+		PixelSplittingIntegration serial = new PixelSplittingIntegration(meta, 1592);
+		PixelSplittingIntegration parallel = new PixelSplittingIntegration(meta, 1592);
+		checkParallel(data, serial, parallel);
+		
+		serial.setAzimuthalRange(new double[]{-180,-170});
+		parallel.setAzimuthalRange(new double[]{-180,-170});
+		checkParallel(data, serial, parallel);
+		
+		serial.setAzimuthalIntegration(false);
+		parallel.setAzimuthalIntegration(false);
+		checkParallel(data, serial, parallel);
+	}
+	
 	@Test
 	public void testPixelSplittingAzimuthal() {
 		
@@ -25,6 +25,7 @@ import org.junit.Test;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.APeak;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.Gaussian;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.IdentifiedPeak;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.Lorentzian;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.PearsonVII;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.PseudoVoigt;
@@ -113,6 +114,26 @@ public abstract class Generic1DFitterTestBase {
 		}
 	}
 
+	@Test
+	public void testParallelFitting() {
+		DoubleDataset data = generateGaussianPeaks(defaultPeakPos.length);
+		List<IdentifiedPeak> peaks = Generic1DFitter.findPeaks(xAxis, data, smoothing);
+
+		List<CompositeFunction> serial = Generic1DFitter.fitPeakFunctions(peaks, xAxis, data, Gaussian.class, createOptimizer(),
+				smoothing, numPeaks, threshold, false, backgroundDominated, null, false);
+		IOptimizer optimizer = createOptimizer();
+		List<CompositeFunction> parallel = Generic1DFitter.fitPeakFunctions(peaks, xAxis, data, Gaussian.class, optimizer,
+				smoothing, numPeaks, threshold, false, backgroundDominated, null, true);
+		List<CompositeFunction> again = Generic1DFitter.fitPeakFunctions(peaks, xAxis, data, Gaussian.class, optimizer,
+				smoothing, numPeaks, threshold, false, backgroundDominated, null, true);
+
+		assertEquals("The number of peaks fitted in parallel was not the same as in serial using " + name, serial.size(), parallel.size());
+		for (int k = 0; k < serial.size(); k++) {
+			assertEquals(serial.get(k).getPeak(0).getPosition(), parallel.get(k).getPeak(0).getPosition(), delta);
+			assertEquals(parallel.get(k).getPeak(0).getPosition(), again.get(k).getPeak(0).getPosition(), 0);
+		}
+	}
+
 	private DoubleDataset generatePseudoVoigt(int numPeaks) {
 		CompositeFunction function = new CompositeFunction();
 		if (numPeaks > defaultPeakPos.length)
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.junit.Test;
+
+/**
+ * Test Java decoding of CBF files with byte offset compression
+ */
+public class CBFByteOffsetDecoderTest {
+
+	private static byte[] encode(int[] values) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer b = ByteBuffer.allocate(14).order(ByteOrder.LITTLE_ENDIAN);
+		int previous = 0;
+		for (int v : values) {
+			long d = (long) v - previous;
+			previous = v;
+			b.clear();
+			if (d > Byte.MIN_VALUE && d <= Byte.MAX_VALUE) {
+				b.put((byte) d);
+			} else {
+				b.put(Byte.MIN_VALUE);
+				if (d > Short.MIN_VALUE && d <= Short.MAX_VALUE) {
+					b.putShort((short) d);
+				} else {
+					b.putShort(Short.MIN_VALUE);
+					if (d > Integer.MIN_VALUE && d <= Integer.MAX_VALUE) {
+						b.putInt((int) d);
+					} else {
+						b.putInt(Integer.MIN_VALUE);
+						b.putLong(d);
+					}
+				}
+			}
+			out.write(b.array(), 0, b.position());
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] createFile(int[] values, int x, int y, String conversion) throws Exception {
+		byte[] binary = encode(values);
+		String header = "###CBF: VERSION 1.5, CBFlib v0.7.8 - PILATUS detectors\r\n\r\ndata_test\r\n\r\n"
+				+ "_array_data.header_convention \"PILATUS_1.2\"\r\n_array_data.header_contents\r\n;\r\n"
+				+ "# Detector: PILATUS 6M, S/N 60-0001\r\n# Pixel_size 172e-6 m x 172e-6 m\r\n"
+				+ "# Exposure_time 0.0970000 s\r\n# Count_cutoff 1048500 counts\r\n# Wavelength 0.9795 A\r\n"
+				+ "# Detector_distance 0.19500 m\r\n# Beam_xy (1231.50, 1263.50) pixels\r\n# Start_angle 0.0000 deg.\r\n"
+				+ "# Angle_increment 0.1000 deg.\r\n;\r\n\r\n_array_data.data\r\n;\r\n"
+				+ "--CIF-BINARY-FORMAT-SECTION--\r\nContent-Type: application/octet-stream;\r\n"
+				+ "     conversions=\"" + conversion + "\"\r\nContent-Transfer-Encoding: BINARY\r\n"
+				+ "X-Binary-Size: " + binary.length + "\r\nX-Binary-ID: 1\r\n"
+				+ "X-Binary-Element-Type: \"signed 32-bit integer\"\r\nX-Binary-Element-Byte-Order: LITTLE_ENDIAN\r\n"
+				+ "X-Binary-Number-of-Elements: " + values.length + "\r\nX-Binary-Size-Fastest-Dimension: " + x
+				+ "\r\nX-Binary-Size-Second-Dimension: " + y + "\r\nX-Binary-Size-Padding: 4095\r\n\r\n";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(header.getBytes(StandardCharsets.US_ASCII));
+		out.write(new byte[] {0x0c, 0x1a, 0x04, (byte) 0xd5});
+		out.write(binary);
+		out.write(new byte[4095]);
+		out.write("\r\n--CIF-BINARY-FORMAT-SECTION----\r\n;\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+		return out.toByteArray();
+	}
+
+	private static int[] createValues(int n) {
+		Random r = new Random(12345);
+		int[] values = new int[n];
+		for (int i = 0; i < n; i++) {
+			int k = r.nextInt(100);
+			if (k < 80) {
+				values[i] = r.nextInt(50);
+			} else if (k < 95) {
+				values[i] = r.nextInt(20000) - 1000;
+			} else if (k < 99) {
+				values[i] = r.nextInt(1 << 20);
+			} else {
+				values[i] = r.nextBoolean() ? Integer.MAX_VALUE - r.nextInt(10) : Integer.MIN_VALUE + r.nextInt(10);
+			}
+		}
+		return values;
+	}
+
+	private static int[] statistics(int[] values) {
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		int hash = 0;
+		for (int v : values) {
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+			hash = hash * 19 + v;
+		}
+		return new int[] {min, max, hash};
+	}
+
+	@Test
+	public void testDecode() throws Exception {
+		final int x = 1475, y = 1679; // Pilatus 2M
+		int[] values = createValues(x * y);
+		CBFByteOffsetDecoder decoder = CBFByteOffsetDecoder.create(ByteBuffer.wrap(createFile(values, x, y, "x-CBF_BYTE_OFFSET")));
+		assertEquals(x, decoder.getFastestDimension());
+		assertEquals(y, decoder.getSecondDimension());
+		assertTrue(decoder.isSigned());
+		assertTrue(decoder.getHeaderContents().contains("# Pixel_size 172e-6 m x 172e-6 m"));
+
+		int[] expected = statistics(values);
+		int[] pixels = new int[values.length];
+		assertArrayEquals(expected, decoder.decode(pixels, false));
+		assertArrayEquals(values, pixels);
+
+		Arrays.fill(pixels, 0);
+		assertArrayEquals(expected, decoder.decode(pixels, true));
+		assertArrayEquals(values, pixels);
+	}
+
+	@Test
+	public void testUnsupported() throws Exception {
+		int[] values = createValues(100);
+		assertNull(CBFByteOffsetDecoder.create(ByteBuffer.wrap(createFile(values, 10, 10, "x-CBF_PACKED"))));
+		assertNull(CBFByteOffsetDecoder.create(ByteBuffer.wrap(createFile(values, 10, 11, "x-CBF_BYTE_OFFSET"))));
+	}
+
+	@Test(expected = ScanFileHolderException.class)
+	public void testTruncated() throws Exception {
+		byte[] file = createFile(createValues(100), 10, 10, "x-CBF_BYTE_OFFSET");
+		CBFByteOffsetDecoder.create(ByteBuffer.wrap(Arrays.copyOf(file, file.length - 4200)));
+	}
+
+	@Test
+	public void testLoader() throws Exception {
+		final int x = 50, y = 40;
+		int[] values = createValues(x * y);
+		File f = File.createTempFile("byteoffset", ".cbf");
+		f.deleteOnExit();
+		OutputStream out = new FileOutputStream(f);
+		try {
+			out.write(createFile(values, x, y, "x-CBF_BYTE_OFFSET"));
+		} finally {
+			out.close();
+		}
+
+		CBFLoader loader = new CBFLoader(f.getAbsolutePath());
+		Dataset data = loader.loadFile().getDataset(0);
+		assertArrayEquals(new int[] {y, x}, data.getShape());
+		assertArrayEquals(values, ((IntegerDataset) data).getData());
+		assertEquals("172e-6 m x 172e-6 m", loader.getMetadata().getMetaValue("Pixel_size"));
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.junit.Test;
+
+/**
+ * Test compressed files are loaded in memory by loaders which support streams
+ */
+public class CompressedLoaderTest {
+
+	private static File createTempFile(String suffix) throws Exception {
+		File f = File.createTempFile("compressed", suffix);
+		f.deleteOnExit();
+		return f;
+	}
+
+	private static File gzip(byte[] bytes, String extension) throws Exception {
+		File f = createTempFile("." + extension + ".gz");
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(f));
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return f;
+	}
+
+	@Test
+	public void testNumPy() throws Exception {
+		Dataset data = DatasetFactory.createRange(12 * 10, Dataset.FLOAT64).reshape(12, 10);
+		File f = createTempFile(".npy");
+		DataHolder dh = new DataHolder();
+		dh.addDataset("data", data);
+		new NumPyFileSaver(f.getAbsolutePath()).saveFile(dh);
+
+		File gz = gzip(Files.readAllBytes(f.toPath()), "npy");
+
+		IDataHolder holder = LoaderFactory.getData(gz.getAbsolutePath(), null);
+		assertEquals(CompressedLoader.class, holder.getLoaderClass());
+		assertEquals(data, holder.getDataset(0));
+	}
+
+	@Test
+	public void testEdf() throws Exception {
+		final int rows = 4, cols = 5;
+		String header = "{\r\nHeaderID = EH:000001:000000:000000 ;\r\nByteOrder = LowByteFirst ;\r\n"
+				+ "DataType = UnsignedShort ;\r\nDim_1 = " + cols + " ;\r\nDim_2 = " + rows + " ;\r\n}\n";
+		byte[] h = header.getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer b = ByteBuffer.allocate(h.length + 2 * rows * cols);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		b.put(h);
+		for (int i = 0; i < rows * cols; i++) {
+			b.putShort((short) (1000 * i));
+		}
+
+		File plain = createTempFile(".edf");
+		OutputStream out = new FileOutputStream(plain);
+		try {
+			out.write(b.array());
+		} finally {
+			out.close();
+		}
+		File gz = gzip(b.array(), "edf");
+
+		Dataset expected = DatasetFactory.createRange(rows * cols, Dataset.INT32).imultiply(1000).reshape(rows, cols);
+		assertEquals(expected, new PilatusEdfLoader(plain.getAbsolutePath()).loadFile().getDataset(0));
+
+		IDataHolder holder = LoaderFactory.getData(gz.getAbsolutePath(), null);
+		assertEquals(expected, holder.getDataset(0));
+		assertEquals(String.valueOf(cols), holder.getMetadata().getMetaValue("Dim_1"));
+	}
+}
@@ -9,6 +9,7 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
@@ -39,6 +40,21 @@ public class Fit2DLoaderTest {
  		
 		assertEquals(meta.getMetaValue("Dim_1"), "2048");
 		assertEquals(meta.getMetaValue("Dim_2"), "2048");
+		assertArrayEquals(new int[] {2048, 2048}, meta.getDataShapes().get("Fit2D Data"));
+	}
+
+	@Test
+	public void testF2dHeaderLimit()  throws Exception {
+		// header that does not fit falls back to lazy load
+		System.setProperty(AbstractFileLoader.HEADER_LIMIT, "64");
+		try {
+			Fit2DLoader loader = new Fit2DLoader(testFileFolder+"test1.f2d");
+			loader.loadMetadata(null);
+			assertEquals("2048", loader.getMetadata().getMetaValue("Dim_1"));
+			assertArrayEquals(new int[] {2048, 2048}, loader.getMetadata().getDataShapes().get("Fit2D Data"));
+		} finally {
+			System.clearProperty(AbstractFileLoader.HEADER_LIMIT);
+		}
 	}
 	
 	@Test
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
+import org.junit.Test;
+
+/**
+ * Test HDF5 handle pool
+ */
+public class HDF5HandlePoolTest {
+	final static String TestFileFolder = "testfiles/gda/analysis/io/NexusLoaderTest/";
+
+	private static final String NODE = "/entry1/FFI0/Energy";
+
+	private static String copy(String prefix) throws Exception {
+		File f = File.createTempFile(prefix, ".nxs");
+		f.deleteOnExit();
+		Files.copy(new File(TestFileFolder + "FeKedge_1_15.nxs").toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		return f.getCanonicalPath();
+	}
+
+	/**
+	 * With no files held, each release evicts the file of the other reader. This must not
+	 * wait for the other file's access whilst holding its own
+	 */
+	@Test
+	public void testConcurrentReadersOfTwoFiles() throws Exception {
+		final HDF5HandlePool pool = new HDF5HandlePool(0, 0);
+		final String[] paths = new String[] {copy("poolA"), copy("poolB")};
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+		Thread[] readers = new Thread[paths.length];
+		for (int i = 0; i < readers.length; i++) {
+			final String path = paths[i];
+			readers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < 200; j++) {
+							HierarchicalDataFactory.acquireLowLevelReadingAccess(path);
+							try {
+								HDF5HandlePool.DatasetHandle d = pool.acquire(path, NODE);
+								assertNotNull(d);
+								pool.release(d, false);
+							} finally {
+								HierarchicalDataFactory.releaseLowLevelReadingAccess(path);
+							}
+						}
+					} catch (Throwable t) {
+						error.compareAndSet(null, t);
+					}
+				}
+			}, "Reader " + i);
+			readers[i].setDaemon(true);
+			readers[i].start();
+		}
+
+		for (Thread t : readers) {
+			t.join(30000);
+			assertFalse("Reader is deadlocked", t.isAlive());
+		}
+		assertNull(error.get());
+		assertEquals(0, pool.getOpenFileCount());
+		assertEquals(400, pool.getFileOpenCount());
+	}
+}
@@ -13,6 +13,9 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -254,6 +257,71 @@ public class HDF5LoaderTest {
 		assertEquals("Username", "rjw82", a.getString(0));
 	}
 
+	@Test
+	public void testHandlePool() throws Exception {
+		String n = TestFileFolder + "FeKedge_1_15.nxs";
+		String cPath = new File(n).getCanonicalPath();
+		HDF5HandlePool pool = HDF5HandlePool.getInstance();
+		pool.close(cPath);
+		int open = pool.getOpenFileCount();
+
+		Tree tree = new HDF5Loader(n).loadTree(null);
+		ILazyDataset energy = ((DataNode) tree.findNodeLink("/entry1/FFI0/Energy").getDestination()).getDataset();
+		IDataset all = energy.getSlice();
+		pool.close(cPath);
+		pool.resetStatistics();
+		for (int i = 0; i < 5; i++) {
+			IDataset d = energy.getSlice(new Slice(i, null, 10));
+			for (int j = 0; j < d.getSize(); j++) {
+				assertEquals(all.getDouble(i + 10 * j), d.getDouble(j), 1e-12);
+			}
+		}
+		assertEquals(1, pool.getFileOpenCount());
+		assertEquals(1, pool.getDatasetOpenCount());
+		assertEquals(4, pool.getReuseCount());
+		assertEquals(open + 1, pool.getOpenFileCount());
+
+		pool.close(cPath);
+		assertEquals(open, pool.getOpenFileCount());
+	}
+
+	@Test
+	public void testTreeIndex() throws Exception {
+		File f = File.createTempFile("index", ".nxs");
+		f.deleteOnExit();
+		Files.copy(new File(TestFileFolder + "FeKedge_1_15.nxs").toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		String n = f.getCanonicalPath();
+
+		HDF5TreeIndex index = HDF5TreeIndex.getInstance();
+		index.remove(n);
+		index.resetStatistics();
+		DataHolder walked = new HDF5Loader(n).loadFile();
+		assertEquals(0, index.getHitCount());
+
+		DataHolder indexed = new HDF5Loader(n).loadFile();
+		assertEquals(1, index.getHitCount());
+		assertArrayEquals(walked.getNames(), indexed.getNames());
+		for (String name : walked.getNames()) {
+			ILazyDataset w = walked.getLazyDataset(name);
+			ILazyDataset i = indexed.getLazyDataset(name);
+			assertArrayEquals(name, w.getShape(), i.getShape());
+			assertEquals(name, w.getSlice(), i.getSlice());
+		}
+		IMetadata wmd = walked.getMetadata();
+		IMetadata imd = indexed.getMetadata();
+		assertEquals(wmd.getMetaNames(), imd.getMetaNames());
+		for (String name : wmd.getMetaNames()) {
+			assertEquals(name, wmd.getMetaValue(name), imd.getMetaValue(name));
+		}
+
+		// stale index is not used
+		assertTrue(f.setLastModified(f.lastModified() - 10000));
+		new HDF5Loader(n).loadFile();
+		assertEquals(1, index.getHitCount());
+		assertEquals(2, index.getMissCount());
+		index.remove(n);
+	}
+
 	@Test
 	public void testLoadingMetadata() throws Exception {
 		String n = TestFileFolder + "FeKedge_1_15.nxs";
@@ -337,6 +405,43 @@ public class HDF5LoaderTest {
 		assertTrue(timeTaken < 10000);
 	}
 
+	@Test
+	public void testChunkCache() throws Exception {
+		final String n = TestUtils.getGDALargeTestFilesLocation() + "NexusUITest/sino.h5";
+		Tree tree = new HDF5Loader(n).loadTree(null);
+		ILazyDataset lazy = ((DataNode) tree.findNodeLink("/RawDCT/data").getDestination()).getDataset();
+		Slice[][] slices = new Slice[][] {
+				{ new Slice(1), new Slice(1), null },
+				{ new Slice(1), new Slice(null, null, 3), new Slice(2) },
+				{ new Slice(null, null, 2), new Slice(null, null, 3), new Slice(1, 2) },
+				{ new Slice(3, 7), new Slice(5, 40), new Slice(null, null, 7) },
+		};
+
+		HDF5ChunkCache cache = HDF5ChunkCache.getInstance();
+		long budget = cache.getBudget();
+		try {
+			cache.setBudget(0);
+			Dataset[] expected = new Dataset[slices.length];
+			for (int i = 0; i < slices.length; i++) {
+				expected[i] = (Dataset) lazy.getSlice(slices[i]);
+			}
+
+			cache.setBudget(64L << 20);
+			cache.clear();
+			for (int j = 0; j < 2; j++) {
+				cache.resetStatistics();
+				for (int i = 0; i < slices.length; i++) {
+					assertEquals("Slice " + i, expected[i], lazy.getSlice(slices[i]));
+				}
+			}
+			assertTrue(cache.getHitCount() > 0);
+			assertEquals(0, cache.getMissCount());
+		} finally {
+			cache.setBudget(budget);
+			cache.clear();
+		}
+	}
+
 	@Test
 	public void testLoadingChunkedSpeed() throws Exception {
 		final String n = TestUtils.getGDALargeTestFilesLocation() + "NexusUITest/3dDataChunked.nxs";
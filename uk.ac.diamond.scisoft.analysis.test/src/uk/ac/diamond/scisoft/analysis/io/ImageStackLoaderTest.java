@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ImageStackLoaderTest {
+
+	static final int frames = 12, sizex = 10, sizey = 20;
+
+	private static List<String> files;
+	private static Dataset stack;
+
+	@BeforeClass
+	public static void writeFrames() throws Exception {
+		stack = DatasetFactory.createRange(frames * sizex * sizey, Dataset.INT32);
+		stack.setShape(frames, sizex, sizey);
+		files = new ArrayList<String>();
+		for (int i = 0; i < frames; i++) {
+			File f = File.createTempFile("stack", ".npy");
+			f.deleteOnExit();
+			DataHolder dh = new DataHolder();
+			dh.addDataset("", stack.getSlice(new int[] {i, 0, 0}, new int[] {i + 1, sizex, sizey}, null).squeeze());
+			new NumPyFileSaver(f.getAbsolutePath()).saveFile(dh);
+			files.add(f.getAbsolutePath());
+		}
+	}
+
+	private static void checkSlices(ImageStackLoader loader) throws Exception {
+		int[] shape = loader.getShape();
+		assertArrayEquals(stack.getShape(), shape);
+
+		assertEquals(stack, loader.getDataset(null, new SliceND(shape)));
+
+		// sequence of slices as when browsing through the stack
+		for (int i = 0; i < frames; i += 3) {
+			int[] start = new int[] {i, 2, 1};
+			int[] stop = new int[] {i + 3, sizex, sizey - 1};
+			int[] step = new int[] {1, 2, 3};
+			assertEquals(stack.getSlice(start, stop, step), loader.getDataset(null, new SliceND(shape, start, stop, step)));
+		}
+
+		int[] start = new int[] {1, 0, 0};
+		int[] stop = new int[] {frames, sizex, sizey};
+		int[] step = new int[] {4, 1, 1};
+		assertEquals(stack.getSlice(start, stop, step), loader.getDataset(null, new SliceND(shape, start, stop, step)));
+	}
+
+	@Test
+	public void testSerial() throws Exception {
+		checkSlices(new ImageStackLoader(files, null));
+	}
+
+	@Test
+	public void testReadAhead() throws Exception {
+		ImageStackLoader loader = new ImageStackLoader(files, null);
+		loader.setReadAhead(4);
+		checkSlices(loader);
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.junit.Test;
+
+/**
+ * Test loader factory cache
+ */
+public class LoaderCacheTest {
+
+	private static LoaderKey createKey(String path) {
+		LoaderKey key = new LoaderKey();
+		key.setFilePath(path);
+		key.setMetadata(false);
+		return key;
+	}
+
+	private static IDataHolder createHolder(int length) {
+		DataHolder holder = new DataHolder();
+		holder.addDataset("data", DatasetFactory.zeros(new int[] { length }, Dataset.FLOAT64));
+		return holder;
+	}
+
+	@Test
+	public void testBudget() {
+		LoaderCache cache = new LoaderCache(8 * 3000);
+
+		LoaderKey a = createKey("a");
+		LoaderKey b = createKey("b");
+		LoaderKey c = createKey("c");
+		IDataHolder ha = createHolder(1000);
+		assertTrue(cache.put(a, ha));
+		assertTrue(cache.put(b, createHolder(1000)));
+		assertSame(ha, cache.get(a)); // makes b least recently used
+		assertEquals(1, cache.getHitCount());
+
+		assertTrue(cache.put(c, createHolder(1500)));
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get(b));
+		assertSame(ha, cache.get(a));
+		assertEquals(8 * 2500, cache.getSize());
+
+		assertFalse(cache.put(createKey("d"), createHolder(4000)));
+		assertEquals(2, cache.getEntryCount());
+
+		cache.setBudget(8 * 1500);
+		assertEquals(1, cache.getEntryCount());
+		assertNull(cache.get(a));
+	}
+
+	@Test
+	public void testSharedLoad() throws Exception {
+		final LoaderCache cache = new LoaderCache(1 << 20);
+		final LoaderKey key = createKey("shared");
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+
+		final Callable<IDataHolder> load = new Callable<IDataHolder>() {
+			@Override
+			public IDataHolder call() throws Exception {
+				loads.incrementAndGet();
+				started.countDown();
+				release.await();
+				IDataHolder h = createHolder(10);
+				cache.put(key, h);
+				return h;
+			}
+		};
+
+		final IDataHolder[] results = new IDataHolder[4];
+		Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int j = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						results[j] = cache.load(key, load);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		threads[0].start();
+		started.await();
+		for (int i = 1; i < threads.length; i++) {
+			threads[i].start();
+		}
+		Thread.sleep(100);
+		release.countDown();
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getMissCount());
+		for (IDataHolder h : results) {
+			assertSame(results[0], h);
+		}
+		assertSame(results[0], cache.get(key));
+	}
+
+	@Test(expected = LoadException.class)
+	public void testLoadFailure() throws Exception {
+		LoaderCache cache = new LoaderCache(1 << 20);
+		cache.load(createKey("fail"), new Callable<IDataHolder>() {
+			@Override
+			public IDataHolder call() throws Exception {
+				throw new LoadException();
+			}
+		});
+	}
+
+	private static class LoadException extends Exception {
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.junit.Test;
+
+/**
+ * Test loader executor
+ */
+public class LoaderExecutorTest {
+
+	private static final String DIR = new File(System.getProperty("java.io.tmpdir")).getAbsolutePath();
+
+	@Test
+	public void testDeviceLimit() throws Exception {
+		final LoaderExecutor executor = new LoaderExecutor(8, 2);
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger most = new AtomicInteger();
+
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 10; i++) {
+			final int j = i;
+			results.add(executor.submit(new File(DIR, "file" + i).getPath(), null, new LoaderExecutor.Load<Integer>() {
+				@Override
+				public Integer load(IMonitor mon) throws Exception {
+					assertTrue(LoaderExecutor.isLoaderThread());
+					int n = active.incrementAndGet();
+					synchronized (most) {
+						most.set(Math.max(most.get(), n));
+					}
+					Thread.sleep(20);
+					active.decrementAndGet();
+					return j;
+				}
+			}));
+		}
+
+		for (int i = 0; i < results.size(); i++) {
+			assertEquals(i, results.get(i).get(10, TimeUnit.SECONDS).intValue());
+		}
+		assertEquals(2, most.get());
+		assertFalse(LoaderExecutor.isLoaderThread());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final LoaderExecutor executor = new LoaderExecutor(2, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+
+		Future<Integer> first = executor.submit(new File(DIR, "first").getPath(), null, new LoaderExecutor.Load<Integer>() {
+			@Override
+			public Integer load(IMonitor mon) throws Exception {
+				started.countDown();
+				release.await();
+				return 1;
+			}
+		});
+		started.await();
+
+		LoaderExecutor.Load<Integer> load = new LoaderExecutor.Load<Integer>() {
+			@Override
+			public Integer load(IMonitor mon) throws Exception {
+				loads.incrementAndGet();
+				return 2;
+			}
+		};
+
+		// queued behind first load on same device
+		Future<Integer> second = executor.submit(new File(DIR, "second").getPath(), null, load);
+		assertTrue(second.cancel(false));
+
+		IMonitor mon = new IMonitor.Stub() {
+			@Override
+			public boolean isCancelled() {
+				return true;
+			}
+		};
+		Future<Integer> third = executor.submit(new File(DIR, "third").getPath(), mon, load);
+
+		release.countDown();
+		assertEquals(1, first.get(10, TimeUnit.SECONDS).intValue());
+		// cancelling by monitor is reported as cancelling by future
+		try {
+			third.get(10, TimeUnit.SECONDS);
+			fail("Load should have been cancelled");
+		} catch (CancellationException e) {
+		}
+		assertTrue(third.isCancelled());
+		assertTrue(second.isCancelled());
+		assertEquals(0, loads.get());
+	}
+
+	@Test
+	public void testMonitorCancelsRunningLoad() throws Exception {
+		final LoaderExecutor executor = new LoaderExecutor(1, 1);
+		final CountDownLatch started = new CountDownLatch(1);
+
+		Future<Integer> result = executor.submit(new File(DIR, "running").getPath(), null, new LoaderExecutor.Load<Integer>() {
+			@Override
+			public Integer load(IMonitor mon) throws Exception {
+				started.countDown();
+				int n = 0;
+				while (!mon.isCancelled()) {
+					Thread.sleep(1);
+					n++;
+				}
+				return n;
+			}
+		});
+		started.await();
+		assertTrue(result.cancel(false));
+		assertTrue(result.isDone());
+
+		// slot is released for next load
+		Future<Integer> next = executor.submit(new File(DIR, "next").getPath(), null, new LoaderExecutor.Load<Integer>() {
+			@Override
+			public Integer load(IMonitor mon) throws Exception {
+				return 3;
+			}
+		});
+		assertEquals(3, next.get(10, TimeUnit.SECONDS).intValue());
+	}
+
+	@Test
+	public void testChildIsNotLoaderThread() throws Exception {
+		final LoaderExecutor executor = new LoaderExecutor(1, 1);
+		Future<Boolean> result = executor.submit(new File(DIR, "child").getPath(), null, new LoaderExecutor.Load<Boolean>() {
+			@Override
+			public Boolean load(IMonitor mon) throws Exception {
+				final boolean[] child = new boolean[1];
+				Thread t = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						child[0] = LoaderExecutor.isLoaderThread();
+					}
+				});
+				t.start();
+				t.join();
+				return LoaderExecutor.isLoaderThread() && !child[0];
+			}
+		});
+		assertTrue(result.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCallback() throws Exception {
+		final LoaderExecutor executor = new LoaderExecutor(2, 2);
+		final CountDownLatch ended = new CountDownLatch(2);
+		final AtomicReference<Integer> loaded = new AtomicReference<Integer>();
+		final AtomicReference<Throwable> failed = new AtomicReference<Throwable>();
+
+		LoaderExecutor.Callback<Integer> callback = new LoaderExecutor.Callback<Integer>() {
+			@Override
+			public void loaded(Integer result) {
+				loaded.set(result);
+				ended.countDown();
+			}
+
+			@Override
+			public void failed(Throwable t) {
+				failed.set(t);
+				ended.countDown();
+			}
+		};
+
+		executor.submit(new File(DIR, "good").getPath(), null, new LoaderExecutor.Load<Integer>() {
+			@Override
+			public Integer load(IMonitor mon) throws Exception {
+				return 4;
+			}
+		}).addCallback(callback);
+		LoaderExecutor.LoadFuture<Integer> bad = executor.submit(new File(DIR, "bad").getPath(), null, new LoaderExecutor.Load<Integer>() {
+			@Override
+			public Integer load(IMonitor mon) throws Exception {
+				throw new IllegalStateException("bad");
+			}
+		});
+		bad.addCallback(callback);
+
+		assertTrue(ended.await(10, TimeUnit.SECONDS));
+		assertEquals(4, loaded.get().intValue());
+		assertTrue(failed.get() instanceof IllegalStateException);
+
+		// added after end so called at once
+		failed.set(null);
+		bad.addCallback(callback);
+		assertTrue(failed.get() instanceof IllegalStateException);
+	}
+}
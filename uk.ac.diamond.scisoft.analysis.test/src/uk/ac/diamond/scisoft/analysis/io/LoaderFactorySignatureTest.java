@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.io.IFileSaver;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.IFileSignature.Match;
+
+/**
+ * Test loaders' signature checks and how the loader factory uses them
+ */
+public class LoaderFactorySignatureTest {
+
+	private static String npy, tif, srs;
+
+	private static String save(IFileSaver saver, String path, Dataset data) throws Exception {
+		DataHolder dh = new DataHolder();
+		dh.addDataset("data", data);
+		saver.saveFile(dh);
+		return path;
+	}
+
+	private static String createTempFile(String extension) throws Exception {
+		File f = File.createTempFile("signature", "." + extension);
+		f.deleteOnExit();
+		return f.getAbsolutePath();
+	}
+
+	@BeforeClass
+	public static void writeFiles() throws Exception {
+		Dataset image = DatasetFactory.createRange(64 * 32, Dataset.INT32).reshape(64, 32);
+		npy = createTempFile("npy");
+		save(new NumPyFileSaver(npy), npy, image);
+		tif = createTempFile("tif");
+		save(new TIFFImageSaver(tif, 32), tif, image);
+		srs = createTempFile("dat");
+		save(new SRSLoader(srs), srs, DatasetFactory.createRange(20, Dataset.FLOAT64));
+	}
+
+	private static Match check(AbstractFileLoader loader, String path) throws Exception {
+		byte[] header = new byte[IFileSignature.HEADER_LENGTH];
+		int length = 0;
+		InputStream in = new FileInputStream(path);
+		try {
+			int n;
+			while (length < header.length && (n = in.read(header, length, header.length - length)) >= 0) {
+				length += n;
+			}
+		} finally {
+			in.close();
+		}
+		return loader.checkSignature(header, length);
+	}
+
+	@Test
+	public void testSignatures() throws Exception {
+		assertEquals(Match.YES, check(new NumPyFileLoader(npy), npy));
+		assertEquals(Match.NO, check(new NumPyFileLoader(tif), tif));
+		assertEquals(Match.YES, check(new TIFFImageLoader(tif), tif));
+		assertEquals(Match.NO, check(new TIFFImageLoader(npy), npy));
+		assertEquals(Match.NO, check(new HDF5Loader(npy), npy));
+		assertEquals(Match.NO, check(new ADSCImageLoader(tif), tif));
+		assertEquals(Match.YES, check(new SRSLoader(srs), srs));
+		assertEquals(Match.NO, check(new DatLoader(srs), srs));
+		assertEquals(Match.NO, check(new RawTextLoader(tif), tif));
+	}
+
+	@Test
+	public void testChoice() throws Exception {
+		IDataHolder holder = LoaderFactory.getData(srs);
+		assertTrue(SRSLoader.class.isAssignableFrom(holder.getLoaderClass()));
+		String choice = LoaderFactory.getLoaderChoice(srs);
+		assertTrue(choice, choice.contains("DatLoader signature NO"));
+		assertTrue(choice, choice.endsWith("loaded by " + holder.getLoaderClass().getSimpleName()));
+
+		holder = LoaderFactory.getData(tif);
+		assertTrue(TIFFImageLoader.class.isAssignableFrom(holder.getLoaderClass()));
+		choice = LoaderFactory.getLoaderChoice(tif);
+		// Pixium files are TIFF files so only loading tells them apart (by their metadata.inf)
+		assertTrue(choice, choice.contains("PixiumLoader signature YES"));
+		assertTrue(choice, choice.indexOf("PixiumLoader") < choice.indexOf("TIFFImageLoader"));
+	}
+}
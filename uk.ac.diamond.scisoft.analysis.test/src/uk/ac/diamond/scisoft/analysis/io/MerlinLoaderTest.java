@@ -9,10 +9,23 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.metadata.IMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.junit.Test;
 
 public class MerlinLoaderTest {
@@ -45,5 +58,102 @@ public class MerlinLoaderTest {
 		assertEquals(515,shape[2], 0.0);
 		assertEquals(2862,data.max().intValue(), 0.0);
 	}
-	
+
+	private static final int HEADER_LENGTH = 384;
+
+	/**
+	 * Write frames with minimal headers
+	 * @param data 3D dataset
+	 * @param bytes per pixel
+	 * @return file
+	 * @throws Exception
+	 */
+	private static File writeFrames(Dataset data, int bytes) throws Exception {
+		File f = File.createTempFile("merlin", ".mib");
+		f.deleteOnExit();
+		int[] shape = data.getShape();
+		int size = shape[1] * shape[2];
+		OutputStream out = new FileOutputStream(f);
+		try {
+			for (int i = 0; i < shape[0]; i++) {
+				String header = String.format(Locale.ROOT, "MQ1,%06d,%05d,01,%04d,%04d,U%02d,   1x1,01,2015-06-01 10:00:00.000000,%f,0,0,0",
+						i + 1, HEADER_LENGTH, shape[1], shape[2], 8 * bytes, 0.001 * (i + 1));
+				byte[] h = new byte[HEADER_LENGTH];
+				byte[] t = header.getBytes(StandardCharsets.US_ASCII);
+				System.arraycopy(t, 0, h, 0, t.length);
+				out.write(h);
+				ByteBuffer b = ByteBuffer.allocate(size * bytes); // big-endian
+				for (int j = 0; j < size; j++) {
+					int v = data.getInt(i, j / shape[2], j % shape[2]);
+					if (bytes == 2) {
+						b.putShort((short) v);
+					} else {
+						b.putInt(v);
+					}
+				}
+				out.write(b.array());
+			}
+		} finally {
+			out.close();
+		}
+		return f;
+	}
+
+	private static void checkLazySlices(int bytes) throws Exception {
+		Dataset data = DatasetFactory.createRange(7 * 9 * 11, Dataset.INT32).imultiply(bytes == 2 ? 41 : 123457);
+		data.setShape(7, 9, 11);
+		File f = writeFrames(data, bytes);
+
+		MerlinLoader loader = new MerlinLoader(f.getAbsolutePath());
+		loader.setLoadAllLazily(true);
+		IDataHolder holder = loader.loadFile();
+		ILazyDataset lazy = holder.getLazyDataset(0);
+		assertArrayEquals(data.getShape(), lazy.getShape());
+
+		assertEquals(data, lazy.getSlice());
+		assertEquals(data.getSlice(new int[] {3, 0, 0}, new int[] {4, 9, 11}, null),
+				lazy.getSlice(new int[] {3, 0, 0}, new int[] {4, 9, 11}, null));
+		assertEquals(data.getSlice(new int[] {1, 2, 1}, new int[] {7, 9, 10}, new int[] {2, 3, 4}),
+				lazy.getSlice(new int[] {1, 2, 1}, new int[] {7, 9, 10}, new int[] {2, 3, 4}));
+		Slice[] reversed = new Slice[] {new Slice(6, 0, -2), new Slice(null, null, -1), new Slice(9, 1, -3)};
+		assertEquals(data.getSlice(reversed), lazy.getSlice(reversed));
+		reversed = new Slice[] {null, null, new Slice(null, null, -1)};
+		assertEquals(data.getSlice(reversed), lazy.getSlice(reversed));
+
+		// eager loading matches
+		assertEquals(data, new MerlinLoader(f.getAbsolutePath()).loadFile().getDataset(0));
+
+		// frame headers
+		IDataset time = holder.getLazyDataset("acquisitionShutterTime").getSlice();
+		assertEquals(7, time.getSize());
+		assertEquals(0.007, time.getDouble(6), 1e-9);
+		IDataset sequence = holder.getLazyDataset("acquisitionSequenceNumber").getSlice();
+		assertEquals(5, sequence.getInt(4));
+		assertEquals(Dataset.INT32, ((Dataset) sequence).getDtype());
+	}
+
+	@Test
+	public void testLazyU16() throws Exception {
+		checkLazySlices(2);
+	}
+
+	@Test
+	public void testLazyU32() throws Exception {
+		checkLazySlices(4);
+	}
+
+	@Test
+	public void testHeaderMetadata() throws Exception {
+		Dataset data = DatasetFactory.createRange(3 * 9 * 11, Dataset.INT32);
+		data.setShape(3, 9, 11);
+		File f = writeFrames(data, 2);
+
+		MerlinLoader loader = new MerlinLoader(f.getAbsolutePath());
+		loader.loadMetadata(null);
+		IMetadata metadata = loader.getMetadata();
+		assertEquals("00384", metadata.getMetaValue("dataOffset"));
+		assertEquals("U16", metadata.getMetaValue("pixelDepth"));
+		assertArrayEquals(data.getShape(), metadata.getDataShapes().get("MerlinData"));
+		assertArrayEquals(new int[] {3}, metadata.getDataShapes().get("acquisitionShutterTime"));
+	}
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test parallel BZip2 decompression against sequential decompression
+ */
+public class ParallelCBZip2InputStreamTest {
+	final static String TestFileFolder = "testfiles/images/";
+
+	// blocks.bz2 holds this data compressed by "bzip2 -1" in three blocks
+	private static final int LENGTH = 250000;
+	private static byte[] expected;
+	private static byte[] compressed;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		expected = new byte[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			expected[i] = (byte) ((i * 7 + i / 1000) % 251);
+		}
+		InputStream in = new FileInputStream(TestFileFolder + "blocks.bz2");
+		try {
+			compressed = Utils.readAll(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] readAll(InputStream in, int size) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[size];
+		int n;
+		while ((n = in.read(buffer, 0, size)) >= 0) {
+			out.write(buffer, 0, n);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testSequential() throws Exception {
+		assertArrayEquals(expected, readAll(new CBZip2InputStream(new BufferedInputStream(new ByteArrayInputStream(compressed))), 4096));
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		assertArrayEquals(expected, readAll(new ParallelCBZip2InputStream(new ByteArrayInputStream(compressed)), 4096));
+		assertArrayEquals(expected, readAll(new ParallelCBZip2InputStream(compressed, 1), 333));
+
+		ParallelCBZip2InputStream in = new ParallelCBZip2InputStream(compressed);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(expected[i] & 0xff, in.read());
+		}
+		in.close();
+	}
+
+	@Test
+	public void testBlocks() throws Exception {
+		ParallelCBZip2InputStream in = new ParallelCBZip2InputStream(compressed);
+		assertEquals(3, in.getBlockCount());
+
+		byte[] first = in.readBlock(0);
+		assertArrayEquals(Arrays.copyOf(expected, first.length), first);
+		byte[] rest = in.readBlocks(1, 3);
+		assertEquals(LENGTH, first.length + rest.length);
+		assertArrayEquals(Arrays.copyOfRange(expected, first.length, LENGTH), rest);
+		assertArrayEquals(expected, in.readBlocks(0, 3));
+		in.close();
+	}
+
+	@Test
+	public void testCorruptBlock() throws Exception {
+		// bad CRC in last block makes parallel stream switch to sequential decoding
+		byte[] corrupt = compressed.clone();
+		corrupt[corrupt.length - 20] ^= 0x55;
+		byte[] sequential = readAll(new CBZip2InputStream(new ByteArrayInputStream(corrupt)), 4096);
+		assertArrayEquals(sequential, readAll(new ParallelCBZip2InputStream(corrupt), 4096));
+	}
+}
@@ -102,7 +102,8 @@ public class PgmLoaderTest {
 		assertEquals(meta.getMetaValue("Width"), "1024");			
 		assertEquals(meta.getMetaValue("Height"), "1024");			
 		assertEquals(meta.getMetaValue("Maxval"), "65535");			
-
+		assertArrayEquals(new int[] {1024, 1024}, meta.getDataShapes().get("Portable Grey Map"));
+		assertEquals(0, LoaderFactory.getCache().getEntryCount()); // read from header only
 	}
 
 }
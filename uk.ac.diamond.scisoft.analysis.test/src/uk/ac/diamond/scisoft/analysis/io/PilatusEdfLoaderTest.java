@@ -9,7 +9,9 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import junit.framework.Assert;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
@@ -111,6 +113,33 @@ public class PilatusEdfLoaderTest {
 	}
 
 
+	@Test
+	public void testHeaderMetadata() throws Exception {
+		final String path = testFileFolder + "pilatus300k.edf";
+		LoaderFactory.clear();
+		LoaderCache cache = LoaderFactory.getMetadataCache();
+		cache.resetStatistics();
+
+		IMetadata meta = LoaderFactory.getMetadata(path, null);
+		assertEquals(meta.getMetaValue("DataType"), "SignedInteger");
+		assertArrayEquals(new int[] {195, 1475}, meta.getDataShapes().get(PilatusEdfLoader.DATA_NAME));
+		assertSame(meta, LoaderFactory.getMetadata(path, null));
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(0, LoaderFactory.getCache().getEntryCount()); // data cache is untouched
+
+		// header that does not fit falls back to lazy load
+		System.setProperty(AbstractFileLoader.HEADER_LIMIT, "64");
+		try {
+			PilatusEdfLoader loader = new PilatusEdfLoader(path);
+			loader.loadMetadata(null);
+			assertEquals(meta.getMetaValue("Size"), loader.getMetadata().getMetaValue("Size"));
+			assertArrayEquals(new int[] {195, 1475}, loader.getMetadata().getDataShapes().get(PilatusEdfLoader.DATA_NAME));
+		} finally {
+			System.clearProperty(AbstractFileLoader.HEADER_LIMIT);
+		}
+	}
+
 	@Test
 	public void loadDiff6105() throws Exception {
 		
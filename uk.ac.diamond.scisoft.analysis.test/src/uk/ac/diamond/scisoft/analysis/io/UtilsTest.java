@@ -14,13 +14,20 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.InputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 import junit.framework.Assert;
 
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.eclipse.dawnsci.analysis.dataset.impl.ShortDataset;
 import org.junit.Test;
 
 /**
@@ -126,6 +133,98 @@ public class UtilsTest {
 		assertArrayEquals(beAnswer, attempt);
 	}
 
+	private static final int IMAGE_SIZE = 40000; // bigger than decode buffer
+	private static final int IMAGE_START = 5;
+
+	private static ByteBuffer createImageBuffer(int itemSize, ByteOrder order) {
+		ByteBuffer b = ByteBuffer.allocate(IMAGE_START + IMAGE_SIZE * itemSize);
+		b.order(order);
+		b.position(IMAGE_START);
+		return b;
+	}
+
+	@Test
+	public void testReadShortImages() throws Exception {
+		for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			ByteBuffer b = createImageBuffer(2, order);
+			for (int i = 0; i < IMAGE_SIZE; i++) {
+				b.putShort((short) (i * 7 - 30000));
+			}
+
+			for (boolean signed : new boolean[] {true, false}) {
+				IntegerDataset data = new IntegerDataset(200, 200);
+				InputStream is = new ByteArrayInputStream(b.array());
+				if (order == ByteOrder.BIG_ENDIAN) {
+					Utils.readBeShort(is, data, IMAGE_START, signed);
+				} else {
+					Utils.readLeShort(is, data, IMAGE_START, signed);
+				}
+				int max = Integer.MIN_VALUE;
+				for (int i = 0; i < IMAGE_SIZE; i++) {
+					short v = (short) (i * 7 - 30000);
+					int expected = signed ? v : v & 0xffff;
+					assertEquals(expected, data.getAbs(i));
+					max = Math.max(max, expected);
+				}
+				assertEquals(max, data.max().intValue());
+			}
+		}
+	}
+
+	@Test
+	public void testReadIntImages() throws Exception {
+		for (ByteOrder order : new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			ByteBuffer b = createImageBuffer(4, order);
+			for (int i = 0; i < IMAGE_SIZE; i++) {
+				b.putInt(i * 50001 - 1000000000);
+			}
+
+			IntegerDataset data = new IntegerDataset(200, 200);
+			InputStream is = new ByteArrayInputStream(b.array());
+			if (order == ByteOrder.BIG_ENDIAN) {
+				Utils.readBeInt(is, data, IMAGE_START);
+			} else {
+				Utils.readLeInt(is, data, IMAGE_START);
+			}
+			for (int i = 0; i < IMAGE_SIZE; i++) {
+				assertEquals(i * 50001 - 1000000000, data.getAbs(i));
+			}
+			assertEquals(-1000000000, data.min().intValue());
+		}
+	}
+
+	@Test
+	public void testReadFloatAndByteImages() throws Exception {
+		ByteBuffer b = createImageBuffer(4, ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < IMAGE_SIZE; i++) {
+			b.putFloat(-0.25f * i);
+		}
+		FloatDataset fdata = new FloatDataset(200, 200);
+		Utils.readFloat(new ByteArrayInputStream(b.array()), fdata, IMAGE_START);
+		for (int i = 0; i < IMAGE_SIZE; i++) {
+			assertEquals(-0.25f * i, fdata.getAbs(i), 0);
+		}
+		assertEquals(0, fdata.max().floatValue(), 0);
+
+		b = createImageBuffer(1, ByteOrder.BIG_ENDIAN);
+		for (int i = 0; i < IMAGE_SIZE; i++) {
+			b.put((byte) i);
+		}
+		ShortDataset sdata = new ShortDataset(200, 200);
+		Utils.readByte(new ByteArrayInputStream(b.array()), sdata, IMAGE_START);
+		for (int i = 0; i < IMAGE_SIZE; i++) {
+			assertEquals(i & 0xff, sdata.getAbs(i));
+		}
+		assertEquals(255, sdata.max().intValue());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testShortRead() throws Exception {
+		ByteBuffer b = createImageBuffer(2, ByteOrder.BIG_ENDIAN);
+		IntegerDataset data = new IntegerDataset(201, 200);
+		Utils.readBeShort(new ByteArrayInputStream(b.array()), data, IMAGE_START, false);
+	}
+
 	@Test
 	public void testParsing() {
 		// check
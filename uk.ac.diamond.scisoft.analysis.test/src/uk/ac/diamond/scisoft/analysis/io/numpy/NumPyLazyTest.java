@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io.numpy;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+import uk.ac.diamond.scisoft.analysis.io.NumPyFileLoader;
+
+/**
+ * Test slices read lazily from NumPy files match slices of fully loaded data
+ */
+public class NumPyLazyTest {
+
+	private static final int[] SHAPE = { 5, 6, 7, 8 };
+
+	private static ILazyDataset loadLazily(File loc) throws Exception {
+		NumPyFileLoader loader = new NumPyFileLoader(loc.getAbsolutePath());
+		loader.setLoadAllLazily(true);
+		DataHolder dh = loader.loadFile();
+		return dh.getLazyDataset(0);
+	}
+
+	private static void checkSlices(int dtype, boolean unsigned) throws Exception {
+		Dataset ds = DatasetFactory.createRange(5 * 6 * 7 * 8, dtype);
+		ds.setShape(SHAPE);
+		File loc = NumPyTest.getTempFile();
+		NumPyTest.saveNumPyFile(ds, loc, unsigned);
+
+		Dataset full = NumPyFileLoader.loadFileHelper(loc.getAbsolutePath());
+		ILazyDataset lazy = loadLazily(loc);
+		Assert.assertArrayEquals(SHAPE, lazy.getShape());
+
+		// whole, single frame and strided slices
+		Assert.assertEquals(full, lazy.getSlice());
+		Assert.assertEquals(full.getSlice(new int[] {2, 0, 0, 0}, new int[] {3, 6, 7, 8}, null),
+				lazy.getSlice(new int[] {2, 0, 0, 0}, new int[] {3, 6, 7, 8}, null));
+		Assert.assertEquals(full.getSlice(new int[] {1, 1, 0, 1}, new int[] {5, 6, 7, 8}, new int[] {2, 3, 2, 3}),
+				lazy.getSlice(new int[] {1, 1, 0, 1}, new int[] {5, 6, 7, 8}, new int[] {2, 3, 2, 3}));
+
+		// reversed slices
+		Slice[] reversed = new Slice[] {new Slice(4, null, -2), new Slice(null, null, -1), new Slice(1, 6), new Slice(7, 0, -3)};
+		Assert.assertEquals(full.getSlice(reversed), lazy.getSlice(reversed));
+		reversed = new Slice[] {null, null, null, new Slice(null, null, -1)};
+		Assert.assertEquals(full.getSlice(reversed), lazy.getSlice(reversed));
+	}
+
+	@Test
+	public void testSlices() throws Exception {
+		checkSlices(Dataset.INT8, false);
+		checkSlices(Dataset.INT16, true);
+		checkSlices(Dataset.INT32, false);
+		checkSlices(Dataset.FLOAT32, false);
+		checkSlices(Dataset.FLOAT64, false);
+		checkSlices(Dataset.COMPLEX128, false);
+	}
+
+	@Test
+	public void testSqueezedSlice() throws Exception {
+		Dataset ds = DatasetFactory.createRange(6 * 7, Dataset.FLOAT64);
+		ds.setShape(1, 6, 7);
+		File loc = NumPyTest.getTempFile();
+		NumPyTest.saveNumPyFile(ds, loc, false);
+
+		ILazyDataset lazy = loadLazily(loc);
+		lazy.squeeze();
+		Assert.assertEquals(ds.squeeze().getSlice(new int[] {1, 2}, new int[] {5, 7}, null),
+				lazy.getSlice(new int[] {1, 2}, new int[] {5, 7}, null));
+	}
+
+	/**
+	 * Write a 0-d array as saved by NumPy from a scalar
+	 */
+	private static File writeScalar(double value) throws Exception {
+		StringBuilder header = new StringBuilder("{'descr': '<f8', 'fortran_order': False, 'shape': (), }");
+		while ((10 + header.length() + 1) % 16 != 0) {
+			header.append(' ');
+		}
+		header.append('\n');
+
+		ByteBuffer b = ByteBuffer.allocate(10 + header.length() + 8);
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		b.put(new byte[] { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y', 0x1, 0x0 });
+		b.putShort((short) header.length());
+		b.put(header.toString().getBytes(StandardCharsets.US_ASCII));
+		b.putDouble(value);
+
+		File loc = NumPyTest.getTempFile();
+		OutputStream out = new FileOutputStream(loc);
+		try {
+			out.write(b.array());
+		} finally {
+			out.close();
+		}
+		return loc;
+	}
+
+	@Test
+	public void testZeroRank() throws Exception {
+		File loc = writeScalar(2.5);
+
+		Dataset full = NumPyFileLoader.loadFileHelper(loc.getAbsolutePath());
+		ILazyDataset lazy = loadLazily(loc);
+		Assert.assertEquals(1, lazy.getSize());
+		Assert.assertEquals(full, lazy.getSlice());
+		Assert.assertEquals(2.5, lazy.getSlice().getDouble(0), 0);
+	}
+}
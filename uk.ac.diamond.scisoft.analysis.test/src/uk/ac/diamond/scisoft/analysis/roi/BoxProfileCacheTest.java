@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.roi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Comparisons;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+import org.junit.Test;
+
+/**
+ * Check cached box profiles against those from {@link ROIProfile}
+ */
+public class BoxProfileCacheTest {
+
+	private static final RectangularROI[] ROIS = new RectangularROI[] {
+		new RectangularROI(0, 0, 10, 10, 0),
+		new RectangularROI(13, 7, 31, 22, 0),
+		new RectangularROI(50, 30, 40, 40, 0), // clipped
+		new RectangularROI(-5, -3, 20, 12, 0), // clipped
+		new RectangularROI(3, 4, 0, 9, 0), // zero width
+	};
+
+	private static void checkProfiles(Dataset[] expected, Dataset[] actual, double tolerance) {
+		assertEquals(expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i].getSize(), actual[i].getSize());
+			for (int j = 0; j < expected[i].getSize(); j++) {
+				double e = expected[i].getDouble(j);
+				double a = actual[i].getDouble(j);
+				if (Double.isNaN(e)) {
+					assertTrue(Double.isNaN(a));
+				} else {
+					assertEquals(e, a, tolerance * Math.max(1, Math.abs(e)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBox() {
+		Random.seed(1234);
+		Dataset data = Random.rand(0.0, 100.0, 64, 80);
+		BoxProfileCache cache = new BoxProfileCache(data);
+		for (RectangularROI roi : ROIS) {
+			checkProfiles(ROIProfile.box(data, roi), cache.box(roi), 1e-10);
+		}
+
+		RectangularROI rotated = new RectangularROI(20, 20, 15, 10, Math.toRadians(30));
+		checkProfiles(ROIProfile.box(data, rotated), cache.box(rotated), 1e-10);
+
+		assertNull(cache.box(new RectangularROI(100, 100, 10, 10, 0)));
+	}
+
+	@Test
+	public void testNewFrame() {
+		Random.seed(4321);
+		BoxProfileCache cache = new BoxProfileCache(Random.rand(0.0, 100.0, 64, 80));
+		Dataset data = Random.randint(0, 1000, new int[] {64, 80});
+		cache.setData(data);
+		for (RectangularROI roi : ROIS) {
+			checkProfiles(ROIProfile.box(data, roi), cache.box(roi), 0);
+		}
+	}
+
+	@Test
+	public void testMask() {
+		Random.seed(5678);
+		Dataset data = Random.rand(0.0, 100.0, 64, 80);
+		BooleanDataset mask = (BooleanDataset) Comparisons.greaterThan(Random.rand(64, 80), 0.2);
+		for (int i = 0; i < 64; i++) {
+			mask.set(false, i, 20); // completely masked column
+		}
+
+		BoxProfileCache cache = new BoxProfileCache(data, mask, false);
+		for (RectangularROI roi : ROIS) {
+			checkProfiles(ROIProfile.box(data, mask, roi, false), cache.box(roi), 1e-10);
+		}
+
+		cache = new BoxProfileCache(data, mask, true);
+		for (RectangularROI roi : ROIS) {
+			checkProfiles(ROIProfile.box(data, mask, roi, true), cache.box(roi), 1e-6);
+		}
+		assertTrue(Double.isNaN(cache.box(ROIS[1])[0].getDouble(7)));
+
+		Dataset[] lines = cache.boxLine(ROIS[1], false);
+		checkProfiles(ROIProfile.boxLine(data, mask, ROIS[1], true, false), lines, 0);
+	}
+
+	@Test
+	public void testBoxMean() {
+		Random.seed(8765);
+		Dataset data = Random.rand(0.0, 100.0, 64, 80);
+		BoxProfileCache cache = new BoxProfileCache(data);
+		for (RectangularROI roi : ROIS) {
+			checkProfiles(ROIProfile.boxMean(data, null, roi, false), cache.boxMean(roi), 1e-10);
+		}
+
+		BooleanDataset mask = (BooleanDataset) Comparisons.greaterThan(Random.rand(64, 80), 0.5);
+		cache = new BoxProfileCache(data, mask, false);
+		Dataset[] means = cache.boxMean(ROIS[1]);
+		double sum = 0;
+		int n = 0;
+		for (int i = 7; i < 29; i++) {
+			if (mask.getBoolean(i, 13)) {
+				sum += data.getDouble(i, 13);
+				n++;
+			}
+		}
+		assertEquals(sum / n, means[0].getDouble(0), 1e-10);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rpc;
+
+import java.util.Map;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.rpc.flattening.IRootFlattener;
+import uk.ac.diamond.scisoft.analysis.rpc.flattening.helpers.DatasetHelper;
+
+/**
+ * Round trips datasets through AnalysisRpc with each transport and compares their timings
+ */
+public class DatasetTransportTest {
+
+	private static final int PORT = 8616;
+	private static final String ECHO = "echo";
+	private static final int REPEATS = 20;
+
+	private static AnalysisRpcServer server;
+
+	@BeforeClass
+	public static void startServer() throws AnalysisRpcException {
+		server = new AnalysisRpcServer(PORT);
+		server.addHandler(ECHO, new IAnalysisRpcHandler() {
+			@Override
+			public Object run(Object[] unflattened) {
+				return unflattened[0];
+			}
+		});
+		server.start();
+	}
+
+	@AfterClass
+	public static void stopServer() {
+		server.shutdown();
+	}
+
+	@Test
+	public void testBinaryFlattening() {
+		IRootFlattener flattener = FlatteningService.getFlattener();
+		Dataset data = DatasetFactory.createRange(100, Dataset.INT32).reshape(10, 10);
+
+		Map<?, ?> flat = (Map<?, ?>) flattener.flatten(data, DatasetTransport.BINARY);
+		Assert.assertTrue(flat.containsKey(DatasetHelper.DATA));
+		Assert.assertFalse(flat.containsKey(DatasetHelper.FILENAME));
+		Assert.assertEquals(data, flattener.unflatten(flat));
+
+		// setting only applies to the call
+		Assert.assertEquals(DatasetTransport.getDefault(), flattener.getDatasetTransport());
+	}
+
+	@Test
+	public void testRoundTrip() throws AnalysisRpcException {
+		for (DatasetTransport transport : DatasetTransport.values()) {
+			for (int dtype : new int[] { Dataset.INT16, Dataset.INT32, Dataset.FLOAT32, Dataset.FLOAT64, Dataset.COMPLEX128 }) {
+				Dataset data = DatasetFactory.createRange(24, dtype).reshape(2, 3, 4);
+				Assert.assertEquals(transport + " " + dtype, data, roundTrip(transport, data));
+			}
+		}
+	}
+
+	@Test
+	public void testRoundTripTimings() throws AnalysisRpcException {
+		Dataset data = Random.rand(0, 1, 1024, 1024); // 8 MB
+
+		for (DatasetTransport transport : DatasetTransport.values()) {
+			roundTrip(transport, data); // warm up
+			long start = System.nanoTime();
+			for (int i = 0; i < REPEATS; i++) {
+				roundTrip(transport, data);
+			}
+			long time = System.nanoTime() - start;
+			System.out.println(String.format("%s transport: %.1f ms per round trip of %d bytes", transport,
+					time / 1e6 / REPEATS, data.getNbytes()));
+		}
+	}
+
+	private static Object roundTrip(DatasetTransport transport, Dataset data) throws AnalysisRpcException {
+		server.setDatasetTransport(transport);
+		AnalysisRpcClient client = new AnalysisRpcClient(PORT);
+		client.setDatasetTransport(transport);
+		return client.request(ECHO, new Object[] { data });
+	}
+}
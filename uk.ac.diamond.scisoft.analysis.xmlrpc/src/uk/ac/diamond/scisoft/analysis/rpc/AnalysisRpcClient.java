@@ -43,6 +43,7 @@ public class AnalysisRpcClient {
 
 	private XmlRpcClient client;
 	private IRootFlattener flattener = FlatteningService.getFlattener();
+	private DatasetTransport datasetTransport;
 
 	private final int port;
 
@@ -76,7 +77,7 @@ public class AnalysisRpcClient {
 				// No arguments, convert null to empty array
 				args = new Object[0];
 			}
-			Object[] flatargs = (Object[]) flattener.flatten(args);
+			Object[] flatargs = (Object[]) flattener.flatten(args, datasetTransport);
 			final Object flatret;
 			if (debug) {
 				flatret = client.execute("Analysis.handler_debug",
@@ -147,6 +148,24 @@ public class AnalysisRpcClient {
 		return request_common(destination, args, true, suspend);
 	}
 
+	/**
+	 * Set how datasets in the arguments of requests are sent to the server. Datasets in the results are sent however
+	 * the server is set up.
+	 * 
+	 * @param transport
+	 *            to use, or <code>null</code> to use that of the shared flattener
+	 */
+	public void setDatasetTransport(DatasetTransport transport) {
+		datasetTransport = transport;
+	}
+
+	/**
+	 * @return how datasets in the arguments of requests are sent
+	 */
+	public DatasetTransport getDatasetTransport() {
+		return datasetTransport != null ? datasetTransport : flattener.getDatasetTransport();
+	}
+
 	/**
 	 * Test if the server is up and running.
 	 * 
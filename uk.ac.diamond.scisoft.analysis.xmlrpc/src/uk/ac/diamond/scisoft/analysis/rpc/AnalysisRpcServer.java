@@ -47,6 +47,7 @@ public class AnalysisRpcServer {
 
 	private Map<String, IAnalysisRpcHandler> handlers = Collections.synchronizedMap(new HashMap<String, IAnalysisRpcHandler>());
 	private IRootFlattener flattener = FlatteningService.getFlattener();
+	private DatasetTransport datasetTransport;
 
 	/**
 	 * Create a new AnalysisRpc server that listens on the given port
@@ -146,6 +147,23 @@ public class AnalysisRpcServer {
 		return flattener;
 	}
 
+	/**
+	 * Set how datasets in the results of requests are sent back to clients.
+	 * 
+	 * @param transport
+	 *            to use, or <code>null</code> to use that of the shared flattener
+	 */
+	public void setDatasetTransport(DatasetTransport transport) {
+		datasetTransport = transport;
+	}
+
+	/**
+	 * @return how datasets in the results of requests are sent
+	 */
+	public DatasetTransport getDatasetTransport() {
+		return datasetTransport != null ? datasetTransport : flattener.getDatasetTransport();
+	}
+
 	/**
 	 * Returns the port, on which the AnalysisRpcServer is running. This method may be invoked after {@link #start()}
 	 * only.
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.rpc;
+
+/**
+ * How datasets are sent by AnalysisRpc. Datasets sent either way can always be received.
+ */
+public enum DatasetTransport {
+	/**
+	 * Save each dataset to a temporary npy file and send its name. The receiver loads then deletes the file. This
+	 * is understood by all versions of the other end.
+	 */
+	FILE,
+
+	/**
+	 * Send each dataset in npy format (a dtype and shape header followed by the raw buffer) as XML-RPC binary,
+	 * without touching the disk.
+	 */
+	BINARY;
+
+	/**
+	 * System property to set default transport, e.g. -Duk.ac.diamond.scisoft.analysis.rpc.datasettransport=BINARY
+	 */
+	public static final String DEFAULT_PROPERTY = "uk.ac.diamond.scisoft.analysis.rpc.datasettransport";
+
+	/**
+	 * @return transport set by {@link #DEFAULT_PROPERTY}, otherwise {@link #FILE}
+	 */
+	public static DatasetTransport getDefault() {
+		String value = System.getProperty(DEFAULT_PROPERTY);
+		if (value != null) {
+			try {
+				return valueOf(value.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				// fall through to default
+			}
+		}
+		return FILE;
+	}
+}
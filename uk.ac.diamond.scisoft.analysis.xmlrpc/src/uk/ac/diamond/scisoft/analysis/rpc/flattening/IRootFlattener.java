@@ -12,6 +12,7 @@ package uk.ac.diamond.scisoft.analysis.rpc.flattening;
 import java.io.File;
 import java.util.Map;
 
+import uk.ac.diamond.scisoft.analysis.rpc.DatasetTransport;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IFlattener.FlattenedFormChecker;
 
 public interface IRootFlattener {
@@ -27,6 +28,17 @@ public interface IRootFlattener {
 	 */
 	public Object flatten(Object obj);
 
+	/**
+	 * Flattens the given object as {@link #flatten(Object)} but sending any datasets it contains with the given
+	 * transport rather than the one set with {@link #setDatasetTransport(DatasetTransport)}.
+	 * 
+	 * @param obj
+	 * @param transport
+	 *            to use for datasets, or <code>null</code> for the current setting
+	 * @return the flattened form of obj
+	 */
+	public Object flatten(Object obj, DatasetTransport transport);
+
 	/**
 	 * Takes a flattened object and reconstructs the original object. Will only be called if canUnFlatten(obj) is true
 	 * 
@@ -84,4 +96,20 @@ public interface IRootFlattener {
 	 */
 	public void setTempLocation(String tempLocation);
 
+	/**
+	 * Transport used to send datasets when flattening. This applies to the flattening in progress on the calling
+	 * thread if one was given a transport, otherwise it is the current setting.
+	 * 
+	 * @return transport
+	 */
+	public DatasetTransport getDatasetTransport();
+
+	/**
+	 * Set the transport used to send datasets when flattening. Datasets sent with any transport can be unflattened.
+	 * 
+	 * @param transport
+	 *            new transport, or <code>null</code> to use default of {@link DatasetTransport#getDefault()}
+	 */
+	public void setDatasetTransport(DatasetTransport transport);
+
 }
@@ -14,6 +14,7 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import uk.ac.diamond.scisoft.analysis.rpc.DatasetTransport;
 import uk.ac.diamond.scisoft.analysis.rpc.FlatteningService;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.helpers.DatasetHelper;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.helpers.AxisMapBeanHelper;
@@ -55,6 +56,8 @@ public class RootFlattener implements IRootFlattener {
 
 	private List<IFlattener<?>> flatteningHelpers;
 	private File tempLocation;
+	private volatile DatasetTransport datasetTransport = DatasetTransport.getDefault();
+	private final ThreadLocal<DatasetTransport> callTransport = new ThreadLocal<DatasetTransport>();
 
 	/**
 	 * Create a new {@link RootFlattener}.
@@ -112,6 +115,25 @@ public class RootFlattener implements IRootFlattener {
 		throw new UnsupportedOperationException("Value " + obj.toString() + " is of unknown type");
 	}
 
+	@Override
+	public Object flatten(Object obj, DatasetTransport transport) throws UnsupportedOperationException {
+		if (transport == null) {
+			return flatten(obj);
+		}
+
+		final DatasetTransport previous = callTransport.get();
+		callTransport.set(transport);
+		try {
+			return flatten(obj);
+		} finally {
+			if (previous == null) {
+				callTransport.remove();
+			} else {
+				callTransport.set(previous);
+			}
+		}
+	}
+
 	/**
 	 * Take an object that has been flattened for transmission over XML RPC and try to reconstruct the original object.
 	 * Containers are always returned as arrays of unflattened objects. Known types e.g. RectangularROI are
@@ -174,4 +196,15 @@ public class RootFlattener implements IRootFlattener {
 		flatteningHelpers.add(0, helper);
 	}
 
+	@Override
+	public DatasetTransport getDatasetTransport() {
+		DatasetTransport transport = callTransport.get();
+		return transport != null ? transport : datasetTransport;
+	}
+
+	@Override
+	public void setDatasetTransport(DatasetTransport transport) {
+		datasetTransport = transport == null ? DatasetTransport.getDefault() : transport;
+	}
+
 }
@@ -18,7 +18,9 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 
 import uk.ac.diamond.scisoft.analysis.io.DataHolder;
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+import uk.ac.diamond.scisoft.analysis.io.NumPyFileLoader;
 import uk.ac.diamond.scisoft.analysis.io.NumPyFileSaver;
+import uk.ac.diamond.scisoft.analysis.rpc.DatasetTransport;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IFlattener;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IRootFlattener;
 
@@ -36,6 +38,11 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 	public static final String INDEX = "index";
 	/** Name of data set to load from data holder. Takes precedence over index. If absent, loads index 0. */
 	public static final String NAME = "name";
+	/**
+	 * Bytes of data set in npy format, sent instead of a file name with {@link DatasetTransport#BINARY}. Takes
+	 * precedence over file name.
+	 */
+	public static final String DATA = "data";
 
 	public DatasetHelper() {
 		super(IDataset.class);
@@ -43,6 +50,14 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 
 	@Override
 	public IDataset unflatten(Map<?, ?> thisMap, IRootFlattener rootFlattener) {
+		if (thisMap.containsKey(DATA)) {
+			try {
+				return NumPyFileLoader.loadFromBytes((byte[]) rootFlattener.unflatten(thisMap.get(DATA)));
+			} catch (Exception e) {
+				throw new UnsupportedOperationException("Failed to load Dataset from binary data", e);
+			}
+		}
+
 		final String fileName = (String) rootFlattener.unflatten(thisMap.get(FILENAME));
 		final Boolean deleteFile = (Boolean) rootFlattener.unflatten(thisMap.get(DELETEFILEAFTERLOAD));
 		final Integer index = (Integer) rootFlattener.unflatten(thisMap.get(INDEX));
@@ -80,8 +95,18 @@ public class DatasetHelper extends MapFlatteningHelper<IDataset> {
 
 	@Override
 	public Object flatten(Object obj, IRootFlattener rootFlattener) {
-		final DataHolder dh = new DataHolder();
 		final Dataset data = (Dataset) obj;
+		if (rootFlattener.getDatasetTransport() == DatasetTransport.BINARY) {
+			Map<String, Object> outMap = createMap(TYPE_NAME);
+			try {
+				outMap.put(DATA, NumPyFileSaver.saveToBytes(data, false));
+			} catch (Exception e) {
+				throw new UnsupportedOperationException("Unable to save Dataset", e);
+			}
+			return outMap;
+		}
+
+		final DataHolder dh = new DataHolder();
 		dh.addDataset("", data);
 		final File tempFile;
 		try {
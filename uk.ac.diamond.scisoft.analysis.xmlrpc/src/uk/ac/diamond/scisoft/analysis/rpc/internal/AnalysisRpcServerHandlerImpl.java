@@ -11,6 +11,7 @@ package uk.ac.diamond.scisoft.analysis.rpc.internal;
 
 import uk.ac.diamond.scisoft.analysis.rpc.AnalysisRpcException;
 import uk.ac.diamond.scisoft.analysis.rpc.AnalysisRpcServer;
+import uk.ac.diamond.scisoft.analysis.rpc.DatasetTransport;
 import uk.ac.diamond.scisoft.analysis.rpc.IAnalysisRpcHandler;
 import uk.ac.diamond.scisoft.analysis.rpc.flattening.IRootFlattener;
 
@@ -27,6 +28,7 @@ public class AnalysisRpcServerHandlerImpl implements AnalysisRpcServerHandler {
 	private Object handler_common(String destination, Object[] args,
 			boolean debug, boolean suspend) {
 		IRootFlattener flattener = analysisRPC.getFlattener();
+		DatasetTransport transport = analysisRPC.getDatasetTransport();
 		try {
 			IAnalysisRpcHandler handler = analysisRPC
 					.getDestination(destination);
@@ -39,7 +41,7 @@ public class AnalysisRpcServerHandlerImpl implements AnalysisRpcServerHandler {
 				unflattened[i] = flattener.unflatten(args[i]);
 			}
 			Object ret = handler.run(unflattened);
-			Object flatret = flattener.flatten(ret);
+			Object flatret = flattener.flatten(ret, transport);
 			return flatret;
 		} catch (Exception e) {
 			return flattener.flatten(e);
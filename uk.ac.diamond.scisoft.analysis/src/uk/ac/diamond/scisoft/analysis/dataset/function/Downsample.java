@@ -10,21 +10,38 @@
 package uk.ac.diamond.scisoft.analysis.dataset.function;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.ByteDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.LongDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.RGBDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.ShortDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.SliceIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.function.DatasetToDatasetFunction;
 
 /**
  * Down-sample a dataset by a given bin
+ * <p>
+ * Single element 1D and 2D datasets are reduced row by row: each source row is read once
+ * into a primitive buffer and folded into the bins of its output row. Large datasets have
+ * their output rows split across a fork/join pool.
  */
 public class Downsample implements DatasetToDatasetFunction {
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+	private static final int PARALLEL_MINIMUM = 1 << 16; // smallest number of source items worth splitting
+
 	private DownsampleMode mode;
 	private int[] bshape; // bin shape 
 
@@ -71,7 +88,7 @@ public class Downsample implements DatasetToDatasetFunction {
 			}
 			final int[] shape = new int[drank];
 			for (int i = 0; i < drank; i++) {
-				shape[i] = (dshape[i] + bshape[i] - 1)/bshape[i];
+				shape[i] = (dshape[i] + lbshape[i] - 1)/lbshape[i];
 			}
 
 			final Dataset binned;
@@ -83,19 +100,23 @@ public class Downsample implements DatasetToDatasetFunction {
 				binned = DatasetFactory.zeros(dataset.getElementsPerItem(), shape, dataset.getDtype());
 			}
 
+			if (drank <= 2 && mode != DownsampleMode.POINT && binned.getElementsPerItem() == 1 && isSupported(dataset.getDtype())) {
+				downsample(dataset, lbshape, binned);
+				result.add(binned);
+				continue;
+			}
+
 			final IndexIterator biter = binned.getIterator(true);
 			final int[] bpos = biter.getPos();
 			final int[] spos = new int[drank];
 			final int[] epos = new int[drank];
 			final int isize = binned.getElementsPerItem();
 
-			
-			// TODO In Java8 switch these loops to using ParallelStreams
 			switch (mode) {
 			case POINT:
 				while (biter.hasNext()) {
 					for (int i = 0; i < drank; i++) {
-						spos[i] = bshape[i]*bpos[i];
+						spos[i] = lbshape[i]*bpos[i];
 					}
 
 					binned.setObjectAbs(biter.index, dataset.getObject(spos));
@@ -105,8 +126,8 @@ public class Downsample implements DatasetToDatasetFunction {
 				if (isize == 1) {
 					while (biter.hasNext()) {
 						for (int i = 0; i < drank; i++) {
-							spos[i] = bshape[i] * bpos[i];
-							epos[i] = spos[i] + bshape[i];
+							spos[i] = lbshape[i] * bpos[i];
+							epos[i] = spos[i] + lbshape[i];
 							if (epos[i] > dshape[i]) // ensure bin is within dataset
 								epos[i] = dshape[i];
 						}
@@ -127,8 +148,8 @@ public class Downsample implements DatasetToDatasetFunction {
 				} else {
 					while (biter.hasNext()) {
 						for (int i = 0; i < drank; i++) {
-							spos[i] = bshape[i] * bpos[i];
-							epos[i] = spos[i] + bshape[i];
+							spos[i] = lbshape[i] * bpos[i];
+							epos[i] = spos[i] + lbshape[i];
 							if (epos[i] > dshape[i])
 								epos[i] = dshape[i];
 						}
@@ -154,8 +175,8 @@ public class Downsample implements DatasetToDatasetFunction {
 				if (isize == 1) {
 					while (biter.hasNext()) {
 						for (int i = 0; i < drank; i++) {
-							spos[i] = bshape[i] * bpos[i];
-							epos[i] = spos[i] + bshape[i];
+							spos[i] = lbshape[i] * bpos[i];
+							epos[i] = spos[i] + lbshape[i];
 							if (epos[i] > dshape[i])
 								epos[i] = dshape[i];
 						}
@@ -174,8 +195,8 @@ public class Downsample implements DatasetToDatasetFunction {
 				} else {
 					while (biter.hasNext()) {
 						for (int i = 0; i < drank; i++) {
-							spos[i] = bshape[i] * bpos[i];
-							epos[i] = spos[i] + bshape[i];
+							spos[i] = lbshape[i] * bpos[i];
+							epos[i] = spos[i] + lbshape[i];
 							if (epos[i] > dshape[i])
 								epos[i] = dshape[i];
 						}
@@ -201,8 +222,8 @@ public class Downsample implements DatasetToDatasetFunction {
 				if (isize == 1) {
 					while (biter.hasNext()) {
 						for (int i = 0; i < drank; i++) {
-							spos[i] = bshape[i] * bpos[i];
-							epos[i] = spos[i] + bshape[i];
+							spos[i] = lbshape[i] * bpos[i];
+							epos[i] = spos[i] + lbshape[i];
 							if (epos[i] > dshape[i])
 								epos[i] = dshape[i];
 						}
@@ -221,8 +242,8 @@ public class Downsample implements DatasetToDatasetFunction {
 				} else {
 					while (biter.hasNext()) {
 						for (int i = 0; i < drank; i++) {
-							spos[i] = bshape[i] * bpos[i];
-							epos[i] = spos[i] + bshape[i];
+							spos[i] = lbshape[i] * bpos[i];
+							epos[i] = spos[i] + lbshape[i];
 							if (epos[i] > dshape[i])
 								epos[i] = dshape[i];
 						}
@@ -249,4 +270,249 @@ public class Downsample implements DatasetToDatasetFunction {
 		}
 		return result;
 	}
+
+	private static boolean isSupported(int dtype) {
+		switch (dtype) {
+		case Dataset.BOOL:
+		case Dataset.INT8:
+		case Dataset.INT16:
+		case Dataset.INT32:
+		case Dataset.INT64:
+		case Dataset.FLOAT32:
+		case Dataset.FLOAT64:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Down-sample a single element dataset of rank one or two
+	 * @param dataset
+	 * @param lbshape bin shape
+	 * @param binned output dataset
+	 */
+	private void downsample(Dataset dataset, int[] lbshape, Dataset binned) {
+		final int[] dshape = dataset.getShape();
+		final int[] shape = binned.getShape();
+		final boolean is2D = dshape.length == 2;
+		final int rows = is2D ? dshape[0] : 1;
+		final int cols = is2D ? dshape[1] : (dshape.length == 0 ? 1 : dshape[0]);
+		final int brows = is2D ? lbshape[0] : 1;
+		final int bcols = dshape.length == 0 ? 1 : lbshape[dshape.length - 1];
+		final int orows = is2D ? shape[0] : 1;
+		final int ocols = dshape.length == 0 ? 1 : shape[dshape.length - 1];
+
+		final Dataset source = dataset.getSlice(); // contiguous
+		final double[] out = new double[orows * ocols];
+		final BinTask task = new BinTask(source, rows, cols, brows, bcols, ocols, out, 0, orows);
+		if (orows > 1 && (long) rows * cols >= PARALLEL_MINIMUM) {
+			POOL.invoke(task);
+		} else {
+			task.compute();
+		}
+
+		if (binned instanceof DoubleDataset) {
+			System.arraycopy(out, 0, ((DoubleDataset) binned).getData(), 0, out.length);
+		} else if (binned instanceof FloatDataset) {
+			final float[] data = ((FloatDataset) binned).getData();
+			for (int i = 0; i < out.length; i++) {
+				data[i] = (float) out[i];
+			}
+		} else {
+			for (int i = 0; i < out.length; i++) {
+				binned.setObjectAbs(i, out[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reduces a range of output rows
+	 */
+	private class BinTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final Dataset source;
+		private final int rows;
+		private final int cols;
+		private final int brows;
+		private final int bcols;
+		private final int ocols;
+		private final double[] out;
+		private final int lo;
+		private final int hi;
+
+		/**
+		 * @param source contiguous dataset
+		 * @param rows number of source rows
+		 * @param cols number of source columns
+		 * @param brows number of rows in bin
+		 * @param bcols number of columns in bin
+		 * @param ocols number of output columns
+		 * @param out output values
+		 * @param lo first output row
+		 * @param hi last output row (exclusive)
+		 */
+		BinTask(Dataset source, int rows, int cols, int brows, int bcols, int ocols, double[] out, int lo, int hi) {
+			this.source = source;
+			this.rows = rows;
+			this.cols = cols;
+			this.brows = brows;
+			this.bcols = bcols;
+			this.ocols = ocols;
+			this.out = out;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > 1 && (long) (hi - lo) * brows * cols >= 2 * PARALLEL_MINIMUM) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new BinTask(source, rows, cols, brows, bcols, ocols, out, lo, mid),
+						new BinTask(source, rows, cols, brows, bcols, ocols, out, mid, hi));
+				return;
+			}
+
+			final double[] row = new double[cols];
+			final int[] num = new int[ocols];
+			for (int o = lo; o < hi; o++) {
+				final int offset = o * ocols;
+				switch (mode) {
+				case MAXIMUM:
+					Arrays.fill(out, offset, offset + ocols, Double.NEGATIVE_INFINITY);
+					break;
+				case MINIMUM:
+					Arrays.fill(out, offset, offset + ocols, Double.POSITIVE_INFINITY);
+					break;
+				default:
+					Arrays.fill(num, 0);
+					break;
+				}
+
+				final int end = Math.min((o + 1) * brows, rows);
+				for (int r = o * brows; r < end; r++) {
+					readRow(source, r * cols, cols, row);
+					switch (mode) {
+					case MEAN:
+						accumulateMean(row, cols, bcols, out, offset, num);
+						break;
+					case MAXIMUM:
+						accumulateMaximum(row, cols, bcols, out, offset);
+						break;
+					case MINIMUM:
+						accumulateMinimum(row, cols, bcols, out, offset);
+						break;
+					default:
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy values from contiguous dataset
+	 * @param source
+	 * @param start index of first value
+	 * @param n number of values
+	 * @param row buffer
+	 */
+	private static void readRow(Dataset source, int start, int n, double[] row) {
+		switch (source.getDtype()) {
+		case Dataset.FLOAT64:
+			System.arraycopy(((DoubleDataset) source).getData(), start, row, 0, n);
+			break;
+		case Dataset.FLOAT32:
+			final float[] fdata = ((FloatDataset) source).getData();
+			for (int i = 0; i < n; i++) {
+				row[i] = fdata[start + i];
+			}
+			break;
+		case Dataset.INT64:
+			final long[] ldata = ((LongDataset) source).getData();
+			for (int i = 0; i < n; i++) {
+				row[i] = ldata[start + i];
+			}
+			break;
+		case Dataset.INT32:
+			final int[] idata = ((IntegerDataset) source).getData();
+			for (int i = 0; i < n; i++) {
+				row[i] = idata[start + i];
+			}
+			break;
+		case Dataset.INT16:
+			final short[] sdata = ((ShortDataset) source).getData();
+			for (int i = 0; i < n; i++) {
+				row[i] = sdata[start + i];
+			}
+			break;
+		case Dataset.INT8:
+			final byte[] bdata = ((ByteDataset) source).getData();
+			for (int i = 0; i < n; i++) {
+				row[i] = bdata[start + i];
+			}
+			break;
+		case Dataset.BOOL:
+			final boolean[] zdata = ((BooleanDataset) source).getData();
+			for (int i = 0; i < n; i++) {
+				row[i] = zdata[start + i] ? 1 : 0;
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Dataset type not supported");
+		}
+	}
+
+	/**
+	 * Update running means of bins with a row of values, ignoring infinities and NaNs
+	 */
+	private static void accumulateMean(double[] row, int cols, int bcols, double[] mean, int offset, int[] num) {
+		for (int b = 0, c = 0; c < cols; b++) {
+			final int end = Math.min(c + bcols, cols);
+			double m = mean[offset + b];
+			int k = num[b];
+			for (; c < end; c++) {
+				final double val = row[c];
+				if (Double.isInfinite(val) || Double.isNaN(val))
+					continue;
+				k++;
+				final double delta = val - m;
+				m += delta / k;
+			}
+			mean[offset + b] = m;
+			num[b] = k;
+		}
+	}
+
+	/**
+	 * Update maxima of bins with a row of values, ignoring infinities and NaNs
+	 */
+	private static void accumulateMaximum(double[] row, int cols, int bcols, double[] max, int offset) {
+		for (int b = offset, c = 0; c < cols; b++) {
+			final int end = Math.min(c + bcols, cols);
+			double m = max[b];
+			for (; c < end; c++) {
+				final double val = row[c];
+				if (val > m && !Double.isInfinite(val))
+					m = val;
+			}
+			max[b] = m;
+		}
+	}
+
+	/**
+	 * Update minima of bins with a row of values, ignoring infinities and NaNs
+	 */
+	private static void accumulateMinimum(double[] row, int cols, int bcols, double[] min, int offset) {
+		for (int b = offset, c = 0; c < cols; b++) {
+			final int end = Math.min(c + bcols, cols);
+			double m = min[b];
+			for (; c < end; c++) {
+				final double val = row[c];
+				if (val < m && !Double.isInfinite(val))
+					m = val;
+			}
+			min[b] = m;
+		}
+	}
 }
@@ -16,62 +16,375 @@ import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.PositionIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.Stats;
 import org.eclipse.dawnsci.analysis.dataset.impl.function.DatasetToDatasetFunction;
 
+/**
+ * Median filter for 1D and 2D datasets. Windows are truncated at the edges of a dataset.
+ * <p>
+ * The window is kept in two heaps which are updated as it slides along the data so each point
+ * of a 1D dataset costs O(log w). 2D datasets are filtered with a square window, or with a 1D
+ * window along each axis in turn when separable.
+ */
 public class Median implements DatasetToDatasetFunction {
-	
+
 	private final int window;
+	private final boolean separable;
 
 	/**
 	 * This class applies median filter to the input datasets
-	 * 
-	 * @param window 
+	 *
+	 * @param window
 	 */
 	public Median(int window) {
+		this(window, false);
+	}
+
+	/**
+	 * This class applies median filter to the input datasets
+	 *
+	 * @param window
+	 * @param separable if true, filter 2D datasets along each axis in turn rather than with a square window
+	 */
+	public Median(int window, boolean separable) {
 		if (window <= 0) {
 			throw new IllegalArgumentException("Non-positive window parameter not allowed");
 		}
-		
+
 		this.window = window / 2;
+		this.separable = separable;
 	}
-	
+
 	@Override
 	public List<Dataset> value(IDataset... datasets) {
-		
+
 		if (datasets.length == 0)
 			return null;
 
 		List<Dataset> result = new ArrayList<Dataset>();
-		
+
 		for (IDataset idataset : datasets) {
 			Dataset dataset = DatasetUtils.convertToDataset(idataset);
 			final int dt = dataset.getDtype();
 			final int is = dataset.getElementsPerItem();
 			final int[] ishape = dataset.getShape();
-			
-			if (ishape.length > 1)
-				throw new IllegalArgumentException("Only 1D input datasets are supported");
-			
-			Dataset filtered = DatasetFactory.zeros(is , ishape, dt);
-			
-			final PositionIterator iterPos = filtered.getPositionIterator();
-			final int[] pos = iterPos.getPos();
-			final int size = dataset.getSize();
-			final int[] start = new int[1];
-			final int[] stop = new int[1];
-			final int[] step = new int[] {1};
-			while (iterPos.hasNext()) {
-				int idx = pos[0];
-				start[0] = Math.max(idx - this.window, 0);
-				stop[0] = Math.min(idx + this.window + 1, size); // exclusive
-				
-				filtered.set(Stats.median(dataset.getSlice(start, stop, step)), pos);
-			}
-			
+
+			if (ishape.length > 2)
+				throw new IllegalArgumentException("Only 1D and 2D input datasets are supported");
+
+			if (is != 1 || dataset.isComplex()) {
+				if (ishape.length > 1)
+					throw new IllegalArgumentException("Only 1D compound datasets are supported");
+				result.add(filterSlices(dataset));
+				continue;
+			}
+
+			final double[] values = ((DoubleDataset) DatasetUtils.cast(dataset.getSlice(), Dataset.FLOAT64)).getData();
+			final double[] medians = new double[values.length];
+			if (ishape.length == 1) {
+				filter(values, 0, 1, ishape[0], medians);
+			} else if (separable) {
+				final int rows = ishape[0];
+				final int cols = ishape[1];
+				final double[] temp = new double[values.length];
+				for (int r = 0; r < rows; r++) {
+					filter(values, r * cols, 1, cols, temp);
+				}
+				for (int c = 0; c < cols; c++) {
+					filter(temp, c, cols, rows, medians);
+				}
+			} else {
+				filter(values, ishape[0], ishape[1], medians);
+			}
+
+			Dataset filtered = new DoubleDataset(medians, ishape);
+			if (dt != Dataset.FLOAT64) {
+				filtered = DatasetUtils.cast(filtered, dt);
+			}
 			result.add(filtered);
 		}
 		return result;
 	}
+
+	/**
+	 * Filter items with median of each slice
+	 * @param dataset
+	 * @return filtered dataset
+	 */
+	private Dataset filterSlices(Dataset dataset) {
+		Dataset filtered = DatasetFactory.zeros(dataset.getElementsPerItem(), dataset.getShape(), dataset.getDtype());
+
+		final PositionIterator iterPos = filtered.getPositionIterator();
+		final int[] pos = iterPos.getPos();
+		final int size = dataset.getSize();
+		final int[] start = new int[1];
+		final int[] stop = new int[1];
+		final int[] step = new int[] {1};
+		while (iterPos.hasNext()) {
+			int idx = pos[0];
+			start[0] = Math.max(idx - this.window, 0);
+			stop[0] = Math.min(idx + this.window + 1, size); // exclusive
+
+			filtered.set(Stats.median(dataset.getSlice(start, stop, step)), pos);
+		}
+		return filtered;
+	}
+
+	/**
+	 * Filter a line of values
+	 * @param values
+	 * @param offset of first value
+	 * @param stride between values
+	 * @param n number of values
+	 * @param out array for medians at same positions as values
+	 */
+	private void filter(final double[] values, final int offset, final int stride, final int n, final double[] out) {
+		final int h = this.window;
+		final SlidingWindow w = new SlidingWindow(2 * h + 1);
+		final int last = Math.min(h, n - 1);
+		for (int i = 0; i <= last; i++) {
+			w.add(i % w.capacity, values[offset + i * stride]);
+		}
+		for (int i = 0; i < n; i++) {
+			out[offset + i * stride] = w.median();
+			int j = i - h; // leaves window
+			if (j >= 0) {
+				w.remove(j % w.capacity);
+			}
+			j = i + h + 1; // enters window
+			if (j < n) {
+				w.add(j % w.capacity, values[offset + j * stride]);
+			}
+		}
+	}
+
+	/**
+	 * Filter an image with a square window
+	 * @param values
+	 * @param rows
+	 * @param cols
+	 * @param out array for medians
+	 */
+	private void filter(final double[] values, final int rows, final int cols, final double[] out) {
+		final int h = this.window;
+		final int width = 2 * h + 1;
+		final SlidingWindow w = new SlidingWindow(width * width);
+		for (int r = 0; r < rows; r++) {
+			final int rBeg = Math.max(r - h, 0);
+			final int rEnd = Math.min(r + h + 1, rows); // exclusive
+			w.clear();
+			final int last = Math.min(h, cols - 1);
+			for (int c = 0; c <= last; c++) {
+				addColumn(w, values, cols, rBeg, rEnd, c, width);
+			}
+			for (int c = 0; c < cols; c++) {
+				out[r * cols + c] = w.median();
+				int j = c - h;
+				if (j >= 0) {
+					for (int i = rBeg; i < rEnd; i++) {
+						w.remove((i % width) * width + j % width);
+					}
+				}
+				j = c + h + 1;
+				if (j < cols) {
+					addColumn(w, values, cols, rBeg, rEnd, j, width);
+				}
+			}
+		}
+	}
+
+	private static void addColumn(SlidingWindow w, double[] values, int cols, int rBeg, int rEnd, int c, int width) {
+		for (int i = rBeg; i < rEnd; i++) {
+			w.add((i % width) * width + c % width, values[i * cols + c]);
+		}
+	}
+
+	/**
+	 * Values in a window held in a max-heap of the lower half and a min-heap of the upper half.
+	 * Each value occupies a slot so it can be removed when it leaves the window. Values are ordered
+	 * as {@link Double#compare(double, double)} does, as when sorting, so NaNs are largest
+	 */
+	private static final class SlidingWindow {
+		final int capacity;
+		private final double[] value; // by slot
+		private final int[] position; // of slot in its heap, low heap is positive and high is negative
+		private final int[] low; // max-heap of slots, starting at index 1
+		private final int[] high; // min-heap of slots, starting at index 1
+		private int nLow = 0;
+		private int nHigh = 0;
+
+		SlidingWindow(int capacity) {
+			this.capacity = capacity;
+			value = new double[capacity];
+			position = new int[capacity];
+			low = new int[capacity + 1];
+			high = new int[capacity + 1];
+		}
+
+		void clear() {
+			nLow = 0;
+			nHigh = 0;
+		}
+
+		/**
+		 * @return median, interpolated between the middle values when there are an even number of them
+		 */
+		double median() {
+			if (nLow == 0) {
+				return Double.NaN;
+			}
+			if (nLow > nHigh) {
+				return value[low[1]];
+			}
+			return 0.5 * value[low[1]] + 0.5 * value[high[1]];
+		}
+
+		void add(int slot, double v) {
+			value[slot] = v;
+			if (nLow == 0 || Double.compare(v, value[low[1]]) <= 0) {
+				low[++nLow] = slot;
+				position[slot] = nLow;
+				upLow(nLow);
+			} else {
+				high[++nHigh] = slot;
+				position[slot] = -nHigh;
+				upHigh(nHigh);
+			}
+			balance();
+		}
+
+		void remove(int slot) {
+			int p = position[slot];
+			if (p > 0) {
+				int s = low[nLow--];
+				if (p <= nLow) {
+					low[p] = s;
+					position[s] = p;
+					downLow(upLow(p));
+				}
+			} else {
+				p = -p;
+				int s = high[nHigh--];
+				if (p <= nHigh) {
+					high[p] = s;
+					position[s] = -p;
+					downHigh(upHigh(p));
+				}
+			}
+			balance();
+		}
+
+		/**
+		 * Keep lower half the same size as upper half or one larger
+		 */
+		private void balance() {
+			if (nLow > nHigh + 1) {
+				int s = low[1];
+				int t = low[nLow--];
+				if (nLow > 0) {
+					low[1] = t;
+					position[t] = 1;
+					downLow(1);
+				}
+				high[++nHigh] = s;
+				position[s] = -nHigh;
+				upHigh(nHigh);
+			} else if (nHigh > nLow) {
+				int s = high[1];
+				int t = high[nHigh--];
+				if (nHigh > 0) {
+					high[1] = t;
+					position[t] = -1;
+					downHigh(1);
+				}
+				low[++nLow] = s;
+				position[s] = nLow;
+				upLow(nLow);
+			}
+		}
+
+		private int upLow(int p) {
+			final int s = low[p];
+			final double v = value[s];
+			while (p > 1) {
+				int q = p >> 1;
+				int t = low[q];
+				if (Double.compare(value[t], v) >= 0) {
+					break;
+				}
+				low[p] = t;
+				position[t] = p;
+				p = q;
+			}
+			low[p] = s;
+			position[s] = p;
+			return p;
+		}
+
+		private void downLow(int p) {
+			final int s = low[p];
+			final double v = value[s];
+			while (true) {
+				int q = p << 1;
+				if (q > nLow) {
+					break;
+				}
+				if (q < nLow && Double.compare(value[low[q + 1]], value[low[q]]) > 0) {
+					q++;
+				}
+				int t = low[q];
+				if (Double.compare(value[t], v) <= 0) {
+					break;
+				}
+				low[p] = t;
+				position[t] = p;
+				p = q;
+			}
+			low[p] = s;
+			position[s] = p;
+		}
+
+		private int upHigh(int p) {
+			final int s = high[p];
+			final double v = value[s];
+			while (p > 1) {
+				int q = p >> 1;
+				int t = high[q];
+				if (Double.compare(value[t], v) <= 0) {
+					break;
+				}
+				high[p] = t;
+				position[t] = -p;
+				p = q;
+			}
+			high[p] = s;
+			position[s] = -p;
+			return p;
+		}
+
+		private void downHigh(int p) {
+			final int s = high[p];
+			final double v = value[s];
+			while (true) {
+				int q = p << 1;
+				if (q > nHigh) {
+					break;
+				}
+				if (q < nHigh && Double.compare(value[high[q + 1]], value[high[q]]) < 0) {
+					q++;
+				}
+				int t = high[q];
+				if (Double.compare(value[t], v) >= 0) {
+					break;
+				}
+				high[p] = t;
+				position[t] = -p;
+				p = q;
+			}
+			high[p] = s;
+			position[s] = -p;
+		}
+	}
 }
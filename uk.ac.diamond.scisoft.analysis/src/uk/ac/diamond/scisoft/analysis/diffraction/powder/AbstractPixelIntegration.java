@@ -46,6 +46,11 @@ public abstract class AbstractPixelIntegration {
 	
 	IROI roi = null;
 	
+	boolean parallel = false;
+	
+	boolean useLookupTable = false;
+	IntegrationLookupTable lookupTable = null;
+	
 	public AbstractPixelIntegration(IDiffractionMetadata metadata) {
 		this.qSpace = new QSpace(metadata.getDetector2DProperties(), 
 								 metadata.getDiffractionCrystalEnvironment());
@@ -69,6 +74,7 @@ public abstract class AbstractPixelIntegration {
 	 */
 	public void setRadialRange(double[] range) {
 		
+		lookupTable = null;
 		if (range == null) {
 			radialRange = null;
 			return;
@@ -96,6 +102,7 @@ public abstract class AbstractPixelIntegration {
 	 */
 	public void setAzimuthalRange(double[] range) {
 		
+		lookupTable = null;
 		if (range == null) {
 			azimuthalRange = null;
 			return;
@@ -118,6 +125,42 @@ public abstract class AbstractPixelIntegration {
 		if (nBins < 1) throw new IllegalArgumentException("Must be 1 or more");
 		this.nbins = nBins;
 		binEdges = null;
+		lookupTable = null;
+	}
+	
+	public boolean isParallel() {
+		return parallel;
+	}
+	
+	/**
+	 * Set whether pixels are split into chunks which are integrated in parallel. The
+	 * chunks are merged in a fixed order so results are deterministic
+	 * @param parallel
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+	
+	public boolean isUseLookupTable() {
+		return useLookupTable;
+	}
+	
+	/**
+	 * Set whether to integrate using a sparse look-up table of pixel contributions to bins. The
+	 * table is built on the first integration and reused until the geometry, mask or binning changes
+	 * so this is faster when integrating many frames
+	 * @param useLookupTable
+	 */
+	public void setUseLookupTable(boolean useLookupTable) {
+		this.useLookupTable = useLookupTable;
+		if (!useLookupTable) lookupTable = null;
+	}
+	
+	/**
+	 * @return look-up table (can be null if not used or not yet built)
+	 */
+	public IntegrationLookupTable getLookupTable() {
+		return lookupTable;
 	}
 	
 	public void setAxisType(ROIProfile.XAxis axis) {
@@ -125,6 +168,7 @@ public abstract class AbstractPixelIntegration {
 		this.xAxis = axis;
 		radialArray = null;
 		binEdges = null;
+		lookupTable = null;
 	}
 	
 	public void generateRadialArray(int[] shape, boolean centre) {
@@ -169,6 +213,26 @@ public abstract class AbstractPixelIntegration {
 		return null;
 	}
 	
+	/**
+	 * Bin pixels either directly or using look-up table
+	 * @param binner
+	 * @param shape of image
+	 * @param nBinsTotal total number of bins
+	 * @param data
+	 * @param errors can be null
+	 * @return buffers of normalisation, intensity and error (if given errors)
+	 */
+	double[][] binPixels(PixelBinner binner, int[] shape, int nBinsTotal, Dataset data, Dataset errors) {
+		if (useLookupTable) {
+			if (lookupTable == null || !lookupTable.isCompatible(shape, nBinsTotal)) {
+				lookupTable = IntegrationLookupTable.create(binner, shape, nBinsTotal);
+			}
+			return lookupTable.integrate(data, errors);
+		}
+		
+		return new ChunkedPixelAccumulator(binner, data, errors, nBinsTotal).run(data.getSize(), parallel);
+	}
+	
 	protected void processAndAddToResult(Dataset intensity, Dataset histo, List<Dataset> result,
 			 double[] binRange, String name) {
 		
@@ -208,6 +272,7 @@ public abstract class AbstractPixelIntegration {
 	public void setMask(Dataset mask) {
 		this.mask = mask;
 		maskRoiCached = null;
+		lookupTable = null;
 		if (mask == null) return;
 		binEdges = null;
 		if (radialArray != null && !Arrays.equals(radialArray[0].getShape(), mask.getShape())) radialArray = null;
@@ -33,7 +33,10 @@ public abstract class AbstractPixelIntegration1D extends AbstractPixelIntegratio
 	}
 	
 	public void setAzimuthalIntegration(boolean isAzimuthalIntegration) {
+		if (this.isAzimuthalIntegration == isAzimuthalIntegration) return;
 		this.isAzimuthalIntegration = isAzimuthalIntegration;
+		binEdges = null;
+		lookupTable = null;
 	}
 	
 	@Override
@@ -42,6 +42,7 @@ public abstract class AbstractPixelIntegration2D extends AbstractPixelIntegratio
 		if (nBins < 1) throw new IllegalArgumentException("Must be 1 or more");
 		this.nBinsChi = nBins;
 		binsChi = null;
+		lookupTable = null;
 	}
 	
 	@Override
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+
+/**
+ * Accumulates binned pixel values into primitive buffers of normalisation, intensity and,
+ * optionally, error sums over a flattened pixel index range.
+ * <p>
+ * The range is split into fixed size chunks. Each chunk accumulates into its own buffers which are then
+ * merged pairwise in chunk order. In parallel mode, the chunks are processed on a fork/join pool. As the
+ * chunk boundaries and merge order depend on neither the mode nor the number of threads, the result is
+ * deterministic and the same in both modes.
+ */
+class ChunkedPixelAccumulator {
+
+	/**
+	 * Number of pixels in each chunk
+	 */
+	static final int CHUNK_SIZE = 1 << 16;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	private final PixelBinner binner;
+	private final Dataset data;
+	private final Dataset errors;
+	private final int nBuffers;
+	private final int length;
+
+	/**
+	 * @param binner
+	 * @param data
+	 * @param errors can be null
+	 * @param length number of bins
+	 */
+	ChunkedPixelAccumulator(PixelBinner binner, Dataset data, Dataset errors, int length) {
+		this.binner = binner;
+		this.data = data;
+		this.errors = errors;
+		this.nBuffers = errors == null ? 2 : 3;
+		this.length = length;
+	}
+
+	/**
+	 * Accumulate pixels in given range into buffers
+	 * @param start index
+	 * @param stop index (exclusive)
+	 * @param buffers
+	 */
+	private void accumulate(int start, int stop, final double[][] buffers) {
+		final double[] h = buffers[0];
+		final double[] in = buffers[1];
+		final double[] eb = errors == null ? null : buffers[2];
+		binner.bin(start, stop, new PixelBinner.Visitor() {
+			@Override
+			public void visit(int pixel, int bin, double scale, double weight) {
+				h[bin] += weight;
+				in[bin] += data.getElementDoubleAbs(pixel) * scale * weight;
+				if (eb != null) eb[bin] += errors.getElementDoubleAbs(pixel) * scale * weight;
+			}
+		});
+	}
+
+	/**
+	 * @param size number of pixels
+	 * @param parallel if true, accumulate chunks in parallel
+	 * @return buffers of normalisation, intensity and error (if given errors)
+	 */
+	double[][] run(int size, boolean parallel) {
+		int nChunks = Math.max(1, (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		ChunkTask task = new ChunkTask(0, nChunks, size, parallel);
+		return parallel && nChunks > 1 ? POOL.invoke(task) : task.compute();
+	}
+
+	private class ChunkTask extends RecursiveTask<double[][]> {
+		private static final long serialVersionUID = 1L;
+		private final int lo;
+		private final int hi;
+		private final int size;
+		private final boolean fork;
+
+		/**
+		 * @param lo first chunk
+		 * @param hi last chunk (exclusive)
+		 * @param size number of pixels
+		 * @param fork if true, fork subtasks
+		 */
+		ChunkTask(int lo, int hi, int size, boolean fork) {
+			this.lo = lo;
+			this.hi = hi;
+			this.size = size;
+			this.fork = fork;
+		}
+
+		@Override
+		protected double[][] compute() {
+			if (hi - lo == 1) {
+				double[][] buffers = new double[nBuffers][length];
+				accumulate(lo * CHUNK_SIZE, Math.min(hi * CHUNK_SIZE, size), buffers);
+				return buffers;
+			}
+
+			int mid = (lo + hi) >>> 1;
+			ChunkTask left = new ChunkTask(lo, mid, size, fork);
+			double[][] buffers;
+			double[][] right;
+			if (fork) {
+				left.fork();
+				right = new ChunkTask(mid, hi, size, fork).compute();
+				buffers = left.join();
+			} else {
+				buffers = left.compute();
+				right = new ChunkTask(mid, hi, size, fork).compute();
+			}
+			for (int i = 0; i < nBuffers; i++) {
+				final double[] b = buffers[i];
+				final double[] r = right[i];
+				for (int j = 0; j < length; j++) {
+					b[j] += r[j];
+				}
+			}
+			return buffers;
+		}
+	}
+}
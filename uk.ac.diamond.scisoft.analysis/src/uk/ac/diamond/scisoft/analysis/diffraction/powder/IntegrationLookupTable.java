@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.util.Arrays;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+
+/**
+ * Sparse look-up table of pixel contributions to integration bins held as a compressed sparse row
+ * matrix with a row per bin. Once built for a given geometry, mask and binning, integrating a frame
+ * is a single sparse matrix-vector product.
+ */
+public class IntegrationLookupTable {
+
+	private final int[] shape;
+	private final int nBins;
+	private final int[] rowStart;
+	private final int[] pixels;
+	private final double[] weights;
+	private final double[] normalisation;
+
+	private IntegrationLookupTable(int[] shape, int nBins, int[] rowStart, int[] pixels, double[] weights, double[] normalisation) {
+		this.shape = shape;
+		this.nBins = nBins;
+		this.rowStart = rowStart;
+		this.pixels = pixels;
+		this.weights = weights;
+		this.normalisation = normalisation;
+	}
+
+	/**
+	 * Build table
+	 * @param binner
+	 * @param shape of image
+	 * @param nBins total number of bins
+	 * @return look-up table
+	 */
+	static IntegrationLookupTable create(PixelBinner binner, int[] shape, int nBins) {
+		Builder b = new Builder(nBins, shape);
+		int size = 1;
+		for (int s : shape) {
+			size *= s;
+		}
+		binner.bin(0, size, b);
+		return b.build();
+	}
+
+	/**
+	 * @param shape
+	 * @param nBins
+	 * @return true if table was built for given image shape and number of bins
+	 */
+	boolean isCompatible(int[] shape, int nBins) {
+		return this.nBins == nBins && Arrays.equals(this.shape, shape);
+	}
+
+	/**
+	 * @return number of bins
+	 */
+	public int getNumberOfBins() {
+		return nBins;
+	}
+
+	/**
+	 * @return number of non-zero entries in table
+	 */
+	public int getNumberOfEntries() {
+		return pixels.length;
+	}
+
+	/**
+	 * Integrate data (and errors)
+	 * @param data
+	 * @param errors can be null
+	 * @return buffers of normalisation, intensity and error (if given errors)
+	 */
+	double[][] integrate(Dataset data, Dataset errors) {
+		double[][] buffers = new double[errors == null ? 2 : 3][];
+		buffers[0] = normalisation.clone();
+		buffers[1] = multiply(data);
+		if (errors != null) {
+			buffers[2] = multiply(errors);
+		}
+		return buffers;
+	}
+
+	private double[] multiply(Dataset data) {
+		final double[] out = new double[nBins];
+		for (int i = 0; i < nBins; i++) {
+			double sum = 0;
+			for (int k = rowStart[i], kmax = rowStart[i + 1]; k < kmax; k++) {
+				sum += data.getElementDoubleAbs(pixels[k]) * weights[k];
+			}
+			out[i] = sum;
+		}
+		return out;
+	}
+
+	/**
+	 * Collects contributions in pixel order then sorts them into rows
+	 */
+	private static class Builder implements PixelBinner.Visitor {
+		private final int nBins;
+		private final int[] shape;
+		private final int[] counts;
+		private final double[] normalisation;
+		private int n = 0;
+		private int[] bins;
+		private int[] pixels;
+		private double[] weights;
+
+		Builder(int nBins, int[] shape) {
+			this.nBins = nBins;
+			this.shape = shape.clone();
+			counts = new int[nBins];
+			normalisation = new double[nBins];
+			int size = 1024;
+			bins = new int[size];
+			pixels = new int[size];
+			weights = new double[size];
+		}
+
+		@Override
+		public void visit(int pixel, int bin, double scale, double weight) {
+			if (n == bins.length) {
+				int size = n + (n >> 1);
+				bins = Arrays.copyOf(bins, size);
+				pixels = Arrays.copyOf(pixels, size);
+				weights = Arrays.copyOf(weights, size);
+			}
+			bins[n] = bin;
+			pixels[n] = pixel;
+			weights[n] = scale * weight;
+			n++;
+			counts[bin]++;
+			normalisation[bin] += weight;
+		}
+
+		IntegrationLookupTable build() {
+			int[] rowStart = new int[nBins + 1];
+			for (int i = 0; i < nBins; i++) {
+				rowStart[i + 1] = rowStart[i] + counts[i];
+			}
+
+			// stable counting sort so pixels stay in order within each row
+			int[] next = Arrays.copyOf(rowStart, nBins);
+			int[] p = new int[n];
+			double[] w = new double[n];
+			for (int i = 0; i < n; i++) {
+				int j = next[bins[i]]++;
+				p[j] = pixels[i];
+				w[j] = weights[i];
+			}
+			return new IntegrationLookupTable(shape, nBins, rowStart, p, w, normalisation);
+		}
+	}
+}
@@ -18,7 +18,6 @@ import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 
@@ -102,12 +101,6 @@ public class NonPixelSplittingIntegration extends AbstractPixelIntegration1D {
 		final double span = (hi - lo)/nbins;
 		IntegerDataset histo = new IntegerDataset(nbins);
 		DoubleDataset intensity = new DoubleDataset(nbins);
-		DoubleDataset error = null;
-		double[] eb = null;
-		if (e != null) {
-			error = new DoubleDataset(nbins);
-			eb = error.getData();
-		}
 		
 		final int[] h = histo.getData();
 		final double[] in = intensity.getData();
@@ -118,34 +111,44 @@ public class NonPixelSplittingIntegration extends AbstractPixelIntegration1D {
 			return result;
 		}
 
+		final Dataset fa = a;
+		final Dataset fr = r;
+		final Dataset fm = mt;
+		final double[] fRange = integrationRange;
+
 		//iterate over dataset, binning values per pixel
-		IndexIterator iter = a.getIterator();
+		PixelBinner binner = new PixelBinner() {
+			@Override
+			public void bin(int start, int stop, Visitor visitor) {
+				for (int i = start; i < stop; i++) {
+					final double val = fa.getElementDoubleAbs(i);
+					
+					if (fm != null && !fm.getElementBooleanAbs(i)) continue;
+					
+					if (fRange != null && fr != null) {
+						final double ra = fr.getElementDoubleAbs(i);
+						if (ra > fRange[1] || ra < fRange[0]) continue;
+					}
 
-		while (iter.hasNext()) {
-			final double val = a.getElementDoubleAbs(iter.index);
-			final double sig = d.getElementDoubleAbs(iter.index);
-			
-			if (mt != null && !mt.getElementBooleanAbs(iter.index)) continue;
-			
-			if (integrationRange != null && r != null) {
-				final double ra = r.getElementDoubleAbs(iter.index);
-				if (ra > integrationRange[1] || ra < integrationRange[0]) continue;
-			}
+					if (val < lo || val > hi) {
+						continue;
+					}
 
-			if (val < lo || val > hi) {
-				continue;
+					int p = (int) ((val-lo)/span);
+					
+					if(p < nbins){
+						visitor.visit(i, p, 1, 1);
+					}
+				}
 			}
+		};
 
-			int p = (int) ((val-lo)/span);
-			
-			if(p < h.length){
-				h[p]++;
-				in[p] += sig;
-				if (e!=null) eb[p] += e.getElementDoubleAbs(iter.index);
-			}
+		double[][] buffers = binPixels(binner, dataset.getShape(), nbins, d, e);
+		for (int i = 0; i < nbins; i++) {
+			h[i] = (int) buffers[0][i];
 		}
-		
-		if (eb != null) intensity.setErrorBuffer(eb);
+		System.arraycopy(buffers[1], 0, in, 0, nbins);
+		if (e != null) intensity.setErrorBuffer(buffers[2]);
 		
 		processAndAddToResult(intensity, histo, result, binRange, dataset.getName());
 		
@@ -19,7 +19,6 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
 
 public class NonPixelSplittingIntegration2D extends AbstractPixelIntegration2D {
@@ -70,35 +69,47 @@ public class NonPixelSplittingIntegration2D extends AbstractPixelIntegration2D {
 		IntegerDataset histo = (IntegerDataset) DatasetFactory.zeros(new int[]{nBinsChi,nbins}, Dataset.INT32);
 		FloatDataset intensity = (FloatDataset) DatasetFactory.zeros(new int[]{nBinsChi,nbins},Dataset.FLOAT32);
 
-		Dataset a = DatasetUtils.convertToDataset(radialArray[0]);
-		Dataset b = DatasetUtils.convertToDataset(dataset);
-		IndexIterator iter = a.getIterator();
-
-		while (iter.hasNext()) {
-
-			final double valq = a.getElementDoubleAbs(iter.index);
-			final double sig = b.getElementDoubleAbs(iter.index);
-			final double chi = azimuthalArray[0].getElementDoubleAbs(iter.index);
-			if (mt != null && !mt.getElementBooleanAbs(iter.index)) continue;
-
-			if (valq < loQ || valq > hiQ) {
-				continue;
-			}
-
-			if (chi < loChi || chi > hiChi) {
-				continue;
+		final Dataset a = DatasetUtils.convertToDataset(radialArray[0]);
+		final Dataset c = azimuthalArray[0];
+		final Dataset fm = mt;
+		final Dataset b = DatasetUtils.convertToDataset(dataset);
+		final int nq = nbins;
+		final int nchi = nBinsChi;
+
+		PixelBinner binner = new PixelBinner() {
+			@Override
+			public void bin(int start, int stop, Visitor visitor) {
+				for (int i = start; i < stop; i++) {
+
+					final double valq = a.getElementDoubleAbs(i);
+					final double chi = c.getElementDoubleAbs(i);
+					if (fm != null && !fm.getElementBooleanAbs(i)) continue;
+
+					if (valq < loQ || valq > hiQ) {
+						continue;
+					}
+
+					if (chi < loChi || chi > hiChi) {
+						continue;
+					}
+
+					int qPos = (int) ((valq-loQ)/spanQ);
+					int chiPos = (int) ((chi-loChi)/spanChi);
+
+					if(qPos<nq && chiPos<nchi){
+						visitor.visit(i, chiPos*nq + qPos, 1, 1);
+					}
+				}
 			}
-
-			int qPos = (int) ((valq-loQ)/spanQ);
-			int chiPos = (int) ((chi-loChi)/spanChi);
-
-			if(qPos<nbins && chiPos<nBinsChi){
-				int cNum = histo.get(chiPos,qPos);
-				float cIn = intensity.get(chiPos,qPos);
-				histo.set(cNum+1, chiPos,qPos);
-				intensity.set(cIn+sig, chiPos,qPos);
-			}
-
+		};
+
+		final int[] h = histo.getData();
+		final float[] in = intensity.getData();
+		// serial and parallel use the same chunks so give identical results
+		double[][] buffers = binPixels(binner, dataset.getShape(), nq*nchi, b, null);
+		for (int i = 0; i < h.length; i++) {
+			h[i] = (int) buffers[0][i];
+			in[i] = (float) buffers[1][i];
 		}
 
 		processAndAddToResult(intensity, histo, result,radialRange, dataset.getName());
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+/**
+ * Maps pixels onto integration bins using the current geometry, mask and binning of an integrator.
+ * This is independent of the pixel values so can be used to accumulate directly or to build a look-up table
+ */
+interface PixelBinner {
+
+	/**
+	 * Receives the contributions of pixels to bins
+	 */
+	interface Visitor {
+		/**
+		 * @param pixel absolute index of pixel
+		 * @param bin flattened index of bin
+		 * @param scale fraction of pixel within integration range (applied to signal only)
+		 * @param weight fraction of pixel in bin
+		 */
+		void visit(int pixel, int bin, double scale, double weight);
+	}
+
+	/**
+	 * Visit all contributions of pixels in given range
+	 * @param start index
+	 * @param stop index (exclusive)
+	 * @param visitor
+	 */
+	void bin(int start, int stop, Visitor visitor);
+}
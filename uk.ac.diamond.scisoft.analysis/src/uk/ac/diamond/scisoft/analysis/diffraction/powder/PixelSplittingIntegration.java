@@ -17,7 +17,6 @@ import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 
 public class PixelSplittingIntegration extends AbstractPixelIntegration1D {
 	
@@ -97,81 +96,83 @@ public class PixelSplittingIntegration extends AbstractPixelIntegration1D {
 			return result;
 		}
 		
-
-		IndexIterator tIt = a[0].getIterator();
-
-
-		while (tIt.hasNext()) {
-			
-			if (mt != null && !mt.getElementBooleanAbs(tIt.index)) continue;
-			
-			double rangeScale = 1;
-			
-			if (integrationRange != null && r != null) {
-				double rMin = r[0].getElementDoubleAbs(tIt.index);
-				double rMax = r[1].getElementDoubleAbs(tIt.index);
-				
-				if (rMin > integrationRange[1]) continue;
-				if (rMax < integrationRange[0]) continue;
-				
-				double fullRange = rMax-rMin;
-				
-				rMin = integrationRange[0] > rMin ? integrationRange[0] : rMin;
-				rMax = integrationRange[1] < rMax ? integrationRange[1] : rMax;
-				
-				double reducedRange = rMax-rMin;
-				
-				rangeScale = reducedRange/fullRange;
-				
-			}
-			
-			double sig = d.getElementDoubleAbs(tIt.index);
-			double qMin = a[0].getElementDoubleAbs(tIt.index);
-			double qMax = a[1].getElementDoubleAbs(tIt.index);
-
-//			double sig = d.getDouble(pos);
-			sig *= rangeScale;
-
-			if (qMax < lo || qMin > hi) {
-				continue;
-			} 
-
-			//losing something here?
-
-			double minBinExact = (qMin-lo)/span;
-			double maxBinExact = (qMax-lo)/span;
-
-			int minBin = (int)minBinExact;
-			int maxBin = (int)maxBinExact;
-
-			if (minBin == maxBin) {
-				h[minBin]++;
-				in[minBin] += sig;
-			} else {
-
-				double iPerPixel = 1/(maxBinExact-minBinExact);
-
-				double minFrac = 1-(minBinExact-minBin);
-				double maxFrac = maxBinExact-maxBin;
-
-				if (minBin >= 0 && minBin < h.length) {
-					h[minBin]+=(iPerPixel*minFrac);
-					in[minBin] += (sig*iPerPixel*minFrac);
-				}
-
-				if (maxBin < h.length && maxBin >=0) {
-					h[maxBin]+=(iPerPixel*maxFrac);
-					in[maxBin] += (sig*iPerPixel*maxFrac);
-				}
-
-
-				for (int i = (minBin+1); i < maxBin; i++) {
-					if (i >= h.length || i < 0) continue; 
-					h[i]+=iPerPixel;
-					in[i] += (sig*iPerPixel);
+		final Dataset[] fa = a;
+		final Dataset[] fr = r;
+		final Dataset fm = mt;
+		final double[] fRange = integrationRange;
+
+		PixelBinner binner = new PixelBinner() {
+			@Override
+			public void bin(int start, int stop, Visitor visitor) {
+				for (int idx = start; idx < stop; idx++) {
+					
+					if (fm != null && !fm.getElementBooleanAbs(idx)) continue;
+					
+					double rangeScale = 1;
+					
+					if (fRange != null && fr != null) {
+						double rMin = fr[0].getElementDoubleAbs(idx);
+						double rMax = fr[1].getElementDoubleAbs(idx);
+						
+						if (rMin > fRange[1]) continue;
+						if (rMax < fRange[0]) continue;
+						
+						double fullRange = rMax-rMin;
+						
+						rMin = fRange[0] > rMin ? fRange[0] : rMin;
+						rMax = fRange[1] < rMax ? fRange[1] : rMax;
+						
+						double reducedRange = rMax-rMin;
+						
+						rangeScale = reducedRange/fullRange;
+						
+					}
+					
+					double qMin = fa[0].getElementDoubleAbs(idx);
+					double qMax = fa[1].getElementDoubleAbs(idx);
+
+					if (qMax < lo || qMin > hi) {
+						continue;
+					} 
+
+					//losing something here?
+
+					double minBinExact = (qMin-lo)/span;
+					double maxBinExact = (qMax-lo)/span;
+
+					int minBin = (int)minBinExact;
+					int maxBin = (int)maxBinExact;
+
+					if (minBin == maxBin) {
+						visitor.visit(idx, minBin, rangeScale, 1);
+					} else {
+
+						double iPerPixel = 1/(maxBinExact-minBinExact);
+
+						double minFrac = 1-(minBinExact-minBin);
+						double maxFrac = maxBinExact-maxBin;
+
+						if (minBin >= 0 && minBin < nbins) {
+							visitor.visit(idx, minBin, rangeScale, iPerPixel*minFrac);
+						}
+
+						if (maxBin < nbins && maxBin >=0) {
+							visitor.visit(idx, maxBin, rangeScale, iPerPixel*maxFrac);
+						}
+
+
+						for (int i = (minBin+1); i < maxBin; i++) {
+							if (i >= nbins || i < 0) continue; 
+							visitor.visit(idx, i, rangeScale, iPerPixel);
+						}
+					}
 				}
 			}
-		}
+		};
+
+		double[][] buffers = binPixels(binner, shape, nbins, d, null);
+		System.arraycopy(buffers[0], 0, h, 0, nbins);
+		System.arraycopy(buffers[1], 0, in, 0, nbins);
 
 		processAndAddToResult(intensity, histo, result,binRange, dataset.getName());
 
@@ -18,7 +18,6 @@ import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 
 public class PixelSplittingIntegration2D extends AbstractPixelIntegration2D {
 
@@ -65,87 +64,80 @@ public class PixelSplittingIntegration2D extends AbstractPixelIntegration2D {
 
 		FloatDataset histo = new FloatDataset(nBinsChi, nbins);
 		FloatDataset intensity = new FloatDataset(nBinsChi, nbins);
-		//			final double[] h = histo.getData();
-		//			final double[] in = intensity.getData();
-		//			if (spanQ <= 0) {
-		//				h[0] = ds.getSize();
-		//				result.add(histo);
-		//				result.add(bins);
-		//				continue;
-		//			}
-
-		Dataset a = DatasetUtils.convertToDataset(radialArray[0]);
-		Dataset b = DatasetUtils.convertToDataset(dataset);
-//		PositionIterator iter = b.getPositionIterator();
-//
-//		int[] pos = iter.getPos();
-//		int[] posStop = pos.clone();
-		
-		IndexIterator iter = a.getIterator();
 
-		while (iter.hasNext()) {
+		final Dataset[] fq = radialArray;
+		final Dataset[] fc = azimuthalArray;
+		final Dataset fm = mt;
+		final Dataset b = DatasetUtils.convertToDataset(dataset);
+		final int nq = nbins;
+		final int nchi = nBinsChi;
 
-//			posStop[0] = pos[0]+2;
-//			posStop[1] = pos[1]+2;
-//			Dataset qrange = a.getSlice(pos, posStop, null);
-//			Dataset chirange = azimuthalArray.getSlice(pos, posStop, null);
-			if (mt != null && !mt.getElementBooleanAbs(iter.index)) continue;
-			final double qMax = radialArray[1].getElementDoubleAbs(iter.index);
-			final double qMin = radialArray[0].getElementDoubleAbs(iter.index);
-			final double chiMax = azimuthalArray[1].getElementDoubleAbs(iter.index);
-			final double chiMin = azimuthalArray[0].getElementDoubleAbs(iter.index);
+		PixelBinner binner = new PixelBinner() {
+			@Override
+			public void bin(int start, int stop, Visitor visitor) {
+				for (int idx = start; idx < stop; idx++) {
 
-			final double sig = b.getElementDoubleAbs(iter.index);
+					if (fm != null && !fm.getElementBooleanAbs(idx)) continue;
+					final double qMax = fq[1].getElementDoubleAbs(idx);
+					final double qMin = fq[0].getElementDoubleAbs(idx);
+					final double chiMax = fc[1].getElementDoubleAbs(idx);
+					final double chiMin = fc[0].getElementDoubleAbs(idx);
 
-			if (qMax < loQ || qMin > hiQ) {
-				continue;
-			} 
+					if (qMax < loQ || qMin > hiQ) {
+						continue;
+					} 
 
-			if (chiMax < loChi || chiMin > hiChi) {
-				continue;
-			} 
+					if (chiMax < loChi || chiMin > hiChi) {
+						continue;
+					} 
 
-			//losing something here? is flooring (int cast best?)
+					//losing something here? is flooring (int cast best?)
 
-			double minBinExactQ = (qMin-loQ)/spanQ;
-			double maxBinExactQ = (qMax-loQ)/spanQ;
-			int minBinQ = (int)minBinExactQ;
-			int maxBinQ = (int)maxBinExactQ;
+					double minBinExactQ = (qMin-loQ)/spanQ;
+					double maxBinExactQ = (qMax-loQ)/spanQ;
+					int minBinQ = (int)minBinExactQ;
+					int maxBinQ = (int)maxBinExactQ;
 
-			double minBinExactChi = (chiMin-loChi)/spanChi;
-			double maxBinExactChi = (chiMax-loChi)/spanChi;
-			int minBinChi = (int)minBinExactChi;
-			int maxBinChi = (int)maxBinExactChi;
+					double minBinExactChi = (chiMin-loChi)/spanChi;
+					double maxBinExactChi = (chiMax-loChi)/spanChi;
+					int minBinChi = (int)minBinExactChi;
+					int maxBinChi = (int)maxBinExactChi;
 
-			//FIXME potentially may need to deal with azimuthal arrays with discontinuities (+180/-180 degress etc)
+					//FIXME potentially may need to deal with azimuthal arrays with discontinuities (+180/-180 degress etc)
 
-			double iPerPixel = 1/((maxBinExactQ-minBinExactQ)*(maxBinExactChi-minBinExactChi));
-			double minFracQ = 1-(minBinExactQ-minBinQ);
-			double maxFracQ = maxBinExactQ-maxBinQ;
-			double minFracChi = 1-(minBinExactChi-minBinChi);
-			double maxFracChi = maxBinExactChi-maxBinChi;
+					double iPerPixel = 1/((maxBinExactQ-minBinExactQ)*(maxBinExactChi-minBinExactChi));
+					double minFracQ = 1-(minBinExactQ-minBinQ);
+					double maxFracQ = maxBinExactQ-maxBinQ;
+					double minFracChi = 1-(minBinExactChi-minBinChi);
+					double maxFracChi = maxBinExactChi-maxBinChi;
 
-			for (int i = minBinQ ; i <= maxBinQ; i++) {
-				if (i < 0 || i >= binEdges.getSize()-1) continue;
-				for (int j = minBinChi; j <= maxBinChi; j++) {
-					if (j < 0 || j >= binsChi.getSize()-1) continue;
+					for (int i = minBinQ ; i <= maxBinQ; i++) {
+						if (i < 0 || i >= nq) continue;
+						for (int j = minBinChi; j <= maxBinChi; j++) {
+							if (j < 0 || j >= nchi) continue;
 
-					int[] setPos = new int[]{j,i};
-					double val = histo.get(setPos);
+							double modify = 1;
 
-					double modify = 1;
+							if (i == minBinQ && minBinQ != maxBinQ) modify *= minFracQ;
+							if (i == maxBinQ && minBinQ != maxBinQ) modify *= maxFracQ;
+							if (i == minBinChi && minBinChi != maxBinChi) modify *= minFracChi;
+							if (i == maxBinChi && minBinChi != maxBinChi) modify *= maxFracChi;
 
-					if (i == minBinQ && minBinQ != maxBinQ) modify *= minFracQ;
-					if (i == maxBinQ && minBinQ != maxBinQ) modify *= maxFracQ;
-					if (i == minBinChi && minBinChi != maxBinChi) modify *= minFracChi;
-					if (i == maxBinChi && minBinChi != maxBinChi) modify *= maxFracChi;
+							visitor.visit(idx, j*nq + i, 1, iPerPixel*modify);
+						}
 
-					histo.set(val+iPerPixel*modify, setPos);
-					double inVal = intensity.get(setPos);
-					intensity.set(inVal+sig*iPerPixel*modify, setPos);
+					}
 				}
-
 			}
+		};
+
+		final float[] h = histo.getData();
+		final float[] in = intensity.getData();
+		// serial and parallel use the same chunks so give identical results
+		double[][] buffers = binPixels(binner, dataset.getShape(), nq*nchi, b, null);
+		for (int i = 0; i < h.length; i++) {
+			h[i] = (float) buffers[0][i];
+			in[i] = (float) buffers[1][i];
 		}
 
 		processAndAddToResult(intensity, histo, result,radialRange, dataset.getName());
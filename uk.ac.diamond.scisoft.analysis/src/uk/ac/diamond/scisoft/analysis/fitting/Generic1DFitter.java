@@ -9,6 +9,10 @@
 
 package uk.ac.diamond.scisoft.analysis.fitting;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -16,7 +20,12 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import org.apache.commons.lang.SerializationUtils;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
@@ -41,6 +50,7 @@ public class Generic1DFitter implements Serializable {
 	private static double EPSILON = 1E-5;
 	private static int BASELINE_ORDER = 0;
 	private static final Logger logger = LoggerFactory.getLogger(Generic1DFitter.class);
+	private static final ForkJoinPool POOL = new ForkJoinPool();
 
 	/**
 	 * This method fits peaks to a dataset describing the y values at specified x values. The CompositeFunction specified
@@ -194,6 +204,35 @@ public class Generic1DFitter implements Serializable {
 			IOptimizer optimiser, int smoothing, int numPeaks, double threshold, boolean autoStopping,
 			boolean heightMeasure, IMonitor monitor) {
 
+		return fitPeakFunctions(peaks, xdata, ydata, peakClass, optimiser, smoothing, numPeaks, threshold, autoStopping,
+				heightMeasure, monitor, false);
+	}
+
+	/**
+	 * As {@link #fitPeakFunctions(List, Dataset, Dataset, Class, IOptimizer, int, int, double, boolean, boolean, IMonitor)}
+	 * but optionally fits the peaks in parallel. Each peak is fitted in its own window of the data with its own copy
+	 * of the optimiser, and the fitted peaks are returned in the same order as when fitted serially. As each copy
+	 * starts from the optimiser's state at the time of the call, a stochastic optimiser gives results that can differ
+	 * from serial fitting (but are the same from one parallel fit to the next).
+	 * 
+	 * @param peaks -  may be null if new peaks are required.
+	 * @param xdata
+	 * @param ydata
+	 * @param peakClass
+	 * @param optimiser - must be serializable to be copied for each peak, otherwise peaks are fitted serially
+	 * @param smoothing
+	 * @param numPeaks
+	 * @param threshold
+	 * @param autoStopping
+	 * @param heightMeasure
+	 * @param monitor
+	 * @param parallel - if true, fit peaks in parallel
+	 * @return list of peaks
+	 */
+	public static List<CompositeFunction> fitPeakFunctions(List<IdentifiedPeak> peaks, Dataset xdata, Dataset ydata, Class<? extends APeak> peakClass,
+			IOptimizer optimiser, int smoothing, int numPeaks, double threshold, boolean autoStopping,
+			boolean heightMeasure, IMonitor monitor, boolean parallel) {
+
 		if (peaks==null) {
 			peaks = parseDataDerivative(xdata, ydata, smoothing);
 		}
@@ -203,92 +242,46 @@ public class Generic1DFitter implements Serializable {
 		}
 
 		List<CompositeFunction> fittedPeaks = fitFunction(peaks, peakClass, xdata, ydata, optimiser, numPeaks, threshold,
-				autoStopping, heightMeasure, monitor, BASELINE_ORDER);
+				autoStopping, heightMeasure, monitor, BASELINE_ORDER, parallel);
 
 		return fittedPeaks;
 	}
 
 	private static List<CompositeFunction> fitFunction(List<IdentifiedPeak> initialPeaks, Class<? extends APeak> peakClass, Dataset xData,
 			Dataset ydata, IOptimizer optimiser, int numPeaks, double threshold, boolean autoStopping,
-			boolean heightMeasure, IMonitor monitor, int baselineOrder) {
+			boolean heightMeasure, IMonitor monitor, int baselineOrder, boolean parallel) {
 
-		ArrayList<CompositeFunction> peaks = new ArrayList<CompositeFunction>();
 		if (numPeaks == 0) {
 			numPeaks = initialPeaks.size();
 		}
 		if (numPeaks < 0) {
 			numPeaks = xData.getSize();
 		}
-		int fittedPeaks = 0;
+		if (numPeaks < initialPeaks.size()) {
+			initialPeaks = initialPeaks.subList(0, numPeaks);
+		}
 
-		for (IdentifiedPeak iniPeak : initialPeaks) {
-			if (fittedPeaks++ >= numPeaks) {
-				break;
-			}
-			if (monitor != null) {
-				monitor.worked(1);
-				if (monitor.isCancelled()) {
-					return peaks;
+		List<CompositeFunction> peaks = null;
+		if (parallel && initialPeaks.size() > 1) {
+			peaks = fitInParallel(initialPeaks, peakClass, xData, ydata, optimiser, monitor, baselineOrder);
+		}
+		if (peaks == null) {
+			peaks = new ArrayList<CompositeFunction>();
+			for (IdentifiedPeak iniPeak : initialPeaks) {
+				if (monitor != null) {
+					monitor.worked(1);
+					if (monitor.isCancelled()) {
+						return peaks;
+					}
 				}
-			}
 
-			int[] start = { iniPeak.getIndexOfDatasetAtMinPos() };
-			int[] stop = { iniPeak.getIndexOfDatasetAtMaxPos() + 1 };
-			int[] step = { 1 };
-			
-			if (xData.getSize() > 2 && xData.getDouble(0) > xData.getDouble(1)) {
-				start[0] = xData.getSize() - start[0] -1;
-				stop[0] = xData.getSize() - stop[0];
-				
-				if (start[0] > stop[0]) {
-					int tmp = start[0];
-					start[0] = stop[0];
-					stop[0] = tmp;
-				}
-			}
-			
-			Dataset y = ydata.getSlice(start, stop, step);
-			Dataset x = xData.getSlice(start, stop, step);
-
-			AFunction baseline = null;
-			try {
-				
-				switch (baselineOrder) {
-				case 1:
-					double initm = (y.getDouble(0) - y.getDouble(-1))/(x.getDouble(0) - x.getDouble(-1));
-					double initc = y.getDouble(0) - initm * x.getDouble(0);
-					double stepx = Math.abs(x.getDouble(1) - x.getDouble(0));
-					double maxC = y.peakToPeak().doubleValue() / stepx;
-					double maxY = y.max().doubleValue();
-					baseline = new StraightLine(-maxC, maxC, initc - maxY, initc + maxY);
-					break;
-				default:
-					double lowOffset = y.min().doubleValue();
-					double highOffset = (Double) y.mean();
-					baseline = new Offset(lowOffset, highOffset);
+				CompositeFunction comp = fitPeak(iniPeak, peakClass, xData, ydata, optimiser, baselineOrder);
+				if (comp != null) {
+					peaks.add(comp);
 				}
-
-				Constructor<? extends APeak> ctor = peakClass.getConstructor(IdentifiedPeak.class);
-				APeak localPeak = ctor.newInstance(iniPeak);
-				CompositeFunction comp = new CompositeFunction();
-				comp.addFunction(localPeak);
-				comp.addFunction(baseline);
-				optimiser.optimize(new Dataset[] { x }, y, comp);
-
-				peaks.add(comp);
-			} catch (IllegalArgumentException e1) {
-				logger.error("There was a problem optimising the peak", e1);
-			} catch (InstantiationException e1) {
-				logger.error("The function could not be created for fitting", e1);
-			} catch (NoSuchMethodException e1) {
-				logger.error("The peak function could not be created.", e1);
-			} catch (IllegalAccessException e1) {
-				logger.error("The function could not be created for fitting", e1);
-			} catch (InvocationTargetException e1) {
-				logger.error("The function could not be created for fitting", e1);
-			} catch (Exception e) {
-				logger.error("There was a problem creating the optimizer.", e);
 			}
+		} else if (monitor != null && monitor.isCancelled()) {
+			return peaks;
 		}
 
 		if (autoStopping) {
@@ -329,6 +322,159 @@ public class Generic1DFitter implements Serializable {
 		return peaks;
 	}
 
+	/**
+	 * Fit peak function and baseline to window of data around identified peak
+	 * @return fitted function or null if fit failed
+	 */
+	private static CompositeFunction fitPeak(IdentifiedPeak iniPeak, Class<? extends APeak> peakClass, Dataset xData,
+			Dataset ydata, IOptimizer optimiser, int baselineOrder) {
+		int[] start = { iniPeak.getIndexOfDatasetAtMinPos() };
+		int[] stop = { iniPeak.getIndexOfDatasetAtMaxPos() + 1 };
+		int[] step = { 1 };
+		
+		if (xData.getSize() > 2 && xData.getDouble(0) > xData.getDouble(1)) {
+			start[0] = xData.getSize() - start[0] -1;
+			stop[0] = xData.getSize() - stop[0];
+			
+			if (start[0] > stop[0]) {
+				int tmp = start[0];
+				start[0] = stop[0];
+				stop[0] = tmp;
+			}
+		}
+		
+		Dataset y = ydata.getSlice(start, stop, step);
+		Dataset x = xData.getSlice(start, stop, step);
+
+		AFunction baseline = null;
+		try {
+			
+			switch (baselineOrder) {
+			case 1:
+				double initm = (y.getDouble(0) - y.getDouble(-1))/(x.getDouble(0) - x.getDouble(-1));
+				double initc = y.getDouble(0) - initm * x.getDouble(0);
+				double stepx = Math.abs(x.getDouble(1) - x.getDouble(0));
+				double maxC = y.peakToPeak().doubleValue() / stepx;
+				double maxY = y.max().doubleValue();
+				baseline = new StraightLine(-maxC, maxC, initc - maxY, initc + maxY);
+				break;
+			default:
+				double lowOffset = y.min().doubleValue();
+				double highOffset = (Double) y.mean();
+				baseline = new Offset(lowOffset, highOffset);
+			}
+
+			Constructor<? extends APeak> ctor = peakClass.getConstructor(IdentifiedPeak.class);
+			APeak localPeak = ctor.newInstance(iniPeak);
+			CompositeFunction comp = new CompositeFunction();
+			comp.addFunction(localPeak);
+			comp.addFunction(baseline);
+			optimiser.optimize(new Dataset[] { x }, y, comp);
+
+			return comp;
+		} catch (IllegalArgumentException e1) {
+			logger.error("There was a problem optimising the peak", e1);
+		} catch (InstantiationException e1) {
+			logger.error("The function could not be created for fitting", e1);
+		} catch (NoSuchMethodException e1) {
+			logger.error("The peak function could not be created.", e1);
+		} catch (IllegalAccessException e1) {
+			logger.error("The function could not be created for fitting", e1);
+		} catch (InvocationTargetException e1) {
+			logger.error("The function could not be created for fitting", e1);
+		} catch (Exception e) {
+			logger.error("There was a problem creating the optimizer.", e);
+		}
+		return null;
+	}
+
+	/**
+	 * Fit peaks on pool, each with its own copy of the optimiser
+	 * @return fitted peaks in order of identified peaks or null if optimiser cannot be copied
+	 */
+	private static List<CompositeFunction> fitInParallel(List<IdentifiedPeak> initialPeaks, final Class<? extends APeak> peakClass,
+			final Dataset xData, final Dataset ydata, IOptimizer optimiser, IMonitor monitor, final int baselineOrder) {
+
+		// copy before submitting anything so all copies start from the same state
+		final byte[] state;
+		final ClassLoader loader = optimiser.getClass().getClassLoader();
+		try {
+			state = SerializationUtils.serialize(optimiser);
+			copyOptimiser(state, loader); // check copies can be made with optimiser's class loader
+		} catch (Exception e) {
+			logger.warn("Optimiser could not be copied so fitting peaks serially", e);
+			return null;
+		}
+
+		List<Future<CompositeFunction>> futures = new ArrayList<Future<CompositeFunction>>(initialPeaks.size());
+		for (final IdentifiedPeak iniPeak : initialPeaks) {
+			futures.add(POOL.submit(new Callable<CompositeFunction>() {
+				@Override
+				public CompositeFunction call() throws Exception {
+					IOptimizer copy = copyOptimiser(state, loader);
+					return fitPeak(iniPeak, peakClass, xData, ydata, copy, baselineOrder);
+				}
+			}));
+		}
+
+		List<CompositeFunction> peaks = new ArrayList<CompositeFunction>();
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				if (monitor != null) {
+					monitor.worked(1);
+					if (monitor.isCancelled()) {
+						break;
+					}
+				}
+				CompositeFunction comp;
+				try {
+					comp = futures.get(i).get();
+				} catch (ExecutionException e) {
+					logger.warn("Could not fit peak in parallel so fitting it serially", e.getCause());
+					comp = fitPeak(initialPeaks.get(i), peakClass, xData, ydata, optimiser, baselineOrder);
+				}
+				if (comp != null) {
+					peaks.add(comp);
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Parallel peak fitting was interrupted");
+			Thread.currentThread().interrupt();
+		} finally {
+			for (Future<CompositeFunction> f : futures) {
+				f.cancel(false);
+			}
+		}
+		return peaks;
+	}
+
+	/**
+	 * Copy optimiser by deserializing its state with the given class loader, as the
+	 * default class loader may not see the optimiser's classes (e.g. under OSGi)
+	 * @param state serialized optimiser
+	 * @param loader
+	 * @return copy of optimiser
+	 * @throws IOException
+	 * @throws ClassNotFoundException
+	 */
+	private static IOptimizer copyOptimiser(byte[] state, final ClassLoader loader) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state)) {
+			@Override
+			protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+				try {
+					return Class.forName(desc.getName(), false, loader);
+				} catch (ClassNotFoundException e) {
+					return super.resolveClass(desc);
+				}
+			}
+		};
+		try {
+			return (IOptimizer) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
 	/**
 	 * Find peaks in data
 	 * @param xdata
@@ -106,7 +106,7 @@ public class ADSCImageLoader extends AbstractFileLoader {
 		try {
 
 			raf = new RandomAccessFile(fileName, "r");
-			processingMetadata(raf);
+			processingMetadata(raf, Long.MAX_VALUE);
 
 		} catch (FileNotFoundException fnf) {
 			throw new ScanFileHolderException("File not found", fnf);
@@ -159,6 +159,19 @@ public class ADSCImageLoader extends AbstractFileLoader {
 		return output;
 	}
 
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		try {
+			processingMetadata(raf, getHeaderLimit());
+		} catch (ScanFileHolderException se) {
+			logger.warn("Ignoring problem with metadata in {}", fileName);
+		} finally {
+			raf.close();
+		}
+		return metadata != null;
+	}
+
 	private static Dataset loadDataset(String fileName, int[] shape, int pointer, boolean keepBitWidth) throws ScanFileHolderException {
 		IDataHolder holder = LoaderFactory.fetchData(fileName, false);
 		if (holder != null) {
@@ -238,9 +251,10 @@ public class ADSCImageLoader extends AbstractFileLoader {
 	 * in "key=value" format. remove ; from line ending
 	 * 
 	 * @param in
+	 * @param limit position in file by which header must end
 	 * @throws ScanFileHolderException
 	 */
-	private void processingMetadata(RandomAccessFile in) throws ScanFileHolderException {
+	private void processingMetadata(RandomAccessFile in, long limit) throws ScanFileHolderException {
 		// handling metadata in the file header
 		try {
 			byte firstChar = in.readByte();
@@ -254,6 +268,8 @@ public class ADSCImageLoader extends AbstractFileLoader {
 				line = in.readLine();
 
 			while (true) {
+				if (in.getFilePointer() > limit)
+					throw new ScanFileHolderException("Could not find end of ADSC header");
 				line = in.readLine();
 				if (line.contains("}")) {// stop at end of header
 					double[] detectorOrigin = { getDouble("BEAM_CENTER_Y"), getDouble("BEAM_CENTER_X"),
@@ -359,4 +375,11 @@ public class ADSCImageLoader extends AbstractFileLoader {
 			throw new ScanFileHolderException("The keyword " + key + " was not found in the ADSC Header");
 		return v;
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		if (!Utils.startsWith(header, length, "{"))
+			return Match.NO;
+		return Utils.contains(header, length, "HEADER_BYTES=") ? Match.YES : Match.MAYBE;
+	}
 }
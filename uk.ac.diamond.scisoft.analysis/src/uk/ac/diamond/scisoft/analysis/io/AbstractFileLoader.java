@@ -10,6 +10,8 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
@@ -26,7 +28,7 @@ import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
 /**
  * A class which can be extended when implementing IFileLoader
  */
-public abstract class AbstractFileLoader implements IFileLoader, IMetaLoader {
+public abstract class AbstractFileLoader implements IFileLoader, IMetaLoader, IFileSignature {
 	/** 
 	 * Name prefix for an image dataset (should be followed by two digits, starting with 01)
 	 */
@@ -52,6 +54,12 @@ public abstract class AbstractFileLoader implements IFileLoader, IMetaLoader {
 	 */
 	public static final String FILEPATH_DATASET_SEPARATOR = ":";
 
+	/**
+	 * System property to set the maximum number of bytes read from the start of a file when only
+	 * its metadata is loaded
+	 */
+	public static final String HEADER_LIMIT = "uk.ac.diamond.scisoft.analysis.io.headerlimit";
+
 	protected String fileName = "";
 
 	public void setFile(final String fileName) {
@@ -85,6 +93,19 @@ public abstract class AbstractFileLoader implements IFileLoader, IMetaLoader {
 		loadLazily = willLoadLazily;
 	}
 
+	/**
+	 * Override this to check the file's magic bytes
+	 * @return {@link IFileSignature.Match#MAYBE} by default
+	 */
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Match.MAYBE;
+	}
+
+	/**
+	 * Loads metadata from the header of the file if the loader supports it, see
+	 * {@link #loadHeaderMetadata(IMonitor)}, otherwise from loading the file lazily
+	 */
 	@Override
 	public void loadMetadata(IMonitor mon) throws Exception {
 		if (metadata != null)
@@ -94,9 +115,49 @@ public abstract class AbstractFileLoader implements IFileLoader, IMetaLoader {
 		boolean oldLazily = loadLazily;
 		loadMetadata = true;
 		loadLazily = true;
-		loadFile(mon);
-		loadMetadata = oldMeta;
-		loadLazily = oldLazily;
+		try {
+			if (!loadHeaderMetadata(mon)) {
+				loadFile(mon);
+			}
+		} finally {
+			loadMetadata = oldMeta;
+			loadLazily = oldLazily;
+		}
+	}
+
+	/**
+	 * Override this to read metadata, including names and shapes of datasets, from the header at
+	 * the start of the file without reading any data. This should read no more than
+	 * {@link #getHeaderLimit()} bytes, e.g. with {@link #readHeaderBytes()}
+	 * @param mon
+	 * @return true if metadata was read or false if the file needs to be loaded (lazily) instead
+	 * @throws Exception if file is not of the right format
+	 */
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		return false;
+	}
+
+	/**
+	 * @return maximum number of bytes to read from the start of a file for its header
+	 */
+	protected static int getHeaderLimit() {
+		return Integer.getInteger(HEADER_LIMIT, 64 * 1024);
+	}
+
+	/**
+	 * Read start of file
+	 * @return up to {@link #getHeaderLimit()} bytes from start of file
+	 * @throws IOException
+	 */
+	protected byte[] readHeaderBytes() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		try {
+			byte[] header = new byte[(int) Math.min(raf.length(), getHeaderLimit())];
+			raf.readFully(header);
+			return header;
+		} finally {
+			raf.close();
+		}
 	}
 
 	protected class LazyLoaderStub implements ILazyLoader {
@@ -40,4 +40,9 @@ public class BitmapLoader extends JavaImageLoader {
 	public BitmapLoader(String FileName, boolean convertToGrey, boolean keepBitWidth) {
 		super(FileName, "bmp", convertToGrey, keepBitWidth);
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.startsWith(header, length, "BM") ? Match.YES : Match.NO;
+	}
 }
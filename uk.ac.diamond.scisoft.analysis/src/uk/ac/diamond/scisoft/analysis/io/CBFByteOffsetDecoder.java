@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+
+/**
+ * Decoder for CBF files holding a single integer image with "byte offset" compression, as written
+ * by Pilatus and Eiger detectors. This does not need CBFlib.
+ * <p>
+ * Each pixel is stored as its difference from the previous pixel in a signed byte. Larger differences
+ * are flagged by -128 and follow in a little endian short, then flagged by -32768 and follow in an int,
+ * then flagged by the minimum int and follow in a long.
+ * <p>
+ * Large images can be decoded in parallel. A pre-scan finds where parts of the image start in the
+ * compressed data and each part is decoded by a separate task.
+ */
+class CBFByteOffsetDecoder {
+	private static final byte[] SECTION = "--CIF-BINARY-FORMAT-SECTION--".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] BINARY_START = {0x0c, 0x1a, 0x04, (byte) 0xd5};
+
+	// search this far for binary section
+	private static final int SEARCH_LIMIT = 1024 * 1024;
+
+	/**
+	 * Images with at least this number of pixels are decoded in parallel
+	 */
+	static final int PARALLEL_MINIMUM = 1024 * 1024;
+	private static final int PART_SIZE = 256 * 1024;
+
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * True if there are enough processors for parallel decoding to be faster as the pre-scan
+	 * takes about as long as decoding
+	 */
+	static final boolean USE_PARALLEL = THREADS > 2;
+
+	private static ExecutorService pool;
+
+	private final ByteBuffer buffer;
+	private final int start;
+	private final int end;
+	private final int fast;
+	private final int second;
+	private final boolean signed;
+	private final String headerContents;
+
+	private CBFByteOffsetDecoder(ByteBuffer buffer, int start, int end, int fast, int second, boolean signed, String headerContents) {
+		this.buffer = buffer;
+		this.start = start;
+		this.end = end;
+		this.fast = fast;
+		this.second = second;
+		this.signed = signed;
+		this.headerContents = headerContents;
+	}
+
+	/**
+	 * Create decoder for CBF file
+	 * @param buffer of whole file
+	 * @return decoder or null if file is not a miniCBF file with byte offset compression
+	 * @throws ScanFileHolderException if binary section is truncated
+	 */
+	static CBFByteOffsetDecoder create(ByteBuffer buffer) throws ScanFileHolderException {
+		return create(buffer, true);
+	}
+
+	/**
+	 * Create decoder for CBF file
+	 * @param buffer of whole file or of its start
+	 * @param whole if false, buffer holds only the start of the file so the decoder can be used for
+	 * its header and dimensions but not to decode the image
+	 * @return decoder or null if file is not a miniCBF file with byte offset compression
+	 * @throws ScanFileHolderException if binary section of whole file is truncated
+	 */
+	static CBFByteOffsetDecoder create(ByteBuffer buffer, boolean whole) throws ScanFileHolderException {
+		buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		final int limit = buffer.limit();
+		int section = indexOf(buffer, SECTION, 0, Math.min(limit, SEARCH_LIMIT));
+		if (section < 0) {
+			return null;
+		}
+		String text = getString(buffer, 0, section);
+		// full imgCIF files can describe other orientations so leave those to CBFlib
+		if (text.contains("_diffrn_data_frame") || text.contains("_diffrn_frame_data")) {
+			return null;
+		}
+		int binary = indexOf(buffer, BINARY_START, section, Math.min(limit, section + SEARCH_LIMIT));
+		if (binary < 0) {
+			return null;
+		}
+
+		Map<String, String> fields = parseMIMEHeader(getString(buffer, section + SECTION.length, binary));
+		String value = fields.get("content-type");
+		if (value == null || !value.toLowerCase().contains("x-cbf_byte_offset")) {
+			return null;
+		}
+		value = fields.get("content-transfer-encoding");
+		if (value == null || !value.equalsIgnoreCase("BINARY")) {
+			return null;
+		}
+		value = fields.get("x-binary-element-type");
+		if (value == null) {
+			return null;
+		}
+		value = value.replace("\"", "").trim().toLowerCase();
+		if (!value.endsWith("integer") || value.contains("64-bit")) {
+			return null;
+		}
+		boolean signed = value.startsWith("signed");
+
+		int size, elements, fast, second;
+		try {
+			size = Integer.parseInt(fields.get("x-binary-size"));
+			elements = Integer.parseInt(fields.get("x-binary-number-of-elements"));
+			fast = Integer.parseInt(fields.get("x-binary-size-fastest-dimension"));
+			second = Integer.parseInt(fields.get("x-binary-size-second-dimension"));
+			value = fields.get("x-binary-size-third-dimension");
+			if (value != null && Integer.parseInt(value) != 1) {
+				return null;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (elements != fast * second) {
+			return null;
+		}
+		int start = binary + BINARY_START.length;
+		if (size < 0 || (whole && start + size > limit)) {
+			throw new ScanFileHolderException("CBF binary section is truncated");
+		}
+
+		return new CBFByteOffsetDecoder(buffer, start, start + size, fast, second, signed, getHeaderContents(text));
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte[] pattern, int from, int to) {
+		final byte first = pattern[0];
+		final int last = to - pattern.length;
+		outer:
+		for (int i = from; i <= last; i++) {
+			if (buffer.get(i) != first) {
+				continue;
+			}
+			for (int j = 1; j < pattern.length; j++) {
+				if (buffer.get(i + j) != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static String getString(ByteBuffer buffer, int from, int to) {
+		byte[] bytes = new byte[to - from];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(from + i);
+		}
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @param header
+	 * @return map of lower-cased field names to values
+	 */
+	private static Map<String, String> parseMIMEHeader(String header) {
+		Map<String, String> fields = new HashMap<String, String>();
+		String name = null;
+		for (String line : header.split("\r?\n|\r")) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			if (Character.isWhitespace(line.charAt(0))) { // continuation
+				if (name != null) {
+					fields.put(name, fields.get(name) + " " + line.trim());
+				}
+				continue;
+			}
+			int i = line.indexOf(':');
+			if (i > 0) {
+				name = line.substring(0, i).trim().toLowerCase();
+				fields.put(name, line.substring(i + 1).trim());
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * @param text
+	 * @return contents of header text field or null
+	 */
+	private static String getHeaderContents(String text) {
+		int i = text.indexOf("_array_data.header_contents");
+		if (i < 0) {
+			return null;
+		}
+		i = text.indexOf("\n;", i);
+		if (i < 0) {
+			return null;
+		}
+		i += 2;
+		int j = text.indexOf("\n;", i);
+		if (j < 0) {
+			return null;
+		}
+		return text.substring(i, j);
+	}
+
+	/**
+	 * @return contents of miniCBF header or null if there are none
+	 */
+	String getHeaderContents() {
+		return headerContents;
+	}
+
+	/**
+	 * @return length of fastest changing dimension
+	 */
+	int getFastestDimension() {
+		return fast;
+	}
+
+	/**
+	 * @return length of second dimension
+	 */
+	int getSecondDimension() {
+		return second;
+	}
+
+	/**
+	 * @return true if integers are signed
+	 */
+	boolean isSigned() {
+		return signed;
+	}
+
+	/**
+	 * Part of image decoded by one task
+	 */
+	private static class Part {
+		final int from;
+		final int position; // of first difference
+		final int previous; // value before first pixel
+		int to;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		int hash = 0;
+
+		public Part(int from, int position, int previous) {
+			this.from = from;
+			this.position = position;
+			this.previous = previous;
+		}
+	}
+
+	/**
+	 * Decode image in file order. The maximum, minimum and hash of the values, as set by
+	 * {@link Utils#setStatistics(org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset)}
+	 * before the hash includes the shape, are returned
+	 * @param out array to hold all pixels
+	 * @param parallel if true, decode large images in parallel
+	 * @return minimum, maximum and unfinished hash
+	 * @throws ScanFileHolderException
+	 */
+	int[] decode(final int[] out, boolean parallel) throws ScanFileHolderException {
+		final int n = fast * second;
+		if (out.length < n) {
+			throw new IllegalArgumentException("Output array is too small");
+		}
+
+		List<Part> parts;
+		if (parallel && n >= PARALLEL_MINIMUM) {
+			parts = scan(n);
+			final ExecutorService executor = getPool();
+			List<Future<Part>> futures = new ArrayList<Future<Part>>();
+			for (final Part p : parts) {
+				futures.add(executor.submit(new Callable<Part>() {
+					@Override
+					public Part call() throws Exception {
+						return decode(p, out);
+					}
+				}));
+			}
+			try {
+				for (Future<Part> f : futures) {
+					f.get();
+				}
+			} catch (InterruptedException e) {
+				throw new ScanFileHolderException("Decoding of CBF image interrupted", e);
+			} catch (ExecutionException e) {
+				Throwable c = e.getCause();
+				if (c instanceof ScanFileHolderException) {
+					throw (ScanFileHolderException) c;
+				}
+				throw new ScanFileHolderException("Could not decode CBF image", c);
+			} finally {
+				for (Future<Part> f : futures) {
+					f.cancel(false);
+				}
+			}
+		} else {
+			Part p = new Part(0, start, 0);
+			p.to = n;
+			parts = new ArrayList<Part>();
+			parts.add(decode(p, out));
+		}
+
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		int hash = 0;
+		for (Part p : parts) {
+			min = Math.min(min, p.min);
+			max = Math.max(max, p.max);
+			hash = hash * power(19, p.to - p.from) + p.hash;
+		}
+		return new int[] {min, max, hash};
+	}
+
+	/**
+	 * Find where parts of image start
+	 * @param n number of pixels
+	 * @return parts
+	 * @throws ScanFileHolderException if data ends early
+	 */
+	private List<Part> scan(final int n) throws ScanFileHolderException {
+		final ByteBuffer b = buffer;
+		final int last = end - 15; // no bounds checks needed before here
+		List<Part> parts = new ArrayList<Part>();
+		int p = start;
+		int v = 0;
+		for (int from = 0; from < n; from += PART_SIZE) {
+			final Part part = new Part(from, p, v);
+			part.to = Math.min(n, from + PART_SIZE);
+			parts.add(part);
+			for (int i = from; i < part.to; i++) {
+				if (p >= last) {
+					checkRemaining(p);
+				}
+				final byte d = b.get(p++);
+				if (d != Byte.MIN_VALUE) {
+					v += d;
+					continue;
+				}
+				final short s = b.getShort(p);
+				p += 2;
+				if (s != Short.MIN_VALUE) {
+					v += s;
+					continue;
+				}
+				final int l = b.getInt(p);
+				p += 4;
+				if (l != Integer.MIN_VALUE) {
+					v += l;
+					continue;
+				}
+				v += (int) b.getLong(p);
+				p += 8;
+			}
+		}
+		return parts;
+	}
+
+	private Part decode(final Part part, final int[] out) throws ScanFileHolderException {
+		final ByteBuffer b = buffer;
+		final int last = end - 15;
+		int p = part.position;
+		int v = part.previous;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		int hash = 0;
+		for (int i = part.from, imax = part.to; i < imax; i++) {
+			if (p >= last) {
+				checkRemaining(p);
+			}
+			final byte d = b.get(p++);
+			if (d != Byte.MIN_VALUE) {
+				v += d;
+			} else {
+				final short s = b.getShort(p);
+				p += 2;
+				if (s != Short.MIN_VALUE) {
+					v += s;
+				} else {
+					final int l = b.getInt(p);
+					p += 4;
+					if (l != Integer.MIN_VALUE) {
+						v += l;
+					} else {
+						v += (int) b.getLong(p);
+						p += 8;
+					}
+				}
+			}
+			out[i] = v;
+			hash = hash * 19 + v;
+			if (v > max) {
+				max = v;
+			}
+			if (v < min) {
+				min = v;
+			}
+		}
+		part.min = min;
+		part.max = max;
+		part.hash = hash;
+		return part;
+	}
+
+	/**
+	 * Check there is enough data for the longest difference
+	 * @param p
+	 * @throws ScanFileHolderException
+	 */
+	private void checkRemaining(int p) throws ScanFileHolderException {
+		int n = 1;
+		if (p < end && buffer.get(p) == Byte.MIN_VALUE) {
+			n += 2;
+			if (p + 3 <= end && buffer.getShort(p + 1) == Short.MIN_VALUE) {
+				n += 4;
+				if (p + 7 <= end && buffer.getInt(p + 3) == Integer.MIN_VALUE) {
+					n += 8;
+				}
+			}
+		}
+		if (p + n > end) {
+			throw new ScanFileHolderException("CBF binary data ends before all pixels are decoded");
+		}
+	}
+
+	/**
+	 * @param base
+	 * @param exponent
+	 * @return base to the power of exponent, modulo 2^32 as for int multiplication
+	 */
+	private static int power(int base, int exponent) {
+		int result = 1;
+		while (exponent > 0) {
+			if ((exponent & 1) != 0) {
+				result *= base;
+			}
+			base *= base;
+			exponent >>= 1;
+		}
+		return result;
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "CBF decoder " + ++count);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+}
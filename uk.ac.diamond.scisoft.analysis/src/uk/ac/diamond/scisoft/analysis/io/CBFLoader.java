@@ -10,13 +10,20 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
 import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.HashMap;
 
 import javax.vecmath.Matrix3d;
@@ -25,6 +32,7 @@ import javax.vecmath.Vector3d;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
 import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
 import org.eclipse.dawnsci.analysis.api.metadata.Metadata;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
@@ -46,10 +54,13 @@ import uk.ac.diamond.CBFlib.CBFlib;
 
 /**
  * Crystallographic Binary File (CBF) and image-supporting Crystallographic Information File (imgCIF) loader
+ * <p>
+ * MiniCBF images with byte offset compression, as written by Pilatus detectors, are decoded in Java.
+ * Other files are read with CBFlib.
  *
  * TODO remove Nexus dependency
  */
-public class CBFLoader extends AbstractFileLoader {
+public class CBFLoader extends AbstractFileLoader implements IStreamLoader {
 	protected static final Logger logger = LoggerFactory.getLogger(CBFLoader.class);
 	private HashMap<String, String> metadataMap = new HashMap<String, String>();
 	public HashMap<String, Serializable> GDAMetadata = new HashMap<String, Serializable>();
@@ -78,12 +89,180 @@ public class CBFLoader extends AbstractFileLoader {
 
 	@Override
 	public DataHolder loadFile() throws ScanFileHolderException {
+		logger.info("Loading {}", fileName);
+
+		FileInputStream fi = null;
+		try {
+			fi = new FileInputStream(fileName);
+			DataHolder output = loadByteOffsetFile(mapFile(fi));
+			if (output != null) {
+				return output;
+			}
+		} catch (IOException e) {
+			throw new ScanFileHolderException("Could not read " + fileName, e);
+		} finally {
+			if (fi != null) {
+				try {
+					fi.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		return loadFileWithCBFlib();
+	}
+
+	@Override
+	public IDataHolder loadFile(InputStream in, IMonitor mon) throws ScanFileHolderException {
+		byte[] bytes;
+		try {
+			bytes = Utils.readAll(in);
+		} catch (IOException e) {
+			throw new ScanFileHolderException("Could not read " + fileName, e);
+		}
+
+		boolean oldLazily = loadLazily;
+		loadLazily = false;
+		try {
+			DataHolder output = loadByteOffsetFile(ByteBuffer.wrap(bytes));
+			if (output != null) {
+				return output;
+			}
+		} finally {
+			loadLazily = oldLazily;
+		}
+
+		// CBFlib can only read files
+		try {
+			File tmp = File.createTempFile("cbf", ".cbf");
+			tmp.deleteOnExit();
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+			CBFLoader loader = new CBFLoader(tmp.getAbsolutePath());
+			loader.setLoadMetadata(loadMetadata);
+			loader.setLoadAllLazily(false);
+			DataHolder output = loader.loadFile();
+			metadata = loader.metadata;
+			return output;
+		} catch (IOException e) {
+			throw new ScanFileHolderException("Could not write temporary file for " + fileName, e);
+		}
+	}
+
+	/**
+	 * Map file into memory or read it all where mapping is not possible
+	 * @param fi
+	 * @return buffer of whole file
+	 * @throws IOException
+	 */
+	private ByteBuffer mapFile(FileInputStream fi) throws IOException {
+		FileChannel fc = fi.getChannel();
+		// mapped files cannot be deleted on Windows, see bug 4715154
+		if (!System.getProperty("os.name").contains("Windows")) {
+			try {
+				return fc.map(MapMode.READ_ONLY, 0, fc.size());
+			} catch (IOException e) {
+				logger.warn("Could not map {} so reading directly", fileName, e);
+			}
+		}
+		if (fc.size() > Integer.MAX_VALUE) {
+			throw new IOException("File too big " + fileName);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) fc.size());
+		while (buffer.hasRemaining()) {
+			if (fc.read(buffer, buffer.position()) < 0) {
+				throw new EOFException("Can't read file " + fileName);
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Load miniCBF image with byte offset compression without CBFlib
+	 * @param buffer of whole file
+	 * @return data holder or null if CBFlib is needed
+	 * @throws ScanFileHolderException
+	 */
+	private DataHolder loadByteOffsetFile(ByteBuffer buffer) throws ScanFileHolderException {
+		CBFByteOffsetDecoder decoder = CBFByteOffsetDecoder.create(buffer);
+		if (decoder == null) {
+			return null;
+		}
+
+		int x = decoder.getFastestDimension();
+		int y = decoder.getSecondDimension();
+		int isSigned = decoder.isSigned() ? 1 : 0;
+		ImageOrientation imageOrien;
+		if (loadMetadata) {
+			if (decoder.getHeaderContents() != null) {
+				parseMiniCBFHeader(decoder.getHeaderContents());
+			}
+			imageOrien = createMiniCBFMetadata(x, y, 0, isSigned);
+		} else {
+			imageOrien = new ImageOrientation(x, y, 0, isSigned);
+		}
+
+		ILazyDataset data;
+		if (loadLazily) {
+			data = createLazyDataset(DEF_IMAGE_NAME, imageOrien.getDType(), imageOrien.getShape(), new CBFLoader(fileName));
+		} else {
+			data = readByteOffsetData(decoder, imageOrien);
+		}
+		data.setName(DEF_IMAGE_NAME);
+
+		DataHolder output = new DataHolder();
+		output.addDataset(DEF_IMAGE_NAME, data);
+		if (loadMetadata) {
+			data.setMetadata(metadata);
+			output.setMetadata(metadata);
+		}
+		return output;
+	}
+
+	/**
+	 * Decode image and place its pixels as given by orientation
+	 * @param decoder
+	 * @param imageOrien
+	 * @return dataset
+	 * @throws ScanFileHolderException
+	 */
+	private Dataset readByteOffsetData(CBFByteOffsetDecoder decoder, ImageOrientation imageOrien) throws ScanFileHolderException {
+		int[] shape = imageOrien.getShape();
+		IntegerDataset data;
+		try {
+			data = new IntegerDataset(shape);
+		} catch (OutOfMemoryError e) {
+			throw new ScanFileHolderException("Could not assign IntegerDataset", e);
+		}
+
+		if (imageOrien.isInFileOrder()) {
+			int[] stats = decoder.decode(data.getData(), CBFByteOffsetDecoder.USE_PARALLEL);
+			data.setStoredValue(AbstractDataset.STORE_MIN, stats[0]);
+			data.setStoredValue(AbstractDataset.STORE_MAX, stats[1]);
+			int hash = stats[2];
+			hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
+			for (int i = 0; i < shape.length; i++) {
+				hash = hash*17 + shape[i];
+			}
+			data.setStoredValue(AbstractDataset.STORE_HASH, hash);
+			return data;
+		}
+
+		int[] pixels = new int[data.getSize()];
+		decoder.decode(pixels, CBFByteOffsetDecoder.USE_PARALLEL);
+		return copyIntegerData(IntBuffer.wrap(pixels), imageOrien, data);
+	}
+
+	private DataHolder loadFileWithCBFlib() throws ScanFileHolderException {
 		DataHolder output = new DataHolder();
 		ILazyDataset data = null;
 		ImageOrientation imageOrien = null;
 
-		logger.info("Loading {}", fileName);
-
 		cbf_handle_struct chs = new cbf_handle_struct(fileName);
 
 		CBFError.errorChecker(cbf.cbf_rewind_datablock(chs));
@@ -146,8 +325,37 @@ public class CBFLoader extends AbstractFileLoader {
 
 		CBFError.errorChecker(cbf.cbf_find_column(chs, "header_contents"));
 		CBFError.errorChecker(cbf.cbf_get_value(chs, s));
-		String header = new String(cbf.charPP_value(s));
+		parseMiniCBFHeader(new String(cbf.charPP_value(s)));
 
+		// get image data
+		CBFError.errorChecker(cbf.cbf_find_tag(chs, "_array_data.data"));
+		CBFError.errorChecker(cbf.cbf_rewind_row(chs));
+
+		uintP cifcomp = new uintP();
+		intP bid = new intP(), els = new intP(), elu = new intP();
+		intP minel = new intP(), maxel = new intP(), isre = new intP();
+		sizetP elsize = new sizetP(), elnum = new sizetP();
+		sizetP dim1 = new sizetP(), dim2 = new sizetP(), dim3 = new sizetP(), pad = new sizetP();
+		SWIGTYPE_p_p_char byteorder = cbf.new_charPP();
+		CBFError.errorChecker(cbf.cbf_get_arrayparameters_wdims(chs, cifcomp.cast(), bid.cast(), elsize.cast(),
+				els.cast(), elu.cast(), elnum.cast(), minel.cast(), maxel.cast(), isre.cast(), byteorder,
+				dim1.cast(), dim2.cast(), dim3.cast(), pad.cast()));
+
+		int xDimension = (int) dim1.value();
+		int yDimension = (int) dim2.value();
+		int isReal = isre.value();
+		int isSigned = els.value();
+
+		cifcomp.delete();
+		bid.delete(); els.delete(); elu.delete();
+		minel.delete(); maxel.delete(); isre.delete();
+		elsize.delete(); elnum.delete();
+		dim1.delete(); dim2.delete(); dim3.delete(); pad.delete();
+
+		return createMiniCBFMetadata(xDimension, yDimension, isReal, isSigned);
+	}
+
+	private void parseMiniCBFHeader(String header) throws ScanFileHolderException {
 		BufferedReader in = new BufferedReader(new StringReader(header));
 		String temp;
 		int unknownNum = 0;
@@ -171,33 +379,11 @@ public class CBFLoader extends AbstractFileLoader {
 		} catch (IOException e) {
 			throw new ScanFileHolderException("Error parsing miniCBF header ", e);
 		}
+	}
 
-		// get image data
-		CBFError.errorChecker(cbf.cbf_find_tag(chs, "_array_data.data"));
-		CBFError.errorChecker(cbf.cbf_rewind_row(chs));
-
-		uintP cifcomp = new uintP();
-		intP bid = new intP(), els = new intP(), elu = new intP();
-		intP minel = new intP(), maxel = new intP(), isre = new intP();
-		sizetP elsize = new sizetP(), elnum = new sizetP();
-		sizetP dim1 = new sizetP(), dim2 = new sizetP(), dim3 = new sizetP(), pad = new sizetP();
-		SWIGTYPE_p_p_char byteorder = cbf.new_charPP();
-		CBFError.errorChecker(cbf.cbf_get_arrayparameters_wdims(chs, cifcomp.cast(), bid.cast(), elsize.cast(),
-				els.cast(), elu.cast(), elnum.cast(), minel.cast(), maxel.cast(), isre.cast(), byteorder,
-				dim1.cast(), dim2.cast(), dim3.cast(), pad.cast()));
-
-		int xDimension = (int) dim1.value();
-		int yDimension = (int) dim2.value();
+	private ImageOrientation createMiniCBFMetadata(int xDimension, int yDimension, int isReal, int isSigned) {
 		metadataMap.put("numPixels_x", Integer.toString(xDimension));
 		metadataMap.put("numPixels_y", Integer.toString(yDimension));
-		int isReal = isre.value();
-		int isSigned = els.value();
-
-		cifcomp.delete();
-		bid.delete(); els.delete(); elu.delete();
-		minel.delete(); maxel.delete(); isre.delete();
-		elsize.delete(); elnum.delete();
-		dim1.delete(); dim2.delete(); dim3.delete(); pad.delete();
 
 		// parse metadata from miniCBF to GDA
 		try {
@@ -467,9 +653,6 @@ public class CBFLoader extends AbstractFileLoader {
 		int[] shape = imageOrien.getShape();
 		int xLength = shape[1];
 		int yLength = shape[0];
-		boolean xIncreasing = imageOrien.isXIncreasing();
-		boolean yIncreasing = imageOrien.isYIncreasing();
-		boolean isRowsX = imageOrien.isRowsX();
 
 		boolean isreal = imageOrien.isReal == 1;
 		int numPixels = xLength * yLength;
@@ -482,51 +665,6 @@ public class CBFLoader extends AbstractFileLoader {
 		// TODO add smaller data type support (with sign extension ala NeXus)
 		// deal with floating point data differently than integer data
 
-		int stride1; // stride is change in position on n-th dim
-		int stride2;
-		int start;  // start is offset in position
-
-		if (!isRowsX) { // swap row and column directions
-			boolean b = yIncreasing;
-			yIncreasing = !xIncreasing;
-			xIncreasing = !b;
-		}
-
-		if (!yIncreasing) { // note that image in GDA is plotted so Y increases from top to bottom
-			stride1 = xLength;
-			start = 0;
-		} else {
-			stride1 = -xLength;
-			start = xLength*yLength - xLength;
-		}
-
-		if (xIncreasing) {
-			stride2 = 1;
-		} else {
-			stride2 = -1;
-			start += xLength - 1;
-		}
-
-		int rows;
-		int cols;
-		int rstep;
-		int cstep;
-
-		if (isRowsX) {
-			rows = yLength;
-			cols = xLength;
-			rstep = stride1;
-			cstep = stride2;
-		} else {
-			rows = xLength;
-			cols = yLength;
-			rstep = stride2;
-			cstep = stride1;
-		}
-
-		int index = 0; // index in destination
-		int position = 0; // position in buffer
-		int hash = 0;
 		intP bid = new intP();
 		sizetP rsize = new sizetP();
 
@@ -557,7 +695,16 @@ public class CBFLoader extends AbstractFileLoader {
 			
 			double[] dArray = ((DoubleDataset) data).getData();
 
+			int[] strides = imageOrien.getStrides();
+			int start = strides[0];
+			int rows = strides[1];
+			int cols = strides[2];
+			int rstep = strides[3];
+			int cstep = strides[4];
+
 			// map from CBF data to dataset
+			int index = 0; // index in destination
+			int position = 0; // position in buffer
 			double amax = -Double.MAX_VALUE;
 			double amin = Double.MAX_VALUE;
 			double dhash = 0;
@@ -580,10 +727,17 @@ public class CBFLoader extends AbstractFileLoader {
 				}
 				start += rstep;
 			}
-			hash = (int) dhash;
+			int hash = (int) dhash;
 			data.setStoredValue(AbstractDataset.STORE_MAX, amax);
 			data.setStoredValue(AbstractDataset.STORE_MIN, amin);
 			ddata = null;
+
+			hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
+			int rank = shape.length;
+			for (int i = 0; i < rank; i++) {
+				hash = hash*17 + shape[i];
+			}
+			data.setStoredValue(AbstractDataset.STORE_HASH, hash);
 		} else {
 			IntBuffer idata;
 			try {
@@ -609,43 +763,65 @@ public class CBFLoader extends AbstractFileLoader {
 			} catch (Exception eb) {
 				throw new ScanFileHolderException("Could not assign IntegerDataset", eb);
 			}
-			
-			int[] dArray = ((IntegerDataset) data).getData();
-			int amax = Integer.MIN_VALUE;
-			int amin = Integer.MAX_VALUE;
 
-			for (int j = 0; j < rows; j++) {
-				position = start;
-				for (int i = 0; i < cols; i++) {
-					int value = idata.get(position);
-					position += cstep;
-					hash = hash * 19 + value;
-					dArray[index++] = value;
-					if (value > amax) {
-						amax = value;
-					}
-					if (value < amin) {
-						amin = value;
-					}
-				}
-				start += rstep;
-			}
-
-			data.setStoredValue(AbstractDataset.STORE_MAX, amax);
-			data.setStoredValue(AbstractDataset.STORE_MIN, amin);
+			copyIntegerData(idata, imageOrien, (IntegerDataset) data);
 			idata = null;
 		}
 
 		rsize.delete();
 		bid.delete();
 
+		return data;
+	}
+
+	/**
+	 * Copy integers from CBF data to dataset as given by orientation and set its statistics
+	 * @param idata
+	 * @param imageOrien
+	 * @param data
+	 * @return dataset
+	 */
+	private static IntegerDataset copyIntegerData(IntBuffer idata, ImageOrientation imageOrien, IntegerDataset data) {
+		int[] strides = imageOrien.getStrides();
+		int start = strides[0];
+		int rows = strides[1];
+		int cols = strides[2];
+		int rstep = strides[3];
+		int cstep = strides[4];
+
+		int[] dArray = data.getData();
+		int index = 0; // index in destination
+		int position = 0; // position in buffer
+		int hash = 0;
+		int amax = Integer.MIN_VALUE;
+		int amin = Integer.MAX_VALUE;
+
+		for (int j = 0; j < rows; j++) {
+			position = start;
+			for (int i = 0; i < cols; i++) {
+				int value = idata.get(position);
+				position += cstep;
+				hash = hash * 19 + value;
+				dArray[index++] = value;
+				if (value > amax) {
+					amax = value;
+				}
+				if (value < amin) {
+					amin = value;
+				}
+			}
+			start += rstep;
+		}
+
+		data.setStoredValue(AbstractDataset.STORE_MAX, amax);
+		data.setStoredValue(AbstractDataset.STORE_MIN, amin);
+
+		int[] shape = data.getShape();
 		hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
-		int rank = shape.length;
-		for (int i = 0; i < rank; i++) {
+		for (int i = 0; i < shape.length; i++) {
 			hash = hash*17 + shape[i];
 		}
 		data.setStoredValue(AbstractDataset.STORE_HASH, hash);
-
 		return data;
 	}
 
@@ -1023,10 +1199,76 @@ public class CBFLoader extends AbstractFileLoader {
 		public boolean isRowsX() {
 			return isRowsX;
 		}
+
+		/**
+		 * @return start, rows, columns, row step and column step in CBF data for each
+		 * row and column of the image
+		 */
+		public int[] getStrides() {
+			int xLength = shape[1];
+			int yLength = shape[0];
+			boolean xIncreasing = this.xIncreasing;
+			boolean yIncreasing = this.yIncreasing;
+
+			int stride1; // stride is change in position on n-th dim
+			int stride2;
+			int start;  // start is offset in position
+
+			if (!isRowsX) { // swap row and column directions
+				boolean b = yIncreasing;
+				yIncreasing = !xIncreasing;
+				xIncreasing = !b;
+			}
+
+			if (!yIncreasing) { // note that image in GDA is plotted so Y increases from top to bottom
+				stride1 = xLength;
+				start = 0;
+			} else {
+				stride1 = -xLength;
+				start = xLength*yLength - xLength;
+			}
+
+			if (xIncreasing) {
+				stride2 = 1;
+			} else {
+				stride2 = -1;
+				start += xLength - 1;
+			}
+
+			if (isRowsX) {
+				return new int[] {start, yLength, xLength, stride1, stride2};
+			}
+			return new int[] {start, xLength, yLength, stride2, stride1};
+		}
+
+		/**
+		 * @return true if image pixels are in same order as CBF data
+		 */
+		public boolean isInFileOrder() {
+			int[] strides = getStrides();
+			return strides[0] == 0 && strides[4] == 1 && strides[3] == strides[2];
+		}
+	}
+
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		CBFByteOffsetDecoder decoder = CBFByteOffsetDecoder.create(ByteBuffer.wrap(readHeaderBytes()), false);
+		if (decoder == null) {
+			return false;
+		}
+		if (decoder.getHeaderContents() != null) {
+			parseMiniCBFHeader(decoder.getHeaderContents());
+		}
+		createMiniCBFMetadata(decoder.getFastestDimension(), decoder.getSecondDimension(), 0, decoder.isSigned() ? 1 : 0);
+		return true;
 	}
 
 	@Override
 	public void loadMetadata(IMonitor mon) throws Exception {
+		if (loadHeaderMetadata(mon)) {
+			return;
+		}
+
 		cbf_handle_struct chs = new cbf_handle_struct(fileName);
 		CBFError.errorChecker(cbf.cbf_rewind_datablock(chs));
 		try {
@@ -1035,4 +1277,10 @@ public class CBFLoader extends AbstractFileLoader {
 			throw new ScanFileHolderException("Could not create metadata form CBF", e);
 		}
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		// imgCIF files need not start with the CBF magic
+		return Utils.startsWith(header, length, "###CBF") ? Match.YES : Match.MAYBE;
+	}
 }
@@ -99,6 +99,11 @@ public class CBZip2InputStream extends InputStream {
     private int storedBlockCRC, storedCombinedCRC;
     private int computedBlockCRC, computedCombinedCRC;
 
+    /**
+     * True when only one block is decoded
+     */
+    private boolean singleBlock = false;
+
     // Variables used by setup* methods exclusively
 
     private int su_count;
@@ -139,6 +144,45 @@ public class CBZip2InputStream extends InputStream {
         init();
     }
 
+    /**
+     * Constructs a decoder for the single block whose header starts at the
+     * given bit of the first byte in the specified stream. Reading ends at
+     * the end of the block and a bad block CRC is an error.
+     *
+     * @param in stream positioned at byte containing start of block header
+     * @param blockSize100k block size from stream header
+     * @param bit offset of block header in first byte (0 is the most significant bit)
+     * @throws IOException
+     *  if the block is malformed or an I/O error occurs.
+     */
+    CBZip2InputStream(final InputStream in, final int blockSize100k, final int bit) throws IOException {
+        super();
+
+        this.in = in;
+        this.blockSize100k = blockSize100k;
+        this.singleBlock = true;
+        if (bit > 0) {
+            bsR(bit);
+        }
+        initBlock();
+        setupBlock();
+    }
+
+    /**
+     * @return number of bits read from source stream but not yet used. After a single block
+     * decoder is constructed, this gives where the compressed block ends
+     */
+    int getUnusedBits() {
+        return this.bsLive;
+    }
+
+    /**
+     * @return CRC stored in header of current block
+     */
+    int getBlockCRC() {
+        return this.storedBlockCRC;
+    }
+
     @Override
 	public int read() throws IOException {
         if (this.in != null) {
@@ -290,11 +334,26 @@ public class CBZip2InputStream extends InputStream {
         }
     }
 
-    private void endBlock() {
+    private void nextBlock() throws IOException {
+        if (this.singleBlock) {
+            this.currentState = EOF;
+            this.data = null;
+            return;
+        }
+        initBlock();
+        setupBlock();
+    }
+
+    private void endBlock() throws IOException {
         this.computedBlockCRC = this.crc.getFinalCRC();
 
         // A bad CRC is considered a fatal error.
         if (this.storedBlockCRC != this.computedBlockCRC) {
+            if (this.singleBlock) {
+                this.currentState = EOF;
+                throw new IOException("crc error");
+            }
+
             // make next blocks readable without error
             // (repair feature, not yet documented, not tested)
             this.computedCombinedCRC
@@ -818,8 +877,7 @@ public class CBZip2InputStream extends InputStream {
             this.crc.updateCRC(su_ch2Shadow);
         } else {
             endBlock();
-            initBlock();
-            setupBlock();
+            nextBlock();
         }
     }
 
@@ -836,8 +894,7 @@ public class CBZip2InputStream extends InputStream {
         } else {
             this.currentState = NO_RAND_PART_A_STATE;
             endBlock();
-            initBlock();
-            setupBlock();
+            nextBlock();
         }
     }
 
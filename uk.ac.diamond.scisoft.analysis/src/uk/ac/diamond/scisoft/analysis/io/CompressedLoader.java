@@ -12,6 +12,7 @@ package uk.ac.diamond.scisoft.analysis.io;
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
 import java.util.regex.Matcher;
@@ -28,14 +29,20 @@ import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 
 import uk.ac.diamond.scisoft.analysis.utils.FileUtils;
 
+/**
+ * Loads a compressed file with the loader registered for the extension that precedes the
+ * compression extension. Loaders which implement {@link IStreamLoader} read the file as it is
+ * decompressed, otherwise the file is decompressed to a temporary file first.
+ */
 public class CompressedLoader extends AbstractFileLoader {
 
 	private IFileLoader loader;
-	
+	private Class<? extends InputStream> zipClass;
+
 	public CompressedLoader() {
-		
+
 	}
-	
+
 	public CompressedLoader(final String file) throws Exception {
 		setFile(file);
 		initFile();
@@ -46,56 +53,109 @@ public class CompressedLoader extends AbstractFileLoader {
 	}
 
 	private static final Pattern ZIP_PATH = Pattern.compile("(.+)\\.(.+)\\."+LoaderFactory.getZipExpression());
-	
+
 	public void initFile() throws Exception {
-		
+
 		final Matcher m = ZIP_PATH.matcher((new File(fileName)).getName());
 		if (m.matches()) {
-			
+
 			final String name     = m.group(1);
 			final String ext      = m.group(2);
 			final String zipType  = m.group(3);
-			
-			final Class<? extends InputStream>   clazz = LoaderFactory.getZipStream(zipType);
-			final Constructor<? extends InputStream> c = clazz.getConstructor(InputStream.class);
-			
-			final InputStream in = c.newInstance(new FileInputStream(fileName));
-			// Hack zip files
-			if (in instanceof ZipInputStream) {
-				((ZipInputStream)in).getNextEntry();
+
+			zipClass = LoaderFactory.getZipStream(zipType);
+			final Class<? extends IFileLoader> lclass = LoaderFactory.getLoaderClass(ext);
+			if (IStreamLoader.class.isAssignableFrom(lclass)) {
+				this.loader = LoaderFactory.getLoader(lclass, fileName);
+				return;
 			}
-			
+
 			final File tmp = File.createTempFile(name, "."+ext);
 			tmp.deleteOnExit();
-			
-			// This is slow and unnecessary. Should refactor LoaderFactory to 
-			// work either from a file path or in memory representation.
-			FileUtils.write(new BufferedInputStream(in), tmp);
-			
-			final Class<? extends IFileLoader> lclass = LoaderFactory.getLoaderClass(ext);
+
+			// Only for loaders which cannot read from a stream
+			final InputStream in = openStream();
+			try {
+				FileUtils.write(new BufferedInputStream(in), tmp);
+			} finally {
+				in.close();
+			}
+
 			this.loader = LoaderFactory.getLoader(lclass, tmp.getAbsolutePath());
 		}
-        
+
+	}
+
+	/**
+	 * @return stream of decompressed file contents
+	 * @throws Exception
+	 */
+	private InputStream openStream() throws Exception {
+		final Constructor<? extends InputStream> c = zipClass.getConstructor(InputStream.class);
+		final FileInputStream fi = new FileInputStream(fileName);
+		final InputStream in;
+		try {
+			in = c.newInstance(new BufferedInputStream(fi));
+		} catch (Exception e) {
+			fi.close();
+			throw e;
+		}
+		// Hack zip files
+		if (in instanceof ZipInputStream) {
+			((ZipInputStream)in).getNextEntry();
+		}
+		return in;
 	}
-	
+
 	@Override
 	public IDataHolder loadFile() throws ScanFileHolderException {
-		return loader.loadFile();
+		return loadFile(null);
 	}
+
 	@Override
 	public IDataHolder loadFile(IMonitor mon) throws ScanFileHolderException {
-		return loader.loadFile(mon);
+		loader.setLoadMetadata(loadMetadata);
+		if (!(loader instanceof IStreamLoader)) {
+			loader.setLoadAllLazily(loadLazily);
+			return loader.loadFile(mon);
+		}
+
+		// stream cannot be re-read by lazy datasets
+		loader.setLoadAllLazily(false);
+		InputStream in = null;
+		try {
+			in = openStream();
+			return ((IStreamLoader) loader).loadFile(new BufferedInputStream(in), mon);
+		} catch (ScanFileHolderException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ScanFileHolderException("Could not decompress " + fileName, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// do nothing
+				}
+			}
+		}
 	}
-	
+
 	@Override
 	public void loadMetadata(IMonitor mon) throws Exception {
-		loader.loadFile(mon);
-    }
-	
+		boolean oldMeta = loadMetadata;
+		loadMetadata = true;
+		try {
+			loadFile(mon);
+		} finally {
+			loadMetadata = oldMeta;
+		}
+	}
+
 	@Override
 	public IMetadata getMetadata() {
 		if (loader instanceof IMetaLoader) return ((IMetaLoader)loader).getMetadata();
 		return new Metadata();
 	}
-	
+
 }
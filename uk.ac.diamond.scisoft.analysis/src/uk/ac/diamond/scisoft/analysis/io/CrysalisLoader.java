@@ -10,11 +10,13 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -80,44 +82,10 @@ public class CrysalisLoader extends AbstractFileLoader implements IFileSaver {
 
 			f = new File(fileName);
 			br = new BufferedReader(new FileReader(f));
-			br.mark(8192);
-			char[] magic = new char[8];
-			br.read(magic);
-			if (!new String(magic).startsWith("OD")) {
-				throw new ScanFileHolderException("Not a valid Crysalis file");
-			}
-			br.reset();
-			String[] lines = new String[5];
-			for (int i = 0; i < lines.length; i++) {
-				lines[i] = br.readLine();
-			}
-
-			if (!lines[1].contains("COMPRESSION= NO")) {
-				throw new IllegalArgumentException("File is compressed  - " + fileName);
-			}
-			Pattern p = Pattern.compile("NX= *(\\d+).*");
-			Matcher m = p.matcher(lines[2]);
-			if (!m.matches()) {
-				throw new IllegalArgumentException("NX not found  - " + fileName);
-			}
-			int nx = Integer.valueOf(m.group(1));
-			textMetadata.put("nx", "" + nx);
-
-			p = Pattern.compile(".*NY= *(\\d+).*");
-			m = p.matcher(lines[2]);
-			if (!m.matches()) {
-				throw new IllegalArgumentException("NY not found  - " + fileName);
-			}
-			int ny = Integer.valueOf(m.group(1));
-			textMetadata.put("ny", "" + ny);
-
-			p = Pattern.compile("NHEADER= *(\\d+).*");
-			m = p.matcher(lines[3]);
-			if (!m.matches()) {
-				throw new IllegalArgumentException("NHEADER not found  - " + fileName);
-			}
-			final int nheader = Integer.valueOf(m.group(1));
-			textMetadata.put("nheader", "" + nheader);
+			int[] header = readHeader(br);
+			int nx = header[0];
+			int ny = header[1];
+			final int nheader = header[2];
 
 			fi = new FileInputStream(f);
 			fi.skip(nheader);
@@ -140,7 +108,7 @@ public class CrysalisLoader extends AbstractFileLoader implements IFileSaver {
 			data.setName(DEF_IMAGE_NAME);
 
 			if (loadMetadata)
-				createMetadata(data);
+				createMetadata(data.getShape());
 		} catch (Exception e) {
 			logger.error("File failed to load {} with error: {}" , fileName, e);
 			throw new ScanFileHolderException("File failed to load " + fileName, e);
@@ -176,6 +144,62 @@ public class CrysalisLoader extends AbstractFileLoader implements IFileSaver {
 
 	}
 
+	/**
+	 * Read text header
+	 * @param br
+	 * @return width, height and header length
+	 * @throws Exception
+	 */
+	private int[] readHeader(BufferedReader br) throws Exception {
+		br.mark(8192);
+		char[] magic = new char[8];
+		br.read(magic);
+		if (!new String(magic).startsWith("OD")) {
+			throw new ScanFileHolderException("Not a valid Crysalis file");
+		}
+		br.reset();
+		String[] lines = new String[5];
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = br.readLine();
+		}
+
+		if (!lines[1].contains("COMPRESSION= NO")) {
+			throw new IllegalArgumentException("File is compressed  - " + fileName);
+		}
+		Pattern p = Pattern.compile("NX= *(\\d+).*");
+		Matcher m = p.matcher(lines[2]);
+		if (!m.matches()) {
+			throw new IllegalArgumentException("NX not found  - " + fileName);
+		}
+		int nx = Integer.valueOf(m.group(1));
+		textMetadata.put("nx", "" + nx);
+
+		p = Pattern.compile(".*NY= *(\\d+).*");
+		m = p.matcher(lines[2]);
+		if (!m.matches()) {
+			throw new IllegalArgumentException("NY not found  - " + fileName);
+		}
+		int ny = Integer.valueOf(m.group(1));
+		textMetadata.put("ny", "" + ny);
+
+		p = Pattern.compile("NHEADER= *(\\d+).*");
+		m = p.matcher(lines[3]);
+		if (!m.matches()) {
+			throw new IllegalArgumentException("NHEADER not found  - " + fileName);
+		}
+		int nheader = Integer.valueOf(m.group(1));
+		textMetadata.put("nheader", "" + nheader);
+		return new int[] {nx, ny, nheader};
+	}
+
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(readHeaderBytes())));
+		int[] header = readHeader(br);
+		createMetadata(header[0], header[1]);
+		return true;
+	}
+
 	private static Dataset loadDataset(String fileName, int header, int[] shape) throws ScanFileHolderException {
 		IDataHolder holder = LoaderFactory.fetchData(fileName, false);
 		if (holder != null) {
@@ -214,9 +238,9 @@ public class CrysalisLoader extends AbstractFileLoader implements IFileSaver {
 		}
 	}
 
-	private void createMetadata(ILazyDataset data) {
+	private void createMetadata(int... shape) {
 		metadata = new Metadata(textMetadata);
-		metadata.addDataInfo(DEF_IMAGE_NAME, data.getShape());
+		metadata.addDataInfo(DEF_IMAGE_NAME, shape);
 		metadata.setFilePath(fileName);
 	}
 
@@ -260,4 +284,9 @@ public class CrysalisLoader extends AbstractFileLoader implements IFileSaver {
 			}
 		}
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.startsWith(header, length, "OD") ? Match.YES : Match.NO;
+	}
 }
@@ -474,4 +474,12 @@ public class DatLoader extends AbstractFileLoader {
 			v.put(name, new ArrayList<Double>(89));
 		}
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		// SRS files start with a namelist
+		if (Utils.isBinary(header, length) || Utils.firstNonWhitespace(header, length) == '&')
+			return Match.NO;
+		return Match.MAYBE;
+	}
 }
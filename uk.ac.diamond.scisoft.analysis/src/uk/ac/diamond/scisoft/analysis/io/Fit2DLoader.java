@@ -10,10 +10,12 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -99,10 +101,7 @@ public class Fit2DLoader extends AbstractFileLoader {
 			}
 		}
 
-		metadata = new Metadata(textMetadata);
-		metadata.setFilePath(fileName);
-		metadata.addDataInfo(DATA_NAME, Integer.parseInt(textMetadata.get("Dim_2")),
-				Integer.parseInt(textMetadata.get("Dim_1")));
+		createMetadata();
 		output.addDataset(DATA_NAME, data);
 		if (loadMetadata) {
 			data.setMetadata(metadata);
@@ -111,6 +110,33 @@ public class Fit2DLoader extends AbstractFileLoader {
 		return output;
 	}
 
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(readHeaderBytes())));
+		String line = br.readLine();
+		if (line == null || !line.trim().startsWith("\\")) {
+			throw new ScanFileHolderException("Fit2D File should start with \\ !");
+		}
+
+		try {
+			readMetaData(br, line.length()+1, mon);
+		} catch (StringIndexOutOfBoundsException e) { // last line was cut short by header limit
+			return false;
+		}
+		if (!textMetadata.containsKey("Dim_1") || !textMetadata.containsKey("Dim_2")) { // header is longer than limit
+			return false;
+		}
+		createMetadata();
+		return true;
+	}
+
+	private void createMetadata() {
+		metadata = new Metadata(textMetadata);
+		metadata.setFilePath(fileName);
+		metadata.addDataInfo(DATA_NAME, Integer.parseInt(textMetadata.get("Dim_2")),
+				Integer.parseInt(textMetadata.get("Dim_1")));
+	}
+
 	private int readMetaData(final BufferedReader br, int index, final IMonitor mon) throws Exception {
 		
 		textMetadata.clear();
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of decoded HDF5 chunks shared by all lazy datasets.
+ * <p>
+ * Chunks are held as primitive arrays in a least-recently-used map whose total size is bounded by
+ * a byte budget. Entries are keyed by file path and modification time, dataset path and chunk
+ * origin so chunks of a file that has changed are not returned.
+ */
+public class HDF5ChunkCache {
+
+	/**
+	 * System property to set the cache budget in bytes. Set to zero to disable chunk caching
+	 */
+	public static final String CACHE_BUDGET = "uk.ac.diamond.scisoft.analysis.io.hdf5.chunkcachebudget";
+
+	private static final HDF5ChunkCache CACHE = new HDF5ChunkCache(Long.getLong(CACHE_BUDGET,
+			Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 16)));
+
+	/**
+	 * @return shared cache
+	 */
+	public static HDF5ChunkCache getInstance() {
+		return CACHE;
+	}
+
+	/**
+	 * Key of chunk
+	 */
+	static final class Key {
+		private final String path;
+		private final long modified;
+		private final String node;
+		private final long[] origin;
+		private final int hash;
+
+		/**
+		 * @param path canonical path of file
+		 * @param modified modification time of file
+		 * @param node path of dataset in file
+		 * @param origin position of first item in chunk
+		 */
+		Key(String path, long modified, String node, long[] origin) {
+			this.path = path;
+			this.modified = modified;
+			this.node = node;
+			this.origin = origin;
+			int h = path.hashCode();
+			h = 31 * h + (int) (modified ^ (modified >>> 32));
+			h = 31 * h + node.hashCode();
+			hash = 31 * h + Arrays.hashCode(origin);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return hash == other.hash && modified == other.modified && path.equals(other.path)
+					&& node.equals(other.node) && Arrays.equals(origin, other.origin);
+		}
+	}
+
+	private static class Entry {
+		final Object chunk;
+		final long bytes;
+
+		Entry(Object chunk, long bytes) {
+			this.chunk = chunk;
+			this.bytes = bytes;
+		}
+	}
+
+	private final Map<Key, Entry> cache;
+	private long budget;
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param budget maximum number of bytes to hold in cache
+	 */
+	public HDF5ChunkCache(long budget) {
+		this.budget = budget;
+		cache = new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+	}
+
+	/**
+	 * @return maximum number of bytes to hold in cache
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set maximum number of bytes to hold in cache. Least recently used entries are evicted
+	 * if the cache is now over budget
+	 * @param budget
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * @return number of bytes held in cache
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @param key
+	 * @return chunk (which must not be modified) or null if not in cache
+	 */
+	synchronized Object get(Key key) {
+		Entry e = cache.get(key);
+		if (e == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return e.chunk;
+	}
+
+	/**
+	 * Store chunk in cache. This will evict least recently used entries if over budget
+	 * @param key
+	 * @param chunk primitive array
+	 * @param bytes size of chunk
+	 */
+	synchronized void put(Key key, Object chunk, long bytes) {
+		if (bytes > budget) {
+			return;
+		}
+		Entry old = cache.put(key, new Entry(chunk, bytes));
+		if (old != null) {
+			size -= old.bytes;
+		}
+		size += bytes;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Entry> it = cache.values().iterator();
+		while (size > budget && it.hasNext()) {
+			size -= it.next().bytes;
+			it.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Remove all chunks of given file
+	 * @param path canonical path of file
+	 */
+	public synchronized void remove(String path) {
+		Iterator<Map.Entry<Key, Entry>> it = cache.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Entry> e = it.next();
+			if (e.getKey().path.equals(path)) {
+				size -= e.getValue().bytes;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Remove all chunks from cache
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		size = 0;
+	}
+
+	/**
+	 * Reset all counters
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * @return number of chunks found in cache
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of chunks that had to be read
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of chunks evicted to keep the cache within its budget
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ncsa.hdf.hdf5lib.H5;
+import ncsa.hdf.hdf5lib.HDF5Constants;
+import ncsa.hdf.hdf5lib.exceptions.HDF5Exception;
+import ncsa.hdf.object.h5.H5Datatype;
+
+/**
+ * Plans reads of a slice of a chunked HDF5 dataset in terms of whole chunks.
+ * <p>
+ * Each chunk that the slice touches is taken from the {@link HDF5ChunkCache} or read whole from
+ * the file, with runs of missing chunks that are adjacent along the last axis coalesced into a
+ * single read. The items of the slice are then copied out of the chunks. This means a chunk is
+ * decompressed once however many slices (e.g. frames or transposed lines) cut through it.
+ */
+class HDF5ChunkReader {
+
+	/**
+	 * Maximum number of chunks to coalesce into one read
+	 */
+	private static final int MAX_RUN = 16;
+
+	private final HDF5ChunkCache cache;
+	private final String cPath;
+	private final long modified;
+	private final String node;
+	private final int did;
+	private final int tid;
+	private final int itemSize;
+	private final long[] dims;
+	private final long[] chunks;
+	private final int rank;
+
+	/**
+	 * @param cache
+	 * @param cPath canonical path of file
+	 * @param modified modification time of file
+	 * @param node path of dataset in file
+	 * @param did dataset identifier
+	 * @param tid datatype identifier of integer or float type
+	 * @param dims shape of dataset
+	 * @param chunks shape of chunks
+	 * @throws HDF5Exception
+	 */
+	HDF5ChunkReader(HDF5ChunkCache cache, String cPath, long modified, String node, int did, int tid,
+			long[] dims, long[] chunks) throws HDF5Exception {
+		this.cache = cache;
+		this.cPath = cPath;
+		this.modified = modified;
+		this.node = node;
+		this.did = did;
+		this.tid = tid;
+		this.itemSize = H5.H5Tget_size(tid);
+		this.dims = dims;
+		this.chunks = chunks;
+		rank = dims.length;
+	}
+
+	/**
+	 * A slice is worth reading via chunks when it uses part of some chunk, as other slices will need
+	 * the rest of it, and a chunk fits comfortably in the cache
+	 * @param start
+	 * @param count
+	 * @param step
+	 * @return true if slice should be read via chunks
+	 */
+	boolean isWorthwhile(int[] start, int[] count, int[] step) {
+		long bytes = itemSize;
+		for (int i = 0; i < rank; i++) {
+			bytes *= chunks[i];
+		}
+		if (bytes > cache.getBudget() / 8) {
+			return false;
+		}
+
+		for (int i = 0; i < rank; i++) {
+			final long c = chunks[i];
+			if (c <= 1) {
+				continue;
+			}
+			if (step[i] != 1 && count[i] > 1) {
+				return true;
+			}
+			final long end = start[i] + count[i];
+			if (start[i] % c != 0 || (end % c != 0 && end != dims[i])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Read slice into buffer
+	 * @param start
+	 * @param count
+	 * @param step
+	 * @param buffer primitive array of same type as that allocated for datatype
+	 * @throws HDF5Exception
+	 */
+	void read(int[] start, int[] count, int[] step, Object buffer) throws HDF5Exception {
+		final int last = rank - 1;
+		final long[] cbeg = new long[rank]; // range of chunk indexes
+		final long[] cend = new long[rank]; // inclusive
+		for (int i = 0; i < rank; i++) {
+			cbeg[i] = start[i] / chunks[i];
+			cend[i] = (start[i] + (long) (count[i] - 1) * step[i]) / chunks[i];
+		}
+		final int[] strides = new int[rank]; // of buffer
+		strides[last] = 1;
+		for (int i = last - 1; i >= 0; i--) {
+			strides[i] = strides[i + 1] * count[i + 1];
+		}
+
+		final int sid = H5.H5Dget_space(did);
+		try {
+			final long[] index = cbeg.clone();
+			final List<long[]> missing = new ArrayList<long[]>();
+			while (true) {
+				// along last axis
+				for (long c = cbeg[last]; c <= cend[last]; c++) {
+					index[last] = c;
+					final long[] origin = new long[rank];
+					for (int i = 0; i < rank; i++) {
+						origin[i] = index[i] * chunks[i];
+					}
+					if (!hasItems(origin, start, count, step)) {
+						continue;
+					}
+					Object chunk = cache.get(new HDF5ChunkCache.Key(cPath, modified, node, origin));
+					if (chunk == null) {
+						missing.add(origin);
+						if (missing.size() == MAX_RUN) {
+							readRun(sid, missing, start, count, step, strides, buffer);
+						}
+					} else {
+						copy(chunk, origin, start, count, step, strides, buffer);
+					}
+				}
+				if (!missing.isEmpty()) {
+					readRun(sid, missing, start, count, step, strides, buffer);
+				}
+
+				int j = last - 1;
+				for (; j >= 0; j--) {
+					if (++index[j] <= cend[j]) {
+						break;
+					}
+					index[j] = cbeg[j];
+				}
+				if (j < 0) {
+					break;
+				}
+			}
+		} finally {
+			H5.H5Sclose(sid);
+		}
+	}
+
+	private long[] getExtent(long[] origin) {
+		final long[] extent = new long[rank];
+		for (int i = 0; i < rank; i++) {
+			extent[i] = Math.min(chunks[i], dims[i] - origin[i]);
+		}
+		return extent;
+	}
+
+	/**
+	 * Read run of chunks that are adjacent along last axis in one go, store them in cache and copy
+	 * their items to buffer. The run is cleared afterwards
+	 */
+	private void readRun(int sid, List<long[]> run, int[] start, int[] count, int[] step, int[] strides,
+			Object buffer) throws HDF5Exception {
+		final int last = rank - 1;
+		final long[] ones = new long[rank];
+		Arrays.fill(ones, 1);
+		int i = 0;
+		while (i < run.size()) {
+			// find adjacent chunks
+			final long[] origin = run.get(i);
+			int n = 1;
+			while (i + n < run.size() && run.get(i + n)[last] == origin[last] + n * chunks[last]) {
+				n++;
+			}
+			final long[] extent = getExtent(origin);
+			final long rows = getSize(extent) / extent[last]; // number of lines along last axis
+			final long[] block = extent.clone();
+			block[last] = Math.min(n * chunks[last], dims[last] - origin[last]);
+			final int length = (int) (rows * block[last]);
+
+			final Object data = H5Datatype.allocateArray(tid, length);
+			H5.H5Sselect_hyperslab(sid, HDF5Constants.H5S_SELECT_SET, origin, ones, block, null);
+			final int msid = H5.H5Screate_simple(1, new long[] {length}, null);
+			try {
+				H5.H5Sselect_all(msid);
+				H5.H5Dread(did, tid, msid, sid, HDF5Constants.H5P_DEFAULT, data);
+			} finally {
+				H5.H5Sclose(msid);
+			}
+
+			for (int j = 0; j < n; j++) {
+				final long[] o = run.get(i + j);
+				final int w = (int) Math.min(chunks[last], dims[last] - o[last]);
+				final Object chunk;
+				if (n == 1) {
+					chunk = data;
+				} else {
+					final int offset = (int) (j * chunks[last]);
+					chunk = H5Datatype.allocateArray(tid, (int) (rows * w));
+					for (int r = 0; r < rows; r++) {
+						System.arraycopy(data, (int) (r * block[last]) + offset, chunk, r * w, w);
+					}
+				}
+				cache.put(new HDF5ChunkCache.Key(cPath, modified, node, o), chunk, rows * w * itemSize);
+				copy(chunk, o, start, count, step, strides, buffer);
+			}
+			i += n;
+		}
+		run.clear();
+	}
+
+	private static long getSize(long[] shape) {
+		long size = 1;
+		for (long s : shape) {
+			size *= s;
+		}
+		return size;
+	}
+
+	/**
+	 * @return true if chunk holds any items of slice
+	 */
+	private boolean hasItems(long[] origin, int[] start, int[] count, int[] step) {
+		for (int i = 0; i < rank; i++) {
+			final long end = Math.min(origin[i] + chunks[i], dims[i]); // exclusive
+			if (lowest(origin[i], start[i], step[i]) > highest(end, start[i], count[i], step[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return lowest index of slice at or after position
+	 */
+	private static long lowest(long position, int start, int step) {
+		return position <= start ? 0 : (position - start + step - 1) / step;
+	}
+
+	/**
+	 * @return highest index of slice before end position or -1
+	 */
+	private static long highest(long end, int start, int count, int step) {
+		return end <= start ? -1 : Math.min(count - 1, (end - 1 - start) / step);
+	}
+
+	/**
+	 * Copy items of slice held in chunk to buffer
+	 */
+	private void copy(Object chunk, long[] origin, int[] start, int[] count, int[] step, int[] strides, Object buffer) {
+		final int last = rank - 1;
+		final long[] extent = getExtent(origin);
+		final int[] lo = new int[rank];
+		final int[] hi = new int[rank];
+		final int[] cstrides = new int[rank]; // of chunk
+		for (int i = last; i >= 0; i--) {
+			lo[i] = (int) lowest(origin[i], start[i], step[i]);
+			hi[i] = (int) highest(origin[i] + extent[i], start[i], count[i], step[i]);
+			cstrides[i] = i == last ? 1 : cstrides[i + 1] * (int) extent[i + 1];
+		}
+		final int n = hi[last] - lo[last] + 1;
+		final int[] k = lo.clone();
+		while (true) {
+			int src = 0;
+			int dst = 0;
+			for (int i = 0; i < rank; i++) {
+				src += (start[i] + k[i] * step[i] - origin[i]) * cstrides[i];
+				dst += k[i] * strides[i];
+			}
+			copy(chunk, src, step[last], buffer, dst, n);
+
+			int j = last - 1;
+			for (; j >= 0; j--) {
+				if (++k[j] <= hi[j]) {
+					break;
+				}
+				k[j] = lo[j];
+			}
+			if (j < 0) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Copy strided items of source to contiguous positions in destination
+	 */
+	private static void copy(Object src, int srcPos, int srcStep, Object dst, int dstPos, int n) {
+		if (srcStep == 1) {
+			System.arraycopy(src, srcPos, dst, dstPos, n);
+		} else if (src instanceof double[]) {
+			final double[] s = (double[]) src;
+			final double[] d = (double[]) dst;
+			for (int i = 0; i < n; i++, srcPos += srcStep) {
+				d[dstPos + i] = s[srcPos];
+			}
+		} else if (src instanceof float[]) {
+			final float[] s = (float[]) src;
+			final float[] d = (float[]) dst;
+			for (int i = 0; i < n; i++, srcPos += srcStep) {
+				d[dstPos + i] = s[srcPos];
+			}
+		} else if (src instanceof long[]) {
+			final long[] s = (long[]) src;
+			final long[] d = (long[]) dst;
+			for (int i = 0; i < n; i++, srcPos += srcStep) {
+				d[dstPos + i] = s[srcPos];
+			}
+		} else if (src instanceof int[]) {
+			final int[] s = (int[]) src;
+			final int[] d = (int[]) dst;
+			for (int i = 0; i < n; i++, srcPos += srcStep) {
+				d[dstPos + i] = s[srcPos];
+			}
+		} else if (src instanceof short[]) {
+			final short[] s = (short[]) src;
+			final short[] d = (short[]) dst;
+			for (int i = 0; i < n; i++, srcPos += srcStep) {
+				d[dstPos + i] = s[srcPos];
+			}
+		} else if (src instanceof byte[]) {
+			final byte[] s = (byte[]) src;
+			final byte[] d = (byte[]) dst;
+			for (int i = 0; i < n; i++, srcPos += srcStep) {
+				d[dstPos + i] = s[srcPos];
+			}
+		} else {
+			throw new IllegalArgumentException("Unsupported chunk type");
+		}
+	}
+}
@@ -0,0 +1,598 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ncsa.hdf.hdf5lib.H5;
+import ncsa.hdf.hdf5lib.HDF5Constants;
+import ncsa.hdf.hdf5lib.exceptions.HDF5Exception;
+import ncsa.hdf.hdf5lib.structs.H5O_info_t;
+import ncsa.hdf.object.Datatype;
+import ncsa.hdf.object.h5.H5Datatype;
+
+import org.eclipse.dawnsci.hdf5.HierarchicalDataFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of open HDF5 file and dataset identifiers used for lazy slice reads.
+ * <p>
+ * Handles are reference counted and keyed by canonical file path and node path. Each dataset
+ * handle holds its type and chunk layout so repeated reads only need to get a dataspace. Idle
+ * handles are closed after a timeout by a background thread and least recently used files are
+ * closed when more than a maximum number are open. Callers must hold the low level reading
+ * access for a file (see {@link HierarchicalDataFactory#acquireLowLevelReadingAccess(String)})
+ * whilst they use its handles; handles are only closed when not in use and then under that access.
+ * Files evicted during an acquire or release are closed by a background thread so a reader never
+ * waits for the access of another file whilst holding that of its own.
+ * <p>
+ * A file is reopened if its modification time has changed since it was opened. Code that writes
+ * HDF5 files must call {@link #closeForWriting(String)} before it opens a file for writing as that
+ * fails or sees stale data while the file is held open for reading.
+ */
+public class HDF5HandlePool {
+	private static final Logger logger = LoggerFactory.getLogger(HDF5HandlePool.class);
+
+	/**
+	 * System property to set the maximum number of open files held by the pool. Set to zero
+	 * to close files after each read
+	 */
+	public static final String MAXIMUM_FILES = "uk.ac.diamond.scisoft.analysis.io.hdf5.maxfiles";
+
+	/**
+	 * System property to set the time in milliseconds after which idle handles are closed
+	 */
+	public static final String IDLE_TIMEOUT = "uk.ac.diamond.scisoft.analysis.io.hdf5.idletimeout";
+
+	private static final HDF5HandlePool POOL = new HDF5HandlePool(Integer.getInteger(MAXIMUM_FILES, 16), Long.getLong(IDLE_TIMEOUT, 2000));
+
+	/**
+	 * @return shared pool
+	 */
+	public static HDF5HandlePool getInstance() {
+		return POOL;
+	}
+
+	/**
+	 * Close all pooled handles of file and drop its cached chunks. Call before opening a file for writing
+	 * @param path of file
+	 */
+	public static void closeForWriting(String path) {
+		File f = new File(path);
+		String cPath;
+		try {
+			cPath = f.getCanonicalPath();
+		} catch (IOException e) {
+			logger.trace("Could not get canonical path of {}", path, e);
+			cPath = f.getAbsolutePath();
+		}
+		POOL.close(cPath);
+	}
+
+	/**
+	 * Open dataset and its file, held with a count of users
+	 */
+	public static class DatasetHandle {
+		private final FileHandle file;
+		private final String node;
+		private final int did;
+		private final int tid;
+		private final int tclass;
+		private final int dtype;
+		private final long[] chunks;
+		private int users;
+		private long lastUsed;
+
+		private DatasetHandle(FileHandle file, String node, int did, int tid, int tclass, int dtype, long[] chunks) {
+			this.file = file;
+			this.node = node;
+			this.did = did;
+			this.tid = tid;
+			this.tclass = tclass;
+			this.dtype = dtype;
+			this.chunks = chunks;
+		}
+
+		/**
+		 * @return dataset identifier
+		 */
+		public int getId() {
+			return did;
+		}
+
+		/**
+		 * @return datatype identifier
+		 */
+		public int getTypeId() {
+			return tid;
+		}
+
+		/**
+		 * @return datatype class (of base type for arrays and variable length types)
+		 */
+		public int getTypeClass() {
+			return tclass;
+		}
+
+		/**
+		 * @return dataset type that best holds datatype
+		 */
+		public int getDtype() {
+			return dtype;
+		}
+
+		/**
+		 * @return chunk shape or null if dataset is not chunked
+		 */
+		public long[] getChunks() {
+			return chunks;
+		}
+
+		/**
+		 * @return modification time of file when it was opened
+		 */
+		public long getFileModified() {
+			return file.modified;
+		}
+	}
+
+	private static class FileHandle {
+		final String path;
+		final int fid;
+		final long modified;
+		final Map<String, DatasetHandle> datasets = new HashMap<String, DatasetHandle>();
+		int users;
+		boolean stale; // close when no longer used
+
+		FileHandle(String path, int fid, long modified) {
+			this.path = path;
+			this.fid = fid;
+			this.modified = modified;
+		}
+	}
+
+	private final int maxFiles;
+	private final long idleTimeout;
+	private final Map<String, FileHandle> files; // in access order
+	private final List<FileHandle> staleFiles = new ArrayList<FileHandle>();
+	private ScheduledExecutorService evictor;
+
+	private final AtomicLong fileOpens = new AtomicLong();
+	private final AtomicLong datasetOpens = new AtomicLong();
+	private final AtomicLong reuses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param maxFiles maximum number of open files held
+	 * @param idleTimeout time in milliseconds after which unused handles are closed
+	 */
+	HDF5HandlePool(int maxFiles, long idleTimeout) {
+		this.maxFiles = maxFiles;
+		this.idleTimeout = idleTimeout;
+		files = new LinkedHashMap<String, FileHandle>(16, 0.75f, true);
+	}
+
+	/**
+	 * Get handle to dataset, opening it and its file if necessary. Must be matched by a call
+	 * to {@link #release(DatasetHandle, boolean)}
+	 * @param cPath canonical path of file
+	 * @param node path of dataset in file
+	 * @return handle or null if node is not a dataset
+	 * @throws HDF5Exception
+	 */
+	public DatasetHandle acquire(String cPath, String node) throws HDF5Exception {
+		final List<FileHandle> closing = new ArrayList<FileHandle>();
+		try {
+			final long modified = new File(cPath).lastModified();
+			FileHandle opened = null;
+			while (true) {
+				synchronized (this) {
+					FileHandle f = files.get(cPath);
+					if (f != null && f.modified != modified) {
+						retire(f, closing);
+						f = null;
+					}
+
+					if (opened != null) {
+						if (f == null) {
+							f = opened;
+							files.put(cPath, f);
+							startEvictor();
+						} else { // another reader published the file first
+							closing.add(opened);
+						}
+						opened = null;
+					}
+
+					if (f != null) {
+						return acquire(f, node, closing);
+					}
+				}
+
+				// open file outside pool's lock so other files' readers are not held up
+				int fid = H5.H5Fopen(cPath, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+				fileOpens.incrementAndGet();
+				opened = new FileHandle(cPath, fid, modified);
+			}
+		} finally {
+			closeLater(closing);
+		}
+	}
+
+	/**
+	 * Get handle to dataset in open file. Call with pool's lock held
+	 */
+	private DatasetHandle acquire(FileHandle f, String node, List<FileHandle> closing) throws HDF5Exception {
+		DatasetHandle d = f.datasets.get(node);
+		if (d == null) {
+			d = openDataset(f, node);
+			if (d == null) {
+				if (files.size() > maxFiles) {
+					trim(files.size() - maxFiles, closing);
+				}
+				return null;
+			}
+			f.datasets.put(node, d);
+		} else {
+			reuses.incrementAndGet();
+		}
+		d.users++;
+		f.users++;
+		return d;
+	}
+
+	/**
+	 * Release handle
+	 * @param d
+	 * @param failed if true, close dataset as soon as it is no longer used
+	 */
+	public void release(DatasetHandle d, boolean failed) {
+		final List<FileHandle> closing = new ArrayList<FileHandle>();
+		synchronized (this) {
+			FileHandle f = d.file;
+			d.users--;
+			f.users--;
+			d.lastUsed = System.currentTimeMillis();
+			if (failed && f.datasets.get(d.node) == d) {
+				f.datasets.remove(d.node);
+			}
+			if (d.users == 0 && f.datasets.get(d.node) != d) {
+				closeDataset(d);
+			}
+			if (f.stale) {
+				if (f.users == 0) {
+					staleFiles.remove(f);
+					closing.add(f);
+				}
+			} else if (files.size() > maxFiles) {
+				trim(files.size() - maxFiles, closing);
+			}
+		}
+		closeLater(closing);
+	}
+
+	/**
+	 * Close all handles of given file once they are unused, e.g. before it is written to. This
+	 * also drops its chunks from the {@link HDF5ChunkCache}
+	 * @param cPath canonical path of file
+	 */
+	public void close(String cPath) {
+		HDF5ChunkCache.getInstance().remove(cPath);
+		final List<FileHandle> closing = new ArrayList<FileHandle>();
+		synchronized (this) {
+			FileHandle f = files.get(cPath);
+			if (f != null) {
+				retire(f, closing);
+			}
+		}
+		closeFiles(closing);
+	}
+
+	/**
+	 * Close all handles once they are unused
+	 */
+	public void clear() {
+		final List<FileHandle> closing = new ArrayList<FileHandle>();
+		synchronized (this) {
+			for (FileHandle f : new ArrayList<FileHandle>(files.values())) {
+				retire(f, closing);
+			}
+		}
+		closeFiles(closing);
+	}
+
+	/**
+	 * @return number of files held open
+	 */
+	public synchronized int getOpenFileCount() {
+		return files.size() + staleFiles.size();
+	}
+
+	/**
+	 * Reset all counters
+	 */
+	public void resetStatistics() {
+		fileOpens.set(0);
+		datasetOpens.set(0);
+		reuses.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * @return number of times a file was opened
+	 */
+	public long getFileOpenCount() {
+		return fileOpens.get();
+	}
+
+	/**
+	 * @return number of times a dataset was opened
+	 */
+	public long getDatasetOpenCount() {
+		return datasetOpens.get();
+	}
+
+	/**
+	 * @return number of requests served by an already open dataset
+	 */
+	public long getReuseCount() {
+		return reuses.get();
+	}
+
+	/**
+	 * @return number of files closed because they were idle or least recently used
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	private DatasetHandle openDataset(FileHandle f, String node) throws HDF5Exception {
+		try {
+			H5O_info_t info = H5.H5Oget_info_by_name(f.fid, node, HDF5Constants.H5P_DEFAULT);
+			if (info.type != HDF5Constants.H5O_TYPE_DATASET) {
+				logger.error("Node {} was not a dataset", node);
+				return null;
+			}
+		} catch (HDF5Exception ex) {
+			logger.error("Could not find info about object {}", node);
+			return null;
+		}
+
+		int did = -1, tid = -1, pid = -1;
+		try {
+			did = H5.H5Dopen(f.fid, node, HDF5Constants.H5P_DEFAULT);
+			tid = H5.H5Dget_type(did);
+
+			int tclass = H5.H5Tget_class(tid);
+			if (tclass == HDF5Constants.H5T_ARRAY || tclass == HDF5Constants.H5T_VLEN) {
+				// for ARRAY, the type is determined by the base type
+				int btid = H5.H5Tget_super(tid);
+				tclass = H5.H5Tget_class(btid);
+				try {
+					H5.H5Tclose(btid);
+				} catch (HDF5Exception ex) {
+				}
+			}
+
+			Datatype type = new H5Datatype(tid);
+			final int dtype = HDF5Loader.getDtype(type.getDatatypeClass(), type.getDatatypeSize());
+
+			long[] chunks = null;
+			pid = H5.H5Dget_create_plist(did);
+			if (H5.H5Pget_layout(pid) == HDF5Constants.H5D_CHUNKED) {
+				int sid = H5.H5Dget_space(did);
+				try {
+					int rank = H5.H5Sget_simple_extent_ndims(sid);
+					chunks = new long[rank];
+					H5.H5Pget_chunk(pid, rank, chunks);
+				} finally {
+					H5.H5Sclose(sid);
+				}
+			}
+			datasetOpens.incrementAndGet();
+			DatasetHandle d = new DatasetHandle(f, node, did, tid, tclass, dtype, chunks);
+			did = -1;
+			tid = -1;
+			return d;
+		} finally {
+			if (pid >= 0) {
+				try {
+					H5.H5Pclose(pid);
+				} catch (HDF5Exception ex) {
+				}
+			}
+			if (tid >= 0) {
+				try {
+					H5.H5Tclose(tid);
+				} catch (HDF5Exception ex) {
+				}
+			}
+			if (did >= 0) {
+				try {
+					H5.H5Dclose(did);
+				} catch (HDF5Exception ex) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove file from pool and add to list of files to close if it is not in use, otherwise
+	 * leave it to be closed on its final release
+	 */
+	private void retire(FileHandle f, List<FileHandle> closing) {
+		files.remove(f.path);
+		if (f.users == 0) {
+			closing.add(f);
+		} else {
+			f.stale = true;
+			staleFiles.add(f);
+		}
+	}
+
+	/**
+	 * Remove least recently used files which are not in use
+	 * @param n number of files to remove
+	 * @param closing list of files to close
+	 */
+	private void trim(int n, List<FileHandle> closing) {
+		Iterator<FileHandle> it = files.values().iterator();
+		while (n > 0 && it.hasNext()) {
+			FileHandle f = it.next();
+			if (f.users == 0) {
+				it.remove();
+				closing.add(f);
+				evictions.incrementAndGet();
+				n--;
+			}
+		}
+	}
+
+	/**
+	 * Close handles that have not been used for longer than idle timeout
+	 */
+	void evictIdle() {
+		final List<FileHandle> closing = new ArrayList<FileHandle>();
+		synchronized (this) {
+			final long limit = System.currentTimeMillis() - idleTimeout;
+			Iterator<FileHandle> it = files.values().iterator();
+			while (it.hasNext()) {
+				FileHandle f = it.next();
+				if (f.users > 0) {
+					continue;
+				}
+				boolean idle = true;
+				for (DatasetHandle d : f.datasets.values()) {
+					if (d.lastUsed > limit) {
+						idle = false;
+						break;
+					}
+				}
+				if (idle) {
+					it.remove();
+					closing.add(f);
+					evictions.incrementAndGet();
+				}
+			}
+			if (files.isEmpty() && staleFiles.isEmpty() && evictor != null) {
+				evictor.shutdown();
+				evictor = null;
+			}
+		}
+		closeFiles(closing);
+	}
+
+	private void startEvictor() {
+		if (evictor != null || idleTimeout <= 0) {
+			return;
+		}
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "HDF5 handle evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		final long period = Math.max(idleTimeout / 2, 100);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private static ExecutorService closer;
+
+	/**
+	 * Close files on background thread. This is used where the caller may hold the reading
+	 * access of another file
+	 */
+	private static void closeLater(final List<FileHandle> closing) {
+		if (closing.isEmpty()) {
+			return;
+		}
+		getCloser().execute(new Runnable() {
+			@Override
+			public void run() {
+				closeFiles(closing);
+			}
+		});
+	}
+
+	private static synchronized ExecutorService getCloser() {
+		if (closer == null) {
+			closer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "HDF5 handle closer");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return closer;
+	}
+
+	/**
+	 * Close files outside of pool's lock as each close waits for reading access to its file
+	 */
+	private static void closeFiles(List<FileHandle> closing) {
+		for (FileHandle f : closing) {
+			closeFile(f);
+		}
+	}
+
+	/**
+	 * Close file and its datasets. These must not be in use
+	 */
+	private static void closeFile(FileHandle f) {
+		HierarchicalDataFactory.acquireLowLevelReadingAccess(f.path);
+		try {
+			for (DatasetHandle d : f.datasets.values()) {
+				closeDataset(d);
+			}
+			f.datasets.clear();
+			try {
+				H5.H5Fclose(f.fid);
+			} catch (Throwable e) {
+				logger.error("Could not close file {}", f.path, e);
+			}
+		} finally {
+			HierarchicalDataFactory.releaseLowLevelReadingAccess(f.path);
+		}
+	}
+
+	private static void closeDataset(DatasetHandle d) {
+		try {
+			H5.H5Tclose(d.tid);
+		} catch (HDF5Exception ex) {
+		}
+		try {
+			H5.H5Dclose(d.did);
+		} catch (HDF5Exception ex) {
+		}
+	}
+}
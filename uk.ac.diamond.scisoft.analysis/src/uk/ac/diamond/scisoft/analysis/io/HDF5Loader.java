@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -26,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.concurrent.Future;
 
 import ncsa.hdf.hdf5lib.H5;
 import ncsa.hdf.hdf5lib.HDF5Constants;
@@ -87,6 +89,10 @@ public class HDF5Loader extends AbstractFileLoader {
 
 	private String host = null;
 
+	// used to index tree as it is created
+	private Map<DataNode, HDF5TreeIndex.DataSource> sources = null;
+	private Map<String, long[]> fileStamps = null; // of file and linked files before they are read
+
 	private static final long DEFAULT_OBJECT_ID = -1;
 
 	public static final String DATA_FILENAME_ATTR_NAME = "data_filename";
@@ -164,52 +170,54 @@ public class HDF5Loader extends AbstractFileLoader {
 
 	TreeFile tFile = null;
 
-	private LoadFileThread loaderThread = null;
+	private Future<TreeFile> loaderTask = null;
 
-	class LoadFileThread extends Thread {
-		private IMonitor mon;
+	/**
+	 * Submit breadth-first load of tree to loader executor
+	 * @param mon
+	 * @return future tree (null if cancelled)
+	 */
+	private Future<TreeFile> submitLoadTree(final IMonitor mon) {
+		return LoaderExecutor.getInstance().submit(fileName, mon, new LoaderExecutor.Load<TreeFile>() {
+			@Override
+			public TreeFile load(IMonitor m) throws Exception {
+				int fid = -1;
+				try {
+					HierarchicalDataFactory.acquireLowLevelReadingAccess(fileName);
+					fid = H5.H5Fopen(fileName, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
 
-		public LoadFileThread(final IMonitor monitor) {
-			mon = monitor;
-			setName("Load HDF5 file: " + fileName);
-		}
-		
-		@Override
-		public void run() {
-			int fid = -1;
-			try {
-				HierarchicalDataFactory.acquireLowLevelReadingAccess(fileName);
-				fid = H5.H5Fopen(fileName, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+					if (!monitorIncrement(m)) {
+						return null;
+					}
 
-				if (!monitorIncrement(mon)) {
+					TreeFile f = createTreeBF(m, fid, keepBitWidth);
+					if (f != null) {
+						storeIndex(f);
+					}
+					return f;
+				} catch (Throwable le) {
+					syncException = new ScanFileHolderException("Problem loading file: " + fileName, le);
+					try {
+						updateSyncNodes(syncLimit); // prevent deadlock
+					} catch (Throwable e) {
+					}
+					throw syncException;
+				} finally {
 					try {
 						H5.H5Fclose(fid);
-					} catch (HDF5Exception ex) {
+					} catch (Throwable e) {
 					}
-					return;
+					HierarchicalDataFactory.releaseLowLevelReadingAccess(fileName);
 				}
-
-				tFile = createTreeBF(mon, fid, keepBitWidth);
-			} catch (Throwable le) {
-				syncException = new ScanFileHolderException("Problem loading file: " + fileName, le);
-				try {
-					updateSyncNodes(syncLimit); // prevent deadlock
-				} catch (Throwable e) {
-				}
-			} finally {
-				try {
-					H5.H5Fclose(fid);
-				} catch (Throwable e) {
-				}
-				HierarchicalDataFactory.releaseLowLevelReadingAccess(fileName);
 			}
-		}
+		});
 	}
 
 	private synchronized void waitForSyncLimit() throws ScanFileHolderException {
-		while (syncNodes < syncLimit) {
+		// also check task as it may have been cancelled before it started
+		while (syncNodes < syncLimit && !loaderTask.isDone()) {
 			try {
-				wait();
+				wait(100);
 			} catch (InterruptedException e) {
 			}
 		}
@@ -253,13 +261,21 @@ public class HDF5Loader extends AbstractFileLoader {
 			logger.error("Could not get canonical path", e);
 			throw new ScanFileHolderException("Could not get canonical path", e);
 		}
-		if (async) {
-			loaderThread = new LoadFileThread(mon);
-			loaderThread.start();
-			try {
-				Thread.sleep(100l);
-			} catch (InterruptedException e) {
-			}
+
+		final HDF5TreeIndex index = HDF5TreeIndex.getInstance();
+		tFile = index.load(this, fileName, host, keepBitWidth);
+		if (tFile != null) {
+			return tFile;
+		}
+		if (index.isEnabled()) {
+			sources = new IdentityHashMap<DataNode, HDF5TreeIndex.DataSource>();
+			fileStamps = new LinkedHashMap<String, long[]>();
+			fileStamps.put(fileName, HDF5TreeIndex.stamp(fileName));
+		}
+
+		// a loader thread must not wait on a load that could be queued behind it
+		if (async && !LoaderExecutor.isLoaderThread()) {
+			loaderTask = submitLoadTree(mon);
 			waitForSyncLimit();
 		} else {
 			int fid = -1;
@@ -276,6 +292,7 @@ public class HDF5Loader extends AbstractFileLoader {
 				}
 
 				tFile = createTree(fid, keepBitWidth);
+				storeIndex(tFile);
 			} catch (Throwable le) {
 				throw new ScanFileHolderException("Problem loading file: " + fileName, le);
 			} finally {
@@ -289,13 +306,19 @@ public class HDF5Loader extends AbstractFileLoader {
 		return tFile;
 	}
 
+	private void storeIndex(final TreeFile tree) {
+		if (sources != null) {
+			HDF5TreeIndex.getInstance().store(fileName, keepBitWidth, tree, sources, fileStamps);
+			sources = null;
+			fileStamps = null;
+		}
+	}
+
 	/**
 	 * @return true if still loading file
 	 */
 	public boolean isLoading() {
-		if (loaderThread == null)
-			return false;
-		return loaderThread.isAlive();
+		return loaderTask != null && !loaderTask.isDone();
 	}
 
 	/**
@@ -663,8 +686,13 @@ public class HDF5Loader extends AbstractFileLoader {
 			}
 			int i = path.lastIndexOf(Node.SEPARATOR);
 			final String sname = i >= 0 ? path.substring(i + 1) : path;
+			HDF5TreeIndex.DataSource source = null;
+			if (sources != null) {
+				source = new HDF5TreeIndex.DataSource();
+				sources.put(d, source);
+			}
 			if (!createLazyDataset(f, d, path, sname, did, tid, keepBitWidth,
-					d.containsAttribute(DATA_FILENAME_ATTR_NAME))) {
+					d.containsAttribute(DATA_FILENAME_ATTR_NAME), source)) {
 				logger.error("Could not create a lazy dataset from {}", path);
 			}
 			if (pool != null)
@@ -728,6 +756,13 @@ public class HDF5Loader extends AbstractFileLoader {
 			logger.error("Could not get canonical path", e);
 			throw new ScanFileHolderException("Could not get canonical path", e);
 		}
+		if (fileStamps != null && !fileStamps.containsKey(cPath)) {
+			long[] stamp = HDF5TreeIndex.stamp(cPath);
+			fileStamps.put(cPath, stamp);
+			if (!fileStamps.containsKey(path)) {
+				fileStamps.put(path, stamp); // as named by tree
+			}
+		}
 
 		int fid = -1;
 		try {
@@ -1101,12 +1136,13 @@ public class HDF5Loader extends AbstractFileLoader {
 	 * @param tid
 	 * @param keepBitWidth
 	 * @param useExternalFiles
+	 * @param source records how dataset was created (can be null)
 	 * @return true if created
 	 * @throws Exception
 	 */
 	private static boolean createLazyDataset(final TreeFile file, final DataNode dataset,
 			final String nodePath, final String name, final int did, final int tid,
-			final boolean keepBitWidth, final boolean useExternalFiles) throws Exception {
+			final boolean keepBitWidth, final boolean useExternalFiles, final HDF5TreeIndex.DataSource source) throws Exception {
 		int sid = -1, pid = -1;
 		int rank;
 		boolean isText, isVLEN, isUnsigned = false;
@@ -1178,11 +1214,17 @@ public class HDF5Loader extends AbstractFileLoader {
 				dims = new long[1];
 				dims[0] = 1;
 				dataset.setMaxShape(dims);
+				if (source != null) {
+					source.maxShape = dims;
+				}
 			} else {
 				dims = new long[rank];
 				long[] maxDims = new long[rank];
 				H5.H5Sget_simple_extent_dims(sid, dims, maxDims);
 				dataset.setMaxShape(maxDims);
+				if (source != null) {
+					source.maxShape = maxDims;
+				}
 			}
 		} catch (HDF5Exception ex) {
 			logger.error("Could not get data space information", ex);
@@ -1227,6 +1269,11 @@ public class HDF5Loader extends AbstractFileLoader {
 				final Dataset d = DatasetFactory.createFromObject(data);
 				d.setName(name);
 				dataset.setDataset(d);
+				if (source != null) {
+					source.kind = HDF5TreeIndex.DataSource.Kind.VALUE;
+					source.name = name;
+					source.value = data;
+				}
 				return true;
 			} catch (HDF5Exception ex) {
 				logger.error("Could not read single value dataset", ex);
@@ -1237,16 +1284,24 @@ public class HDF5Loader extends AbstractFileLoader {
 		final boolean extendUnsigned = !keepBitWidth && isUnsigned;
 		final int isize = tcomp == null ? 1 : tcomp.size;
 		final int dtype;
+		final String typeName;
 		if (tcomp == null) {
 			dtype = getDtype(type.getDatatypeClass(), type.getDatatypeSize(), false);
-			dataset.setTypeName(getTypeName(type));
+			typeName = getTypeName(type);
 		} else {
 			dtype = getDtype(tcomp.tclass, type.getDatatypeSize()/isize, tcomp.isComplex);
-			dataset.setTypeName(getTypeName(type, isize, tcomp.isComplex));
+			typeName = getTypeName(type, isize, tcomp.isComplex);
+		}
+		dataset.setTypeName(typeName);
+		if (source != null) {
+			source.typeName = typeName;
 		}
 
 		// cope with external files specified in a non-standard way and which may not be HDF5 either
 		if (dtype == Dataset.STRING && useExternalFiles) {
+			if (source != null) {
+				source.kind = HDF5TreeIndex.DataSource.Kind.UNSUPPORTED;
+			}
 			// interpret set of strings as the full path names to a group of external files that are stacked together
 			if (!isVLEN && !isText) {
 				logger.error("String dataset not variable length or text!");
@@ -1273,12 +1328,41 @@ public class HDF5Loader extends AbstractFileLoader {
 		long trueSize = AbstractDataset.calcLongSize(trueShape);
 		if (trueSize == 0) {
 			dataset.setEmpty();
+			if (source != null) {
+				source.kind = HDF5TreeIndex.DataSource.Kind.EMPTY;
+			}
 			return true;
 		}
 
-		final String host = file.getHostname();
 		final String filePath = file.getFilename();
+		dataset.setDataset(createLazyDataset(file.getHostname(), filePath, nodePath, name, dtype, isize, trueShape, extendUnsigned));
+		if (source != null) {
+			source.kind = HDF5TreeIndex.DataSource.Kind.LAZY;
+			source.name = name;
+			source.filePath = filePath;
+			source.nodePath = nodePath;
+			source.dtype = dtype;
+			source.isize = isize;
+			source.shape = trueShape;
+			source.extendUnsigned = extendUnsigned;
+		}
+		return true;
+	}
 
+	/**
+	 * Create a lazy dataset that loads slices of a HDF5 dataset
+	 * @param host
+	 * @param filePath
+	 * @param nodePath full node path
+	 * @param name
+	 * @param dtype
+	 * @param isize
+	 * @param trueShape
+	 * @param extendUnsigned
+	 * @return lazy dataset
+	 */
+	static LazyDataset createLazyDataset(final String host, final String filePath, final String nodePath,
+			final String name, final int dtype, final int isize, final int[] trueShape, final boolean extendUnsigned) {
 		ILazyLoader l = new ILazyLoader() {
 			@Override
 			public boolean isFileReadable() {
@@ -1363,8 +1447,7 @@ public class HDF5Loader extends AbstractFileLoader {
 			}
 		};
 
-		dataset.setDataset(new LazyDataset(name, dtype, isize, trueShape.clone(), l));
-		return true;
+		return new LazyDataset(name, dtype, isize, trueShape.clone(), l);
 	}
 
 	/**
@@ -1414,289 +1497,245 @@ public class HDF5Loader extends AbstractFileLoader {
 			logger.error("Could not get canonical path", e);
 			throw new ScanFileHolderException("Could not get canonical path", e);
 		}
-		int fid = -1;
+		final HDF5HandlePool pool = HDF5HandlePool.getInstance();
+		HDF5HandlePool.DatasetHandle handle = null;
+		boolean failed = false;
 		try {
 			HierarchicalDataFactory.acquireLowLevelReadingAccess(cPath);
-			fid = H5.H5Fopen(fileName, HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
-
-			try {
-				H5O_info_t info = H5.H5Oget_info_by_name(fid, node, HDF5Constants.H5P_DEFAULT);
-				int t = info.type;
-				if (t != HDF5Constants.H5O_TYPE_DATASET) {
-					logger.error("Node {} was not a dataset", node);
-					return data;
-				}
-			} catch (HDF5Exception ex) {
-				logger.error("Could not find info about object {}" + node);
+			handle = pool.acquire(cPath, node);
+			if (handle == null) {
 				return data;
 			}
 
-			int did = -1, tid = -1, tclass = -1;
+			final int did = handle.getId();
+			final int tid = handle.getTypeId();
+			final int tclass = handle.getTypeClass();
+			int sid = -1;
+			int rank;
+			boolean isText, isVLEN; //, isUnsigned = false;
+//			boolean isEnum, isRegRef, isNativeDatatype;
+			long[] dims;
+
+			// create a new scalar dataset
+
 			try {
-				did = H5.H5Dopen(fid, node, HDF5Constants.H5P_DEFAULT);
-				tid = H5.H5Dget_type(did);
-
-				tclass = H5.H5Tget_class(tid);
-				if (tclass == HDF5Constants.H5T_ARRAY || tclass == HDF5Constants.H5T_VLEN) {
-					// for ARRAY, the type is determined by the base type
-					int btid = H5.H5Tget_super(tid);
-					tclass = H5.H5Tget_class(btid);
-					try {
-						H5.H5Tclose(btid);
-					} catch (HDF5Exception ex) {
-					}
-				}
-				int sid = -1, pid = -1;
-				int rank;
-				boolean isText, isVLEN; //, isUnsigned = false;
-//				boolean isEnum, isRegRef, isNativeDatatype;
-				long[] dims;
+				sid = H5.H5Dget_space(did);
 
-				// create a new scalar dataset
+				rank = H5.H5Sget_simple_extent_ndims(sid);
 
-				try {
-					pid = H5.H5Dget_create_plist(did);
+				isText = tclass == HDF5Constants.H5T_STRING;
+				isVLEN = tclass == HDF5Constants.H5T_VLEN || H5.H5Tis_variable_str(tid);
 
-					sid = H5.H5Dget_space(did);
+				final int ldtype = dtype >= 0 ? dtype : handle.getDtype();
 
-					rank = H5.H5Sget_simple_extent_ndims(sid);
+				if (rank == 0) {
+					// a single data point
+					rank = 1;
+					dims = new long[1];
+					dims[0] = 1;
+				} else {
+					dims = new long[rank];
+					H5.H5Sget_simple_extent_dims(sid, dims, null);
+				}
 
-					isText = tclass == HDF5Constants.H5T_STRING;
-					isVLEN = tclass == HDF5Constants.H5T_VLEN || H5.H5Tis_variable_str(tid);
+				final long[] schunk = handle.getChunks(); // source chunking
 
-					final int ldtype;
-					if (dtype >= 0) {
-						ldtype = dtype;
-					} else {
-						Datatype type = new H5Datatype(tid);
-						ldtype = getDtype(type.getDatatypeClass(), type.getDatatypeSize());
-					}
+				final long[] sstart = new long[rank]; // source start
+				final long[] sstride = new long[rank]; // source steps
+				final long[] dsize = new long[rank]; // destination size
+
+				for (int i = 0; i < rank; i++) {
+					sstart[i] = start[i];
+					sstride[i] = step[i];
+					dsize[i] = count[i];
+				}
 
-					if (rank == 0) {
-						// a single data point
-						rank = 1;
-						dims = new long[1];
-						dims[0] = 1;
+				boolean all = false;
+				if (schunk == null) {
+					all = true;
+				} else {
+					if (Arrays.equals(dims, schunk)) {
+						all = true;
 					} else {
-						dims = new long[rank];
-						H5.H5Sget_simple_extent_dims(sid, dims, null);
+						int j = rank - 1; // find last chunked dimension that is sliced across
+						while (j >= 0) {
+							if (schunk[j] > 1 && dsize[j] <= 1)
+								break;
+							j--;
+						}
+						all = j < 0;
 					}
-
-					long[] schunk = null; // source chunking
-
-					try {
-						if (H5.H5Pget_layout(pid) == HDF5Constants.H5D_CHUNKED) {
-							schunk = new long[rank];
-							H5.H5Pget_chunk(pid, rank, schunk);
+				}
+				HDF5ChunkReader reader = null;
+				if (schunk != null && !isVLEN && isize == 1 && ldtype == handle.getDtype()) {
+					final int c = H5.H5Tget_class(tid);
+					if (c == HDF5Constants.H5T_INTEGER || c == HDF5Constants.H5T_FLOAT) {
+						reader = new HDF5ChunkReader(HDF5ChunkCache.getInstance(), cPath, handle.getFileModified(),
+								node, did, tid, dims, schunk);
+						if (!reader.isWorthwhile(start, count, step)) {
+							reader = null;
 						}
-					} catch (HDF5Exception ex) {
-						logger.error("Could not get chunk size");
-						return data;
 					}
+				}
+				if (reader != null) {
+					// read via cache of whole chunks
+					data = DatasetFactory.zeros(count, ldtype);
+					reader.read(start, count, step, data.getBuffer());
+				} else if (schunk == null || all) {
+					H5.H5Sselect_hyperslab(sid, HDF5Constants.H5S_SELECT_SET, sstart, sstride, dsize, null);
+					int length = 1;
+					for (int i = 0; i < rank; i++)
+						length *= count[i];
+
+					int msid = H5.H5Screate_simple(1, new long[] {length}, null);
+					H5.H5Sselect_all(msid);
+					data = DatasetFactory.zeros(isize, count, ldtype);
+					Object odata = data.getBuffer();
+
+					boolean isREF = H5.H5Tequal(tid, HDF5Constants.H5T_STD_REF_OBJ);
+					if (isVLEN) {
+						H5.H5DreadVL(did, tid, msid, sid, HDF5Constants.H5P_DEFAULT, (Object[]) odata);
+					} else {
+						H5.H5Dread(did, tid, msid, sid, HDF5Constants.H5P_DEFAULT, odata);
+
+						if (odata instanceof byte[] && ldtype != Dataset.INT8) {
+							// TODO check if this is actually used
+							Object idata = null;
+							byte[] bdata = (byte[]) odata;
+							if (isText) {
+								idata = ncsa.hdf.object.Dataset.byteToString(bdata, H5.H5Tget_size(tid));
+							} else if (isREF) {
+								idata = HDFNativeData.byteToLong(bdata);
+							}
 
-					final long[] sstart = new long[rank]; // source start
-					final long[] sstride = new long[rank]; // source steps
-					final long[] dsize = new long[rank]; // destination size
-
-					for (int i = 0; i < rank; i++) {
-						sstart[i] = start[i];
-						sstride[i] = step[i];
-						dsize[i] = count[i];
+							if (idata != null) {
+								data = createDataset(idata, count, ldtype, false); // extend later, if necessary
+							}
+						}
 					}
-
-					boolean all = false;
-					if (schunk == null) {
-						all = true;
-					} else {
-						if (Arrays.equals(dims, schunk)) {
-							all = true;
+				} else {
+					// read in many split chunks
+					final boolean[] isSplit = new boolean[rank];
+					final long[] send = new long[rank];
+					int length = 1;
+					for (int i = 0; i < rank; i++) {
+						send[i] = sstart[i] + count[i] * step[i];
+						isSplit[i] = schunk[i] <= 1 && dsize[i] > 1;
+						if (isSplit[i]) {
+							dsize[i] = 1;
 						} else {
-							int j = rank - 1; // find last chunked dimension that is sliced across
-							while (j >= 0) {
-								if (schunk[j] > 1 && dsize[j] <= 1)
-									break;
-								j--;
+							length *= dsize[i];
+						}
+					}
+					if (length == 1) { // if just single point then bulk up request
+						for (int i = rank - 1; i >= 0; i--) {
+							int l = count[i];
+							if (l > 1) {
+								dsize[i] = l;
+								length = l;
+								isSplit[i] = false;
+								break;
 							}
-							all = j < 0;
 						}
 					}
-					if (schunk == null || all) {
-						H5.H5Sselect_hyperslab(sid, HDF5Constants.H5S_SELECT_SET, sstart, sstride, dsize, null);
-						int length = 1;
-						for (int i = 0; i < rank; i++)
-							length *= count[i];
-
-						int msid = H5.H5Screate_simple(1, new long[] {length}, null);
-						H5.H5Sselect_all(msid);
-						data = DatasetFactory.zeros(isize, count, ldtype);
-						Object odata = data.getBuffer();
+					final List<Integer> notSplit = new ArrayList<Integer>();
+					for (int i = 0; i < rank; i++) {
+						if (!isSplit[i])
+							notSplit.add(i);
+					}
+					final int[] axes = new int[notSplit.size()];
+					for (int i = 0; i < axes.length; i++) {
+						axes[i] = notSplit.get(i);
+					}
+					data = DatasetFactory.zeros(count, ldtype);
+					Object odata;
+					try {
+						odata = H5Datatype.allocateArray(tid, length);
+					} catch (OutOfMemoryError err) {
+						throw new ScanFileHolderException("Out Of Memory", err);
+					}
+					int msid = H5.H5Screate_simple(1, new long[] {length}, null);
+					H5.H5Sselect_all(msid);
 
+					PositionIterator it = data.getPositionIterator(axes);
+					final int[] pos = it.getPos();
+					final boolean[] hit = it.getOmit();
+					while (it.hasNext()) {
+						H5.H5Sselect_hyperslab(sid, HDF5Constants.H5S_SELECT_SET, sstart, sstride, dsize, null);
 						boolean isREF = H5.H5Tequal(tid, HDF5Constants.H5T_STD_REF_OBJ);
+						Object idata;
 						if (isVLEN) {
 							H5.H5DreadVL(did, tid, msid, sid, HDF5Constants.H5P_DEFAULT, (Object[]) odata);
+							idata = odata;
 						} else {
 							H5.H5Dread(did, tid, msid, sid, HDF5Constants.H5P_DEFAULT, odata);
 
 							if (odata instanceof byte[] && ldtype != Dataset.INT8) {
 								// TODO check if this is actually used
-								Object idata = null;
 								byte[] bdata = (byte[]) odata;
 								if (isText) {
 									idata = ncsa.hdf.object.Dataset.byteToString(bdata, H5.H5Tget_size(tid));
 								} else if (isREF) {
 									idata = HDFNativeData.byteToLong(bdata);
-								}
-
-								if (idata != null) {
-									data = createDataset(idata, count, ldtype, false); // extend later, if necessary
-								}
-							}
-						}
-					} else {
-						// read in many split chunks
-						final boolean[] isSplit = new boolean[rank];
-						final long[] send = new long[rank];
-						int length = 1;
-						for (int i = 0; i < rank; i++) {
-							send[i] = sstart[i] + count[i] * step[i];
-							isSplit[i] = schunk[i] <= 1 && dsize[i] > 1;
-							if (isSplit[i]) {
-								dsize[i] = 1;
-							} else {
-								length *= dsize[i];
-							}
-						}
-						if (length == 1) { // if just single point then bulk up request
-							for (int i = rank - 1; i >= 0; i--) {
-								int l = count[i];
-								if (l > 1) {
-									dsize[i] = l;
-									length = l;
-									isSplit[i] = false;
-									break;
-								}
-							}
-						}
-						final List<Integer> notSplit = new ArrayList<Integer>();
-						for (int i = 0; i < rank; i++) {
-							if (!isSplit[i])
-								notSplit.add(i);
-						}
-						final int[] axes = new int[notSplit.size()];
-						for (int i = 0; i < axes.length; i++) {
-							axes[i] = notSplit.get(i);
-						}
-						data = DatasetFactory.zeros(count, ldtype);
-						Object odata;
-						try {
-							odata = H5Datatype.allocateArray(tid, length);
-						} catch (OutOfMemoryError err) {
-							throw new ScanFileHolderException("Out Of Memory", err);
-						}
-						int msid = H5.H5Screate_simple(1, new long[] {length}, null);
-						H5.H5Sselect_all(msid);
-
-						PositionIterator it = data.getPositionIterator(axes);
-						final int[] pos = it.getPos();
-						final boolean[] hit = it.getOmit();
-						while (it.hasNext()) {
-							H5.H5Sselect_hyperslab(sid, HDF5Constants.H5S_SELECT_SET, sstart, sstride, dsize, null);
-							boolean isREF = H5.H5Tequal(tid, HDF5Constants.H5T_STD_REF_OBJ);
-							Object idata;
-							if (isVLEN) {
-								H5.H5DreadVL(did, tid, msid, sid, HDF5Constants.H5P_DEFAULT, (Object[]) odata);
-								idata = odata;
-							} else {
-								H5.H5Dread(did, tid, msid, sid, HDF5Constants.H5P_DEFAULT, odata);
-
-								if (odata instanceof byte[] && ldtype != Dataset.INT8) {
-									// TODO check if this is actually used
-									byte[] bdata = (byte[]) odata;
-									if (isText) {
-										idata = ncsa.hdf.object.Dataset.byteToString(bdata, H5.H5Tget_size(tid));
-									} else if (isREF) {
-										idata = HDFNativeData.byteToLong(bdata);
-									} else {
-										idata = odata;
-									}
 								} else {
 									idata = odata;
 								}
+							} else {
+								idata = odata;
 							}
+						}
 
-							data.setItemsOnAxes(pos, hit, idata);
-							int j = rank - 1;
-							for (; j >= 0; j--) {
-								if (isSplit[j]) {
-									sstart[j] += sstride[j];
-									if (sstart[j] >= send[j]) {
-										sstart[j] = start[j];
-									} else {
-										break;
-									}
+						data.setItemsOnAxes(pos, hit, idata);
+						int j = rank - 1;
+						for (; j >= 0; j--) {
+							if (isSplit[j]) {
+								sstart[j] += sstride[j];
+								if (sstart[j] >= send[j]) {
+									sstart[j] = start[j];
+								} else {
+									break;
 								}
 							}
-							if (j == -1)
-								break;
 						}
-					}
-					if (extend) {
-						switch (ldtype) {
-						case Dataset.INT32:
-							data = new LongDataset(data);
-							DatasetUtils.unwrapUnsigned(data, 32);
-							break;
-						case Dataset.INT16:
-							data = new IntegerDataset(data);
-							DatasetUtils.unwrapUnsigned(data, 16);
+						if (j == -1)
 							break;
-						case Dataset.INT8:
-							data = new ShortDataset(data);
-							DatasetUtils.unwrapUnsigned(data, 8);
-							break;
-						}
-					}
-				} catch (HDF5Exception ex) {
-					logger.error("Could not get data space information", ex);
-					return data;
-				} finally {
-					if (sid >= 0) {
-						try {
-							H5.H5Sclose(sid);
-						} catch (HDF5Exception ex2) {
-						}
 					}
-					if (pid >= 0) {
-						try {
-							H5.H5Pclose(pid);
-						} catch (HDF5Exception ex) {
-						}
+				}
+				if (extend) {
+					switch (ldtype) {
+					case Dataset.INT32:
+						data = new LongDataset(data);
+						DatasetUtils.unwrapUnsigned(data, 32);
+						break;
+					case Dataset.INT16:
+						data = new IntegerDataset(data);
+						DatasetUtils.unwrapUnsigned(data, 16);
+						break;
+					case Dataset.INT8:
+						data = new ShortDataset(data);
+						DatasetUtils.unwrapUnsigned(data, 8);
+						break;
 					}
 				}
-
 			} catch (HDF5Exception ex) {
-				logger.error("Could not open dataset", ex);
+				failed = true;
+				logger.error("Could not get data space information", ex);
+				return data;
 			} finally {
-				if (tid >= 0) {
+				if (sid >= 0) {
 					try {
-						H5.H5Tclose(tid);
-					} catch (HDF5Exception ex) {
-					}
-				}
-				if (did >= 0) {
-					try {
-						H5.H5Dclose(did);
-					} catch (HDF5Exception ex) {
+						H5.H5Sclose(sid);
+					} catch (HDF5Exception ex2) {
 					}
 				}
 			}
 
 		} catch (Throwable le) {
+			failed = true;
 			throw new ScanFileHolderException("Problem loading file: " + fileName, le);
 		} finally {
-			try {
-				H5.H5Fclose(fid);
-			} catch (Throwable e) {
+			if (handle != null) {
+				pool.release(handle, failed);
 			}
 			HierarchicalDataFactory.releaseLowLevelReadingAccess(cPath);
 		}
@@ -1933,7 +1972,7 @@ public class HDF5Loader extends AbstractFileLoader {
 							// create a new dataset
 							DataNode d = TreeFactory.createDataNode(oid);
 							if (!createLazyDataset(f, d, name + oname, oname, did, tid, keepBitWidth,
-									d.containsAttribute(DATA_FILENAME_ATTR_NAME))) {
+									d.containsAttribute(DATA_FILENAME_ATTR_NAME), null)) {
 								logger.error("Could not create a lazy dataset {} from {}", oname, name);
 								continue;
 							}
@@ -2030,4 +2069,16 @@ public class HDF5Loader extends AbstractFileLoader {
 
 		return loadData(object.getPath(), object.getName(), lstart, newShape, lstep, -1, true);
 	}
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'H', 'D', 'F', '\r', '\n', 0x1a, '\n' };
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		// superblock is at start of file or after a user block of 512, 1024, 2048, ... bytes
+		for (int pos = 0; pos < length; pos = pos == 0 ? 512 : 2 * pos) {
+			if (Utils.matchesAt(header, length, pos, SIGNATURE))
+				return Match.YES;
+		}
+		return length < HEADER_LENGTH ? Match.NO : Match.MAYBE;
+	}
 }
@@ -0,0 +1,893 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.tree.Attribute;
+import org.eclipse.dawnsci.analysis.api.tree.DataNode;
+import org.eclipse.dawnsci.analysis.api.tree.GroupNode;
+import org.eclipse.dawnsci.analysis.api.tree.Node;
+import org.eclipse.dawnsci.analysis.api.tree.NodeLink;
+import org.eclipse.dawnsci.analysis.api.tree.SymbolicNode;
+import org.eclipse.dawnsci.analysis.api.tree.Tree;
+import org.eclipse.dawnsci.analysis.api.tree.TreeFile;
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.ByteDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.LongDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.ShortDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.StringDataset;
+import org.eclipse.dawnsci.analysis.tree.TreeFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of HDF5 trees so that reopening an unchanged file does not walk all its groups, datasets and
+ * attributes again.
+ * <p>
+ * An index is a compact binary serialisation of a tree's nodes, attributes and links together with
+ * what is needed to recreate its lazy datasets. It records the size and modification time of the
+ * file and of any externally linked files and is ignored if any of those have changed. Indexes are
+ * held in memory for the most recently loaded files and, if a directory is given, also written
+ * there so they persist between sessions.
+ */
+public class HDF5TreeIndex {
+	private static final Logger logger = LoggerFactory.getLogger(HDF5TreeIndex.class);
+
+	/**
+	 * System property to set the number of indexes held in memory. Set to zero to disable indexing
+	 */
+	public static final String INDEX_ENTRIES = "uk.ac.diamond.scisoft.analysis.io.hdf5.indexentries";
+
+	/**
+	 * System property to set directory in which to write indexes
+	 */
+	public static final String INDEX_DIRECTORY = "uk.ac.diamond.scisoft.analysis.io.hdf5.indexdir";
+
+	private static final HDF5TreeIndex INDEX = new HDF5TreeIndex(Integer.getInteger(INDEX_ENTRIES, 64),
+			System.getProperty(INDEX_DIRECTORY));
+
+	/**
+	 * @return shared index
+	 */
+	public static HDF5TreeIndex getInstance() {
+		return INDEX;
+	}
+
+	private static final int MAGIC = 0x48354958; // H5IX
+	private static final int VERSION = 1;
+
+	private static final byte GROUP = 0;
+	private static final byte DATA = 1;
+	private static final byte SYMBOLIC = 2;
+
+	/**
+	 * How a data node was created
+	 */
+	static class DataSource {
+		enum Kind {
+			NONE, LAZY, VALUE, EMPTY, UNSUPPORTED
+		}
+
+		Kind kind = Kind.NONE;
+		long[] maxShape;
+		String typeName;
+		String name;
+		Object value; // array of single value
+		String filePath;
+		String nodePath;
+		int dtype;
+		int isize;
+		int[] shape;
+		boolean extendUnsigned;
+	}
+
+	private final int entries;
+	private final File directory;
+	private final Map<String, byte[]> indexes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param entries maximum number of indexes to hold in memory
+	 * @param directory in which to write indexes (can be null)
+	 */
+	public HDF5TreeIndex(final int entries, final String directory) {
+		this.entries = entries;
+		this.directory = directory == null ? null : new File(directory);
+		indexes = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+				return size() > HDF5TreeIndex.this.entries;
+			}
+		};
+	}
+
+	/**
+	 * @return true if trees are indexed
+	 */
+	public boolean isEnabled() {
+		return entries > 0;
+	}
+
+	/**
+	 * Remove index of given file
+	 * @param cPath canonical path of file
+	 */
+	public void remove(final String cPath) {
+		synchronized (indexes) {
+			indexes.remove(cPath);
+		}
+		if (directory != null) {
+			getIndexFile(cPath).delete();
+		}
+	}
+
+	/**
+	 * Remove all indexes held in memory
+	 */
+	public void clear() {
+		synchronized (indexes) {
+			indexes.clear();
+		}
+	}
+
+	/**
+	 * Reset all counters
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * @return number of trees loaded from an index
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of trees without a valid index
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	private File getIndexFile(final String cPath) {
+		String name = new File(cPath).getName().replaceAll("[^A-Za-z0-9._-]", "_");
+		return new File(directory, String.format("%08x-%s.idx", cPath.hashCode(), name));
+	}
+
+	/**
+	 * Load tree of file from its index
+	 * @param loader used to augment links
+	 * @param cPath canonical path of file
+	 * @param host
+	 * @param keepBitWidth
+	 * @return tree or null if file has no valid index
+	 */
+	TreeFile load(final HDF5Loader loader, final String cPath, final String host, final boolean keepBitWidth) {
+		if (!isEnabled()) {
+			return null;
+		}
+
+		byte[] bytes;
+		synchronized (indexes) {
+			bytes = indexes.get(cPath);
+		}
+		boolean fromDisk = false;
+		if (bytes == null && directory != null) {
+			File f = getIndexFile(cPath);
+			if (f.isFile()) {
+				try {
+					bytes = readFully(f);
+					fromDisk = true;
+				} catch (IOException e) {
+					logger.warn("Could not read index {}", f, e);
+				}
+			}
+		}
+		if (bytes == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		try {
+			TreeFile tree = new Reader(bytes).read(loader, cPath, host, keepBitWidth);
+			if (tree == null) {
+				remove(cPath);
+				misses.incrementAndGet();
+			} else {
+				if (fromDisk) {
+					synchronized (indexes) {
+						indexes.put(cPath, bytes);
+					}
+				}
+				hits.incrementAndGet();
+			}
+			return tree;
+		} catch (Exception e) {
+			logger.warn("Could not read index of {}", cPath, e);
+			remove(cPath);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @param path
+	 * @return size and modification time of file
+	 */
+	static long[] stamp(final String path) {
+		File f = new File(path);
+		return new long[] {f.length(), f.lastModified()};
+	}
+
+	/**
+	 * Store index of tree. It is not stored if any file has changed since it was stamped
+	 * @param cPath canonical path of file
+	 * @param keepBitWidth
+	 * @param tree
+	 * @param sources of data nodes
+	 * @param stamps of file and of all externally linked files taken before they were read
+	 */
+	void store(final String cPath, final boolean keepBitWidth, final TreeFile tree, final Map<DataNode, DataSource> sources,
+			final Map<String, long[]> stamps) {
+		if (!isEnabled()) {
+			return;
+		}
+
+		byte[] bytes;
+		try {
+			bytes = new Writer(sources).write(cPath, keepBitWidth, tree, stamps);
+		} catch (IOException e) {
+			logger.debug("Could not index {}: {}", cPath, e.getMessage());
+			return;
+		}
+		if (bytes == null) {
+			return;
+		}
+
+		for (Map.Entry<String, long[]> e : stamps.entrySet()) {
+			if (!Arrays.equals(e.getValue(), stamp(e.getKey()))) {
+				logger.debug("Not indexing {} as {} changed whilst it was read", cPath, e.getKey());
+				return;
+			}
+		}
+
+		synchronized (indexes) {
+			indexes.put(cPath, bytes);
+		}
+
+		if (directory != null) {
+			File f = getIndexFile(cPath);
+			File t = new File(directory, f.getName() + ".tmp");
+			try {
+				directory.mkdirs();
+				OutputStream out = new FileOutputStream(t);
+				try {
+					out.write(bytes);
+				} finally {
+					out.close();
+				}
+				if (!t.renameTo(f)) {
+					f.delete();
+					if (!t.renameTo(f)) {
+						throw new IOException("Could not rename " + t);
+					}
+				}
+			} catch (IOException e) {
+				logger.warn("Could not write index {}", f, e);
+				t.delete();
+			}
+		}
+	}
+
+	private static byte[] readFully(File f) throws IOException {
+		InputStream in = new FileInputStream(f);
+		try {
+			byte[] bytes = new byte[(int) f.length()];
+			int n = 0;
+			while (n < bytes.length) {
+				int r = in.read(bytes, n, bytes.length - n);
+				if (r < 0) {
+					throw new IOException("Index truncated");
+				}
+				n += r;
+			}
+			return bytes;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Serialises a tree as a table of strings followed by a table of nodes
+	 */
+	private static class Writer {
+		private final Map<DataNode, DataSource> sources;
+		private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		private final List<String> files = new ArrayList<String>();
+		private final Map<Node, Integer> nodes = new IdentityHashMap<Node, Integer>();
+		private final List<Node> order = new ArrayList<Node>();
+		private final List<NodeLink> first = new ArrayList<NodeLink>(); // first link to node
+
+		Writer(Map<DataNode, DataSource> sources) {
+			this.sources = sources;
+		}
+
+		/**
+		 * @return index or null if tree cannot be indexed
+		 */
+		byte[] write(String cPath, boolean keepBitWidth, TreeFile tree, Map<String, long[]> stamps) throws IOException {
+			files.add(cPath);
+			for (String p : stamps.keySet()) {
+				if (!files.contains(p)) {
+					files.add(p);
+				}
+			}
+
+			NodeLink root = tree.getNodeLink();
+			addNode(root);
+			for (int i = 0; i < order.size(); i++) {
+				Node n = order.get(i);
+				if (n instanceof GroupNode) {
+					for (NodeLink l : (GroupNode) n) {
+						addNode(l);
+					}
+				}
+			}
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(body);
+			out.writeInt(order.size());
+			for (int i = 0; i < order.size(); i++) {
+				if (!writeNode(out, order.get(i), first.get(i))) {
+					return null;
+				}
+			}
+			out.close();
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.size() + 64 * strings.size());
+			out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			writeString(out, cPath);
+			out.writeBoolean(keepBitWidth);
+			out.writeInt(files.size());
+			for (String p : files) {
+				long[] stamp = stamps.get(p);
+				if (stamp == null) {
+					logger.debug("Cannot index {} as {} was not stamped", cPath, p);
+					return null;
+				}
+				writeString(out, p);
+				out.writeLong(stamp[0]);
+				out.writeLong(stamp[1]);
+			}
+			out.writeInt(strings.size());
+			for (String s : strings.keySet()) {
+				writeString(out, s);
+			}
+			body.writeTo(out);
+			out.close();
+			return bytes.toByteArray();
+		}
+
+		private void addNode(NodeLink link) {
+			Node n = link.getDestination();
+			if (!nodes.containsKey(n)) {
+				nodes.put(n, order.size());
+				order.add(n);
+				first.add(link);
+			}
+		}
+
+		private int string(String s) {
+			if (s == null) {
+				return -1;
+			}
+			Integer i = strings.get(s);
+			if (i == null) {
+				i = strings.size();
+				strings.put(s, i);
+			}
+			return i;
+		}
+
+		private int file(Tree tree) {
+			if (!(tree instanceof TreeFile)) {
+				return 0;
+			}
+			String p = ((TreeFile) tree).getFilename();
+			int i = files.indexOf(p);
+			if (i < 0) {
+				i = files.size();
+				files.add(p);
+			}
+			return i;
+		}
+
+		private boolean writeNode(DataOutputStream out, Node n, NodeLink link) throws IOException {
+			if (n instanceof GroupNode) {
+				out.writeByte(GROUP);
+			} else if (n instanceof DataNode) {
+				out.writeByte(DATA);
+			} else if (n instanceof SymbolicNode) {
+				out.writeByte(SYMBOLIC);
+			} else {
+				return false;
+			}
+			out.writeLong(n.getID());
+			out.writeInt(file(link.getTree()));
+			out.writeInt(string(link.getFullName()));
+
+			List<String> names = new ArrayList<String>();
+			Iterator<String> it = n.getAttributeNameIterator();
+			while (it.hasNext()) {
+				names.add(it.next());
+			}
+			out.writeInt(names.size());
+			for (String a : names) {
+				Attribute attr = n.getAttribute(a);
+				out.writeInt(string(a));
+				out.writeInt(string(attr.getTypeName()));
+				if (!writeValue(out, toArray(attr.getValue()))) {
+					return false;
+				}
+			}
+
+			if (n instanceof GroupNode) {
+				GroupNode g = (GroupNode) n;
+				List<NodeLink> links = new ArrayList<NodeLink>();
+				for (NodeLink l : g) {
+					links.add(l);
+				}
+				out.writeInt(links.size());
+				for (NodeLink l : links) {
+					String name = l.getName();
+					String full = l.getFullName();
+					out.writeInt(string(name));
+					out.writeInt(file(l.getTree()));
+					out.writeInt(string(full.endsWith(name) ? full.substring(0, full.length() - name.length()) : full));
+					out.writeInt(nodes.get(l.getDestination()));
+				}
+			} else if (n instanceof DataNode) {
+				DataSource s = sources.get(n);
+				if (s == null || s.kind == DataSource.Kind.UNSUPPORTED) {
+					return false;
+				}
+				out.writeByte(s.kind.ordinal());
+				writeShape(out, s.maxShape);
+				out.writeInt(string(s.typeName));
+				switch (s.kind) {
+				case LAZY:
+					out.writeInt(string(s.name));
+					out.writeInt(string(s.filePath));
+					out.writeInt(string(s.nodePath));
+					out.writeInt(s.dtype);
+					out.writeInt(s.isize);
+					out.writeInt(s.shape.length);
+					for (int d : s.shape) {
+						out.writeInt(d);
+					}
+					out.writeBoolean(s.extendUnsigned);
+					break;
+				case VALUE:
+					out.writeInt(string(s.name));
+					if (!writeValue(out, s.value)) {
+						return false;
+					}
+					break;
+				default:
+					break;
+				}
+			} else {
+				out.writeInt(string(((SymbolicNode) n).getPath()));
+			}
+			return true;
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(b.length);
+			out.write(b);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if (n < 0) {
+			return null;
+		}
+		byte[] b = new byte[n];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	private static void writeShape(DataOutputStream out, long[] shape) throws IOException {
+		if (shape == null) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(shape.length);
+		for (long s : shape) {
+			out.writeLong(s);
+		}
+	}
+
+	private static long[] readShape(DataInputStream in) throws IOException {
+		int r = in.readInt();
+		if (r < 0) {
+			return null;
+		}
+		long[] shape = new long[r];
+		for (int i = 0; i < r; i++) {
+			shape[i] = in.readLong();
+		}
+		return shape;
+	}
+
+	/**
+	 * @return flattened values or null if not supported
+	 */
+	private static Object toArray(IDataset value) {
+		if (value == null) {
+			return null;
+		}
+		Dataset d = DatasetUtils.convertToDataset(value).getSlice();
+		switch (d.getDtype()) {
+		case Dataset.STRING:
+			return ((StringDataset) d).getData();
+		case Dataset.BOOL:
+			return ((BooleanDataset) d).getData();
+		case Dataset.INT8:
+			return ((ByteDataset) d).getData();
+		case Dataset.INT16:
+			return ((ShortDataset) d).getData();
+		case Dataset.INT32:
+			return ((IntegerDataset) d).getData();
+		case Dataset.INT64:
+			return ((LongDataset) d).getData();
+		case Dataset.FLOAT32:
+			return ((FloatDataset) d).getData();
+		case Dataset.FLOAT64:
+			return ((DoubleDataset) d).getData();
+		default:
+			return null;
+		}
+	}
+
+	// tags of values
+	private static final byte STRINGS = 0;
+	private static final byte BOOLEANS = 1;
+	private static final byte BYTES = 2;
+	private static final byte SHORTS = 3;
+	private static final byte INTS = 4;
+	private static final byte LONGS = 5;
+	private static final byte FLOATS = 6;
+	private static final byte DOUBLES = 7;
+
+	/**
+	 * @return false if value is not supported
+	 */
+	private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+		if (value instanceof String[]) {
+			String[] a = (String[]) value;
+			out.writeByte(STRINGS);
+			out.writeInt(a.length);
+			for (String v : a) {
+				writeString(out, v);
+			}
+		} else if (value instanceof boolean[]) {
+			boolean[] a = (boolean[]) value;
+			out.writeByte(BOOLEANS);
+			out.writeInt(a.length);
+			for (boolean v : a) {
+				out.writeBoolean(v);
+			}
+		} else if (value instanceof byte[]) {
+			byte[] a = (byte[]) value;
+			out.writeByte(BYTES);
+			out.writeInt(a.length);
+			out.write(a);
+		} else if (value instanceof short[]) {
+			short[] a = (short[]) value;
+			out.writeByte(SHORTS);
+			out.writeInt(a.length);
+			for (short v : a) {
+				out.writeShort(v);
+			}
+		} else if (value instanceof int[]) {
+			int[] a = (int[]) value;
+			out.writeByte(INTS);
+			out.writeInt(a.length);
+			for (int v : a) {
+				out.writeInt(v);
+			}
+		} else if (value instanceof long[]) {
+			long[] a = (long[]) value;
+			out.writeByte(LONGS);
+			out.writeInt(a.length);
+			for (long v : a) {
+				out.writeLong(v);
+			}
+		} else if (value instanceof float[]) {
+			float[] a = (float[]) value;
+			out.writeByte(FLOATS);
+			out.writeInt(a.length);
+			for (float v : a) {
+				out.writeFloat(v);
+			}
+		} else if (value instanceof double[]) {
+			double[] a = (double[]) value;
+			out.writeByte(DOUBLES);
+			out.writeInt(a.length);
+			for (double v : a) {
+				out.writeDouble(v);
+			}
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	private static Object readValue(DataInputStream in) throws IOException {
+		byte tag = in.readByte();
+		int n = in.readInt();
+		switch (tag) {
+		case STRINGS:
+			String[] s = new String[n];
+			for (int i = 0; i < n; i++) {
+				s[i] = readString(in);
+			}
+			return s;
+		case BOOLEANS:
+			boolean[] z = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				z[i] = in.readBoolean();
+			}
+			return z;
+		case BYTES:
+			byte[] b = new byte[n];
+			in.readFully(b);
+			return b;
+		case SHORTS:
+			short[] h = new short[n];
+			for (int i = 0; i < n; i++) {
+				h[i] = in.readShort();
+			}
+			return h;
+		case INTS:
+			int[] j = new int[n];
+			for (int i = 0; i < n; i++) {
+				j[i] = in.readInt();
+			}
+			return j;
+		case LONGS:
+			long[] l = new long[n];
+			for (int i = 0; i < n; i++) {
+				l[i] = in.readLong();
+			}
+			return l;
+		case FLOATS:
+			float[] f = new float[n];
+			for (int i = 0; i < n; i++) {
+				f[i] = in.readFloat();
+			}
+			return f;
+		case DOUBLES:
+			double[] d = new double[n];
+			for (int i = 0; i < n; i++) {
+				d[i] = in.readDouble();
+			}
+			return d;
+		default:
+			throw new IOException("Unknown value type: " + tag);
+		}
+	}
+
+	/**
+	 * Recreates a tree from its index
+	 */
+	private static class Reader {
+		private final DataInputStream in;
+		private String[] strings;
+		private TreeFile[] trees;
+
+		Reader(byte[] bytes) {
+			in = new DataInputStream(new ByteArrayInputStream(bytes));
+		}
+
+		private String string() throws IOException {
+			int i = in.readInt();
+			return i < 0 ? null : strings[i];
+		}
+
+		/**
+		 * @return tree or null if index is out of date
+		 */
+		TreeFile read(HDF5Loader loader, String cPath, String host, boolean keepBitWidth) throws IOException {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not an index of current version");
+			}
+			if (!cPath.equals(readString(in)) || in.readBoolean() != keepBitWidth) {
+				return null;
+			}
+
+			int n = in.readInt();
+			trees = new TreeFile[n];
+			for (int i = 0; i < n; i++) {
+				String p = readString(in);
+				File f = new File(p);
+				if (f.length() != in.readLong() || f.lastModified() != in.readLong()) {
+					logger.debug("Index of {} is out of date as {} has changed", cPath, p);
+					return null;
+				}
+				trees[i] = TreeFactory.createTreeFile(p.hashCode(), p);
+				trees[i].setHostname(host);
+			}
+
+			n = in.readInt();
+			strings = new String[n];
+			for (int i = 0; i < n; i++) {
+				strings[i] = readString(in);
+			}
+
+			// create all nodes before linking them as groups can be linked from anywhere in tree
+			n = in.readInt();
+			Node[] nodes = new Node[n];
+			int[][] links = new int[n][];
+			for (int i = 0; i < n; i++) {
+				byte kind = in.readByte();
+				long oid = in.readLong();
+				TreeFile tree = trees[in.readInt()];
+				String path = string();
+
+				int m = in.readInt();
+				String[] aNames = new String[m];
+				String[] aTypes = new String[m];
+				Object[] aValues = new Object[m];
+				for (int j = 0; j < m; j++) {
+					aNames[j] = string();
+					aTypes[j] = string();
+					aValues[j] = readValue(in);
+				}
+
+				Node node;
+				switch (kind) {
+				case GROUP:
+					node = TreeFactory.createGroupNode(oid);
+					m = in.readInt();
+					links[i] = new int[4 * m];
+					for (int j = 0; j < links[i].length; j++) {
+						links[i][j] = in.readInt();
+					}
+					break;
+				case DATA:
+					node = TreeFactory.createDataNode(oid);
+					break;
+				case SYMBOLIC:
+					node = TreeFactory.createSymbolicNode(oid, tree, string());
+					break;
+				default:
+					throw new IOException("Unknown node type: " + kind);
+				}
+
+				for (int j = 0; j < aNames.length; j++) {
+					Attribute a = TreeFactory.createAttribute(tree, path, aNames[j], aValues[j], false);
+					a.setTypeName(aTypes[j]);
+					node.addAttribute(a);
+				}
+
+				if (kind == DATA) {
+					readData((DataNode) node);
+				}
+				nodes[i] = node;
+			}
+
+			for (int i = 0; i < n; i++) {
+				int[] l = links[i];
+				if (l == null) {
+					continue;
+				}
+				GroupNode g = (GroupNode) nodes[i];
+				for (int j = 0; j < l.length; j += 4) {
+					g.addNode(trees[l[j + 1]], strings[l[j + 2]], strings[l[j]], nodes[l[j + 3]]);
+				}
+			}
+
+			// augment in reverse order so groups are done after their descendants, as when tree walked
+			for (int i = n - 1; i >= 0; i--) {
+				if (links[i] != null) {
+					for (NodeLink l : (GroupNode) nodes[i]) {
+						loader.augmentLink(l);
+					}
+				}
+			}
+
+			TreeFile tree = trees[0];
+			tree.setGroupNode((GroupNode) nodes[0]);
+			return tree;
+		}
+
+		private void readData(DataNode node) throws IOException {
+			DataSource.Kind kind = DataSource.Kind.values()[in.readByte()];
+			long[] maxShape = readShape(in);
+			if (maxShape != null) {
+				node.setMaxShape(maxShape);
+			}
+			String typeName = string();
+			if (typeName != null) {
+				node.setTypeName(typeName);
+			}
+			switch (kind) {
+			case LAZY:
+				String name = string();
+				String filePath = string();
+				String nodePath = string();
+				int dtype = in.readInt();
+				int isize = in.readInt();
+				int[] shape = new int[in.readInt()];
+				for (int i = 0; i < shape.length; i++) {
+					shape[i] = in.readInt();
+				}
+				boolean extendUnsigned = in.readBoolean();
+				node.setDataset(HDF5Loader.createLazyDataset(trees[0].getHostname(), filePath, nodePath, name, dtype,
+						isize, shape, extendUnsigned));
+				break;
+			case VALUE:
+				name = string();
+				Dataset d = DatasetFactory.createFromObject(readValue(in));
+				d.setName(name);
+				node.setDataset(d);
+				break;
+			case EMPTY:
+				node.setEmpty();
+				break;
+			default:
+				break;
+			}
+		}
+	}
+}
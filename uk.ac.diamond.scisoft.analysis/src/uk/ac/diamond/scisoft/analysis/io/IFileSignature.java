@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+/**
+ * Implemented by loaders which can tell cheaply from the start of a file whether it is
+ * in their format. {@link LoaderFactory} uses this to try the matching loader first
+ * rather than cycling through every loader registered for an extension.
+ */
+public interface IFileSignature {
+
+	/**
+	 * Maximum number of bytes from the start of the file passed to {@link #checkSignature(byte[], int)}
+	 */
+	public static final int HEADER_LENGTH = 4096;
+
+	/**
+	 * Outcome of a signature check
+	 */
+	public enum Match {
+		/**
+		 * File is in loader's format
+		 */
+		YES,
+		/**
+		 * Cannot tell from header
+		 */
+		MAYBE,
+		/**
+		 * File is not in loader's format
+		 */
+		NO
+	}
+
+	/**
+	 * Check start of file. This must not read the file or do any significant parsing
+	 * @param header bytes from start of file
+	 * @param length number of valid bytes in header (less than {@link #HEADER_LENGTH} for short files)
+	 * @return match
+	 */
+	public Match checkSignature(byte[] header, int length);
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.InputStream;
+
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+
+/**
+ * Implemented by loaders which can read a file's contents from a stream rather than from its path.
+ * {@link CompressedLoader} uses this to decompress files in memory.
+ * <p>
+ * All data is loaded as the stream cannot be read again for lazy datasets. The loader's file path
+ * is only used to label the data and its metadata.
+ */
+public interface IStreamLoader {
+
+	/**
+	 * Load all data from stream of file contents. The stream is not closed
+	 * @param in
+	 * @param mon
+	 * @return data holder
+	 * @throws ScanFileHolderException
+	 */
+	public IDataHolder loadFile(InputStream in, IMonitor mon) throws ScanFileHolderException;
+}
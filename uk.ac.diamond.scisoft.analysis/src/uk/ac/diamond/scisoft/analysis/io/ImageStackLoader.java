@@ -9,7 +9,24 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
@@ -24,12 +41,31 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 
+/**
+ * Lazy loader for a stack of images held one per file
+ * <p>
+ * By default frames are loaded one at a time on the calling thread. With a read-ahead window set
+ * (see {@link #setReadAhead(int)}), the frames of a slice are decoded on a shared thread pool and
+ * copied straight into the result, and the frames following each slice are decoded in the background
+ * so a stack browsed or processed in order does not wait on each file in turn.
+ */
 public class ImageStackLoader implements ILazyLoader {
 
+	/**
+	 * System property to set the default number of frames to read ahead
+	 */
+	public static final String READ_AHEAD_PROPERTY = "uk.ac.diamond.scisoft.analysis.io.imagestack.readahead";
+
+	private static final long POLL_TIME = 100; // in ms
+
+	private static ExecutorService pool;
+
 	private List<String> imageFilenames;
 	private int[] shape;
 	private int dtype;
-	private Class<? extends IFileLoader> loaderClass;
+	private volatile Class<? extends IFileLoader> loaderClass;
+	private volatile int readAhead = Math.max(0, Integer.getInteger(READ_AHEAD_PROPERTY, 0));
+	private final Map<Integer, FutureTask<IDataHolder>> prefetched = new ConcurrentHashMap<Integer, FutureTask<IDataHolder>>();
 
 	public int getDtype() {
 		return dtype;
@@ -57,13 +93,41 @@ public class ImageStackLoader implements ILazyLoader {
 		}
 	}
 
+	/**
+	 * @return number of frames read ahead, zero if frames are loaded serially
+	 */
+	public int getReadAhead() {
+		return readAhead;
+	}
+
+	/**
+	 * Set number of frames to decode in parallel and to read ahead of each slice. Zero (the default
+	 * unless {@value #READ_AHEAD_PROPERTY} is set) loads frames serially on the calling thread.
+	 * <p>
+	 * Frames read ahead are held in memory until used or until a slice elsewhere in the stack is read.
+	 * @param frames
+	 */
+	public void setReadAhead(int frames) {
+		readAhead = Math.max(0, frames);
+		if (readAhead == 0) {
+			discardPrefetched(new HashSet<Integer>());
+		}
+	}
+
 	@Override
 	public boolean isFileReadable() {
 		return true;
 	}
 
-	private Dataset getFullStack() throws Exception {
-		
+	private Dataset getFullStack(IMonitor mon) throws Exception {
+		if (readAhead > 0) {
+			int[] frames = new int[shape[0]];
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = i;
+			}
+			return getFramesInParallel(mon, frames, null, null, null, shape);
+		}
+
     	IDataHolder      data = LoaderFactory.getData(loaderClass, imageFilenames.get(0), true, new IMonitor.Stub());
     	int size = data.getDataset(0).getSize();
 
@@ -83,8 +147,8 @@ public class ImageStackLoader implements ILazyLoader {
 
 	@Override
 	public Dataset getDataset(IMonitor mon, SliceND slice) throws Exception {
-		
-		if (slice.isAll()) return getFullStack();// Might cause out of memory!
+
+		if (slice.isAll()) return getFullStack(mon);// Might cause out of memory!
 		                                                     // But this allows expressions of the stack to work if the stack fit in memory.
 
 		int[] lstart = slice.getStart();
@@ -92,43 +156,34 @@ public class ImageStackLoader implements ILazyLoader {
 		int[] lstep  = slice.getStep();
 		int[] newShape = slice.getShape();
 
+		// FIXME this seems to be designed for three dimensions only
+		int[] imageStart = new int[] {lstart[1], lstart[2]};
+		int[] imageStop = new int[] {lstop[1], lstop[2]};
+		int[] imageStep = new int[] {lstep[1], lstep[2]};
+
+		if (readAhead > 0 && newShape[0] > 0) {
+			int[] frames = new int[newShape[0]];
+			for (int i = 0; i < frames.length; i++) {
+				frames[i] = lstart[0] + i * lstep[0];
+			}
+			Dataset result = getFramesInParallel(mon, frames, imageStart, imageStop, imageStep, newShape);
+			prefetch(frames[frames.length - 1] + lstep[0], lstep[0]);
+			return result;
+		}
+
 		Dataset result = DatasetFactory.zeros(newShape, dtype);
 		if (result.getSize() == 0)
 			return result;
 
 		IDataHolder data = null;
-		// FIXME this seems to be designed for three dimensions only
-		int[] imageStart = new int[] {lstart[1], lstart[2]};
-		int[] imageStop = new int[] {lstop[1], lstop[2]};
-		int[] imageStep = new int[] {lstep[1], lstep[2]};
 		int[] resultStart = new int[3];
 		int[] resultStop = newShape.clone();
 		int[] resultStep = new int[] {1,1,1};
 		int n = lstart[0];
 		do {
-			
+
 			if (mon!=null && mon.isCancelled()) throw new Exception("Slicing cancelled!");
-			// load the file
-			if (loaderClass != null) {
-				try {
-					data = LoaderFactory.getData(loaderClass, imageFilenames.get(n), true, mon);
-				} catch (Exception e) {
-					// do nothing and try with all registered loaders
-				}
-			}
-			if (data == null) {
-				try {
-					data = LoaderFactory.getData(imageFilenames.get(n), mon);
-				} catch (Exception e) {
-					throw new ScanFileHolderException("Cannot load image in image stack", e);
-				}
-				if (data == null) {
-					throw new ScanFileHolderException("Cannot load image in image stack");
-				}
-			}
-			if (loaderClass == null) {
-				loaderClass = data.getLoaderClass();
-			}
+			data = loadFrame(n, mon);
 
 			ILazyDataset sliced = data.getLazyDataset(0).getSliceView(imageStart, imageStop, imageStep);
 			resultStop[0] = resultStart[0] + 1;
@@ -137,6 +192,11 @@ public class ImageStackLoader implements ILazyLoader {
 			n += lstep[0];
 		} while (resultStart[0] < newShape[0]);
 
+		setMetadata(result, data);
+		return result;
+	}
+
+	private static void setMetadata(Dataset result, IDataHolder data) {
 		IMetadata meta = LoaderFactory.getLockedMetaData();
 		if (meta!=null) {
 			 result.setMetadata(meta); // Locked overrides all
@@ -144,8 +204,189 @@ public class ImageStackLoader implements ILazyLoader {
 		    meta = result.getMetadata()==null ? data.getMetadata() : null;
 			if (meta!=null) result.setMetadata(meta);
 		}
+	}
 
-		return result;	
+	/**
+	 * Load frame with the loader class of the stack, falling back to all registered loaders
+	 * @param n
+	 * @param mon
+	 * @return data holder of frame
+	 * @throws ScanFileHolderException
+	 */
+	private IDataHolder loadFrame(int n, IMonitor mon) throws ScanFileHolderException {
+		IDataHolder data = null;
+		Class<? extends IFileLoader> clazz = loaderClass;
+		if (clazz != null) {
+			try {
+				data = LoaderFactory.getData(clazz, imageFilenames.get(n), true, mon);
+			} catch (Exception e) {
+				// do nothing and try with all registered loaders
+			}
+		}
+		if (data == null) {
+			try {
+				data = LoaderFactory.getData(imageFilenames.get(n), mon);
+			} catch (Exception e) {
+				throw new ScanFileHolderException("Cannot load image in image stack", e);
+			}
+			if (data == null) {
+				throw new ScanFileHolderException("Cannot load image in image stack");
+			}
+		}
+		if (clazz == null) {
+			loaderClass = data.getLoaderClass();
+		}
+		return data;
+	}
+
+	/**
+	 * Take frame from those read ahead or else load it. A read ahead that has not started is run
+	 * on the calling thread as that may be a pool thread which the read ahead is queued behind
+	 * @param n
+	 * @return data holder of frame
+	 * @throws Exception
+	 */
+	private IDataHolder takeFrame(int n) throws Exception {
+		FutureTask<IDataHolder> f = prefetched.remove(n);
+		if (f != null) {
+			f.run(); // does nothing if already started
+			try {
+				return f.get();
+			} catch (ExecutionException e) {
+				// try again below in case the failure was transient
+			} catch (CancellationException e) {
+				// load below
+			}
+		}
+		return loadFrame(n, new IMonitor.Stub());
+	}
+
+	/**
+	 * Load frames on the pool, keeping at most the read-ahead number in flight, and copy each into
+	 * its place in the result
+	 * @param mon
+	 * @param frames indexes of frames in stack
+	 * @param imageStart can be null for whole image
+	 * @param imageStop
+	 * @param imageStep
+	 * @param newShape shape of result
+	 * @return stack of frames
+	 * @throws Exception
+	 */
+	private Dataset getFramesInParallel(final IMonitor mon, final int[] frames, final int[] imageStart, final int[] imageStop,
+			final int[] imageStep, final int[] newShape) throws Exception {
+		final Dataset result = DatasetFactory.zeros(newShape, dtype);
+		if (result.getSize() == 0)
+			return result;
+
+		final Object buffer = result.getBuffer();
+		final int length = result.getSize() / newShape[0] * result.getElementsPerItem();
+		final ExecutorService executor = getPool();
+		final Deque<Future<IDataHolder>> inFlight = new ArrayDeque<Future<IDataHolder>>();
+		IDataHolder data = null;
+		int next = 0;
+		try {
+			for (int done = 0; done < frames.length; done++) {
+				while (next < frames.length && inFlight.size() < readAhead) {
+					final int i = next++;
+					inFlight.add(executor.submit(new Callable<IDataHolder>() {
+						@Override
+						public IDataHolder call() throws Exception {
+							IDataHolder d = takeFrame(frames[i]);
+							Dataset image = imageStart == null ? DatasetUtils.convertToDataset(d.getDataset(0)) :
+								DatasetUtils.convertToDataset(d.getLazyDataset(0).getSlice(imageStart, imageStop, imageStep));
+							if (image.getDtype() != dtype) {
+								image = DatasetUtils.cast(image, dtype);
+							}
+							int size = image.getSize() * image.getElementsPerItem();
+							if (size != length) {
+								throw new ScanFileHolderException("Image " + imageFilenames.get(frames[i]) + " does not match shape of image stack");
+							}
+							// frames go to disjoint parts of the buffer
+							System.arraycopy(image.getBuffer(), 0, buffer, i * length, length);
+							return d;
+						}
+					}));
+				}
+
+				Future<IDataHolder> f = inFlight.peek();
+				while (true) {
+					if (mon != null && mon.isCancelled()) throw new Exception("Slicing cancelled!");
+					try {
+						data = f.get(POLL_TIME, TimeUnit.MILLISECONDS);
+						break;
+					} catch (TimeoutException e) {
+						// check monitor again
+					}
+				}
+				inFlight.remove();
+				if (mon != null) mon.worked(1);
+			}
+		} catch (ExecutionException e) {
+			Throwable c = e.getCause();
+			throw c instanceof Exception ? (Exception) c : e;
+		} finally {
+			for (Future<IDataHolder> f : inFlight) {
+				f.cancel(false);
+			}
+		}
+
+		setMetadata(result, data);
+		return result;
+	}
+
+	/**
+	 * Start loading the frames after a slice, discarding other frames read ahead
+	 * @param from first frame
+	 * @param step between frames
+	 */
+	private void prefetch(int from, int step) {
+		Set<Integer> window = new HashSet<Integer>();
+		for (int i = 0, n = from; i < readAhead && n >= 0 && n < shape[0]; i++, n += step) {
+			window.add(n);
+		}
+		discardPrefetched(window);
+
+		final ExecutorService executor = getPool();
+		for (final Integer n : window) {
+			if (prefetched.containsKey(n))
+				continue;
+			FutureTask<IDataHolder> f = new FutureTask<IDataHolder>(new Callable<IDataHolder>() {
+				@Override
+				public IDataHolder call() throws Exception {
+					return loadFrame(n, new IMonitor.Stub());
+				}
+			});
+			prefetched.put(n, f);
+			executor.execute(f);
+		}
+	}
+
+	private void discardPrefetched(Set<Integer> keep) {
+		Iterator<Map.Entry<Integer, FutureTask<IDataHolder>>> it = prefetched.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, FutureTask<IDataHolder>> e = it.next();
+			if (!keep.contains(e.getKey())) {
+				e.getValue().cancel(false);
+				it.remove();
+			}
+		}
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Image stack reader " + ++count);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
 	}
 
 	public int[] getShape() {
@@ -40,5 +40,9 @@ public class JPEGLoader extends JavaImageLoader {
 	public JPEGLoader(String FileName, boolean convertToGrey, boolean keepBitWidth) {
 		super(FileName, "jpeg", convertToGrey, keepBitWidth);
 	}
-	
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.matchesAt(header, length, 0, new byte[] { (byte) 0xff, (byte) 0xd8, (byte) 0xff }) ? Match.YES : Match.NO;
+	}
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.io.IDataAnalysisObject;
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+
+/**
+ * A concurrent cache of loaded data used by the loader factory.
+ * <p>
+ * Completed entries are held in a least-recently-used map whose total size is bounded by a
+ * byte budget (as given by {@link Dataset#getNbytes()} of the datasets held). Loads are run
+ * outside of any lock so different keys load in parallel, whereas concurrent requests for the
+ * same key share a single in-flight load.
+ */
+public class LoaderCache {
+
+	/**
+	 * System property to set the cache budget in bytes
+	 */
+	public static final String CACHE_BUDGET = "uk.ac.diamond.scisoft.analysis.io.cachebudget";
+
+	/**
+	 * Nominal size of an entry which holds no in-memory datasets (e.g. metadata or lazy datasets only)
+	 */
+	static final long MINIMUM_ENTRY_SIZE = 1024;
+
+	private final Map<LoaderKey, Entry> cache;
+	private final ConcurrentMap<LoaderKey, LoadTask<?>> inFlight;
+
+	private long budget;
+	private long size;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
+
+	private static class Entry {
+		final IDataAnalysisObject value;
+		final long bytes;
+
+		Entry(IDataAnalysisObject value, long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+		}
+	}
+
+	private static class LoadTask<T> extends FutureTask<T> {
+		private volatile Thread owner;
+
+		LoadTask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		public void run() {
+			owner = Thread.currentThread();
+			try {
+				super.run();
+			} finally {
+				owner = null;
+			}
+		}
+	}
+
+	/**
+	 * Create cache with budget set from system property or a quarter of the maximum heap size
+	 */
+	public LoaderCache() {
+		this(Long.getLong(CACHE_BUDGET, Runtime.getRuntime().maxMemory() / 4));
+	}
+
+	/**
+	 * @param budget maximum number of bytes to hold in cache
+	 */
+	public LoaderCache(long budget) {
+		this.budget = budget;
+		cache = new LinkedHashMap<LoaderKey, Entry>(89, 0.75f, true);
+		inFlight = new ConcurrentHashMap<LoaderKey, LoadTask<?>>(89);
+	}
+
+	/**
+	 * @return maximum number of bytes to hold in cache
+	 */
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	/**
+	 * Set maximum number of bytes to hold in cache. Least recently used entries are evicted
+	 * if the cache is now over budget
+	 * @param budget
+	 */
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * @return number of bytes held in cache
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of entries held in cache
+	 */
+	public synchronized int getEntryCount() {
+		return cache.size();
+	}
+
+	/**
+	 * @param key
+	 * @return cached object or null if not in cache
+	 */
+	public IDataAnalysisObject get(LoaderKey key) {
+		Entry e;
+		synchronized (this) {
+			e = cache.get(key);
+		}
+		if (e == null)
+			return null;
+		hits.incrementAndGet();
+		return e.value;
+	}
+
+	/**
+	 * @param key
+	 * @return a key in the cache which refers to the same file and has metadata, or null
+	 */
+	public synchronized LoaderKey findKeyWithMetadata(LoaderKey key) {
+		for (LoaderKey k : cache.keySet()) {
+			if (k.isSameFile(key) && k.hasMetadata()) {
+				return k;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Store object in cache. This will evict least recently used entries if over budget
+	 * @param key
+	 * @param value
+	 * @return true if object was stored
+	 */
+	public boolean put(LoaderKey key, IDataAnalysisObject value) {
+		if (value == null)
+			return false;
+
+		long bytes = estimateSize(value);
+		synchronized (this) {
+			if (bytes > budget) {
+				remove(key);
+				return false;
+			}
+			Entry old = cache.put(key, new Entry(value, bytes));
+			if (old != null) {
+				size -= old.bytes;
+			}
+			size += bytes;
+			evict();
+		}
+		return true;
+	}
+
+	/**
+	 * Run given load for key unless another thread is already loading it, in which case wait
+	 * for and return its result. The load is responsible for putting its result in the cache
+	 * @param key
+	 * @param load
+	 * @return result of load
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends IDataAnalysisObject> T load(LoaderKey key, Callable<T> load) throws Exception {
+		LoadTask<T> task = new LoadTask<T>(load);
+		LoadTask<?> existing = inFlight.putIfAbsent(key, task);
+		if (existing != null) {
+			if (existing.owner == Thread.currentThread()) { // re-entrant load so do not wait on self
+				return timedLoad(load);
+			}
+			hits.incrementAndGet();
+			return (T) waitFor(existing);
+		}
+
+		try {
+			IDataAnalysisObject o = get(key); // check in case it was loaded whilst key was being inserted
+			if (o != null) {
+				return (T) o;
+			}
+
+			long start = System.nanoTime();
+			misses.incrementAndGet();
+			task.run();
+			loadTime.addAndGet(System.nanoTime() - start);
+			return waitFor(task);
+		} finally {
+			inFlight.remove(key, task);
+		}
+	}
+
+	private <T> T timedLoad(Callable<T> load) throws Exception {
+		long start = System.nanoTime();
+		misses.incrementAndGet();
+		try {
+			return load.call();
+		} finally {
+			loadTime.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	private static <T> T waitFor(FutureTask<T> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof Exception)
+				throw (Exception) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			throw e;
+		}
+	}
+
+	/**
+	 * Remove entry from cache
+	 * @param key
+	 */
+	public synchronized void remove(LoaderKey key) {
+		Entry old = cache.remove(key);
+		if (old != null) {
+			size -= old.bytes;
+		}
+	}
+
+	/**
+	 * Remove all entries from cache
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		size = 0;
+	}
+
+	/**
+	 * Reset all counters
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		evictions.set(0);
+		loadTime.set(0);
+	}
+
+	/**
+	 * @return number of requests served from cache or from a load already in progress
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of requests that had to run a loader
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of entries evicted to keep the cache within its budget
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return total time spent in loaders in nanoseconds
+	 */
+	public long getTotalLoadTime() {
+		return loadTime.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("LoaderCache [entries=%d, size=%d/%d, hits=%d, misses=%d, evictions=%d, load time=%.3fs]",
+				getEntryCount(), getSize(), getBudget(), getHitCount(), getMissCount(), getEvictionCount(), getTotalLoadTime() * 1e-9);
+	}
+
+	/**
+	 * Must be called whilst holding lock
+	 */
+	private void evict() {
+		if (size <= budget)
+			return;
+
+		List<LoaderKey> victims = new ArrayList<LoaderKey>();
+		long excess = size - budget;
+		Iterator<Map.Entry<LoaderKey, Entry>> it = cache.entrySet().iterator();
+		while (excess > 0 && it.hasNext()) {
+			Map.Entry<LoaderKey, Entry> e = it.next();
+			victims.add(e.getKey());
+			excess -= e.getValue().bytes;
+		}
+		for (LoaderKey k : victims) {
+			remove(k);
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return number of bytes used by datasets held in memory by given object
+	 */
+	static long estimateSize(IDataAnalysisObject value) {
+		long bytes = 0;
+		if (value instanceof IDataHolder) {
+			IDataHolder holder = (IDataHolder) value;
+			for (int i = 0, imax = holder.size(); i < imax; i++) {
+				ILazyDataset l = holder.getLazyDataset(i);
+				if (l instanceof Dataset) {
+					bytes += ((Dataset) l).getNbytes();
+				}
+			}
+		}
+		return Math.max(bytes, MINIMUM_ENTRY_SIZE);
+	}
+}
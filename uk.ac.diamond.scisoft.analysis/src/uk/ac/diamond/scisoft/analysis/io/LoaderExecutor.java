@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs loads of files in the background.
+ * <p>
+ * Loads run on a fixed number of threads and, so that a slow disk or network mount is not swamped
+ * while others sit idle, only a limited number of loads of files on the same device run at once.
+ * Loads over the limit wait in a queue for that device without holding a thread so any number can
+ * be submitted. A load is cancelled by cancelling its future or the monitor it was given; either way,
+ * its future reports that it is cancelled. Callbacks can be added to the future to be told when the
+ * load ends.
+ */
+public class LoaderExecutor {
+	private static final Logger logger = LoggerFactory.getLogger(LoaderExecutor.class);
+
+	/**
+	 * System property to set the number of loader threads
+	 */
+	public static final String THREADS = "uk.ac.diamond.scisoft.analysis.io.loaderthreads";
+
+	/**
+	 * System property to set the maximum number of concurrent loads from each device
+	 */
+	public static final String DEVICE_LIMIT = "uk.ac.diamond.scisoft.analysis.io.deviceloads";
+
+	private static LoaderExecutor executor;
+
+	/**
+	 * @return shared executor
+	 */
+	public static synchronized LoaderExecutor getInstance() {
+		if (executor == null) {
+			executor = new LoaderExecutor(Integer.getInteger(THREADS, Math.max(4, 2 * Runtime.getRuntime().availableProcessors())),
+					Integer.getInteger(DEVICE_LIMIT, 4));
+		}
+		return executor;
+	}
+
+	/**
+	 * A load that can be run in the background
+	 * @param <T>
+	 */
+	public interface Load<T> {
+		/**
+		 * @param mon monitor which reports cancellation of the load
+		 * @return result
+		 * @throws Exception
+		 */
+		public T load(IMonitor mon) throws Exception;
+	}
+
+	/**
+	 * Receives the result of a load
+	 * @param <T>
+	 */
+	public interface Callback<T> {
+		/**
+		 * Called when load succeeds
+		 * @param result
+		 */
+		public void loaded(T result);
+
+		/**
+		 * Called when load fails or is cancelled
+		 * @param t cause of failure or a {@link CancellationException}
+		 */
+		public void failed(Throwable t);
+	}
+
+	/**
+	 * Future result of a load. Its callbacks are called on the thread that ends the load, or on the
+	 * thread that adds them if the load has already ended, so they should not block
+	 * @param <T>
+	 */
+	public static class LoadFuture<T> extends FutureTask<T> {
+		private List<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>(); // guarded by this, null when done
+
+		LoadFuture(Callable<T> callable) {
+			super(callable);
+		}
+
+		/**
+		 * Add callback to be called when load ends
+		 * @param callback
+		 */
+		public void addCallback(Callback<? super T> callback) {
+			synchronized (this) {
+				if (callbacks != null) {
+					callbacks.add(callback);
+					return;
+				}
+			}
+			inform(callback);
+		}
+
+		@Override
+		protected void done() {
+			List<Callback<? super T>> list;
+			synchronized (this) {
+				list = callbacks;
+				callbacks = null;
+			}
+			for (Callback<? super T> c : list) {
+				inform(c);
+			}
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+
+		private void inform(Callback<? super T> callback) {
+			try {
+				T result;
+				try {
+					result = get();
+				} catch (ExecutionException e) {
+					callback.failed(e.getCause());
+					return;
+				} catch (CancellationException e) {
+					callback.failed(e);
+					return;
+				} catch (InterruptedException e) { // cannot happen as load has ended
+					Thread.currentThread().interrupt();
+					callback.failed(e);
+					return;
+				}
+				callback.loaded(result);
+			} catch (RuntimeException e) {
+				logger.error("Load callback failed", e);
+			}
+		}
+	}
+
+	private static class Device {
+		int active;
+		final Queue<Runnable> waiting = new ArrayDeque<Runnable>();
+	}
+
+	/**
+	 * Thread that runs loads. This is a subclass, rather than a thread group, so threads started by
+	 * loads are not taken to be loader threads
+	 */
+	private static class LoaderThread extends Thread {
+		LoaderThread(Runnable r, String name) {
+			super(r, name);
+		}
+	}
+
+	private final ExecutorService pool;
+	private final int deviceLimit;
+	private final Map<String, Device> devices = new HashMap<String, Device>(); // guarded by this
+	private final ConcurrentMap<String, String> directoryDevices = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param threads number of loader threads
+	 * @param deviceLimit maximum number of concurrent loads from each device
+	 */
+	public LoaderExecutor(int threads, int deviceLimit) {
+		if (threads <= 0 || deviceLimit <= 0) {
+			throw new IllegalArgumentException("Number of threads and device limit must be positive");
+		}
+		this.deviceLimit = deviceLimit;
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread t = new LoaderThread(r, "Loader " + ++count);
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * @return true if current thread is a loader thread. Loads that run on it must not wait for other
+	 * loads to finish as those may be queued behind them
+	 */
+	public static boolean isLoaderThread() {
+		return Thread.currentThread() instanceof LoaderThread;
+	}
+
+	/**
+	 * Submit load of file
+	 * @param path to file
+	 * @param mon (can be null)
+	 * @param load
+	 * @return future result of load
+	 */
+	public <T> LoadFuture<T> submit(final String path, final IMonitor mon, final Load<T> load) {
+		final CancellableMonitor monitor = new CancellableMonitor(mon);
+		final LoadFuture<T> task = new LoadFuture<T>(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				// a load stopped by its monitor cancels its future so it ends as if the future were cancelled
+				if (monitor.isCancelled()) {
+					monitor.task.cancel(false);
+					return null;
+				}
+				try {
+					T result = load.load(monitor);
+					if (monitor.isCancelled()) {
+						monitor.task.cancel(false);
+					}
+					return result;
+				} catch (Exception e) {
+					if (monitor.isCancelled()) {
+						monitor.task.cancel(false);
+						return null;
+					}
+					throw e;
+				}
+			}
+		});
+		monitor.task = task;
+
+		final String device = directoryDevices.get(getDirectory(path));
+		if (device != null) {
+			enqueue(device, task);
+		} else { // finding device can block so do it on a loader thread
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					String d;
+					try {
+						d = getDevice(path);
+					} catch (Throwable t) {
+						task.fail(t);
+						return;
+					}
+					enqueue(d, task);
+				}
+			});
+		}
+		return task;
+	}
+
+	/**
+	 * Run task or, if its device is at its limit, queue it
+	 * @param device
+	 * @param task
+	 */
+	private void enqueue(final String device, final FutureTask<?> task) {
+		final Runnable run = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					finished(device);
+				}
+			}
+		};
+
+		synchronized (this) {
+			Device d = devices.get(device);
+			if (d == null) {
+				d = new Device();
+				devices.put(device, d);
+			}
+			if (d.active >= deviceLimit) {
+				d.waiting.add(run);
+				return;
+			}
+			d.active++;
+		}
+		pool.execute(run);
+	}
+
+	private void finished(final String device) {
+		Runnable next;
+		synchronized (this) {
+			Device d = devices.get(device);
+			next = d.waiting.poll();
+			if (next == null) {
+				if (--d.active == 0) {
+					devices.remove(device);
+				}
+				return;
+			}
+		}
+		pool.execute(next);
+	}
+
+	private static String getDirectory(final String path) {
+		File dir = new File(path).getAbsoluteFile().getParentFile();
+		return dir == null ? path : dir.getPath();
+	}
+
+	/**
+	 * This queries the file system so should not be called on a caller's thread
+	 * @param path
+	 * @return name of device holding file
+	 */
+	String getDevice(final String path) {
+		File dir = new File(path).getAbsoluteFile().getParentFile();
+		if (dir == null) {
+			return path;
+		}
+		final String key = dir.getPath();
+		String device = directoryDevices.get(key);
+		if (device == null) {
+			try {
+				device = Files.getFileStore(dir.toPath()).toString();
+			} catch (IOException e) {
+				logger.trace("Could not find file store of {}", key, e);
+				File root = dir;
+				while (root.getParentFile() != null) {
+					root = root.getParentFile();
+				}
+				device = root.getPath();
+			}
+			directoryDevices.putIfAbsent(key, device);
+		}
+		return device;
+	}
+
+	/**
+	 * Monitor that is cancelled when its task or the given monitor is
+	 */
+	private static class CancellableMonitor extends IMonitor.Stub {
+		private final IMonitor mon;
+		private volatile Future<?> task;
+
+		CancellableMonitor(IMonitor mon) {
+			this.mon = mon;
+		}
+
+		@Override
+		public void worked(int amount) {
+			if (mon != null) {
+				mon.worked(amount);
+			}
+		}
+
+		@Override
+		public void subTask(String taskName) {
+			if (mon != null) {
+				mon.subTask(taskName);
+			}
+		}
+
+		@Override
+		public boolean isCancelled() {
+			Future<?> t = task;
+			return (t != null && t.isCancelled()) || (mon != null && mon.isCancelled());
+		}
+	}
+}
@@ -10,24 +10,24 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
-import java.lang.ref.Reference;
-import java.lang.ref.SoftReference;
-import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -47,6 +47,7 @@ import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.diamond.scisoft.analysis.io.IFileSignature.Match;
 import uk.ac.diamond.scisoft.analysis.utils.FileUtils;
 // TODO Not sure if org.eclipse.core could break GDA server.
 // Been told verbally that the GDA server now can resolve core and resources.
@@ -104,19 +105,53 @@ public class LoaderFactory {
 	}
 
 	/**
-	 * A caching mechanism using soft references. Soft references attempt to keep things
-	 * in memory until the system is short on memory. Hashtable used because it is synchronized
-	 * which should reduce chances of getting the wrong data for the key.
+	 * A concurrent cache bounded by a byte budget. Loads of the same key share one in-flight
+	 * load whereas loads of different keys run in parallel.
 	 */
-	private static final Map<LoaderKey, Reference<IDataAnalysisObject>> SOFT_CACHE = new Hashtable<LoaderKey, Reference<IDataAnalysisObject>>(89);
-	
+	private static final LoaderCache CACHE = new LoaderCache();
+
+	/**
+	 * System property to set the maximum number of metadata entries the factory keeps in its cache
+	 */
+	public static final String METADATA_CACHE_ENTRIES = "uk.ac.diamond.scisoft.analysis.io.metadatacacheentries";
+
 	/**
-	 * This method may be called to ensure that the soft reference cache of data is
+	 * A cache of metadata loaded without data. This is kept apart from the data cache so browsing
+	 * the metadata of many files does not evict data
+	 */
+	private static final LoaderCache METADATA_CACHE = new LoaderCache(Integer.getInteger(METADATA_CACHE_ENTRIES, 16384)
+			* LoaderCache.MINIMUM_ENTRY_SIZE);
+
+	/**
+	 * This method may be called to ensure that the cache of data is
 	 * empty. It is required from the unit tests which attempt to measure memory
-	 * leaks, which otherwise would measure the "leak" of the soft reference cache.
+	 * leaks, which otherwise would measure the "leak" of the cache.
 	 */
 	public static void clear() {
-		SOFT_CACHE.clear();
+		CACHE.clear();
+		METADATA_CACHE.clear();
+	}
+
+	/**
+	 * @return cache used by factory (can be used to get hit, miss, eviction and load time counters)
+	 */
+	public static LoaderCache getCache() {
+		return CACHE;
+	}
+
+	/**
+	 * @return cache of metadata loaded without data by {@link #getMetadata(String, IMonitor)}
+	 */
+	public static LoaderCache getMetadataCache() {
+		return METADATA_CACHE;
+	}
+
+	/**
+	 * Set the maximum number of bytes of data the factory will keep in its cache
+	 * @param budget
+	 */
+	public static void setCacheBudget(long budget) {
+		CACHE.setBudget(budget);
 	}
 
 	private static final Logger logger = LoggerFactory.getLogger(LoaderFactory.class);
@@ -191,7 +226,7 @@ public class LoaderFactory {
 
 		    registerUnzip("gz",  GZIPInputStream.class);
 		    registerUnzip("zip", ZipInputStream.class);
-		    registerUnzip("bz2", CBZip2InputStream.class);
+		    registerUnzip("bz2", ParallelCBZip2InputStream.class);
 
 		} catch (Exception ne) {
 			logger.error("Cannot register loader - ALL loader registration aborted!", ne);
@@ -302,8 +337,8 @@ public class LoaderFactory {
 	 * all the loaders for a given extension if the extension is registered already. 
 	 * Otherwise it tries all loaders - in no particular order.
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Concurrent calls for the same file share a single load whereas different files are loaded
+	 *   in parallel.
 	 * 
 	 * @param path to file
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
@@ -312,7 +347,7 @@ public class LoaderFactory {
 	 * @return DataHolder
 	 * @throws Exception
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized  IDataHolder getData(final String   path, 
+	public static IDataHolder getData(final String   path, 
 												  final boolean  willLoadMetadata, 
 												  final boolean  loadImageStacks, 
 											      final IMonitor mon) throws Exception {
@@ -332,8 +367,8 @@ public class LoaderFactory {
 	 * all the loaders for a given extension if the extension is registered already. 
 	 * Otherwise it tries all loaders - in no particular order.
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Concurrent calls for the same file share a single load whereas different files are loaded
+	 *   in parallel.
 	 * 
 	 * @param path to file
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
@@ -344,7 +379,7 @@ public class LoaderFactory {
 	 * @return DataHolder
 	 * @throws Exception
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized  IDataHolder getData(final String   path,
+	public static IDataHolder getData(final String   path,
 												final boolean willLoadMetadata, 
 												final boolean loadImageStacks, 
 												final boolean lazily, 
@@ -360,45 +395,55 @@ public class LoaderFactory {
 		key.setMetadata(willLoadMetadata);
 		// END IMPORTANT
 
-		final Object cachedObject = getSoftReference(key);
+		final Object cachedObject = getCached(key);
 		IDataHolder holder = null;
 		if (cachedObject!=null && cachedObject instanceof IDataHolder) holder = (IDataHolder)cachedObject;
 
 		if (holder==null) { // try and load it
 			final Iterator<Class<? extends IFileLoader>> it = getIterator(path);
 			if (it == null) return null;
-	
-			// Currently this method simply cycles through all loaders.
-			// When it finds one which does not give an exception on loading it
-			// returns the data from this loader.
-			while (it.hasNext()) {
-				final Class<? extends IFileLoader> clazz = it.next();
-				final IFileLoader loader = getLoader(clazz, path);
-				loader.setLoadMetadata(willLoadMetadata);
-				loader.setLoadAllLazily(lazily);
-				try {
-					// NOTE Assumes loader fails quickly and nicely
-					// if given the wrong file. If a loader does not
-					// do this it should not be registered with LoaderFactory
-					holder = loader.loadFile(mon);
-					holder.setLoaderClass(clazz);
-					holder.setFilePath(path);
-
-					if (!lazily) {
-						key.setMetadata(holder.getMetadata()!=null);
-						boolean cached = recordSoftReference(key, holder);
-						if (!cached) System.err.println("Loader factory failed to cache "+path);
+
+			final Callable<IDataHolder> load = new Callable<IDataHolder>() {
+				@Override
+				public IDataHolder call() throws Exception {
+					// Loaders are tried in order of how well the start of the file
+					// matches their signatures. When it finds one which does not give
+					// an exception on loading it returns the data from this loader.
+					for (IFileLoader loader : getLoaders(path, it)) {
+						final Class<? extends IFileLoader> clazz = loader.getClass();
+						loader.setLoadMetadata(willLoadMetadata);
+						loader.setLoadAllLazily(lazily);
+						try {
+							// NOTE Assumes loader fails quickly and nicely
+							// if given the wrong file. If a loader does not
+							// do this it should not be registered with LoaderFactory
+							IDataHolder h = loader.loadFile(mon);
+							h.setLoaderClass(clazz);
+							h.setFilePath(path);
+							recordLoaded(path, clazz);
+
+							if (!lazily) {
+								final LoaderKey k = new LoaderKey();
+								k.setFilePath(path);
+								k.setMetadata(h.getMetadata()!=null);
+								if (!recordCached(k, h)) logger.debug("Loader factory did not cache {}", path);
+							}
+							return h;
+
+						} catch (OutOfMemoryError ome) {
+							logger.error("There was not enough memory to load {}", path);
+							throw new ScanFileHolderException("Out of memory in loader factory", ome);
+						} catch (Throwable ne) {
+							logger.trace("Loader {} caused {}", loader, ne);
+							continue;
+						}
 					}
-					break;
-					
-				} catch (OutOfMemoryError ome) {
-					logger.error("There was not enough memory to load {}", path);
-					throw new ScanFileHolderException("Out of memory in loader factory", ome);
-				} catch (Throwable ne) {
-					logger.trace("Loader {} caused {}", loader, ne);
-					continue;
+					return null;
 				}
-			}
+			};
+
+			// lazy holders are not cached so are not shared with other callers
+			holder = lazily ? load.call() : loadCached(key, load);
 		}
 		
 		// For images, we can put another item in the data holder
@@ -421,12 +466,74 @@ public class LoaderFactory {
 		}
 		return holder;
 	}
+
+	/**
+	 * Call to load any file type in the background. See {@link #getData(String, boolean, boolean, boolean, IMonitor)}
+	 * 
+	 *   Loads run on the threads of the {@link LoaderExecutor} which limits how many files on the
+	 *   same device are read at once. Cancelling the returned future or the monitor cancels the load.
+	 *   Add a {@link LoaderExecutor.Callback} to the returned future to be told when the load ends.
+	 * 
+	 * @param path to file
+	 * @param mon (can be null)
+	 * @return future data holder
+	 */
+	public static LoaderExecutor.LoadFuture<IDataHolder> getDataAsync(final String path, final IMonitor mon) {
+		return getDataAsync(path, true, false, false, mon);
+	}
+
+	/**
+	 * Call to load any file type in the background. See {@link #getData(String, boolean, boolean, boolean, IMonitor)}
+	 * 
+	 *   Loads run on the threads of the {@link LoaderExecutor} which limits how many files on the
+	 *   same device are read at once. Cancelling the returned future or the monitor cancels the load.
+	 *   Add a {@link LoaderExecutor.Callback} to the returned future to be told when the load ends.
+	 *   A holder already in the cache is returned in a completed future.
+	 * 
+	 * @param path to file
+	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
+	 * @param loadImageStacks if true, find and load images in the same directory as a stack
+	 * @param lazily if true, <b>all</b> datasets in the data holder will be lazy otherwise the holder
+	 * may contain non-lazy datasets
+	 * @param mon (can be null)
+	 * @return future data holder
+	 */
+	public static LoaderExecutor.LoadFuture<IDataHolder> getDataAsync(final String   path,
+												final boolean willLoadMetadata,
+												final boolean loadImageStacks,
+												final boolean lazily,
+												final IMonitor mon) {
+		if (!lazily && !loadImageStacks) {
+			final LoaderKey key = new LoaderKey();
+			key.setFilePath(path);
+			key.setMetadata(willLoadMetadata);
+			final Object cachedObject = getCached(key);
+			if (cachedObject instanceof IDataHolder) {
+				final IDataHolder holder = (IDataHolder) cachedObject;
+				final LoaderExecutor.LoadFuture<IDataHolder> done = new LoaderExecutor.LoadFuture<IDataHolder>(new Callable<IDataHolder>() {
+					@Override
+					public IDataHolder call() {
+						return holder;
+					}
+				});
+				done.run();
+				return done;
+			}
+		}
+
+		return LoaderExecutor.getInstance().submit(path, mon, new LoaderExecutor.Load<IDataHolder>() {
+			@Override
+			public IDataHolder load(IMonitor m) throws Exception {
+				return getData(path, willLoadMetadata, loadImageStacks, lazily, m);
+			}
+		});
+	}
 	
 	/**
 	 * Call to load file into memory with specific loader class
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Concurrent calls for the same file share a single load whereas different files are loaded
+	 *   in parallel.
      *
 	 * @param clazz loader class
 	 * @param path to file
@@ -435,10 +542,10 @@ public class LoaderFactory {
 	 * @return data holder (can be null)
 	 * @throws ScanFileHolderException
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized IDataHolder getData(Class<? extends IFileLoader> clazz, 
-						                         String path, 
-			                                     boolean willLoadMetadata, 
-			                                     IMonitor mon) throws Exception {
+	public static IDataHolder getData(final Class<? extends IFileLoader> clazz, 
+						                         final String path, 
+			                                     final boolean willLoadMetadata, 
+			                                     final IMonitor mon) throws Exception {
 		
 		if (!(new File(path)).exists()) throw new FileNotFoundException(path);
 
@@ -450,12 +557,12 @@ public class LoaderFactory {
 		key.setMetadata(willLoadMetadata);
 		// END IMPORTANT
 
-		final Object cachedObject = getSoftReference(key);
+		final Object cachedObject = getCached(key);
 		IDataHolder holder = null;
 		if (cachedObject!=null && cachedObject instanceof IDataHolder) holder = (IDataHolder)cachedObject;
         if (holder!=null) return holder;
 		
-		IFileLoader loader;
+		final IFileLoader loader;
 		try {
 			loader = getLoader(clazz, path);
 		} catch (Exception e) {
@@ -468,88 +575,82 @@ public class LoaderFactory {
 		}
 
 		loader.setLoadMetadata(willLoadMetadata);
-		try {
-			holder = loader.loadFile(mon);
-			holder.setLoaderClass(clazz);
-			holder.setFilePath(path);
-			
-			key.setMetadata(holder.getMetadata()!=null);
-			boolean cached = recordSoftReference(key, holder);
-			if (!cached) System.err.println("Loader factory failed to cache "+path);
-			return holder;
-			
-		} catch (OutOfMemoryError ome) {
-			logger.error("There was not enough memory to load {}", path);
-			throw new ScanFileHolderException("Out of memory in loader factory", ome);
-		} catch (Throwable ne) {
-			logger.trace("Loader {} caused {}", loader, ne);
-			throw new ScanFileHolderException("Loader error", ne);
-		}
+		return loadCached(key, new Callable<IDataHolder>() {
+			@Override
+			public IDataHolder call() throws Exception {
+				try {
+					IDataHolder h = loader.loadFile(mon);
+					h.setLoaderClass(clazz);
+					h.setFilePath(path);
+
+					final LoaderKey k = new LoaderKey();
+					k.setFilePath(path);
+					k.setMetadata(h.getMetadata()!=null);
+					if (!recordCached(k, h)) logger.debug("Loader factory did not cache {}", path);
+					return h;
+
+				} catch (OutOfMemoryError ome) {
+					logger.error("There was not enough memory to load {}", path);
+					throw new ScanFileHolderException("Out of memory in loader factory", ome);
+				} catch (Throwable ne) {
+					logger.trace("Loader {} caused {}", loader, ne);
+					throw new ScanFileHolderException("Loader error", ne);
+				}
+			}
+		});
 	}
 
 	/**
 	 * Store data into cache
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
-     *
 	 * @param holder
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized void cacheData(IDataHolder holder) {
+	public static void cacheData(IDataHolder holder) {
 		cacheData(holder, 0);
 	}
 
 	/**
 	 * Store data into cache
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
-     *
 	 * @param holder
 	 * @param imageNumber
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized void cacheData(IDataHolder holder, int imageNumber) {
+	public static void cacheData(IDataHolder holder, int imageNumber) {
 		final LoaderKey key = new LoaderKey();
 		key.setFilePath(holder.getFilePath());
 		key.setMetadata(holder.getMetadata() != null);
 		key.setImageNumber(imageNumber);
 
-		if (!recordSoftReference(key, holder))
-			System.err.println("Loader factory failed to cache "+holder.getFilePath());
+		if (!recordCached(key, holder))
+			logger.debug("Loader factory did not cache {}", holder.getFilePath());
 	}
 
 	/**
 	 * Fetch data from cache
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
-     *
 	 * @param path
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
 	 * @return data or null if not in cache
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized IDataHolder fetchData(String path, boolean willLoadMetadata) {
+	public static IDataHolder fetchData(String path, boolean willLoadMetadata) {
 		return fetchData(path, willLoadMetadata, 0);
 	}
 
 	/**
 	 * Fetch data from cache
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
-     *
 	 * @param path
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
 	 * @param imageNumber
 	 * @return data or null if not in cache
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized IDataHolder fetchData(String path, boolean willLoadMetadata, int imageNumber) {
+	public static IDataHolder fetchData(String path, boolean willLoadMetadata, int imageNumber) {
 		final LoaderKey key = new LoaderKey();
 		key.setFilePath(path);
 		key.setMetadata(willLoadMetadata);
 		key.setImageNumber(imageNumber);
 
-		final Object cachedObject = getSoftReference(key);
+		final Object cachedObject = getCached(key);
 		return cachedObject instanceof IDataHolder ? (IDataHolder) cachedObject : null;
 	}
 
@@ -613,14 +714,12 @@ public class LoaderFactory {
 		return null;
 	}
 
-	private final static Object LOCK = new Object();
-
 	/**
 	 * May be null
 	 * @param key
-	 * @return the object referenced or null if it got garbaged or was not cached yet
+	 * @return the object cached or null if it got evicted or was not cached yet
 	 */
-	private static Object getSoftReference(LoaderKey key) {
+	private static Object getCached(LoaderKey key) {
 		Object o = getReference(key);
 		if (o != null) {
 			return o;
@@ -629,15 +728,17 @@ public class LoaderFactory {
 			return null;
 		}
 		key.setMetadata(true); // try with unwanted metadata
-		return getReference(key);
+		o = getReference(key);
+		key.setMetadata(false);
+		return o;
 	}
 
 	/**
 	 * May be null
 	 * @param key
-	 * @return the object referenced or null if it got garbaged or was not cached yet
+	 * @return the object cached or null if it got evicted or was not cached yet
 	 */
-	private static Object getSoftReferenceWithMetadata(LoaderKey key) {
+	private static Object getCachedWithMetadata(LoaderKey key) {
 		Object o = getReference(key);
 		if (o != null) return o;
 
@@ -651,54 +752,73 @@ public class LoaderFactory {
 	/**
 	 * May be null
 	 * @param key
-	 * @return the object referenced or null if it got garbaged or was not cached yet
+	 * @return the object cached or null if it got evicted or was not cached yet
 	 */
 	private static IDataAnalysisObject getReference(LoaderKey key) {
 		if (Boolean.getBoolean(NO_CACHING)) return null;
-		synchronized (LOCK) {
-			try {
-		        final Reference<IDataAnalysisObject> ref = SOFT_CACHE.get(key);
-		        if (ref == null) return null;
-		        IDataAnalysisObject got = ref.get();
-		        return got;
-			} catch (Throwable ne) {
-				return null;
-			}
-		}
+		return CACHE.get(key);
 	}
 
 	private static LoaderKey findKeyWithMetadata(LoaderKey key) {
 		if (Boolean.getBoolean(NO_CACHING)) return null;
-		synchronized (LOCK) {
-			for (LoaderKey k : SOFT_CACHE.keySet()) {
-				if (k.isSameFile(key) && k.hasMetadata()) {
-					return k;
-				}
-			}
-			return null;
-		}
+		return CACHE.findKeyWithMetadata(key);
+	}
+
+	/**
+	 * 
+	 * @param key
+	 * @param value
+	 * @return true if value has been cached
+	 */
+	private static boolean recordCached(LoaderKey key, IDataAnalysisObject value) {
+		if (Boolean.getBoolean(NO_CACHING)) return false;
+		return CACHE.put(key, value);
+	}
+
+	/**
+	 * Run load for given key so that concurrent requests for the same key share a single load
+	 * @param key
+	 * @param load
+	 * @return result of load
+	 * @throws Exception
+	 */
+	private static <T extends IDataAnalysisObject> T loadCached(LoaderKey key, Callable<T> load) throws Exception {
+		if (Boolean.getBoolean(NO_CACHING)) return load.call();
+		return CACHE.load(key, load);
+	}
 
+	/**
+	 * May be null
+	 * @param key
+	 * @return the metadata cached or null if it got evicted or was not cached yet
+	 */
+	private static IMetadata getCachedMetadata(LoaderKey key) {
+		if (Boolean.getBoolean(NO_CACHING)) return null;
+		IDataAnalysisObject o = METADATA_CACHE.get(key);
+		return o instanceof IMetadata ? (IMetadata) o : null;
 	}
 
 	/**
 	 * 
 	 * @param key
 	 * @param value
-	 * @return true if another value has been replaced.
+	 * @return true if value has been cached
 	 */
-	private static boolean recordSoftReference(LoaderKey key, IDataAnalysisObject value) {
-		
+	private static boolean recordCachedMetadata(LoaderKey key, IMetadata value) {
 		if (Boolean.getBoolean(NO_CACHING)) return false;
-		synchronized (LOCK) {
-			try {
-				Reference<IDataAnalysisObject> ref = Boolean.getBoolean("uk.ac.diamond.scisoft.analysis.io.weakcaching")
-						                           ? new WeakReference<IDataAnalysisObject>(value)
-						                           : new SoftReference<IDataAnalysisObject>(value);
-				return SOFT_CACHE.put(key, ref)!=null;
-			} catch (Throwable ne) {
-				return false;
-			}
-		}
+		return METADATA_CACHE.put(key, value);
+	}
+
+	/**
+	 * Run load of metadata for given key so that concurrent requests for the same key share a single load
+	 * @param key
+	 * @param load
+	 * @return result of load
+	 * @throws Exception
+	 */
+	private static IMetadata loadCachedMetadata(LoaderKey key, Callable<IMetadata> load) throws Exception {
+		if (Boolean.getBoolean(NO_CACHING)) return load.call();
+		return METADATA_CACHE.load(key, load);
 	}
 
 	/**
@@ -721,7 +841,7 @@ public class LoaderFactory {
 		key.setFilePath(path);
 		key.setMetadata(true);
 		
-		Object cachedObject = getSoftReferenceWithMetadata(key);
+		Object cachedObject = getCachedWithMetadata(key);
 		if (cachedObject!=null) {
 			if (cachedObject instanceof DataHolder) {
 				IMetadata meta = ((DataHolder) cachedObject).getMetadata();
@@ -732,33 +852,41 @@ public class LoaderFactory {
 			logger.warn("Cached object is not a metadata object or contain one");
 		}
 
+		IMetadata cachedMeta = getCachedMetadata(key);
+		if (cachedMeta!=null) return cachedMeta;
+
 		final Iterator<Class<? extends IFileLoader>> it = getIterator(path);
 		if (it == null) return null;
 
-		// Currently this method simply cycles through all loaders.
-		// When it finds one which does not give an exception on loading, it
-		// returns the data from this loader.
-		while (it.hasNext()) {
-			final Class<? extends IFileLoader> clazz = it.next();
-			final IFileLoader loader = getLoader(clazz, path);
-			if (!IMetaLoader.class.isInstance(loader)) continue;
-
-			try {
-				// NOTE Assumes loader fails quickly and nicely
-				// if given the wrong file. If a loader does not
-				// do this, it should not be registered with LoaderFactory
-				((IMetaLoader) loader).loadMetadata(mon);
-				IMetadata meta = ((IMetaLoader) loader).getMetadata();
-				recordSoftReference(key, meta);
-				return meta;
-			} catch (Throwable ne) {
-				//logger.trace("Cannot load nexus meta data", ne);
-				logger.trace("Loader {} caused {}", loader, ne);
-				continue;
+		final Callable<IMetadata> load = new Callable<IMetadata>() {
+			@Override
+			public IMetadata call() throws Exception {
+				// Loaders are tried in order of how well the start of the file matches
+				// their signatures. When it finds one which does not give an exception
+				// on loading, it returns the data from this loader.
+				for (IFileLoader loader : getLoaders(path, it)) {
+					if (!IMetaLoader.class.isInstance(loader)) continue;
+
+					try {
+						// NOTE Assumes loader fails quickly and nicely
+						// if given the wrong file. If a loader does not
+						// do this, it should not be registered with LoaderFactory
+						((IMetaLoader) loader).loadMetadata(mon);
+						IMetadata meta = ((IMetaLoader) loader).getMetadata();
+						recordLoaded(path, loader.getClass());
+						if (!recordCachedMetadata(key, meta)) logger.debug("Loader factory did not cache metadata of {}", path);
+						return meta;
+					} catch (Throwable ne) {
+						//logger.trace("Cannot load nexus meta data", ne);
+						logger.trace("Loader {} caused {}", loader, ne);
+						continue;
+					}
+				}
+				return null;
 			}
-		}
+		};
 
-		return null;
+		return loadCachedMetadata(key, load);
 	}
 
 	/**
@@ -898,6 +1026,94 @@ public class LoaderFactory {
 		return it;
 	}
 
+	private static final int MAX_CHOICES = 256;
+
+	/**
+	 * Most recent choices of loaders made by factory, keyed by file path
+	 */
+	private static final Map<String, String> CHOICES = Collections.synchronizedMap(new LinkedHashMap<String, String>(MAX_CHOICES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_CHOICES;
+		}
+	});
+
+	/**
+	 * Find out which loaders the factory tried for a file and why. This lists the loaders in the order
+	 * they were tried with the outcome of their signature checks, followed by the loader which loaded the file
+	 * @param path
+	 * @return description of choice or null if file has not been loaded recently
+	 */
+	public static String getLoaderChoice(final String path) {
+		return CHOICES.get(path);
+	}
+
+	private static void recordLoaded(final String path, final Class<? extends IFileLoader> clazz) {
+		String choice = CHOICES.get(path);
+		CHOICES.put(path, (choice == null ? "" : choice + "; ") + "loaded by " + clazz.getSimpleName());
+	}
+
+	/**
+	 * Create loaders for a file and order them by checking the start of the file against their
+	 * signatures: loaders which match come first, then those which cannot tell in order of
+	 * registration. Loaders which do not match are only kept as a last resort.
+	 * @param path
+	 * @param it iterator over loader classes
+	 * @return ordered list of loaders
+	 * @throws Exception
+	 */
+	private static List<IFileLoader> getLoaders(final String path, final Iterator<Class<? extends IFileLoader>> it) throws Exception {
+		final List<IFileLoader> loaders = new ArrayList<IFileLoader>();
+		while (it.hasNext()) {
+			final IFileLoader loader = getLoader(it.next(), path);
+			if (loader != null) loaders.add(loader);
+		}
+		if (loaders.size() < 2) { // nothing to choose between
+			return loaders;
+		}
+
+		final byte[] header = new byte[IFileSignature.HEADER_LENGTH];
+		int length = 0;
+		final InputStream in = new FileInputStream(path);
+		try {
+			int n;
+			while (length < header.length && (n = in.read(header, length, header.length - length)) >= 0) {
+				length += n;
+			}
+		} finally {
+			in.close();
+		}
+
+		final Map<Match, List<IFileLoader>> matches = new EnumMap<Match, List<IFileLoader>>(Match.class);
+		for (Match m : Match.values()) {
+			matches.put(m, new ArrayList<IFileLoader>());
+		}
+		final StringBuilder choice = new StringBuilder();
+		for (IFileLoader loader : loaders) {
+			Match m = Match.MAYBE;
+			if (loader instanceof IFileSignature) {
+				try {
+					m = ((IFileSignature) loader).checkSignature(header, length);
+				} catch (Exception e) {
+					logger.trace("Signature check of {} caused {}", loader, e);
+				}
+			}
+			matches.get(m).add(loader);
+			if (choice.length() > 0) choice.append(", ");
+			choice.append(loader.getClass().getSimpleName()).append(" signature ").append(m);
+		}
+
+		loaders.clear();
+		for (Match m : Match.values()) { // enum is in order of preference
+			loaders.addAll(matches.get(m));
+		}
+		logger.debug("Loaders for {}: {}", path, choice);
+		CHOICES.put(path, choice.toString());
+		return loaders;
+	}
+
 	public static void registerUnzip(final String extension, final Class<? extends InputStream> input) {
 		UNZIPPERS.put(extension, input);
 	}
@@ -938,6 +1154,8 @@ public class LoaderFactory {
 	 * 
 	 * NOTE that duplicates are allowed and the LoaderFactory simply tries loaders until
 	 * one works. If loaders do not fail fast on invalid files then this approach does not work.
+	 * Loaders which implement {@link IFileSignature} are tried first if they match the start of
+	 * the file and last if they do not.
 	 * 
 	 * This has been tested by adding a test for each file type using the loader factory. This
 	 * coverage could be extended by adding more example files and attempting to load them
@@ -964,6 +1182,8 @@ public class LoaderFactory {
 	 * 
 	 * NOTE that duplicates are allowed and the LoaderFactory simply tries loaders until
 	 * one works. If loaders do not fail fast on invalid files then this approach does not work.
+	 * Loaders which implement {@link IFileSignature} are tried first if they match the start of
+	 * the file and last if they do not.
 	 * 
 	 * This has been tested by adding a test for each file type using the loader factory. This
 	 * coverage could be extended by adding more example files and attempting to load them
@@ -10,6 +10,7 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -119,7 +120,31 @@ public class MAR345Loader extends AbstractFileLoader implements Serializable {
 		}
 
 		readHeader(bi);
+		checkFormat();
 
+		int high = -1;
+		Serializable o = headers.get(BinaryKey.B_HIGH.toString());
+		if (o instanceof Integer) {
+			high = (Integer) o;
+		}
+
+		int[] highs = high > 0 ? readHighValues(high, bi) : null;
+
+		createMetadata();
+		return highs;
+	}
+
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		readHeader(new BufferedInputStream(new ByteArrayInputStream(readHeaderBytes())));
+		checkFormat();
+		createMetadata();
+		int size = getKeyAsInt(TextKey.FORMAT);
+		metadata.addDataInfo(DEF_IMAGE_NAME, size, size);
+		return true;
+	}
+
+	private void checkFormat() throws ScanFileHolderException {
 		Serializable o;
 
 		o = headers.get(BinaryKey.B_FORMAT.toString());
@@ -141,15 +166,9 @@ public class MAR345Loader extends AbstractFileLoader implements Serializable {
 			logger.error("Spiral and uncompressed images are not supported");
 			throw new ScanFileHolderException("Spiral and uncompressed images are not supported");
 		}
+	}
 
-		int high = -1;
-		o = headers.get(BinaryKey.B_HIGH.toString());
-		if (o instanceof Integer) {
-			high = (Integer) o;
-		}
-
-		int[] highs = high > 0 ? readHighValues(high, bi) : null;
-
+	private void createMetadata() {
 		DetectorProperties detprop = new DetectorProperties(getKeyAsDouble(TextKey.DISTANCE),
 				0, 0,
 				getKeyAsInt(TextKey.FORMAT), getKeyAsInt(TextKey.FORMAT),
@@ -163,7 +182,6 @@ public class MAR345Loader extends AbstractFileLoader implements Serializable {
 
 		metadata = new DiffractionMetadata(fileName, detprop, env);
 		metadata.setMetadata(headers);
-		return highs;
 	}
 
 	enum BinaryKey {
@@ -668,4 +686,8 @@ public class MAR345Loader extends AbstractFileLoader implements Serializable {
 		}
 	}
 
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.contains(header, length, FIRST_HEADER) ? Match.YES : Match.NO;
+	}
 }
@@ -10,6 +10,7 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -102,6 +103,15 @@ public class MRCImageStackLoader extends AbstractFileLoader implements Serializa
 		return result;
 	}
 
+	/**
+	 * Read metadata from the fixed size header
+	 */
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		readMetadata(new BufferedInputStream(new ByteArrayInputStream(readHeaderBytes())));
+		return true;
+	}
+
 	@Override
 	public IMetadata getMetadata() {
 		return metadata;
@@ -9,237 +9,612 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.api.metadata.Metadata;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.AbstractDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Loader for Merlin (Medipix) files. These hold a sequence of frames where each frame has an ASCII
+ * header of comma-separated values followed by big-endian pixel data.
+ * <p>
+ * The frames are all the same size so are indexed from the first header. When loading lazily, slices
+ * are read directly from the memory-mapped file and the frame headers are only parsed when their
+ * values are first used.
+ */
 public class MerlinLoader extends AbstractFileLoader {
+	private static final Logger logger = LoggerFactory.getLogger(MerlinLoader.class);
 
 	private static final String DATA_NAME = "MerlinData";
+	private static final String U08 = "U08";
 	private static final String U16 = "U16";
-//	private static final String U32 = "U32";
-	
+	private static final String U32 = "U32";
+
+	private static final String[] FRAME_NAMES = { "acquisitionSequenceNumber", "dataOffset", "numberOfChips",
+		"pixelDimensionX", "pixelDimensionY", "pixelDepth", "sensorLayout", "chipSelect", "timeStamp",
+		"acquisitionShutterTime", "counter", "colourMode", "gainMode", "threshold", "dacs", "padding",
+		"o1", "o2", "o3", "o4", "o5" };
+
+	private static final String[] CHIP_NAMES = { "DACFormat", "Threshold0", "Threshold1", "Threshold2",
+		"Threshold3", "Threshold4", "Threshold5", "Threshold6", "Threshold7", "Preamp", "Ikrum", "Shaper",
+		"Disc", "DiskLS", "ShaperTest", "DACDiskL", "DACTest", "DACDISKH", "Delay", "TPBuffIn", "TPBuffOut",
+		"RPZ", "GND", "TPRef", "FBK", "Cas", "TPrefA", "TPrefB" };
+
+	private static final int FIRST_LENGTH = 64; // enough to reach the pixel depth
+
 	public MerlinLoader(String fileName) {
 		this.fileName = fileName;
 	}
-	
+
 	@Override
 	protected void clearMetadata() {
+		metadata = null;
 	}
 
-	private class MetaListHolder {
-		
-		private ArrayList<Object> dataList = new ArrayList<Object>();
-		private String name = "Undefined";
-		
-		public MetaListHolder(String metaName) {
-			name = metaName;
+	@Override
+	public DataHolder loadFile() throws ScanFileHolderException {
+		final DataHolder output = new DataHolder();
+
+		final MerlinFrames frames;
+		try {
+			frames = new MerlinFrames(fileName);
+		} catch (Exception e) {
+			throw new ScanFileHolderException("File failed to load " + fileName, e);
 		}
 
-		public void addValue(Object value) {
-			dataList.add(value);
+		ILazyDataset ds;
+		int[] shape = frames.getShape();
+		if (loadLazily) {
+			ds = new LazyDataset(DATA_NAME, Dataset.INT32, shape, new MerlinLazyLoader(frames));
+		} else {
+			try {
+				ds = frames.read(new int[3], shape, new int[] {1, 1, 1});
+			} catch (Exception e) {
+				throw new ScanFileHolderException("File failed to load " + fileName, e);
+			}
 		}
-		
-		public void addToDataHolder(DataHolder holder) {
-			if (dataList.get(0) instanceof Number) {
-				Dataset data = DatasetFactory.createFromList(dataList);
-				holder.addDataset(name, data);
+		output.addDataset(DATA_NAME, ds.squeezeEnds());
+
+		final MerlinHeaders headers = new MerlinHeaders(frames);
+		for (int i = 0; i < headers.names.length; i++) {
+			if (!headers.isNumeric(i)) {
+				continue;
+			}
+			if (loadLazily) {
+				output.addDataset(headers.names[i], new LazyDataset(headers.names[i], headers.getDtype(i),
+						new int[] {frames.number}, new MerlinHeaderLoader(headers, i)));
+			} else {
+				try {
+					output.addDataset(headers.names[i], headers.getDataset(i));
+				} catch (IOException e) {
+					throw new ScanFileHolderException("Could not read frame headers of " + fileName, e);
+				}
 			}
 		}
-		
+
+		if (loadMetadata) {
+			createMetadata(frames, headers);
+			output.setMetadata(metadata);
+		}
+		return output;
 	}
-	
-	
+
+	/**
+	 * Read metadata from the first frame header. Only that header and the start of the last
+	 * frame are read
+	 */
 	@Override
-	public DataHolder loadFile() throws ScanFileHolderException {
-		IntegerDataset data = null;
-		final DataHolder output = new DataHolder();
-		File f = null;
-		FileInputStream fi = null;
-		BufferedReader br = null;
-		ArrayList<Dataset> dataList = new ArrayList<Dataset>();
-		
-		ArrayList<MetaListHolder> metaHolder = new ArrayList<MetaListHolder>();
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		MerlinFrames frames = new MerlinFrames(fileName);
+		if (frames.headerLength > getHeaderLimit()) {
+			return false;
+		}
+		createMetadata(frames, new MerlinHeaders(frames));
+		return true;
+	}
+
+	/**
+	 * Create metadata from fields of first frame header
+	 */
+	private void createMetadata(MerlinFrames frames, MerlinHeaders headers) {
+		Map<String, Serializable> map = new LinkedHashMap<String, Serializable>();
+		for (int i = 0; i < headers.names.length; i++) {
+			map.put(headers.names[i], i + 1 < frames.firstHeader.length ? frames.firstHeader[i + 1].trim() : "");
+		}
+		metadata = new Metadata(map);
+		metadata.setFilePath(fileName);
+		metadata.addDataInfo(DATA_NAME, AbstractDataset.squeezeShape(frames.getShape(), true));
+		for (int i = 0; i < headers.names.length; i++) {
+			if (headers.isNumeric(i)) {
+				metadata.addDataInfo(headers.names[i], frames.number);
+			}
+		}
+	}
+
+	/**
+	 * Layout of frames in file with memory-mapped access to their pixels
+	 */
+	private static class MerlinFrames implements Serializable {
+		private static final long serialVersionUID = 5924783066290226415L;
+
+		// map this much of the file at a time
+		private static final long MAP_LIMIT = 1L << 30;
+
+		final String fileName;
+		final int headerLength;
 		final int x, y;
-		try {
-			
-			
-			f = new File(fileName);
-			fi = new FileInputStream(f);
-			char[] cbuf = new char[54];
-			
-			
-			br = new BufferedReader(new FileReader(f));
-			
-			br.read(cbuf);
-			
-			String[] head = new String(cbuf).split(",");
-			head.toString();
-			
-			if (!head[0].equals("MQ1")) {
-				throw new ScanFileHolderException("Merlin File should start with MQ1!");
-			}
-			
-			final int imageStart = Integer.parseInt(head[2]);
-			String numberOfChips = head[3];
-			x = Integer.parseInt(head[4]);
-			y = Integer.parseInt(head[5]);
-			String depth = head[6];
-			
-			// build the arrays to hold the data			
-			metaHolder.add(new MetaListHolder("acquisitionSequenceNumber"));
-			metaHolder.add(new MetaListHolder("dataOffset"));
-			metaHolder.add(new MetaListHolder("numberOfChips"));
-			metaHolder.add(new MetaListHolder("pixelDimensionX"));
-			metaHolder.add(new MetaListHolder("pixelDimensionY"));
-			metaHolder.add(new MetaListHolder("pixelDepth"));
-			metaHolder.add(new MetaListHolder("sensorLayout"));
-			metaHolder.add(new MetaListHolder("chipSelect"));
-			metaHolder.add(new MetaListHolder("timeStamp"));
-			metaHolder.add(new MetaListHolder("acquisitionShutterTime"));
-			metaHolder.add(new MetaListHolder("counter"));
-			metaHolder.add(new MetaListHolder("colourMode"));
-			metaHolder.add(new MetaListHolder("gainMode"));
-			metaHolder.add(new MetaListHolder("threshold"));
-			metaHolder.add(new MetaListHolder("dacs"));
-			metaHolder.add(new MetaListHolder("padding"));
-			metaHolder.add(new MetaListHolder("o1"));
-			metaHolder.add(new MetaListHolder("o2"));
-			metaHolder.add(new MetaListHolder("o3"));
-			metaHolder.add(new MetaListHolder("o4"));
-			metaHolder.add(new MetaListHolder("o5"));
-			
-			for(int i = 0; i < Integer.parseInt(numberOfChips); i++) {
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_DACFormat", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold0", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold1", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold2", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold3", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold4", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold5", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold6", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Threshold7", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Preamp", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Ikrum", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Shaper", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Disc", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_DiskLS", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_ShaperTest", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_DACDiskL", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_DACTest", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_DACDISKH", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Delay", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_TPBuffIn", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_TPBuffOut", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_RPZ", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_GND", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_TPRef", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_FBK", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_Cas", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_TPrefA", i)));
-				metaHolder.add(new MetaListHolder(String.format("Chip%02d_TPrefB", i)));
-			}
-
-			char[] cbufRemainder = new char[imageStart-54];
-			
-			
-			int imageReadStart = imageStart;
-			long skip = x*y*2;
-			while (br.read(cbufRemainder) > 0) {
-			
-				String fullHeader = new String(cbuf) + new String(cbufRemainder);
-				cbuf = new char[0];
-				head = fullHeader.split(",");
-				
-				for(int i = 0; i < metaHolder.size(); i++) {
-					Object value = head[i+1];
+		final int pixelBytes;
+		final long frameLength;
+		final int number;
+		final String[] firstHeader;
+		private transient ByteBuffer[] maps;
+		private transient boolean mapTried;
+
+		MerlinFrames(String fileName) throws IOException, ScanFileHolderException {
+			this.fileName = fileName;
+
+			FileInputStream fi = new FileInputStream(fileName);
+			try {
+				FileChannel fc = fi.getChannel();
+				long size = fc.size();
+				String[] head = new String(readFully(fc, 0, (int) Math.min(FIRST_LENGTH, size)), StandardCharsets.US_ASCII).split(",");
+				if (head.length < 7 || !head[0].equals("MQ1")) {
+					throw new ScanFileHolderException("Merlin File should start with MQ1!");
+				}
+
+				headerLength = Integer.parseInt(head[2].trim());
+				x = Integer.parseInt(head[4].trim());
+				y = Integer.parseInt(head[5].trim());
+				String depth = head[6].trim();
+				if (depth.equals(U16)) {
+					pixelBytes = 2;
+				} else if (depth.equals(U32)) {
+					pixelBytes = 4;
+				} else if (depth.equals(U08)) {
+					pixelBytes = 1;
+				} else {
+					throw new ScanFileHolderException("Merlin pixel depth " + depth + " is not supported");
+				}
+				frameLength = headerLength + (long) x * y * pixelBytes;
+				if (size < frameLength) {
+					throw new ScanFileHolderException("Merlin file is shorter than its first frame");
+				}
+				if (size % frameLength != 0) {
+					logger.warn("Ignoring incomplete frame at end of {}", fileName);
+				}
+				if (size / frameLength > Integer.MAX_VALUE) {
+					throw new ScanFileHolderException("Merlin file has too many frames");
+				}
+				number = (int) (size / frameLength);
+
+				firstHeader = new String(readFully(fc, 0, headerLength), StandardCharsets.US_ASCII).split(",");
+				byte[] last = readFully(fc, (number - 1) * frameLength, 4);
+				if (!new String(last, StandardCharsets.US_ASCII).equals("MQ1,")) {
+					throw new ScanFileHolderException("Merlin frames are not all the same size");
+				}
+			} finally {
+				fi.close();
+			}
+		}
+
+		int[] getShape() {
+			return new int[] {number, x, y};
+		}
+
+		long getOffset(int frame) {
+			return frame * frameLength;
+		}
+
+		/**
+		 * @return maps of file, each holding whole frames, or null if file cannot be mapped
+		 */
+		private synchronized ByteBuffer[] getMaps() {
+			if (!mapTried) {
+				mapTried = true;
+				// mapped files cannot be deleted on Windows, see bug 4715154
+				if (!System.getProperty("os.name").contains("Windows") && frameLength <= MAP_LIMIT) {
+					int perMap = (int) Math.max(1, Math.min(number, MAP_LIMIT / frameLength));
+					FileInputStream fi = null;
 					try {
-						value = Integer.parseInt(head[i+1]);
-					} catch (Exception e) {
-						// TODO: handle exception
+						fi = new FileInputStream(fileName);
+						FileChannel fc = fi.getChannel();
+						ByteBuffer[] all = new ByteBuffer[(number + perMap - 1) / perMap];
+						for (int i = 0; i < all.length; i++) {
+							int n = Math.min(perMap, number - i * perMap);
+							all[i] = fc.map(MapMode.READ_ONLY, getOffset(i * perMap), n * frameLength);
+						}
+						maps = all;
+					} catch (IOException e) {
+						logger.warn("Could not map {} so reading directly", fileName, e);
+					} finally {
+						if (fi != null) {
+							try {
+								fi.close();
+							} catch (IOException e) {
+								logger.error("Exception when closing file", e);
+							}
+						}
 					}
-					try {
-						value = Double.parseDouble(head[i+1]);
-					} catch (Exception e) {
-						// TODO: handle exception
+				}
+			}
+			return maps;
+		}
+
+		/**
+		 * @param maps
+		 * @param fc channel to read from when not mapped
+		 * @param frame
+		 * @return buffer which starts at frame's pixels
+		 * @throws IOException
+		 */
+		private ByteBuffer getPixels(ByteBuffer[] maps, FileChannel fc, int frame) throws IOException {
+			int pixels = x * y * pixelBytes;
+			if (maps == null) {
+				return ByteBuffer.wrap(readFully(fc, getOffset(frame) + headerLength, pixels));
+			}
+
+			int perMap = (int) (maps[0].capacity() / frameLength);
+			ByteBuffer b = maps[frame / perMap].duplicate();
+			int pos = (int) ((frame % perMap) * frameLength) + headerLength;
+			b.limit(pos + pixels);
+			b.position(pos);
+			return b.slice();
+		}
+
+		/**
+		 * Read slice of frames
+		 * @param start
+		 * @param count
+		 * @param step
+		 * @return dataset
+		 * @throws IOException
+		 * @throws ScanFileHolderException
+		 */
+		IntegerDataset read(int[] start, int[] count, int[] step) throws IOException, ScanFileHolderException {
+			long size = (long) count[0] * count[1] * count[2];
+			if (size > Integer.MAX_VALUE) {
+				throw new ScanFileHolderException("Slice is too large to load - load lazily instead");
+			}
+			IntegerDataset data = new IntegerDataset(count[0], count[1], count[2]);
+			if (size == 0) {
+				return data;
+			}
+			final int[] idata = data.getData();
+
+			ByteBuffer[] maps = getMaps();
+			FileInputStream fi = null;
+			FileChannel fc = null;
+			if (maps == null) {
+				fi = new FileInputStream(fileName);
+				fc = fi.getChannel();
+			}
+
+			try {
+				// copy whole frames or runs along rows, reading the range each run covers in ascending order
+				final boolean whole = step[1] == 1 && step[2] == 1 && count[2] == y;
+				final int run = whole ? count[1] * y : count[2];
+				final int rows = whole ? 1 : count[1];
+				final int first = step[2] > 0 ? start[2] : start[2] + (run - 1) * step[2]; // lowest column in run
+				final int skip = start[2] - first; // position of first item in span
+				final int span = (run - 1) * Math.abs(step[2]) + 1;
+				final short[] sbuf = pixelBytes == 2 ? new short[span] : null;
+				final int[] ibuf = pixelBytes == 4 && step[2] != 1 ? new int[span] : null;
+				final byte[] bbuf = pixelBytes == 1 ? new byte[span] : null;
+
+				int dst = 0;
+				for (int f = 0; f < count[0]; f++) {
+					ByteBuffer pixels = getPixels(maps, fc, start[0] + f * step[0]);
+					for (int r = 0; r < rows; r++) {
+						int src = (start[1] + r * step[1]) * y + first;
+						pixels.position(src * pixelBytes);
+						ByteBuffer b = pixels.slice(); // big-endian by default
+						switch (pixelBytes) {
+						case 1:
+							b.get(bbuf, 0, span);
+							for (int k = 0; k < run; k++) {
+								idata[dst++] = bbuf[skip + k * step[2]] & 0xff;
+							}
+							break;
+						case 2:
+							ShortBuffer s = b.asShortBuffer();
+							s.get(sbuf, 0, span);
+							for (int k = 0; k < run; k++) {
+								idata[dst++] = sbuf[skip + k * step[2]] & 0xffff;
+							}
+							break;
+						case 4:
+							IntBuffer i = b.asIntBuffer();
+							if (ibuf == null) {
+								i.get(idata, dst, run);
+								dst += run;
+							} else {
+								i.get(ibuf, 0, span);
+								for (int k = 0; k < run; k++) {
+									idata[dst++] = ibuf[skip + k * step[2]];
+								}
+							}
+							break;
+						}
 					}
-					metaHolder.get(i).addValue(value);
 				}
-				
-				br.skip(skip);
-				if (loadLazily) {
-					dataList.add(null);
-				} else {
-					// reset the cbuffer to the full size
-					cbufRemainder = new char[imageStart];
-					
-					data = new IntegerDataset(new int[]{x, y});
-		
-					if (depth.contains(U16)) {
-						Utils.readBeShort(fi, data, imageReadStart,false);
-					} else {
-						Utils.readBeInt(fi, data, imageReadStart);
-					}			
-					
-	//				Number max = data.max(false);
-	//				Number min = data.min(false);
-					
-					//imageReadStart += Integer.parseInt(imageX)*Integer.parseInt(imageY)*2 + Integer.parseInt(imageStart) + 100000;
-					
-					dataList.add(new IntegerDataset(data));
+			} finally {
+				if (fi != null) {
+					fi.close();
 				}
 			}
-			
-		} catch (Exception e) {
-			throw new ScanFileHolderException("File failed to load " + fileName, e);
-		} finally {
-			if (br != null) {
-				try {
-					br.close();
-				} catch (IOException e) {
-					// do nothing
+			return data;
+		}
+	}
+
+	private static byte[] readFully(FileChannel fc, long position, int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		long p = position;
+		while (b.hasRemaining()) {
+			int n = fc.read(b, p);
+			if (n < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+			p += n;
+		}
+		return b.array();
+	}
+
+	/**
+	 * Reads hyperslabs of pixels directly from a Merlin file
+	 */
+	private static class MerlinLazyLoader implements ILazyLoader {
+		private static final long serialVersionUID = -8286342218325437040L;
+
+		private final MerlinFrames frames;
+
+		MerlinLazyLoader(MerlinFrames frames) {
+			this.frames = frames;
+		}
+
+		@Override
+		public boolean isFileReadable() {
+			return new File(frames.fileName).canRead();
+		}
+
+		@Override
+		public IDataset getDataset(IMonitor mon, SliceND slice) throws Exception {
+			int[] lstart = slice.getStart();
+			int[] lstep  = slice.getStep();
+			int[] newShape = slice.getShape();
+			int[] shape = slice.getSourceShape();
+			int[] trueShape = frames.getShape();
+
+			if (Arrays.equals(trueShape, shape)) {
+				return frames.read(lstart, newShape, lstep);
+			}
+
+			// shape was squeezed or extended by units so translate to true slice
+			int[] tstart = new int[3];
+			int[] tcount = new int[3];
+			int[] tstep = new int[3];
+			int j = 0;
+			for (int i = 0; i < 3; i++) {
+				tcount[i] = 1;
+				tstep[i] = 1;
+				if (trueShape[i] == 1) {
+					continue;
 				}
+				while (shape[j] == 1) {
+					j++;
+				}
+				tstart[i] = lstart[j];
+				tcount[i] = newShape[j];
+				tstep[i] = lstep[j];
+				j++;
 			}
-			if (fi != null) {
-				try {
-					fi.close();
-				} catch (IOException ex) {
-					// do nothing
+			Dataset d = frames.read(tstart, tcount, tstep);
+			d.setShape(newShape);
+			return d;
+		}
+	}
+
+	/**
+	 * Values from frame headers, parsed on first use
+	 */
+	private static class MerlinHeaders implements Serializable {
+		private static final long serialVersionUID = -2046307914779646287L;
+
+		private final MerlinFrames frames;
+		final String[] names;
+		private final boolean[] numeric;
+		private final boolean[] integer;
+		private transient double[][] values;
+
+		MerlinHeaders(MerlinFrames frames) {
+			this.frames = frames;
+
+			List<String> n = new ArrayList<String>();
+			n.addAll(Arrays.asList(FRAME_NAMES));
+			int chips = Integer.parseInt(frames.firstHeader[3].trim());
+			for (int i = 0; i < chips; i++) {
+				for (String c : CHIP_NAMES) {
+					n.add(String.format("Chip%02d_%s", i, c));
 				}
-				fi = null;
+			}
+			names = n.toArray(new String[n.size()]);
+
+			// field types are set by first frame
+			numeric = new boolean[names.length];
+			integer = new boolean[names.length];
+			for (int i = 0; i < names.length; i++) {
+				numeric[i] = !Double.isNaN(parse(frames.firstHeader, i + 1));
+				integer[i] = numeric[i] && isInteger(frames.firstHeader[i + 1].trim());
 			}
 		}
 
-		ILazyDataset ds;
-		int[] shape = new int[] {dataList.size(), x, y};
-		if (loadLazily) {
-			ds = createLazyDataset(DATA_NAME, Dataset.INT32, shape, new MerlinLoader(fileName));
-		} else {
-			ds = new IntegerDataset(shape);
+		private static boolean isInteger(String field) {
+			try {
+				Integer.parseInt(field);
+				return true;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+
+		boolean isNumeric(int field) {
+			return numeric[field];
+		}
+
+		/**
+		 * @param field
+		 * @return dataset type of field
+		 */
+		int getDtype(int field) {
+			return integer[field] ? Dataset.INT32 : Dataset.FLOAT64;
+		}
+
+		/**
+		 * @param field
+		 * @return values of field for all frames
+		 * @throws IOException
+		 */
+		Dataset getDataset(int field) throws IOException {
+			Dataset d = new DoubleDataset(getValues()[field], frames.number);
+			return integer[field] ? DatasetUtils.cast(d, Dataset.INT32) : d;
+		}
+
+		/**
+		 * @return values of fields for all frames (non-numeric fields are null)
+		 * @throws IOException
+		 */
+		synchronized double[][] getValues() throws IOException {
+			if (values != null) {
+				return values;
+			}
 
-			int[] start = new int[3];
-			int[] stop  = shape.clone();
-			int[] step  = new int[] {1,1,1};
-			for(int i = 0; i < shape[0]; i++) {
-				start[0] = i;
-				stop[0] = i + 1;
-				((Dataset) ds).setSlice(dataList.get(i), start, stop, step);
+			double[][] v = new double[names.length][];
+			for (int i = 0; i < names.length; i++) {
+				if (numeric[i]) {
+					v[i] = new double[frames.number];
+				}
 			}
+
+			FileInputStream fi = new FileInputStream(frames.fileName);
+			try {
+				FileChannel fc = fi.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(frames.headerLength);
+				byte[] bytes = header.array();
+				int[] commas = new int[names.length + 2];
+				for (int f = 0; f < frames.number; f++) {
+					header.clear();
+					long p = frames.getOffset(f);
+					while (header.hasRemaining()) {
+						int n = fc.read(header, p);
+						if (n < 0) {
+							throw new IOException("Unexpected end of file " + frames.fileName);
+						}
+						p += n;
+					}
+
+					// find fields without splitting whole header
+					int nc = 0;
+					for (int k = 0; k < bytes.length && nc < commas.length; k++) {
+						if (bytes[k] == ',') {
+							commas[nc++] = k;
+						}
+					}
+					for (int i = 0; i < names.length; i++) {
+						if (v[i] == null) {
+							continue;
+						}
+						if (i >= nc) {
+							v[i][f] = Double.NaN;
+							continue;
+						}
+						int end = i + 1 < nc ? commas[i + 1] : bytes.length;
+						v[i][f] = parse(new String(bytes, commas[i] + 1, end - commas[i] - 1, StandardCharsets.US_ASCII));
+					}
+				}
+			} finally {
+				fi.close();
+			}
+			values = v;
+			return values;
 		}
-		output.addDataset(DATA_NAME, ds.squeezeEnds());
-		for(int i = 0; i < metaHolder.size(); i++) {
-			metaHolder.get(i).addToDataHolder(output);
+
+		private static double parse(String[] fields, int i) {
+			return i < fields.length ? parse(fields[i]) : Double.NaN;
 		}
 
-		return output;
+		private static double parse(String field) {
+			String t = field.trim();
+			if (t.isEmpty()) {
+				return Double.NaN;
+			}
+			char c = t.charAt(0);
+			if (!Character.isDigit(c) && c != '-' && c != '+' && c != '.') {
+				return Double.NaN;
+			}
+			try {
+				return Double.parseDouble(t);
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+	}
+
+	/**
+	 * Reads a value from all frame headers
+	 */
+	private static class MerlinHeaderLoader implements ILazyLoader {
+		private static final long serialVersionUID = 3155468398563716592L;
+
+		private final MerlinHeaders headers;
+		private final int field;
+
+		MerlinHeaderLoader(MerlinHeaders headers, int field) {
+			this.headers = headers;
+			this.field = field;
+		}
+
+		@Override
+		public boolean isFileReadable() {
+			return new File(headers.frames.fileName).canRead();
+		}
+
+		@Override
+		public IDataset getDataset(IMonitor mon, SliceND slice) throws Exception {
+			Dataset all = headers.getDataset(field);
+			Dataset d = all.getSlice(slice.getStart(), slice.getStop(), slice.getStep());
+			d.setShape(slice.getShape());
+			return d;
+		}
+	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.startsWith(header, length, "MQ1,") ? Match.YES : Match.NO;
 	}
 }
@@ -12,18 +12,25 @@ package uk.ac.diamond.scisoft.analysis.io;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.util.ArrayList;
+import java.util.Arrays;
 
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
 import org.eclipse.dawnsci.analysis.api.metadata.Metadata;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -32,10 +39,15 @@ import uk.ac.diamond.scisoft.analysis.io.NumPyFile.DataTypeInfo;
 /**
  * Reads files in npy format as defined here; http://svn.scipy.org/svn/numpy/trunk/doc/neps/npy-format.txt
  */
-public class NumPyFileLoader extends AbstractFileLoader {
+public class NumPyFileLoader extends AbstractFileLoader implements IStreamLoader {
 	private static final String NUMPY_NAME = "NumPy file";
 	private static final Logger logger = LoggerFactory.getLogger(NumPyFileLoader.class);
 
+	/**
+	 * Magic, version, header length and maximum length of header
+	 */
+	private static final int MAX_HEADER_LENGTH = 10 + 65535;
+
 	public NumPyFileLoader() {
 	}
 
@@ -58,6 +70,12 @@ public class NumPyFileLoader extends AbstractFileLoader {
 		try {
 
 			f = new File(fileName);
+			if (loadLazily) {
+				output.addDataset(NUMPY_NAME, createLazyDataset(f));
+				if (loadMetadata)
+					output.setMetadata(metadata);
+				return output;
+			}
 			fi = new FileInputStream(f);
 
 			ByteBuffer fBuffer;
@@ -87,7 +105,7 @@ public class NumPyFileLoader extends AbstractFileLoader {
 				fBuffer = fc.map(MapMode.READ_ONLY, 0, fc.size());
 			}
 
-			ILazyDataset data = loadDataset(f, fBuffer);
+			Dataset data = loadDataset(f, fBuffer);
 
 			if (fc != null)
 				fc.close();
@@ -111,7 +129,20 @@ public class NumPyFileLoader extends AbstractFileLoader {
 		return output;
 	}
 
-	protected ILazyDataset loadDataset(File f, ByteBuffer fBuffer) throws ScanFileHolderException {
+	@Override
+	public DataHolder loadFile(InputStream in, IMonitor mon) throws ScanFileHolderException {
+		DataHolder output = new DataHolder();
+		try {
+			output.addDataset(NUMPY_NAME, loadDataset(new File(fileName), ByteBuffer.wrap(Utils.readAll(in))));
+		} catch (IOException e) {
+			throw new ScanFileHolderException("There was a problem reading the NumPy file", e);
+		}
+		if (loadMetadata)
+			output.setMetadata(metadata);
+		return output;
+	}
+
+	protected Dataset loadDataset(File f, ByteBuffer fBuffer) throws ScanFileHolderException {
 		fBuffer.order(ByteOrder.LITTLE_ENDIAN);
 
 		DataTypeInfo dataTypeInfo = getDataInfo(fBuffer);
@@ -124,21 +155,51 @@ public class NumPyFileLoader extends AbstractFileLoader {
 		if (loadMetadata)
 			metadata = createMetadata(f.getAbsolutePath(), dataTypeInfo);
 
-		ILazyDataset data;
-		if (loadLazily) {
-			data = createLazyDataset(NUMPY_NAME, dtype, shape, new NumPyFileLoader(fileName));
-		} else {
-			int tSize = isize;
-			for (int j = 0; j < rank; j++) {
-				tSize *= shape[j];
-			}
-			data = RawBinaryLoader.loadRawDataset(fBuffer, dtype, isize, tSize, shape);
-			if (unsigned)
-				data = DatasetFactory.createFromObject(data, unsigned);
+		int tSize = isize;
+		for (int j = 0; j < rank; j++) {
+			tSize *= shape[j];
 		}
+		Dataset data = RawBinaryLoader.loadRawDataset(fBuffer, dtype, isize, tSize, shape);
+		if (unsigned)
+			data = DatasetFactory.createFromObject(data, unsigned);
 		return data;
 	}
 
+	/**
+	 * Parse header only and create a lazy dataset that reads slices directly from the file
+	 * @param f
+	 * @return lazy dataset
+	 * @throws IOException
+	 * @throws ScanFileHolderException
+	 */
+	private ILazyDataset createLazyDataset(File f) throws IOException, ScanFileHolderException {
+		FileInputStream fi = new FileInputStream(f);
+		try {
+			FileChannel fc = fi.getChannel();
+			ByteBuffer hBuffer = ByteBuffer.allocate((int) Math.min(fc.size(), MAX_HEADER_LENGTH));
+			while (hBuffer.hasRemaining() && fc.read(hBuffer) >= 0) {
+			}
+			hBuffer.flip();
+			hBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+			DataTypeInfo dataTypeInfo = getDataInfo(hBuffer);
+			if (loadMetadata)
+				metadata = createMetadata(f.getAbsolutePath(), dataTypeInfo);
+
+			NumPyLazyLoader l = new NumPyLazyLoader(f.getAbsolutePath(), hBuffer.position(), dataTypeInfo);
+			long size = l.getItemBytes();
+			for (int s : dataTypeInfo.getShape()) {
+				size *= s;
+			}
+			if (hBuffer.position() + size > fc.size()) {
+				throw new ScanFileHolderException("NumPy file is shorter than its header describes");
+			}
+			return new LazyDataset(NUMPY_NAME, dataTypeInfo.dType, dataTypeInfo.getShape(), l);
+		} finally {
+			fi.close();
+		}
+	}
+
 	private static DataTypeInfo getDataInfo(ByteBuffer fBuffer) throws ScanFileHolderException {
 		for (int i = 0; i < NumPyFile.magic.length; i++) {
 			byte b = fBuffer.get();
@@ -192,10 +253,13 @@ public class NumPyFileLoader extends AbstractFileLoader {
 		}
 
 		// Figure out the Data Set type from the description string
-		NumPyFile.DataTypeInfo dataTypeInfo = NumPyFile.dataTypeMap.get(description);
-		if (dataTypeInfo == null) {
+		NumPyFile.DataTypeInfo info = NumPyFile.dataTypeMap.get(description);
+		if (info == null) {
 			throw new ScanFileHolderException("Unknown/unsupported data type description: " + description);
 		}
+		// copy as the shared instances must not hold the shape of any one file
+		DataTypeInfo dataTypeInfo = DataTypeInfo.create().setNumPyType(info.numPyType).setDType(info.dType)
+				.setISize(info.iSize).setUnsigned(info.unsigned);
 		dataTypeInfo.setShape(shape);
 		return dataTypeInfo;
 	}
@@ -217,10 +281,269 @@ public class NumPyFileLoader extends AbstractFileLoader {
 		return dataset;
 	}
 
+	/**
+	 * Load a dataset from bytes in npy format, as produced by {@link NumPyFileSaver#saveToBytes(org.eclipse.dawnsci.analysis.api.dataset.IDataset, boolean)}
+	 * 
+	 * @param bytes
+	 * @return loaded dataset
+	 * @throws ScanFileHolderException
+	 *             if the bytes are not in npy format
+	 */
+	public static Dataset loadFromBytes(byte[] bytes) throws ScanFileHolderException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		DataTypeInfo dataTypeInfo = getDataInfo(buffer);
+		int[] shape = dataTypeInfo.getShape();
+		int tSize = dataTypeInfo.iSize;
+		for (int s : shape) {
+			tSize *= s;
+		}
+		Dataset data = RawBinaryLoader.loadRawDataset(buffer, dataTypeInfo.dType, dataTypeInfo.iSize, tSize, shape);
+		if (dataTypeInfo.unsigned)
+			data = DatasetFactory.createFromObject(data, true);
+		return data;
+	}
+
 	private Metadata createMetadata(String path, DataTypeInfo info) {
 		Metadata md = new Metadata();
 		md.setFilePath(path);
 		md.addDataInfo(path, info.getShape());
 		return md;
 	}
+
+	/**
+	 * Reads hyperslabs of data directly from a NumPy file. The data is memory mapped on first use where possible,
+	 * otherwise only the requested runs of items are read from the file.
+	 */
+	private static class NumPyLazyLoader implements ILazyLoader {
+		private static final long serialVersionUID = -3213738658434734531L;
+
+		private final String fileName;
+		private final long dataOffset;
+		private final int dtype;
+		private final int isize;
+		private final int itemBytes;
+		private final boolean unsigned;
+		private final int[] trueShape;
+		private transient ByteBuffer mapped;
+		private transient boolean mapTried;
+
+		NumPyLazyLoader(String fileName, long dataOffset, DataTypeInfo info) {
+			this.fileName = fileName;
+			this.dataOffset = dataOffset;
+			this.dtype = info.dType;
+			this.isize = info.iSize;
+			this.itemBytes = Integer.parseInt(info.numPyType.substring(2));
+			this.unsigned = info.unsigned;
+			this.trueShape = info.getShape().clone();
+		}
+
+		int getItemBytes() {
+			return itemBytes;
+		}
+
+		@Override
+		public boolean isFileReadable() {
+			return new File(fileName).canRead();
+		}
+
+		@Override
+		public IDataset getDataset(IMonitor mon, SliceND slice) throws Exception {
+			int[] lstart = slice.getStart();
+			int[] lstep  = slice.getStep();
+			int[] newShape = slice.getShape();
+			int[] shape = slice.getSourceShape();
+			final int rank = shape.length;
+
+			Dataset d = null;
+			if (!Arrays.equals(trueShape, shape)) {
+				final int trank = trueShape.length;
+				int[] tstart = new int[trank];
+				int[] tsize = new int[trank];
+				int[] tstep = new int[trank];
+
+				if (rank > trank) { // shape was extended (from left) then need to translate to true slice
+					int j = 0;
+					for (int i = 0; i < trank; i++) {
+						if (trueShape[i] == 1) {
+							tstart[i] = 0;
+							tsize[i] = 1;
+							tstep[i] = 1;
+						} else {
+							while (shape[j] == 1 && (rank - j) > (trank - i))
+								j++;
+
+							tstart[i] = lstart[j];
+							tsize[i] = newShape[j];
+							tstep[i] = lstep[j];
+							j++;
+						}
+					}
+				} else { // shape was squeezed then need to translate to true slice
+					int j = 0;
+					for (int i = 0; i < trank; i++) {
+						if (trueShape[i] == 1) {
+							tstart[i] = 0;
+							tsize[i] = 1;
+							tstep[i] = 1;
+						} else {
+							tstart[i] = lstart[j];
+							tsize[i] = newShape[j];
+							tstep[i] = lstep[j];
+							j++;
+						}
+					}
+				}
+
+				d = loadSlice(tstart, tsize, tstep);
+				d.setShape(newShape); // squeeze shape back
+			} else {
+				d = loadSlice(lstart, newShape, lstep);
+			}
+			return d;
+		}
+
+		/**
+		 * @return buffer of all data or null if it cannot be mapped
+		 */
+		private synchronized ByteBuffer getMappedBuffer() {
+			if (!mapTried) {
+				mapTried = true;
+				// mapped files cannot be deleted on Windows, see bug 4715154
+				if (!System.getProperty("os.name").contains("Windows")) {
+					long size = itemBytes;
+					for (int s : trueShape) {
+						size *= s;
+					}
+					if (size <= Integer.MAX_VALUE) {
+						FileInputStream fi = null;
+						try {
+							fi = new FileInputStream(fileName);
+							mapped = fi.getChannel().map(MapMode.READ_ONLY, dataOffset, size);
+						} catch (IOException e) {
+							logger.warn("Could not map {} so reading directly", fileName, e);
+						} finally {
+							if (fi != null) {
+								try {
+									fi.close();
+								} catch (IOException e) {
+									logger.error("Exception when closing file", e);
+								}
+							}
+						}
+					}
+				}
+			}
+			return mapped;
+		}
+
+		private Dataset loadSlice(int[] start, int[] count, int[] step) throws IOException, ScanFileHolderException {
+			final int rank = trueShape.length;
+			final long[] strides = new long[rank];
+			long stride = 1;
+			for (int i = rank - 1; i >= 0; i--) {
+				strides[i] = stride;
+				stride *= trueShape[i];
+			}
+			long nItems = 1;
+			for (int c : count) {
+				nItems *= c;
+			}
+			if (nItems * itemBytes > Integer.MAX_VALUE) {
+				throw new ScanFileHolderException("Slice is too large to load");
+			}
+
+			final byte[] bytes = new byte[(int) nItems * itemBytes];
+			if (nItems > 0) {
+				ByteBuffer buffer = getMappedBuffer();
+				FileInputStream fi = null;
+				FileChannel fc = null;
+				if (buffer != null) {
+					buffer = buffer.duplicate();
+				} else {
+					fi = new FileInputStream(fileName);
+					fc = fi.getChannel();
+				}
+
+				try {
+					// copy runs along last dimension, reading the range each covers in ascending order
+					final int last = rank - 1;
+					final int run = count[last];
+					final int rstep = step[last];
+					final int first = rstep > 0 ? start[last] : start[last] + (run - 1) * rstep; // lowest item in run
+					final byte[] span = rstep == 1 ? null : new byte[((run - 1) * Math.abs(rstep) + 1) * itemBytes];
+					final int[] pos = new int[rank];
+					int dst = 0;
+					do {
+						long item = first;
+						for (int i = 0; i < last; i++) {
+							item += (start[i] + (long) pos[i] * step[i]) * strides[i];
+						}
+						long offset = item * itemBytes;
+						if (span == null) {
+							read(buffer, fc, offset, bytes, dst, run * itemBytes);
+							dst += run * itemBytes;
+						} else {
+							read(buffer, fc, offset, span, 0, span.length);
+							for (int k = 0; k < run; k++) {
+								System.arraycopy(span, (start[last] + k * rstep - first) * itemBytes, bytes, dst, itemBytes);
+								dst += itemBytes;
+							}
+						}
+					} while (increment(pos, count, last));
+				} finally {
+					if (fi != null) {
+						fi.close();
+					}
+				}
+			}
+
+			ByteBuffer b = ByteBuffer.wrap(bytes);
+			b.order(ByteOrder.LITTLE_ENDIAN);
+			Dataset data = RawBinaryLoader.loadRawDataset(b, dtype, isize, (int) nItems * isize, count.clone());
+			if (unsigned)
+				data = DatasetFactory.createFromObject(data, unsigned);
+			return data;
+		}
+
+		/**
+		 * Increment position in all but last dimension
+		 * @return false when all positions have been visited
+		 */
+		private static boolean increment(int[] pos, int[] count, int last) {
+			for (int i = last - 1; i >= 0; i--) {
+				if (++pos[i] < count[i]) {
+					return true;
+				}
+				pos[i] = 0;
+			}
+			return false;
+		}
+
+		private void read(ByteBuffer buffer, FileChannel fc, long offset, byte[] dst, int dstPos, int length) throws IOException {
+			if (buffer != null) {
+				buffer.position((int) offset);
+				buffer.get(dst, dstPos, length);
+				return;
+			}
+
+			ByteBuffer b = ByteBuffer.wrap(dst, dstPos, length);
+			long p = dataOffset + offset;
+			while (b.hasRemaining()) {
+				int n = fc.read(b, p);
+				if (n < 0) {
+					throw new IOException("Unexpected end of file " + fileName);
+				}
+				p += n;
+			}
+		}
+	}
+
+	private static final byte[] MAGIC = Arrays.copyOf(NumPyFile.magic, 6); // ignore version
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.matchesAt(header, length, 0, MAGIC) ? Match.YES : Match.NO;
+	}
 }
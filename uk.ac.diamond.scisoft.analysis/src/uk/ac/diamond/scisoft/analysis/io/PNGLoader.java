@@ -40,4 +40,9 @@ public class PNGLoader extends JavaImageLoader {
 	public PNGLoader(String FileName, boolean convertToGrey, boolean keepBitWidth) {
 		super(FileName, "png", convertToGrey, keepBitWidth);
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.matchesAt(header, length, 0, new byte[] { (byte) 0x89, 'P', 'N', 'G' }) ? Match.YES : Match.NO;
+	}
 }
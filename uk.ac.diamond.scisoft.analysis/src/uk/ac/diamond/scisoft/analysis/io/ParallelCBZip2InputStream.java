@@ -0,0 +1,437 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An input stream that decompresses from the BZip2 format by decoding its blocks in parallel.
+ * <p>
+ * The compressed stream is held in memory and searched for the markers which start each block.
+ * Blocks are decoded concurrently by {@link CBZip2InputStream} on a shared pool and their contents
+ * are read back in order. Blocks can also be read individually with {@link #readBlock(int)}.
+ * <p>
+ * A block marker can occur by chance within compressed data. Such spurious blocks are skipped when
+ * the whole stream is read as each block must start where the previous one ended. Should a block
+ * fail to decode, the rest of the stream is read with a sequential decoder instead.
+ * <p>
+ * Instances of this class are not threadsafe.
+ */
+public class ParallelCBZip2InputStream extends InputStream {
+	private static final Logger logger = LoggerFactory.getLogger(ParallelCBZip2InputStream.class);
+
+	private static final long BLOCK_MAGIC = 0x314159265359L;
+	private static final long END_MAGIC = 0x177245385090L;
+	private static final long MAGIC_MASK = (1L << 48) - 1;
+
+	private static ExecutorService pool;
+
+	private InputStream source;
+	private final byte[] data;
+	private final int blockSize100k;
+	private final long[] blocks; // bit positions of block markers
+	private long end; // bit position of end of stream marker, -1 if missing
+	private final int readAhead;
+
+	private final Deque<Future<Block>> inFlight = new ArrayDeque<Future<Block>>();
+	private int next = 0; // next block to decode
+	private long expected; // bit position where next block must start
+	private byte[] current = new byte[0];
+	private int pos = 0;
+	private long count = 0; // number of bytes read
+	private int combinedCRC = 0;
+	private boolean finished = false;
+	private InputStream fallback = null;
+	private boolean closed = false;
+
+	/**
+	 * Constructs a new stream which reads all of the compressed stream, including its "BZh"
+	 * header, and decompresses it
+	 * @param in
+	 * @throws IOException
+	 */
+	public ParallelCBZip2InputStream(final InputStream in) throws IOException {
+		this(Utils.readAll(in));
+		source = in;
+	}
+
+	/**
+	 * Constructs a new stream which decompresses given compressed bytes
+	 * @param data
+	 * @throws IOException
+	 */
+	public ParallelCBZip2InputStream(final byte[] data) throws IOException {
+		this(data, 2 * getThreads());
+	}
+
+	/**
+	 * Constructs a new stream which decompresses given compressed bytes
+	 * @param data
+	 * @param readAhead maximum number of blocks to decode ahead of reading
+	 * @throws IOException
+	 */
+	public ParallelCBZip2InputStream(final byte[] data, final int readAhead) throws IOException {
+		this.data = data;
+		this.readAhead = Math.max(1, readAhead);
+
+		int p = 0;
+		// deal with BZ which is sometimes missing
+		if (data.length > 1 && data[0] == 'B' && data[1] == 'Z') {
+			p = 2;
+		}
+		if (data.length < p + 2 || data[p] != 'h') {
+			throw new IOException("Stream is not BZip2 formatted: expected 'h'");
+		}
+		int blockSize = data[p + 1];
+		if (blockSize < '1' || blockSize > '9') {
+			throw new IOException("Stream is not BZip2 formatted: illegal blocksize " + (char) blockSize);
+		}
+		blockSize100k = blockSize - '0';
+		expected = (p + 2) << 3;
+		blocks = findBlocks(p + 2);
+	}
+
+	/**
+	 * Search for block markers which are not aligned to bytes
+	 * @param start byte
+	 * @return bit positions of block markers
+	 */
+	private long[] findBlocks(final int start) {
+		List<Long> found = new ArrayList<Long>();
+		final long first = ((long) start) << 3;
+		end = -1;
+		long w = 0;
+		scan:
+		for (int i = start; i < data.length; i++) {
+			w = (w << 8) | (data[i] & 0xff);
+			if (i - start < 5) {
+				continue;
+			}
+			for (int s = 7; s >= 0; s--) {
+				final long bit = (((long) i) << 3) - 40 - s;
+				if (bit < first) {
+					continue;
+				}
+				final long m = (w >>> s) & MAGIC_MASK;
+				if (m == BLOCK_MAGIC) {
+					found.add(bit);
+				} else if (m == END_MAGIC) {
+					end = bit;
+					break scan;
+				}
+			}
+		}
+
+		long[] bits = new long[found.size()];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = found.get(i);
+		}
+		return bits;
+	}
+
+	/**
+	 * @return number of blocks found
+	 */
+	public int getBlockCount() {
+		return blocks.length;
+	}
+
+	/**
+	 * Decode a block
+	 * @param i
+	 * @return contents of block
+	 * @throws IOException if block is corrupt or spurious
+	 */
+	public byte[] readBlock(final int i) throws IOException {
+		return check(decode(blocks[i]));
+	}
+
+	/**
+	 * Decode blocks in parallel
+	 * @param start first block
+	 * @param stop block after last
+	 * @return contents of blocks
+	 * @throws IOException if any block is corrupt or spurious
+	 */
+	public byte[] readBlocks(final int start, final int stop) throws IOException {
+		if (start < 0 || stop > blocks.length || start > stop) {
+			throw new IndexOutOfBoundsException("Blocks " + start + " to " + stop + " are out of range");
+		}
+		final ExecutorService executor = getPool();
+		final List<Future<Block>> futures = new ArrayList<Future<Block>>();
+		try {
+			for (int i = start; i < stop; i++) {
+				futures.add(executor.submit(createTask(blocks[i])));
+			}
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			for (Future<Block> f : futures) {
+				byte[] b = check(get(f));
+				out.write(b, 0, b.length);
+			}
+			return out.toByteArray();
+		} finally {
+			for (Future<Block> f : futures) {
+				f.cancel(false);
+			}
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos >= current.length && !fill()) {
+			return -1;
+		}
+		count++;
+		return current[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(final byte[] dest, final int offs, final int len) throws IOException {
+		if (offs < 0 || len < 0 || offs + len > dest.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (len == 0) {
+			return 0;
+		}
+		if (pos >= current.length && !fill()) {
+			return -1;
+		}
+		final int n = Math.min(len, current.length - pos);
+		System.arraycopy(current, pos, dest, offs, n);
+		pos += n;
+		count += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return current.length - pos;
+	}
+
+	/**
+	 * Make next contents current
+	 * @return false at end of stream
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (closed) {
+			throw new IOException("stream closed");
+		}
+		if (fallback != null) {
+			return fillFromFallback();
+		}
+
+		while (!finished) {
+			if (expected == end) {
+				finished = true;
+				checkCombinedCRC();
+				break;
+			}
+			submit();
+			if (inFlight.isEmpty()) {
+				return useFallback("end of stream not found");
+			}
+			Block b = get(inFlight.remove());
+			if (b.start < expected) { // spurious marker in previous block
+				continue;
+			}
+			if (b.start > expected) {
+				return useFallback("no block found at bit " + expected);
+			}
+			if (b.error != null) {
+				return useFallback("block at bit " + expected + " could not be decoded: " + b.error);
+			}
+			expected = b.end;
+			combinedCRC = ((combinedCRC << 1) | (combinedCRC >>> 31)) ^ b.crc;
+			if (b.bytes.length > 0) {
+				current = b.bytes;
+				pos = 0;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void submit() {
+		final ExecutorService executor = getPool();
+		while (next < blocks.length && inFlight.size() < readAhead) {
+			inFlight.add(executor.submit(createTask(blocks[next++])));
+		}
+	}
+
+	private boolean useFallback(final String reason) throws IOException {
+		logger.warn("Reading rest of BZip2 stream sequentially as {}", reason);
+		cancel();
+		fallback = new CBZip2InputStream(new ByteArrayInputStream(data));
+		for (long n = count; n > 0;) {
+			long s = fallback.skip(n);
+			if (s <= 0) {
+				throw new IOException("unexpected end of stream");
+			}
+			n -= s;
+		}
+		return fillFromFallback();
+	}
+
+	private boolean fillFromFallback() throws IOException {
+		if (current.length == 0) {
+			current = new byte[8192];
+		}
+		final int n = fallback.read(current, 0, current.length);
+		if (n < 0) {
+			return false;
+		}
+		if (n < current.length) {
+			byte[] b = new byte[n];
+			System.arraycopy(current, 0, b, 0, n);
+			current = b;
+		}
+		pos = 0;
+		return true;
+	}
+
+	private void checkCombinedCRC() {
+		final long bit = end + 48;
+		if (bit + 32 > (((long) data.length) << 3)) {
+			logger.error("BZip2 stream truncated");
+			return;
+		}
+		int stored = 0;
+		for (int i = 0; i < 32; i++) {
+			final long b = bit + i;
+			stored = (stored << 1) | ((data[(int) (b >>> 3)] >> (7 - (int) (b & 7))) & 1);
+		}
+		if (stored != combinedCRC) {
+			logger.error("BZip2 CRC error");
+		}
+	}
+
+	private void cancel() {
+		for (Future<Block> f : inFlight) {
+			f.cancel(false);
+		}
+		inFlight.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		cancel();
+		current = new byte[0];
+		if (source != null) {
+			source.close();
+			source = null;
+		}
+	}
+
+	private static class Block {
+		final long start;
+		long end;
+		int crc;
+		byte[] bytes;
+		Exception error;
+
+		public Block(long start) {
+			this.start = start;
+		}
+	}
+
+	private Callable<Block> createTask(final long start) {
+		return new Callable<Block>() {
+			@Override
+			public Block call() throws Exception {
+				return decode(start);
+			}
+		};
+	}
+
+	/**
+	 * Decode block
+	 * @param start bit position of block marker
+	 * @return block with its contents or the error found
+	 */
+	private Block decode(final long start) {
+		final Block b = new Block(start);
+		final int offset = (int) (start >>> 3);
+		final ByteArrayInputStream in = new ByteArrayInputStream(data, offset, data.length - offset);
+		try {
+			CBZip2InputStream decoder = new CBZip2InputStream(in, blockSize100k, (int) (start & 7));
+			b.end = (((long) (data.length - in.available())) << 3) - decoder.getUnusedBits();
+			b.crc = decoder.getBlockCRC();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(blockSize100k * 100000);
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = decoder.read(buffer, 0, buffer.length)) >= 0) {
+				out.write(buffer, 0, n);
+			}
+			b.bytes = out.toByteArray();
+		} catch (Exception e) {
+			b.error = e;
+		}
+		return b;
+	}
+
+	private static byte[] check(final Block b) throws IOException {
+		if (b.error != null) {
+			throw new IOException("Could not decode block at bit " + b.start, b.error);
+		}
+		return b.bytes;
+	}
+
+	private static Block get(final Future<Block> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted whilst decoding BZip2 blocks");
+		} catch (ExecutionException e) {
+			throw new IOException("Could not decode BZip2 block", e.getCause());
+		}
+	}
+
+	private static int getThreads() {
+		return Math.max(2, Runtime.getRuntime().availableProcessors());
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (pool == null) {
+			pool = Executors.newFixedThreadPool(getThreads(), new ThreadFactory() {
+				private int count = 0;
+
+				@Override
+				public synchronized Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BZip2 decoder " + ++count);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return pool;
+	}
+}
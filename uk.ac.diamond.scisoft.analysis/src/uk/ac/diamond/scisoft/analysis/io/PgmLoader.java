@@ -10,10 +10,12 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -122,6 +124,17 @@ public class PgmLoader extends AbstractFileLoader {
 		return output;
 	}
 
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		BufferedReader br = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(readHeaderBytes())));
+		readMetaData(br, mon, textMetadata);
+		if (!textMetadata.containsKey("Height")) { // not a binary grey map so leave to loadFile
+			return false;
+		}
+		createMetadata();
+		return true;
+	}
+
 	private static Dataset loadDataset(String fileName) throws ScanFileHolderException {
 		IDataHolder holder = LoaderFactory.fetchData(fileName, false);
 		if (holder != null) {
@@ -241,4 +254,9 @@ public class PgmLoader extends AbstractFileLoader {
 	public String getHeaderValue(String key) {
 		return textMetadata.get(key);	
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.startsWith(header, length, "P5") ? Match.YES : Match.NO;
+	}
 }
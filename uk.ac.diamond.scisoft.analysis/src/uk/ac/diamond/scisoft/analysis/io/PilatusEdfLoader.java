@@ -9,11 +9,11 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
-import java.io.BufferedReader;
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -31,7 +31,7 @@ import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
  * <p>
  * <b>Note</b>: the header data from this loader is left as strings
  */
-public class PilatusEdfLoader extends AbstractFileLoader {
+public class PilatusEdfLoader extends AbstractFileLoader implements IStreamLoader {
 
 	private Map<String, String> textMetadata = new HashMap<String, String>();
 	public static final String DATA_NAME = "EDF";
@@ -56,17 +56,29 @@ public class PilatusEdfLoader extends AbstractFileLoader {
 	
 	@Override
 	public DataHolder loadFile(IMonitor mon) throws ScanFileHolderException {
+		InputStream in = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(fileName));
+			return loadFile(in, mon);
+		} catch (IOException e) {
+			throw new ScanFileHolderException("File failed to load " + fileName, e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException ex) {
+					// do nothing
+				}
+			}
+		}
+	}
+
+	@Override
+	public DataHolder loadFile(InputStream in, IMonitor mon) throws ScanFileHolderException {
 		ILazyDataset data = null;
 		final DataHolder output = new DataHolder();
-		File f = null;
-		FileInputStream fi = null;
 		try {
-
-			f = new File(fileName);
-			fi = new FileInputStream(f);
-
-			BufferedReader br = new BufferedReader(new FileReader(f));
-			String line = br.readLine();
+			String line = readLine(in);
 			if (line == null)
 				throw new ScanFileHolderException("No lines found");
 
@@ -75,8 +87,8 @@ public class PilatusEdfLoader extends AbstractFileLoader {
 			
 			if (line.contains("{")) {
 				
-				// Read the meta data
-				int index = readMetaData(br, line.length()+1, mon);
+				// Read the meta data which leaves stream at start of data
+				readMetaData(in, mon);
 				
 				// Now read the data
 				int[] shape = new int[] { Integer.parseInt(textMetadata.get("Dim_2")),
@@ -88,37 +100,30 @@ public class PilatusEdfLoader extends AbstractFileLoader {
 				} else {
 					if (dataType.equals("Float")) {
 						data = new FloatDataset(shape);
-						Utils.readFloat(fi, (FloatDataset) data, index);
+						Utils.readFloat(in, (FloatDataset) data, 0);
 					} else {
 						data = new IntegerDataset(shape);
 						boolean le = "LowByteFirst".equals(textMetadata.get("ByteOrder"));
 						if (dataType.contains("Short")) {
 							boolean signed = dataType.startsWith("Signed");
 							if (le)
-								Utils.readLeShort(fi, (IntegerDataset) data, index, signed);
+								Utils.readLeShort(in, (IntegerDataset) data, 0, signed);
 							else
-								Utils.readBeShort(fi, (IntegerDataset) data, index, signed);
+								Utils.readBeShort(in, (IntegerDataset) data, 0, signed);
 						} else {
 							if (le)
-								Utils.readLeInt(fi, (IntegerDataset) data, index);
+								Utils.readLeInt(in, (IntegerDataset) data, 0);
 							else
-								Utils.readBeInt(fi, (IntegerDataset) data, index);
+								Utils.readBeInt(in, (IntegerDataset) data, 0);
 						}
 					}
 					data.setName(DEF_IMAGE_NAME);
 				}
 			}
+		} catch (ScanFileHolderException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new ScanFileHolderException("File failed to load " + fileName, e);
-		} finally {
-			if (fi != null) {
-				try {
-					fi.close();
-				} catch (IOException ex) {
-					// do nothing
-				}
-				fi = null;
-			}
 		}
 		if (data != null) {
 			output.addDataset(DATA_NAME, data);
@@ -131,6 +136,50 @@ public class PilatusEdfLoader extends AbstractFileLoader {
 		return output;
 	}
 
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		byte[] header = readHeaderBytes();
+		InputStream in = new ByteArrayInputStream(header);
+		String line = readLine(in);
+		if (line == null || !line.trim().startsWith("{"))
+			throw new ScanFileHolderException("EDF File should start with {");
+
+		try {
+			readMetaData(in, mon);
+		} catch (ScanFileHolderException e) {
+			if (header.length < getHeaderLimit()) // read whole file
+				throw e;
+			return false;
+		}
+		createMetadata();
+		return true;
+	}
+
+	/**
+	 * Read line of ASCII header
+	 * @param in
+	 * @return line without end of line characters or null at end of stream
+	 * @throws IOException
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0) {
+			if (c == '\n') {
+				break;
+			}
+			line.append((char) c);
+		}
+		if (c < 0 && line.length() == 0) {
+			return null;
+		}
+		int end = line.length();
+		if (end > 0 && line.charAt(end - 1) == '\r') {
+			line.setLength(end - 1);
+		}
+		return line.toString();
+	}
+
 	private void createMetadata() {
 		metadata = new Metadata(textMetadata);
 		metadata.setFilePath(fileName);
@@ -138,7 +187,7 @@ public class PilatusEdfLoader extends AbstractFileLoader {
 				Integer.parseInt(textMetadata.get("Dim_1")));
 	}
 
-	private int readMetaData(final BufferedReader br, int index, final IMonitor mon) throws Exception {
+	private void readMetaData(final InputStream in, final IMonitor mon) throws Exception {
 		
 		textMetadata.clear();
 		while (true) {
@@ -146,11 +195,10 @@ public class PilatusEdfLoader extends AbstractFileLoader {
 				throw new ScanFileHolderException("Loader cancelled during reading!");
 			}
 			
-			String line = br.readLine();
+			String line = readLine(in);
 			if (line == null) {
 				throw new ScanFileHolderException("No closing brace found");
 			}
-			index += line.length()+1;
 			if (line.contains("}")) {
 				break;
 			}
@@ -164,7 +212,10 @@ public class PilatusEdfLoader extends AbstractFileLoader {
 				textMetadata.put(keyvalue[0].trim(), value.trim());
 			}
 		}
-		
-		return index;
+	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.firstNonWhitespace(header, length) == '{' ? Match.MAYBE : Match.NO;
 	}
 }
@@ -21,6 +21,7 @@ import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
 import org.eclipse.dawnsci.analysis.api.diffraction.DiffractionCrystalEnvironment;
 import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.dataset.impl.AbstractDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
@@ -101,10 +102,7 @@ public class RAxisImageLoader extends AbstractFileLoader implements Serializable
 			throw new ScanFileHolderException("There was a problem loading or reading metadata", e);
 		}
 		processingMetadata(raf);
-		int[] shape = { toInt("nSlow"), toInt("nFast")};
-		double st = toDouble("phistart");
-		double[] origin = createGDAMetadata(shape[1], shape[0], st);
-		createMetadata(origin, shape[1], shape[0], st);
+		int[] shape = createMetadata();
 
 		try {
 
@@ -134,6 +132,31 @@ public class RAxisImageLoader extends AbstractFileLoader implements Serializable
 		return output;
 	}
 
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		try {
+			processingMetadata(raf);
+		} finally {
+			raf.close();
+		}
+		createMetadata();
+		return true;
+	}
+
+	/**
+	 * Create metadata from header
+	 * @return shape of image
+	 * @throws ScanFileHolderException
+	 */
+	private int[] createMetadata() throws ScanFileHolderException {
+		int[] shape = { toInt("nSlow"), toInt("nFast")};
+		double st = toDouble("phistart");
+		double[] origin = createGDAMetadata(shape[1], shape[0], st);
+		createMetadata(origin, shape[1], shape[0], st);
+		return shape;
+	}
+
 	private ILazyDataset readDataset(int[] shape, RandomAccessFile raf) throws IOException {
 		byte[] read = new byte[shape[0] * shape[1] * 2];
 		
@@ -486,4 +509,10 @@ public class RAxisImageLoader extends AbstractFileLoader implements Serializable
 		metadata.setMetadata(md);
 		metadata.addDataInfo(DATA_NAME, ny, nx);
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		// device name is in first ten bytes
+		return Utils.contains(header, Math.min(length, 10), "RAXIS") ? Match.YES : Match.NO;
+	}
 }
@@ -137,4 +137,9 @@ public class RawTextLoader extends AbstractFileLoader {
 
 		return row;
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.isBinary(header, length) ? Match.NO : Match.MAYBE;
+	}
 }
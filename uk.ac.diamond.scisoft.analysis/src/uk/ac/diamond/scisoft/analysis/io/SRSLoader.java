@@ -540,4 +540,11 @@ public class SRSLoader extends AbstractFileLoader implements IFileSaver {
 			metadata.addDataInfo(e.getKey(), e.getValue());
 		}
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		if (Utils.isBinary(header, length))
+			return Match.NO;
+		return Utils.firstNonWhitespace(header, length) == '&' ? Match.YES : Match.MAYBE;
+	}
 }
@@ -10,6 +10,7 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
@@ -23,6 +24,7 @@ import javax.imageio.metadata.IIOInvalidTreeException;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
@@ -126,7 +128,27 @@ public class TIFFImageLoader extends JavaImageLoader {
 		return output;
 	}
 
-	
+
+	@Override
+	protected boolean loadHeaderMetadata(IMonitor mon) throws Exception {
+		ImageReader reader = new TIFFImageReader(new TIFFImageReaderSpi());
+		try {
+			reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(readHeaderBytes())));
+			readImages(new DataHolder(), reader);
+		} catch (IOException e) { // image directories extend beyond header
+			logger.debug("Could not read metadata from header of {}", fileName, e);
+			metadata = null;
+			return false;
+		} catch (RuntimeException e) { // may need 12-bit reader
+			logger.debug("Could not read metadata from header of {}", fileName, e);
+			metadata = null;
+			return false;
+		} finally {
+			reader.dispose();
+		}
+		return metadata != null;
+	}
+
 	private void readImages(DataHolder output, ImageReader reader) throws IOException, ScanFileHolderException {
 		int n = reader.getNumImages(true);
 
@@ -380,4 +402,9 @@ public class TIFFImageLoader extends JavaImageLoader {
 		super.clearMetadata();
 		metadataMap.clear();
 	}
+
+	@Override
+	public Match checkSignature(byte[] header, int length) {
+		return Utils.startsWith(header, length, "II*\0") || Utils.startsWith(header, length, "MM\0*") ? Match.YES : Match.NO;
+	}
 }
@@ -9,6 +9,9 @@
 
 package uk.ac.diamond.scisoft.analysis.io;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -16,6 +19,10 @@ import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Pattern;
 
 import org.eclipse.dawnsci.analysis.dataset.impl.AbstractDataset;
@@ -196,276 +203,279 @@ public class Utils {
 	}
 
 	/**
-	 * Read an image of little-endian integers
+	 * Size of buffer used to decode data read from a channel
+	 */
+	private static final int DECODE_BUFFER_SIZE = 1 << 16;
+
+	private static final ThreadLocal<ByteBuffer> DECODE_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(DECODE_BUFFER_SIZE);
+		}
+	};
+
+	/**
 	 * @param is
-	 * @param data
-	 * @param start number of bytes from start of input stream
+	 * @return channel that reads from stream
+	 */
+	private static ReadableByteChannel getChannel(InputStream is) {
+		if (is instanceof FileInputStream) {
+			return ((FileInputStream) is).getChannel(); // shares position with stream
+		}
+		return Channels.newChannel(is);
+	}
+
+	/**
+	 * Skip given number of bytes
+	 * @param is
+	 * @param n
+	 * @throws EOFException if stream ends first
 	 * @throws IOException
 	 */
-	public static void readLeInt(InputStream is, IntegerDataset data, int start) throws IOException {
-		final int size = data.getSize();
-		final int[] idata = data.getData();
-		final byte[] buf = new byte[4 * size];
-		is.skip(start);
-		is.read(buf);
-		int amax = Integer.MIN_VALUE;
-		int amin = Integer.MAX_VALUE;
-		int hash = 0;
-		int pos = 0;
-		for (int i = 0; i < size; i++) {
-			int value = leInt(buf[pos], buf[pos + 1], buf[pos + 2], buf[pos + 3]);
-			hash = (hash * 19 + value);
-			idata[i] = value;
-			if (value > amax) {
-				amax = value;
-			}
-			if (value < amin) {
-				amin = value;
+	public static void skipFully(InputStream is, long n) throws IOException {
+		while (n > 0) {
+			long s = is.skip(n);
+			if (s <= 0) {
+				if (is.read() < 0) {
+					throw new EOFException("Stream ended with " + n + " bytes left to skip");
+				}
+				s = 1;
 			}
-			pos += 4;
+			n -= s;
 		}
+	}
 
-		hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
-		int[] shape = data.getShape();
-		int rank = shape.length;
-		for (int i = 0; i < rank; i++) {
-			hash = hash*17 + shape[i];
+	/**
+	 * Read rest of stream
+	 * @param is
+	 * @return bytes
+	 * @throws IOException
+	 */
+	public static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 8192));
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = is.read(buf)) >= 0) {
+			out.write(buf, 0, n);
 		}
-		data.setStoredValue(AbstractDataset.STORE_MAX, amax);
-		data.setStoredValue(AbstractDataset.STORE_MIN, amin);
-		data.setStoredValue(AbstractDataset.STORE_HASH, hash);
+		return out.toByteArray();
 	}
 
 	/**
-	 * Read an image of big-endian integers
-	 * @param is
-	 * @param data
-	 * @param start number of bytes from start of input stream
+	 * Fill buffer from channel (or up to its limit)
+	 * @param in
+	 * @param b
+	 * @param remaining number of bytes still needed to decode all items
+	 * @throws EOFException if channel ends first
 	 * @throws IOException
 	 */
-	public static void readBeInt(InputStream is, IntegerDataset data, int start) throws IOException {
-		final int size = data.getSize();
-		final int[] idata = data.getData();
-		final byte[] buf = new byte[4 * size];
-		is.skip(start);
-		is.read(buf);
-		int amax = Integer.MIN_VALUE;
-		int amin = Integer.MAX_VALUE;
-		int hash = 0;
-		int pos = 0;
-		for (int i = 0; i < size; i++) {
-			int value = beInt(buf[pos], buf[pos + 1], buf[pos + 2], buf[pos + 3]);
-			hash = (hash * 19 + value);
-			idata[i] = value;
-			if (value > amax) {
-				amax = value;
+	private static void fill(ReadableByteChannel in, ByteBuffer b, long remaining) throws IOException {
+		while (b.hasRemaining()) {
+			if (in.read(b) < 0) {
+				throw new EOFException("Data ended with " + (remaining - b.position()) + " bytes unread");
 			}
-			if (value < amin) {
-				amin = value;
-			}
-			pos += 4;
 		}
+	}
 
-		hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
-		int[] shape = data.getShape();
-		int rank = shape.length;
-		for (int i = 0; i < rank; i++) {
-			hash = hash*17 + shape[i];
-		}
-		data.setStoredValue(AbstractDataset.STORE_MAX, amax);
-		data.setStoredValue(AbstractDataset.STORE_MIN, amin);
-		data.setStoredValue(AbstractDataset.STORE_HASH, hash);
+	/**
+	 * @param n number of items left to decode
+	 * @param itemSize in bytes
+	 * @param order
+	 * @return decode buffer limited to at most given number of items
+	 */
+	private static ByteBuffer getDecodeBuffer(long n, int itemSize, ByteOrder order) {
+		ByteBuffer b = DECODE_BUFFER.get();
+		b.clear();
+		b.limit((int) Math.min(n * itemSize, DECODE_BUFFER_SIZE / itemSize * itemSize));
+		b.order(order);
+		return b;
 	}
 
 	/**
-	 * Read an image of big-endian shorts
-	 * @param is
-	 * @param data
-	 * @param start number of bytes from start of input stream
+	 * Read and decode 2-byte integers
+	 * @param in
+	 * @param order byte order of data
 	 * @param signed if true, shorts are sign-extended into integers
+	 * @param dst
+	 * @param offset in destination
+	 * @param length number of items
+	 * @throws EOFException if channel ends before all items are read
 	 * @throws IOException
 	 */
-	public static void readBeShort(InputStream is, IntegerDataset data, int start, boolean signed) throws IOException {
-		final int size = data.getSize();
-		final int[] idata = data.getData();
-		byte[] buf = new byte[2 * size];
-		is.skip(start);
-		is.read(buf);
-		int amax = Integer.MIN_VALUE;
-		int amin = Integer.MAX_VALUE;
-		int hash = 0;
-		int pos = 0; // Byte offset to start of data
-		if (signed) {
-			for (int i = 0; i < size; i++) {
-				int value = beIntSE(buf[pos], buf[pos+1]);
-				hash = (hash * 19 + value);
-				idata[i] = value;
-				if (value > amax) {
-					amax = value;
+	public static void readShorts(ReadableByteChannel in, ByteOrder order, boolean signed, int[] dst, int offset, int length) throws IOException {
+		short[] tmp = new short[Math.min(length, DECODE_BUFFER_SIZE / 2)];
+		int i = offset;
+		int end = offset + length;
+		while (i < end) {
+			ByteBuffer b = getDecodeBuffer(end - i, 2, order);
+			fill(in, b, 2L * (end - i));
+			b.flip();
+			int n = b.remaining() / 2;
+			b.asShortBuffer().get(tmp, 0, n);
+			if (signed) {
+				for (int j = 0; j < n; j++) {
+					dst[i++] = tmp[j];
 				}
-				if (value < amin) {
-					amin = value;
+			} else {
+				for (int j = 0; j < n; j++) {
+					dst[i++] = tmp[j] & 0xffff;
 				}
-				pos += 2;
 			}
-		} else {
-			for (int i = 0; i < size; i++) {
-				int value = beInt(buf[pos], buf[pos+1]);
-				hash = (hash * 19 + value);
-				idata[i] = value;
-				if (value > amax) {
-					amax = value;
-				}
-				if (value < amin) {
-					amin = value;
-				}
-				pos += 2;
+		}
+	}
+
+	/**
+	 * Read and decode 4-byte integers
+	 * @param in
+	 * @param order byte order of data
+	 * @param dst
+	 * @param offset in destination
+	 * @param length number of items
+	 * @throws EOFException if channel ends before all items are read
+	 * @throws IOException
+	 */
+	public static void readInts(ReadableByteChannel in, ByteOrder order, int[] dst, int offset, int length) throws IOException {
+		int i = offset;
+		int end = offset + length;
+		while (i < end) {
+			ByteBuffer b = getDecodeBuffer(end - i, 4, order);
+			fill(in, b, 4L * (end - i));
+			b.flip();
+			int n = b.remaining() / 4;
+			b.asIntBuffer().get(dst, i, n);
+			i += n;
+		}
+	}
+
+	/**
+	 * Read and decode 4-byte floats
+	 * @param in
+	 * @param order byte order of data
+	 * @param dst
+	 * @param offset in destination
+	 * @param length number of items
+	 * @throws EOFException if channel ends before all items are read
+	 * @throws IOException
+	 */
+	public static void readFloats(ReadableByteChannel in, ByteOrder order, float[] dst, int offset, int length) throws IOException {
+		int i = offset;
+		int end = offset + length;
+		while (i < end) {
+			ByteBuffer b = getDecodeBuffer(end - i, 4, order);
+			fill(in, b, 4L * (end - i));
+			b.flip();
+			int n = b.remaining() / 4;
+			b.asFloatBuffer().get(dst, i, n);
+			i += n;
+		}
+	}
+
+	/**
+	 * Read unsigned bytes
+	 * @param in
+	 * @param dst
+	 * @param offset in destination
+	 * @param length number of items
+	 * @throws EOFException if channel ends before all items are read
+	 * @throws IOException
+	 */
+	public static void readUnsignedBytes(ReadableByteChannel in, short[] dst, int offset, int length) throws IOException {
+		byte[] tmp = new byte[Math.min(length, DECODE_BUFFER_SIZE)];
+		int i = offset;
+		int end = offset + length;
+		while (i < end) {
+			ByteBuffer b = getDecodeBuffer(end - i, 1, ByteOrder.BIG_ENDIAN);
+			fill(in, b, end - i);
+			b.flip();
+			int n = b.remaining();
+			b.get(tmp, 0, n);
+			for (int j = 0; j < n; j++) {
+				dst[i++] = (short) (tmp[j] & 0xff);
 			}
 		}
+	}
 
+	private static int finishHash(int hash, AbstractDataset data) {
 		hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
 		int[] shape = data.getShape();
 		int rank = shape.length;
 		for (int i = 0; i < rank; i++) {
 			hash = hash*17 + shape[i];
 		}
-		data.setStoredValue(AbstractDataset.STORE_MAX, amax);
-		data.setStoredValue(AbstractDataset.STORE_MIN, amin);
-		data.setStoredValue(AbstractDataset.STORE_HASH, hash);
+		return hash;
 	}
 
 	/**
-	 * Read an image of little-endian shorts
-	 * @param is
+	 * Calculate and store maximum, minimum and hash of data
 	 * @param data
-	 * @param start number of bytes from start of input stream
-	 * @param signed if true, shorts are sign-extended into integers
-	 * @throws IOException
 	 */
-	public static void readLeShort(InputStream is, IntegerDataset data, int start, boolean signed) throws IOException {
+	public static void setStatistics(IntegerDataset data) {
 		final int size = data.getSize();
 		final int[] idata = data.getData();
-		byte[] buf = new byte[2 * size];
-		is.skip(start);
-		is.read(buf);
 		int amax = Integer.MIN_VALUE;
 		int amin = Integer.MAX_VALUE;
 		int hash = 0;
-		int pos = 0; // Byte offset to start of data
-		if (signed) {
-			for (int i = 0; i < size; i++) {
-				int value = leIntSE(buf[pos], buf[pos + 1]);
-				hash = (hash * 19 + value);
-				idata[i] = value;
-				if (value > amax) {
-					amax = value;
-				}
-				if (value < amin) {
-					amin = value;
-				}
-				pos += 2;
+		for (int i = 0; i < size; i++) {
+			int value = idata[i];
+			hash = (hash * 19 + value);
+			if (value > amax) {
+				amax = value;
 			}
-		} else {
-			for (int i = 0; i < size; i++) {
-				int value = leInt(buf[pos], buf[pos + 1]);
-				hash = (hash * 19 + value);
-				idata[i] = value;
-				if (value > amax) {
-					amax = value;
-				}
-				if (value < amin) {
-					amin = value;
-				}
-				pos += 2;
+			if (value < amin) {
+				amin = value;
 			}
 		}
-		hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
-		int[] shape = data.getShape();
-		int rank = shape.length;
-		for (int i = 0; i < rank; i++) {
-			hash = hash*17 + shape[i];
-		}
+
 		data.setStoredValue(AbstractDataset.STORE_MAX, amax);
 		data.setStoredValue(AbstractDataset.STORE_MIN, amin);
-		data.setStoredValue(AbstractDataset.STORE_HASH, hash);
+		data.setStoredValue(AbstractDataset.STORE_HASH, finishHash(hash, data));
 	}
 
 	/**
-	 * Read an image of bytes
-	 * @param is
+	 * Calculate and store maximum, minimum and hash of data
 	 * @param data
-	 * @param start number of bytes from start of input stream
-	 * @throws IOException
 	 */
-	public static void readByte(InputStream is, ShortDataset data, int start) throws IOException {
+	public static void setStatistics(ShortDataset data) {
 		final int size = data.getSize();
-		final short[] idata = data.getData();
-		byte[] buf = new byte[size];
-		is.skip(start);
-		is.read(buf);
+		final short[] sdata = data.getData();
 		short amax = Short.MIN_VALUE;
 		short amin = Short.MAX_VALUE;
 		int hash = 0;
-		int pos = 0; // Byte offset to start of data
 		for (int i = 0; i < size; i++) {
-			short value = (short) (buf[pos] & 0xff);
+			short value = sdata[i];
 			hash = (hash * 19 + value);
-			idata[i] = value;
 			if (value > amax) {
 				amax = value;
 			}
 			if (value < amin) {
 				amin = value;
 			}
-			pos += 1;
 		}
 
-		hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
-		int[] shape = data.getShape();
-		int rank = shape.length;
-		for (int i = 0; i < rank; i++) {
-			hash = hash*17 + shape[i];
-		}
 		data.setStoredValue(AbstractDataset.STORE_MAX, amax);
 		data.setStoredValue(AbstractDataset.STORE_MIN, amin);
-		data.setStoredValue(AbstractDataset.STORE_HASH, hash);
+		data.setStoredValue(AbstractDataset.STORE_HASH, finishHash(hash, data));
 	}
 
-
 	/**
-	 * Read an image of float
-	 * @param is
+	 * Calculate and store maximum, minimum and hash of data
 	 * @param data
-	 * @param start number of bytes from start of input stream
-	 * @throws IOException
 	 */
-	public static void readFloat(InputStream is, FloatDataset data, int start) throws IOException {
+	public static void setStatistics(FloatDataset data) {
 		final int size = data.getSize();
 		final float[] fdata = data.getData();
-		byte[] buf = new byte[4*size];
-		is.skip(start);
-		is.read(buf);
-		byte [] bdata = new byte[4];
-		float fmax = Float.MIN_VALUE;
+		float fmax = -Float.MAX_VALUE;
 		float fmin = Float.MAX_VALUE;
 		double hash = 0.0;
-		int pos = 0; // Byte offset to start of data
-		float value;
 		for (int i = 0; i < size; i++) {
-			bdata[0] = buf[pos+3];
-			bdata[1] = buf[pos+2];
-			bdata[2] = buf[pos+1];
-			bdata[3] = buf[pos];
-			value = ByteBuffer.wrap(bdata).getFloat();
+			float value = fdata[i];
 			hash = (hash * 19 + value);
-			fdata[i] = value;
 			if (value > fmax) {
 				fmax = value;
 			}
 			if (value < fmin) {
 				fmin = value;
 			}
-			pos += 4;
 		}
 
 		hash = hash*19 + data.getDtype()*17 + data.getElementsPerItem();
@@ -479,6 +489,178 @@ public class Utils {
 		data.setStoredValue(AbstractDataset.STORE_HASH, (int)hash);
 	}
 
+	/**
+	 * Read an image of little-endian integers
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @throws IOException
+	 */
+	public static void readLeInt(InputStream is, IntegerDataset data, int start) throws IOException {
+		readLeInt(is, data, start, true);
+	}
+
+	/**
+	 * Read an image of little-endian integers
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param statistics if true, calculate and store maximum, minimum and hash
+	 * @throws EOFException if stream ends before image is read
+	 * @throws IOException
+	 */
+	public static void readLeInt(InputStream is, IntegerDataset data, int start, boolean statistics) throws IOException {
+		skipFully(is, start);
+		readInts(getChannel(is), ByteOrder.LITTLE_ENDIAN, data.getData(), 0, data.getSize());
+		if (statistics) {
+			setStatistics(data);
+		}
+	}
+
+	/**
+	 * Read an image of big-endian integers
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @throws IOException
+	 */
+	public static void readBeInt(InputStream is, IntegerDataset data, int start) throws IOException {
+		readBeInt(is, data, start, true);
+	}
+
+	/**
+	 * Read an image of big-endian integers
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param statistics if true, calculate and store maximum, minimum and hash
+	 * @throws EOFException if stream ends before image is read
+	 * @throws IOException
+	 */
+	public static void readBeInt(InputStream is, IntegerDataset data, int start, boolean statistics) throws IOException {
+		skipFully(is, start);
+		readInts(getChannel(is), ByteOrder.BIG_ENDIAN, data.getData(), 0, data.getSize());
+		if (statistics) {
+			setStatistics(data);
+		}
+	}
+
+	/**
+	 * Read an image of big-endian shorts
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param signed if true, shorts are sign-extended into integers
+	 * @throws IOException
+	 */
+	public static void readBeShort(InputStream is, IntegerDataset data, int start, boolean signed) throws IOException {
+		readBeShort(is, data, start, signed, true);
+	}
+
+	/**
+	 * Read an image of big-endian shorts
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param signed if true, shorts are sign-extended into integers
+	 * @param statistics if true, calculate and store maximum, minimum and hash
+	 * @throws EOFException if stream ends before image is read
+	 * @throws IOException
+	 */
+	public static void readBeShort(InputStream is, IntegerDataset data, int start, boolean signed, boolean statistics) throws IOException {
+		skipFully(is, start);
+		readShorts(getChannel(is), ByteOrder.BIG_ENDIAN, signed, data.getData(), 0, data.getSize());
+		if (statistics) {
+			setStatistics(data);
+		}
+	}
+
+	/**
+	 * Read an image of little-endian shorts
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param signed if true, shorts are sign-extended into integers
+	 * @throws IOException
+	 */
+	public static void readLeShort(InputStream is, IntegerDataset data, int start, boolean signed) throws IOException {
+		readLeShort(is, data, start, signed, true);
+	}
+
+	/**
+	 * Read an image of little-endian shorts
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param signed if true, shorts are sign-extended into integers
+	 * @param statistics if true, calculate and store maximum, minimum and hash
+	 * @throws EOFException if stream ends before image is read
+	 * @throws IOException
+	 */
+	public static void readLeShort(InputStream is, IntegerDataset data, int start, boolean signed, boolean statistics) throws IOException {
+		skipFully(is, start);
+		readShorts(getChannel(is), ByteOrder.LITTLE_ENDIAN, signed, data.getData(), 0, data.getSize());
+		if (statistics) {
+			setStatistics(data);
+		}
+	}
+
+	/**
+	 * Read an image of bytes
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @throws IOException
+	 */
+	public static void readByte(InputStream is, ShortDataset data, int start) throws IOException {
+		readByte(is, data, start, true);
+	}
+
+	/**
+	 * Read an image of unsigned bytes
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param statistics if true, calculate and store maximum, minimum and hash
+	 * @throws EOFException if stream ends before image is read
+	 * @throws IOException
+	 */
+	public static void readByte(InputStream is, ShortDataset data, int start, boolean statistics) throws IOException {
+		skipFully(is, start);
+		readUnsignedBytes(getChannel(is), data.getData(), 0, data.getSize());
+		if (statistics) {
+			setStatistics(data);
+		}
+	}
+
+	/**
+	 * Read an image of little-endian floats
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @throws IOException
+	 */
+	public static void readFloat(InputStream is, FloatDataset data, int start) throws IOException {
+		readFloat(is, data, start, true);
+	}
+
+	/**
+	 * Read an image of little-endian floats
+	 * @param is
+	 * @param data
+	 * @param start number of bytes from start of input stream
+	 * @param statistics if true, calculate and store maximum, minimum and hash
+	 * @throws EOFException if stream ends before image is read
+	 * @throws IOException
+	 */
+	public static void readFloat(InputStream is, FloatDataset data, int start, boolean statistics) throws IOException {
+		skipFully(is, start);
+		readFloats(getChannel(is), ByteOrder.LITTLE_ENDIAN, data.getData(), 0, data.getSize());
+		if (statistics) {
+			setStatistics(data);
+		}
+	}
+
 	private static final Pattern EXP_REGEX = Pattern.compile("[eE]");
 
 	/**
@@ -555,4 +737,72 @@ public class Utils {
 	public static String getString(byte[] bytes) throws UnsupportedEncodingException {
 		return new String(bytes, "US-ASCII"); 
 	}
+
+	/**
+	 * @param header
+	 * @param length number of valid bytes in header
+	 * @param pos
+	 * @param magic
+	 * @return true if header contains given bytes at position
+	 */
+	public static boolean matchesAt(byte[] header, int length, int pos, byte[] magic) {
+		if (pos < 0 || pos + magic.length > length)
+			return false;
+		for (int i = 0; i < magic.length; i++) {
+			if (header[pos + i] != magic[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param header
+	 * @param length number of valid bytes in header
+	 * @param magic ASCII string
+	 * @return true if header starts with given string
+	 */
+	public static boolean startsWith(byte[] header, int length, String magic) {
+		return matchesAt(header, length, 0, magic.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * @param header
+	 * @param length number of valid bytes in header
+	 * @param text ASCII string
+	 * @return true if header contains given string
+	 */
+	public static boolean contains(byte[] header, int length, String text) {
+		byte[] t = text.getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0, imax = length - t.length; i <= imax; i++) {
+			if (matchesAt(header, length, i, t))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param header
+	 * @param length number of valid bytes in header
+	 * @return true if header contains a null byte so cannot be from a text file
+	 */
+	public static boolean isBinary(byte[] header, int length) {
+		for (int i = 0; i < length; i++) {
+			if (header[i] == 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param header
+	 * @param length number of valid bytes in header
+	 * @return first byte that is not whitespace or -1 if there is none
+	 */
+	public static int firstNonWhitespace(byte[] header, int length) {
+		for (int i = 0; i < length; i++) {
+			if (!Character.isWhitespace(header[i]))
+				return header[i] & 0xff;
+		}
+		return -1;
+	}
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.roi;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.AbstractDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
+import org.eclipse.dawnsci.analysis.dataset.roi.LinearROI;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+
+/**
+ * Box profiles of many rectangular regions of interest on the same 2D dataset.
+ * <p>
+ * A summed-area table of the (masked) data is built in one pass along with a table
+ * of the number of pixels that count, i.e. are finite and not masked out. The sum
+ * over any axis-aligned box then takes four look-ups and its row and column profiles
+ * take time proportional to their lengths. Regions with an angle use the methods of
+ * {@link ROIProfile}.
+ * <p>
+ * Call {@link #setData(Dataset)} for each new frame to reuse the tables.
+ */
+public class BoxProfileCache {
+
+	private final Dataset mask;
+	private final boolean maskWithNans;
+	private double[] weights; // from mask
+
+	private Dataset data;
+	private Dataset masked; // data with mask applied, created on demand for line profiles
+	private int rows;
+	private int cols;
+	private int dtype; // of profiles
+	private double[] sums;  // summed-area table with extra leading row and column of zeros
+	private int[] counts;   // number of pixels summed
+
+	/**
+	 * @param data
+	 */
+	public BoxProfileCache(Dataset data) {
+		this(data, null, false);
+	}
+
+	/**
+	 * @param data 2D dataset
+	 * @param mask (can be null)
+	 * @param maskWithNans if true, box profile values with no unmasked pixels are NaN, as in
+	 *                     {@link ROIProfile#box(Dataset, Dataset, RectangularROI, boolean)}
+	 */
+	public BoxProfileCache(Dataset data, Dataset mask, boolean maskWithNans) {
+		this.mask = mask;
+		this.maskWithNans = maskWithNans;
+		setData(data);
+	}
+
+	/**
+	 * Set new data and update tables. The mask is kept if it is compatible with the data
+	 * @param data 2D dataset
+	 */
+	public void setData(Dataset data) {
+		final int[] shape = data.getShape();
+		if (shape.length != 2) {
+			throw new IllegalArgumentException("Dataset must be 2D");
+		}
+
+		this.data = data;
+		masked = null;
+		if (shape[0] != rows || shape[1] != cols || sums == null) {
+			rows = shape[0];
+			cols = shape[1];
+			sums = new double[(rows + 1) * (cols + 1)];
+			counts = new int[sums.length];
+			weights = null;
+		}
+		dtype = AbstractDataset.getBestFloatDType(data.elementClass());
+
+		if (weights == null && mask != null && data.isCompatibleWith(mask)) {
+			weights = new double[rows * cols];
+			IndexIterator it = mask.getIterator();
+			for (int i = 0; it.hasNext(); i++) {
+				weights[i] = mask.getElementDoubleAbs(it.index);
+			}
+		}
+
+		final int stride = cols + 1;
+		final IndexIterator it = data.getIterator();
+		int i = 0;
+		for (int r = 0; r < rows; r++) {
+			final int above = r * stride + 1;
+			final int row = above + stride;
+			double sum = 0;
+			int count = 0;
+			for (int c = 0; c < cols && it.hasNext(); c++, i++) {
+				double v = data.getElementDoubleAbs(it.index);
+				if (weights != null) {
+					v *= weights[i];
+				}
+				if (!Double.isNaN(v) && !Double.isInfinite(v) && (weights == null || weights[i] != 0)) {
+					sum += v;
+					count++;
+				}
+				sums[row + c] = sums[above + c] + sum;
+				counts[row + c] = counts[above + c] + count;
+			}
+		}
+	}
+
+	/**
+	 * @return current data
+	 */
+	public Dataset getData() {
+		return data;
+	}
+
+	/**
+	 * Sum over box, ignoring NaNs, infinities and masked pixels
+	 * @param r0 start row
+	 * @param c0 start column
+	 * @param r1 end row (exclusive)
+	 * @param c1 end column (exclusive)
+	 * @return sum
+	 */
+	public double getSum(int r0, int c0, int r1, int c1) {
+		final int stride = cols + 1;
+		return sums[r1 * stride + c1] - sums[r0 * stride + c1] - sums[r1 * stride + c0] + sums[r0 * stride + c0];
+	}
+
+	/**
+	 * Number of pixels in box that are finite and not masked
+	 * @param r0 start row
+	 * @param c0 start column
+	 * @param r1 end row (exclusive)
+	 * @param c1 end column (exclusive)
+	 * @return count
+	 */
+	public int getCount(int r0, int c0, int r1, int c1) {
+		final int stride = cols + 1;
+		return counts[r1 * stride + c1] - counts[r0 * stride + c1] - counts[r1 * stride + c0] + counts[r0 * stride + c0];
+	}
+
+	/**
+	 * Returns sum profiles over a box as {@link ROIProfile#box(Dataset, Dataset, RectangularROI, boolean)}
+	 * except that, for boxes without an angle, infinities are left out of the sums as well as NaNs. An
+	 * infinity cannot be held in the summed-area table as it would make the sums of all later boxes NaN
+	 * @param rroi
+	 * @return box profile
+	 */
+	public Dataset[] box(RectangularROI rroi) {
+		if (rroi.getAngle() != 0.0) {
+			return ROIProfile.box(data, mask, rroi, maskWithNans);
+		}
+		return profiles(rroi, false);
+	}
+
+	/**
+	 * Returns mean profiles over a box. Unlike {@link ROIProfile#boxMean(Dataset, Dataset, RectangularROI, boolean)},
+	 * NaNs, infinities and masked pixels are left out of the means and a profile value is NaN only when all its
+	 * pixels are left out
+	 * @param rroi
+	 * @return box mean profile
+	 */
+	public Dataset[] boxMean(RectangularROI rroi) {
+		if (rroi.getAngle() != 0.0) {
+			return ROIProfile.boxMean(data, mask, rroi, maskWithNans);
+		}
+		return profiles(rroi, true);
+	}
+
+	/**
+	 * @param rroi
+	 * @param isVertical
+	 * @return box line profiles as {@link ROIProfile#boxLine(Dataset, Dataset, RectangularROI, boolean, boolean)}
+	 */
+	public Dataset[] boxLine(RectangularROI rroi, boolean isVertical) {
+		// mask once for all lines rather than once per line
+		if (masked == null) {
+			masked = data;
+			if (mask != null && data.isCompatibleWith(mask)) {
+				if (!maskWithNans || !(mask instanceof BooleanDataset)) {
+					masked = Maths.multiply(data, mask);
+				} else {
+					masked = ROIProfile.nanalize(data, (BooleanDataset) mask);
+				}
+			}
+		}
+
+		double[] startpt = rroi.getPoint();
+		double[] endpt = rroi.getEndPoint();
+		double[] righttoppt = { endpt[0], startpt[1] };
+		double[] leftbottompt = { startpt[0], endpt[1] };
+		LinearROI line1, line2;
+		if (isVertical) {
+			line1 = new LinearROI(startpt, leftbottompt);
+			line2 = new LinearROI(righttoppt, endpt);
+		} else {
+			line1 = new LinearROI(startpt, righttoppt);
+			line2 = new LinearROI(leftbottompt, endpt);
+		}
+
+		Dataset[] profiles = new Dataset[] { null, null };
+		Dataset[] lineProfiles = ROIProfile.line(masked, null, line1, 1d, false);
+		profiles[0] = lineProfiles != null ? lineProfiles[0] : null;
+		if (profiles[0] == null) return null;
+		lineProfiles = ROIProfile.line(masked, null, line2, 1d, false);
+		profiles[1] = lineProfiles != null ? lineProfiles[0] : null;
+		if (profiles[1] == null) return null;
+		return profiles;
+	}
+
+	/**
+	 * @param rroi
+	 * @param mean if true, divide sums by counts
+	 * @return profiles of columns and of rows, or null if box is outside data
+	 */
+	private Dataset[] profiles(RectangularROI rroi, boolean mean) {
+		final int[] spt = rroi.getIntPoint();
+		final int[] len = rroi.getIntLengths();
+		if (len[0] == 0)
+			len[0] = 1;
+		if (len[1] == 0)
+			len[1] = 1;
+
+		final int r0 = Math.max(0, spt[1]);
+		final int r1 = Math.min(spt[1] + len[1], rows);
+		final int c0 = Math.max(0, spt[0]);
+		final int c1 = Math.min(spt[0] + len[0], cols);
+		if (r1 <= r0 || c1 <= c0) {
+			return null;
+		}
+
+		final double[] column = new double[c1 - c0];
+		for (int c = c0; c < c1; c++) {
+			column[c - c0] = value(r0, c, r1, c + 1, mean);
+		}
+		final double[] row = new double[r1 - r0];
+		for (int r = r0; r < r1; r++) {
+			row[r - r0] = value(r, c0, r + 1, c1, mean);
+		}
+
+		return new Dataset[] { createProfile(column), createProfile(row) };
+	}
+
+	private double value(int r0, int c0, int r1, int c1, boolean mean) {
+		final int count = getCount(r0, c0, r1, c1);
+		if (count == 0) {
+			return mean || maskWithNans ? Double.NaN : 0;
+		}
+		final double sum = getSum(r0, c0, r1, c1);
+		return mean ? sum / count : sum;
+	}
+
+	private Dataset createProfile(double[] values) {
+		Dataset profile = DatasetFactory.zeros(new int[] { values.length }, dtype);
+		for (int i = 0; i < values.length; i++) {
+			profile.set(values[i], i);
+		}
+		return profile;
+	}
+}
@@ -33,6 +33,8 @@ import uk.ac.diamond.scisoft.analysis.diffraction.QSpace;
 
 /**
  * Utility methods for calculating region of interest profiles.
+ * <p>
+ * Use {@link BoxProfileCache} to find box profiles of many rectangular regions on the same dataset.
  */
 public class ROIProfile {
 	
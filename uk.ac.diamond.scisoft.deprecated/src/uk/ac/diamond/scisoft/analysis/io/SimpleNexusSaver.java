@@ -56,6 +56,7 @@ public class SimpleNexusSaver implements IFileSaver {
 		try {
 			// TODO Check to see if the file exists...
 			// TODO then either delete it or fail gracefully!
+			HDF5HandlePool.closeForWriting(fileName);
 			file = new NexusFile(fileName, NexusFile.NXACC_CREATE5);
 			file.makegroup("ScanFileHolder", "NXentry");
 			file.opengroup("ScanFileHolder", "NXentry");
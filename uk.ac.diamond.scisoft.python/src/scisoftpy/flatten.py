@@ -30,4 +30,5 @@ unflatten=_flatten.unflatten
 canflatten=_flatten.canflatten
 canunflatten=_flatten.canunflatten
 settemplocation=_flatten.settemplocation
+setdatasettransport=_flatten.setdatasettransport
 addhelper=_flatten.addhelper
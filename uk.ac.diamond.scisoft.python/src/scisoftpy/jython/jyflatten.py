@@ -16,6 +16,7 @@
 
 
 import uk.ac.diamond.scisoft.analysis.rpc.FlatteningService as _flatservice
+import uk.ac.diamond.scisoft.analysis.rpc.DatasetTransport as _transport
 
 _flatten=_flatservice.getFlattener()
 
@@ -24,4 +25,8 @@ unflatten=_flatten.unflatten
 canflatten=_flatten.canFlatten
 canunflatten=_flatten.canUnFlatten
 settemplocation=_flatten.setTempLocation
+
+def setdatasettransport(transport=None):
+    _flatten.setDatasetTransport(None if transport is None else _transport.valueOf(transport.upper()))
+
 addhelper=_flatten.addHelper
@@ -26,6 +26,7 @@ import scisoftpy.python.pybeans as _beans
 import scisoftpy.python.pywrapper as _wrapper
 import numpy as _np #@UnresolvedImport
 from tempfile import mkstemp
+from cStringIO import StringIO
 import os
 import sys
 import copy
@@ -38,6 +39,9 @@ CONTENT = "content"
 _TEMP_LOCATION_SET = False
 _TEMP_LOCATION = None
 
+_DATASET_TRANSPORT_SET = False
+_DATASET_TRANSPORT = None
+
 def settemplocation(loc=None):
     '''
      Set a custom temporary file location. This is used by some flatteners to store large data sets which are faster
@@ -52,6 +56,21 @@ def settemplocation(loc=None):
     _TEMP_LOCATION = loc
     _TEMP_LOCATION_SET = True
 
+def setdatasettransport(transport=None):
+    '''
+     Set how arrays are sent. With 'file', each array is saved to a temporary npy file and the file name is sent.
+     With 'binary', the array is sent in npy format as XML-RPC binary without touching the disk.
+     Arrays sent with either transport can always be unflattened.
+     
+     transport 'file' or 'binary', or None to use the default from the SCISOFT_RPC_DATASET_TRANSPORT environment
+     variable, otherwise 'file'
+    '''
+    global _DATASET_TRANSPORT, _DATASET_TRANSPORT_SET
+    if transport is None:
+        transport = os.getenv('SCISOFT_RPC_DATASET_TRANSPORT')
+    _DATASET_TRANSPORT = 'binary' if transport is not None and transport.lower() == 'binary' else 'file'
+    _DATASET_TRANSPORT_SET = True
+
 class flatteningHelper(object):
     def __init__(self, typeObj, typeName):
         self.typeObj = typeObj
@@ -197,6 +216,7 @@ class ndArrayHelper(flatteningHelper):
     DELETEFILEAFTERLOAD = "deletefile"
     INDEX = "index"
     NAME = "name"
+    DATA = "data"
     
     def __init__(self):
         super(ndArrayHelper, self).__init__(_np.ndarray, self.TYPE_NAME)
@@ -205,7 +225,13 @@ class ndArrayHelper(flatteningHelper):
         rval = dict()
         if isinstance(obj, _core.ndarrayRGB):
             obj = obj.view(_np.ndarray)
-        if isinstance(obj, _np.ndarray):
+        if not _DATASET_TRANSPORT_SET:
+            setdatasettransport()
+        if isinstance(obj, _np.ndarray) and _DATASET_TRANSPORT == 'binary':
+            buf = StringIO()
+            _np.save(buf, _np.asarray(obj, order='C')) # convert to C order as Java loader cannot cope otherwise
+            rval[self.DATA] = _wrapper.binarywrapper(buf.getvalue())
+        elif isinstance(obj, _np.ndarray):
             global _TEMP_LOCATION, _TEMP_LOCATION_SET
             if not _TEMP_LOCATION_SET:
                 _TEMP_LOCATION = os.getenv('SCISOFT_RPC_TEMP')
@@ -238,6 +264,8 @@ class ndArrayHelper(flatteningHelper):
         return rval
 
     def unflatten(self, obj):
+        if self.DATA in obj:
+            return _np.load(StringIO(obj[self.DATA].data))
         filename = obj[self.FILENAME]
         deletefile = False
         if self.DELETEFILEAFTERLOAD in obj:
@@ -34,6 +34,7 @@ typednone=_wrapper.typednone
 datasetdescriptor=_wrapper.datasetdescriptor
 binarywrapper=_wrapper.binarywrapper
 settemplocation=_flatten.settemplocation
+setdatasettransport=_flatten.setdatasettransport
 
 
 if __name__ == '__main__':
@@ -312,6 +312,13 @@ class Test(unittest.TestCase):
         os.remove(filename)
         
 
+    def testNumpyArrayBinary(self):
+        dnp.flatten.setdatasettransport('binary')
+        try:
+            self._flattenAndUnflatten(self._createNumpyArray())
+        finally:
+            dnp.flatten.setdatasettransport()
+
     def testROIBase(self):
         self._flattenAndUnflatten(self._createROIBase())
         roibase = dnp.roi._roibase()